@@ -22,6 +22,12 @@ public class Bill {
     //metrics for the bill such as latency, create date, etc
     private Statistics statistics = null;
 
+    //version of the books a goal search was computed against. -1 if the bill was computed on the live books
+    private long bookVersion = -1;
+
+    //true if the chain is the orders an expiry withdrew from the books
+    private boolean expiry = false;
+
     /**
      * Constructor for bill that takes a chain and an id
      * @param chain
@@ -110,4 +116,42 @@ public class Bill {
         return statistics;
     }
 
+    /**
+     * version of the books this bill was computed against. Goal searches answered off a book view carry the version
+     * of the view, bills computed on the live books carry -1
+     * @return
+     *      the book version
+     */
+    public long getBookVersion() {
+        return bookVersion;
+    }
+
+    /**
+     * sets the version of the books this bill was computed against
+     * @param bookVersion
+     *      the book version
+     */
+    public void setBookVersion(long bookVersion) {
+        this.bookVersion = bookVersion;
+    }
+
+    /**
+     * whether this bill reports orders withdrawn because they were past their good till time. The chain holds the
+     * withdrawn bids, each with its order id
+     * @return
+     *      True - this is an expiry bill
+     */
+    public boolean isExpiry() {
+        return expiry;
+    }
+
+    /**
+     * marks this bill as an expiry bill
+     * @param expiry
+     *      True - the chain holds expired orders
+     */
+    public void setExpiry(boolean expiry) {
+        this.expiry = expiry;
+    }
+
 }
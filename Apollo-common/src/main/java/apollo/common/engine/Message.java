@@ -4,9 +4,10 @@ import apollo.common.templates.Swap;
 import apollo.common.util.ApolloHelper;
 
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 /**
- * Message class is used to create messages based on swaps that the engine can decipher. There are four types
+ * Message class is used to create messages based on swaps that the engine can decipher. There are seven types
  * of messages that this class creates currently:
  *
  * SWAP: a engine that has a bid and an ask. If there is a matching ask/bid combo already in the engine than this will
@@ -22,6 +23,16 @@ import java.util.UUID;
  * KILL_CORE: this is a engine created internally by the engine to kill the engine cleanly. You cannot create this
  * engine externally
  *
+ * CANCEL: withdraws a resting order. It takes the order id, the id of the SWAP engine that placed the order, and a bid
+ * of the same make and user as the order so it is routed to the order and only its owner can withdraw it
+ *
+ * EXPIRE: created internally by the core thread once resting orders are past their good till time. It carries the
+ * time the orders expired at and withdraws every order good till that time or earlier. You cannot create this engine
+ * externally
+ *
+ * AMEND: replaces the ask of a resting order. The order is withdrawn and the bid and ask passed in are placed like a
+ * SWAP under the same order id, so the bid must be of the same model and user as the order
+ *
  * Created by santana on 7/28/14.
  */
 public class Message {
@@ -29,17 +40,32 @@ public class Message {
     //TYPE 2 = GOAL
     //TYPE 3 = GRAB
     //TYPE 4 = KILL_CORE
+    //TYPE 5 = CANCEL
+    //TYPE 6 = AMEND
+    //TYPE 7 = EXPIRE
     public static final int SWAP = 1;
     public static final int GOAL = 2;
     public static final int GRAB = 3;
     public static final int KILL_CORE = 4;
+    public static final int CANCEL = 5;
+    public static final int AMEND = 6;
+    public static final int EXPIRE = 7;
+
+    //highest message type, for tables indexed by type
+    public static final int MAX_TYPE = EXPIRE;
 
     //id of engine
     private UUID id = null;
 
-    //the instance type; either SWAP, GOAL, GRAB or KILL_CORE
+    //the instance type; either SWAP, GOAL, GRAB, KILL_CORE, CANCEL, AMEND or EXPIRE
     private int type = -1;
 
+    //id of the resting order a CANCEL or AMEND is for. null for every other type
+    private UUID orderId = null;
+
+    //time in milliseconds from epoch an EXPIRE withdraws the orders good till. 0 for every other type
+    private long time = 0;
+
     //bid, ask and goal swap
     private Swap bidSwap = null;
     private Swap askSwap = null;
@@ -54,6 +80,9 @@ public class Message {
     //statistic object used for the bill
     private Statistics statistics = null;
 
+    //future completed by the engine with the bill of this engine. null if the bill goes on the bill queue
+    private CompletableFuture<Bill> billFuture = null;
+
     /**
      * private constructor used for creating the kill core engine
      * @param id
@@ -78,7 +107,7 @@ public class Message {
      * @param goalSwap
      *          the swap you ultimately want
      * @param type
-     *          the engine type (one of the four types)
+     *          the engine type (one of the seven types)
      * @param maxBillLength
      *          maximum length of chain
      */
@@ -160,6 +189,105 @@ public class Message {
         return message;
     }
 
+    /**
+     * Creates an EXPIRE engine
+     * @param time
+     *          time in milliseconds from epoch, every order good till then or earlier expires
+     * @return
+     *          the EXPIRE engine
+     */
+    public static Message getExpireMessage(long time) {
+        Message message = new Message(UUID.randomUUID(), EXPIRE);
+        message.time = time;
+        return message;
+    }
+
+    /**
+     * Creates a CANCEL Message
+     * @param orderId
+     *          id of the SWAP engine that placed the order
+     * @param bid
+     *          a swap of the same make and user as the resting order
+     * @return
+     *          the CANCEL engine to send to the engine
+     */
+    public static Message getCancelMessage(UUID orderId, Swap bid) {
+        return getOrderMessage(orderId, bid, null, CANCEL);
+    }
+
+    /**
+     * Creates an AMEND Message
+     * @param orderId
+     *          id of the SWAP engine that placed the order
+     * @param bidSwap
+     *          the swap you have, of the same model and user as the resting order
+     * @param askSwap
+     *          the swap you now want to trade your bid for
+     * @return
+     *          the AMEND engine to send to the engine
+     */
+    public static Message getAmendMessage(UUID orderId, Swap bidSwap, Swap askSwap) {
+        return getOrderMessage(orderId, bidSwap, askSwap, AMEND);
+    }
+
+    /**
+     * creates a CANCEL or AMEND message. The message is only valid if it has an order id
+     * @param orderId
+     *          id of the resting order
+     * @param bidSwap
+     *          the swap you have
+     * @param askSwap
+     *          the swap you want to trade your bid for
+     * @param type
+     *          CANCEL or AMEND
+     * @return
+     *          the message
+     */
+    private static Message getOrderMessage(UUID orderId, Swap bidSwap, Swap askSwap, int type) {
+        Message message = new Message(bidSwap, askSwap, null, type, ApolloHelper.TTL);
+        message.orderId = orderId;
+        if(orderId == null) {
+            message.valid = false;
+        }
+        return message;
+    }
+
+    /**
+     * recreates a message that was written by the MessageCodec. The message keeps the id it was written with
+     * @param id
+     *          ID the message was written with
+     * @param type
+     *          the engine type (one of the seven types)
+     * @param bidSwap
+     *          the swap you own
+     * @param askSwap
+     *          the swap you want to trade your bid for
+     * @param goalSwap
+     *          the swap you ultimately want
+     * @param maxBillLength
+     *          maximum length of chain
+     * @param orderId
+     *          id of the resting order of a CANCEL or AMEND. null for every other type
+     * @param time
+     *          time of an EXPIRE. 0 for every other type
+     * @return
+     *          the message
+     */
+    static Message restore(UUID id, int type, Swap bidSwap, Swap askSwap, Swap goalSwap, int maxBillLength,
+                           UUID orderId, long time) {
+        if(type == EXPIRE) {
+            Message message = getExpireMessage(time);
+            message.id = id;
+            return message;
+        }
+        Message message = type == CANCEL || type == AMEND ? getOrderMessage(orderId, bidSwap, askSwap, type)
+                : new Message(bidSwap, askSwap, goalSwap, type, maxBillLength);
+        if(message.valid) {
+            message.id = id;
+        }
+        return message;
+    }
+
     /**
      * this method syncs all the swaps in the instance so that they have references to their pairs
      */
@@ -181,12 +309,16 @@ public class Message {
      * validates the swaps depending on the engine type that is set. If type is:
      *
      * SWAP: bid must be valid and if ask is not null than it also must be valid otherwise if ask is null than bid must
-     * be for sale
+     * be for sale. Both must have a match key, a swap without one could never rest on a book
      *
      * GRAB: ask must be valid
      *
      * GOAL: bid and goal must be valid
      *
+     * CANCEL: bid must be valid
+     *
+     * AMEND: same as SWAP
+     *
      *  @param bid
      *          the swap you own
      * @param ask
@@ -194,15 +326,16 @@ public class Message {
      * @param goal
      *          the swap you ultimately want
      * @param type
-     *         the the engine type (one of the four types)
+     *         the the engine type (one of the seven types)
      * @return
      *          true if the swaps are valid for the type that is passed in
      */
     private boolean validate(Swap bid, Swap ask, Swap goal, int type) {
         switch(type) {
             case SWAP:
-                if(((bid != null) && bid.valid())) {
-                    if(ask != null && ask.valid()) {
+            case AMEND:
+                if(((bid != null) && bid.valid() && bid.getMatchKey() != -1)) {
+                    if(ask != null && ask.valid() && ask.getMatchKey() != -1) {
                         return true;
                     }
                     else if(ask == null && bid.isForSale()) {
@@ -221,6 +354,11 @@ public class Message {
                     return true;
                 }
                 break;
+            case CANCEL:
+                if(bid != null && bid.valid()) {
+                    return true;
+                }
+                break;
         }
         return false;
     }
@@ -237,12 +375,31 @@ public class Message {
     /**
      * type of the engine
      * @return
-     *      returns type based on Message.GOAL, Message.GRAB, Message.SWAP, Message.KILL_CORE
+     *      returns type based on Message.GOAL, Message.GRAB, Message.SWAP, Message.KILL_CORE, Message.CANCEL,
+     *      Message.AMEND, Message.EXPIRE
      */
     public int getType() {
         return type;
     }
 
+    /**
+     * gets the id of the resting order a CANCEL or AMEND is for
+     * @return
+     *      the order id. null for every other type
+     */
+    public UUID getOrderId() {
+        return orderId;
+    }
+
+    /**
+     * gets the time an EXPIRE withdraws the orders good till
+     * @return
+     *      milliseconds from epoch. 0 for every other type
+     */
+    public long getTime() {
+        return time;
+    }
+
     /**
      * get the bid swap
      * @return
@@ -311,4 +468,29 @@ public class Message {
     public Statistics getStatistics() {
         return statistics;
     }
+
+    /**
+     * set the future the engine completes with the bill of this engine instead of putting the bill on the bill queue.
+     * can only be set while no other future is pending, so a engine that was refused can be sent again
+     * @param future
+     *          future waiting on the bill
+     * @return
+     *          true if the future was set successfully
+     */
+    public boolean setBillFuture(CompletableFuture<Bill> future) {
+        if(future != null && (billFuture == null || billFuture.isDone())) {
+            billFuture = future;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * get the future waiting on the bill of this engine
+     * @return
+     *      the bill future. null if nobody is waiting on it directly
+     */
+    public CompletableFuture<Bill> getBillFuture() {
+        return billFuture;
+    }
 }
@@ -0,0 +1,95 @@
+package apollo.common.engine;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.UUID;
+
+import apollo.common.templates.Swap;
+import apollo.common.util.SwapCodec;
+
+/**
+ * Binary encoding of messages for the journal. Only what is needed to process the message again is written, the
+ * statistics and the bill future are not. A message read back keeps the id it was written with
+ *
+ * Layout: type (byte), id (SwapCodec UUID), max bill length (int), bid, ask and goal (SwapCodec),
+ *         order id (SwapCodec UUID, CANCEL and AMEND only), time (long, EXPIRE only),
+ *         good till of the bid (long, only if the GOOD_TILL bit of the type byte is set)
+ */
+public class MessageCodec {
+
+    //bit of the type byte set when the good till of the bid follows the message
+    public static final int GOOD_TILL = 0x40;
+
+    /**
+     * default constructor
+     */
+    private MessageCodec() {
+
+    }
+
+    /**
+     * writes the message passed in
+     * @param out
+     *      where the message is written to
+     * @param message
+     *      message to write
+     * @throws IOException
+     *      if the write failed
+     */
+    public static void write(DataOutput out, Message message) throws IOException {
+        Swap bid = message.getBid();
+        boolean goodTill = bid != null && bid.getGoodTill() != 0;
+        out.writeByte(goodTill ? message.getType() | GOOD_TILL : message.getType());
+        SwapCodec.writeUUID(out, message.getId());
+        out.writeInt(message.getMaxBillLength());
+        SwapCodec.write(out, message.getBid());
+        SwapCodec.write(out, message.getAsk());
+        SwapCodec.write(out, message.getGoal());
+        if(message.getType() == Message.CANCEL || message.getType() == Message.AMEND) {
+            SwapCodec.writeUUID(out, message.getOrderId());
+        }
+        if(message.getType() == Message.EXPIRE) {
+            out.writeLong(message.getTime());
+        }
+        if(goodTill) {
+            out.writeLong(bid.getGoodTill());
+        }
+    }
+
+    /**
+     * reads a message written by write
+     * @param in
+     *      where the message is read from
+     * @return
+     *      the message, with the id it was written with
+     * @throws IOException
+     *      if the read failed or the data is not a message
+     */
+    public static Message read(DataInput in) throws IOException {
+        int type = in.readByte();
+        boolean goodTill = (type & GOOD_TILL) != 0;
+        type &= ~GOOD_TILL;
+        UUID id = SwapCodec.readUUID(in);
+        int maxBillLength = in.readInt();
+        Swap bid = SwapCodec.read(in);
+        Swap ask = SwapCodec.read(in);
+        Swap goal = SwapCodec.read(in);
+        UUID orderId = null;
+        long time = 0;
+
+        if(type == Message.CANCEL || type == Message.AMEND) {
+            orderId = SwapCodec.readUUID(in);
+        }
+        else if(type == Message.EXPIRE) {
+            time = in.readLong();
+        }
+        else if(type != Message.SWAP && type != Message.GRAB && type != Message.GOAL) {
+            throw new IOException("Unknown message type " + type);
+        }
+        if(goodTill && bid != null) {
+            bid.setGoodTill(in.readLong());
+        }
+        return Message.restore(id, type, bid, ask, goal, maxBillLength, orderId, time);
+    }
+}
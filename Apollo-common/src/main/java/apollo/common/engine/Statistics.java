@@ -25,8 +25,20 @@ public class Statistics {
      *      True - time was successfully set
      */
     public boolean setEngineTimestamp() {
+        return setEngineTimestamp(System.currentTimeMillis());
+    }
+
+    /**
+     * sets the time for when the engine first got placed on the engine queue to a time the caller already read. Used
+     * when a whole batch is stamped with one clock read
+     * @param time
+     *      timestamp in epoch
+     * @return
+     *      True - time was successfully set
+     */
+    public boolean setEngineTimestamp(long time) {
         if(engineEntryTime == -1) {
-            engineEntryTime = System.currentTimeMillis();
+            engineEntryTime = time;
             return true;
         }
         System.out.println("Engine entry timestamp already set. Current timestamp is " + engineEntryTime);
@@ -39,8 +51,19 @@ public class Statistics {
      *      True - time was successfully set
      */
     public boolean setProcessingStartTime() {
+        return setProcessingStartTime(System.currentTimeMillis());
+    }
+
+    /**
+     * sets the time for when the engine is off the queue and is getting processed to a time the caller already read
+     * @param time
+     *      timestamp in epoch
+     * @return
+     *      True - time was successfully set
+     */
+    public boolean setProcessingStartTime(long time) {
         if(messageProcessStartTime == -1) {
-            messageProcessStartTime = System.currentTimeMillis();
+            messageProcessStartTime = time;
             return true;
         }
         System.out.println("process start timestamp already set. Current timestamp is " + messageProcessStartTime);
@@ -53,8 +76,19 @@ public class Statistics {
      *      True - time was successfully set
      */
     public boolean setProcessingEndTime() {
+        return setProcessingEndTime(System.currentTimeMillis());
+    }
+
+    /**
+     * sets the time for when the engine finished getting processed to a time the caller already read
+     * @param time
+     *      timestamp in epoch
+     * @return
+     *      True - time was successfully set
+     */
+    public boolean setProcessingEndTime(long time) {
         if(messageProcessEndTime == -1) {
-            messageProcessEndTime = System.currentTimeMillis();
+            messageProcessEndTime = time;
             messageProcessLatency = messageProcessEndTime - messageProcessStartTime;
             return true;
         }
@@ -84,6 +84,7 @@ public class ShoeSwap extends Swap {
         else {
         	this.size = size;
         }
+        matchKey = matchKey(model, this.size);
         setRange(0);
     }
 
@@ -104,7 +105,8 @@ public class ShoeSwap extends Swap {
     public ShoeSwap(Model model, int size, UUID userId, Swap pair, boolean forSale) {
         super(model,userId, pair, forSale);
         this.size = size;
-        setRange(0);        		
+        matchKey = matchKey(model, size);
+        setRange(0);
     }
 
     /**
@@ -162,6 +164,11 @@ public class ShoeSwap extends Swap {
      */
     @Override
     protected boolean compare(Swap compareSwap) {
+        //plain shoes with a match key compare keys, anything else goes through the mappers
+        if(matchKey != -1 && compareSwap != null && getClass() == ShoeSwap.class
+                && compareSwap.getClass() == ShoeSwap.class) {
+            return matchKey == compareSwap.getMatchKey();
+        }
         ShoeSwapMapper mapper = Mapper.getMapper(this);
         ShoeSwapMapper inboundMapper = Mapper.getMapper(compareSwap);
 
@@ -35,6 +35,9 @@ public class ShoeSwapMapper extends SwapMapper {
             ShoeSwap tmpSwap = (ShoeSwap)swapMapper.swap;
             if(tmpSwap.getClass().equals(ShoeSwap.class) &&
                     swap.getClass().equals(ShoeSwap.class)) {
+                if(swap.getMatchKey() != -1 && tmpSwap.getMatchKey() != -1) {
+                    return swap.getMatchKey() == tmpSwap.getMatchKey();
+                }
                 int tmpSize = tmpSwap.getSize();
 
                 if(super.equals(swapMapper) && ((ShoeSwap)swap).getSize() == tmpSize) {
@@ -52,6 +55,10 @@ public class ShoeSwapMapper extends SwapMapper {
      */
     @Override
     public int hashCode() {
+        long key = swap.getMatchKey();
+        if(key != -1) {
+            return (int) (key ^ (key >>> 32));
+        }
         return new HashCodeBuilder(17, 31).
                 append(super.hashCode()).
                 append(((ShoeSwap)swap).getSize()).
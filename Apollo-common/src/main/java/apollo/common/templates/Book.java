@@ -1,7 +1,13 @@
 package apollo.common.templates;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Set;
 
+import apollo.common.util.OrderQueue;
+
 /**
  * Book Class manages the book of bids and asks.
  * A book can manage any set of bid and asks (1-tier) So it is up to users to manage upper levels.
@@ -9,25 +15,41 @@ import java.util.Set;
  */
 public class Book<V extends SwapMapper, T extends Swap> {
     //Map of a set of bids that are asking for the swap that is mapped (some has a swap and they want to what people are offering for it)
-    private volatile BookMap<V, T> bids = null;
+    private volatile FlatBookMap<V, T> bids = null;
 
     //Map of a set of bids that match the mapping of that bid (someone wants a swap and they want to see what are available)
-    private volatile BookMap<V, T> asks = null;
+    private volatile FlatBookMap<V, T> asks = null;
 
     //Map of a set of swaps that people are asking for in exchange for the bid (key)
-    private volatile BookMap<V, T> goals = null;
+    private volatile FlatBookMap<V, T> goals = null;
 
     //amount of bids that have been placed in this book
     private volatile int swapSize = 0;
 
+    //version of this book. moves on every change so a checkpoint can tell which books changed since the last one
+    private volatile long version = 0;
 
     /**
      * Book constructor that initializes the ask, bid and goal maps
      */
     public Book() {
-        bids = new BookMap<V, T>();
-        asks = new BookMap<V, T>();
-        goals = new BookMap<V, T>();
+        bids = new FlatBookMap<V, T>();
+        asks = new FlatBookMap<V, T>();
+        goals = new FlatBookMap<V, T>();
+    }
+
+    /**
+     * copy constructor. The maps are copied so the copy does not change with the original, the swaps themselves are
+     * shared
+     * @param book
+     *          the book to copy
+     */
+    public Book(Book<V, T> book) {
+        bids = new FlatBookMap<V, T>(book.bids);
+        asks = new FlatBookMap<V, T>(book.asks);
+        goals = new FlatBookMap<V, T>(book.goals);
+        swapSize = book.swapSize;
+        version = book.version;
     }
 
     /**
@@ -44,7 +66,14 @@ public class Book<V extends SwapMapper, T extends Swap> {
     public T fillBook(T bid, T ask) {
         T match = bids.get(bid, ask);
         if(match != null) {
-        	removeFromBook(bid, match);
+            //the match left the bids map with the get, its other entries go through its handle
+            if(!unlink(match)) {
+                removeFromBook(bid, match);
+            }
+            else {
+                swapSize--;
+            }
+        	version++;
         }
         return match;
     }
@@ -75,7 +104,31 @@ public class Book<V extends SwapMapper, T extends Swap> {
      *          A match to the swap you are looking for
      */
     public T grab(T ask) {
-    	return asks.get(ask);
+        T match = asks.get(ask);
+        if(match != null) {
+            //the grabbed bid can no longer be matched, take it off the bids and goals maps too
+            if(unlink(match)) {
+                swapSize--;
+            }
+            version++;
+        }
+        return match;
+    }
+
+    /**
+     * Withdraws a resting bid from the book through its handle, taking it off every map at once
+     * @param bid
+     *          The resting bid
+     * @return
+     *          True - the bid was resting in this book and is now withdrawn
+     */
+    public boolean cancel(T bid) {
+        if(bid != null && unlink(bid)) {
+            swapSize--;
+            version++;
+            return true;
+        }
+        return false;
     }
 
     /**
@@ -115,19 +168,109 @@ public class Book<V extends SwapMapper, T extends Swap> {
      *          The swap that someone is willing to trade
      * @param ask
      *          The swap that someone wants in return.
+     * @return
+     *          handle of the resting bid, also kept on the bid. Unlinking it takes the bid off every map at once. null if
+     *          the bid or ask has no match key, the bid is then not added or counted
      */
-    public void addToBook(T bid, T ask) {
+    public OrderHandle<T> addToBook(T bid, T ask) {
+        if(bid.getMatchKey() == -1 || (ask != null && ask.getMatchKey() == -1)) {
+            System.out.println("WARNING: Swap without a match key refused by the book. It was not added");
+            return null;
+        }
+        OrderHandle<T> handle = new OrderHandle<T>(this, bid, ask);
     	//only add to the asks book if the bid is for sale
     	if(bid.isForSale()) {
-    		addToMap(bid, bid, asks);
+    		handle.setAsksNode(addToMap(bid, bid, asks));
     	}
-        addToMap(ask, bid, bids);
-        addToMap(bid, ask, goals);
+        handle.setBidsNode(addToMap(ask, bid, bids));
+        handle.setGoalsNode(addToMap(bid, ask, goals));
+        bid.setHandle(handle);
         swapSize++;
+        version++;
+        return handle;
+    }
+
+    /**
+     * every bid resting in this book that can still be matched. Bids come in the order their levels would match
+     * them, bids that only rest on the asks map because they have no ask come last. Bids matched in a copy of this
+     * book may still be in its maps but are left out
+     * @return
+     *      the resting bids, each paired with its ask
+     */
+    public List<T> getResting() {
+        List<T> resting = new ArrayList<T>();
+        Set<T> seen = Collections.newSetFromMap(new IdentityHashMap<T, Boolean>());
+
+        for(T bid : bids.values()) {
+            if(!bid.isMatched() && seen.add(bid)) {
+                resting.add(bid);
+            }
+        }
+        for(T bid : asks.values()) {
+            if(!bid.isMatched() && seen.add(bid)) {
+                resting.add(bid);
+            }
+        }
+        return resting;
+    }
+
+    /**
+     * every bid for sale in this book that can still be grabbed, in the order the grabs would take them
+     * @return
+     *      the bids for sale
+     */
+    public List<T> getListed() {
+        List<T> listed = new ArrayList<T>();
+        for(T bid : asks.values()) {
+            if(!bid.isMatched()) {
+                listed.add(bid);
+            }
+        }
+        return listed;
+    }
+
+    /**
+     * bulk loads an empty book with bids taken from getResting and getListed, so every level matches in the same
+     * order as the book they were taken from
+     * @param resting
+     *          The resting bids in level order. The ask of a bid is its pair
+     * @param listed
+     *          The bids for sale in grab order. Each must also be in resting
+     */
+    @SuppressWarnings("unchecked")
+    public void restore(List<T> resting, List<T> listed) {
+        for(T bid : resting) {
+            T ask = (T) bid.getPair();
+            OrderHandle<T> handle = new OrderHandle<T>(this, bid, ask);
+            handle.setBidsNode(addToMap(ask, bid, bids));
+            handle.setGoalsNode(addToMap(bid, ask, goals));
+            bid.setHandle(handle);
+            swapSize++;
+        }
+        for(T bid : listed) {
+            OrderQueue.Node<T> node = addToMap(bid, bid, asks);
+            OrderHandle<?> handle = bid.getHandle();
+            if(handle != null && handle.getBook() == this) {
+                ((OrderHandle<T>) handle).setAsksNode(node);
+            }
+        }
+    }
+
+    /**
+     * takes every entry of a bid off the maps through its handle, see OrderHandle. Does nothing if the bid has no
+     * handle in this book, like a bid of the book this one was copied from
+     * @param bid
+     *          The resting bid
+     * @return
+     *          True - the bid had a handle in this book and was still on a map
+     */
+    private boolean unlink(T bid) {
+        OrderHandle<?> handle = bid.getHandle();
+        return handle != null && handle.getBook() == this && handle.unlink();
     }
 
     /**
-     * removes the bid and ask from the book
+     * removes the bid and ask from the book by looking the entries up. Slow path for bids with no handle in this book
      * @param bid
      *          The swap that someone is willing to trade
      * @param ask
@@ -148,11 +291,14 @@ public class Book<V extends SwapMapper, T extends Swap> {
      *      The swap that you are storing in the map
      * @param map
      *      the map you are adding the key/value pair to
+     * @return
+     *      node of the entry in the map. null if nothing was added
      */
-    private void addToMap(T key, T entry, BookMap<V,T> map) {
+    private OrderQueue.Node<T> addToMap(T key, T entry, FlatBookMap<V,T> map) {
         if(key != null && entry != null && map != null) {
-            map.put(key, entry);
+            return map.put(key, entry);
         }
+        return null;
     }
 
     /**
@@ -164,7 +310,7 @@ public class Book<V extends SwapMapper, T extends Swap> {
      * @param map
      *      the map you are removing the key/value pair to
      */
-    private void removeFromMap(T key, T entry,BookMap<V, T> map) {
+    private void removeFromMap(T key, T entry,FlatBookMap<V, T> map) {
         if(key != null && entry != null && map != null) {
             map.remove(key, entry);
         }
@@ -191,6 +337,25 @@ public class Book<V extends SwapMapper, T extends Swap> {
         return swapSize;
     }
 
+    /**
+     * version of this book. Moves on every bid added, filled or grabbed and on every flush, never on a match that only
+     * looks at the book
+     * @return
+     *      the book version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * digest of every swap resting in this book, see FlatBookMap.digest
+     * @return
+     *      digest of the book. 0 if the book is empty
+     */
+    public long digest() {
+        return bids.digest() + 31 * asks.digest() + 961 * goals.digest();
+    }
+
     /**
      * clears all the maps and sets the swapSize to zero
      */
@@ -199,6 +364,7 @@ public class Book<V extends SwapMapper, T extends Swap> {
         asks.clear();
         goals.clear();
         swapSize = 0;
+        version++;
     }
 
 }
@@ -12,6 +12,8 @@ import apollo.common.util.Mapper;
 
 /**
  * BookMap class that manages the matching and pairing of bids and asks.
+ * Books no longer use it, they match on FlatBookMap. It is kept only as the baseline BookMapBenchmark and
+ * DeepLevelBenchmark measure the flat map against.
  * @author santana
  *
  * @param <V>
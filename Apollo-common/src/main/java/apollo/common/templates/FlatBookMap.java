@@ -0,0 +1,370 @@
+package apollo.common.templates;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import apollo.common.util.LongHashMap;
+import apollo.common.util.OrderQueue;
+import apollo.common.util.SwapDigest;
+
+/**
+ * Flat version of BookMap with the same behaviour. Instead of a map of maps keyed by SwapMapper objects, every level
+ * lives in one open addressing map under a packed long key: the model id and size of the key swap in the high half
+ * and the model id and size of the value swap in the low half. A put, get, check or remove packs the key and does a
+ * single probe, nothing is allocated to look a level up. The swaps of a level are kept in an OrderQueue so they
+ * match first in first out like in BookMap. Swaps are told apart by identity, never by equals. A put hands back the
+ * node of the swap in its level, unlinking the node removes the swap in O(1) however deep its level is, where a set
+ * hashing swaps by model and size would scan the whole level. Book keeps the nodes of a resting bid in its OrderHandle.
+ *
+ * Each half is the match key of the swap, worked out once when the swap was created, so building a level key is two
+ * field reads and a shift. Swaps that are not shoes have size 0 in their key
+ */
+public class FlatBookMap<V extends SwapMapper, T extends Swap> {
+
+    //every level of the map by its packed key
+    private LongHashMap<OrderQueue<T>> levels = null;
+
+    //levels of every key swap by the high half of their packed key. used to get every swap of a key
+    private LongHashMap<List<OrderQueue<T>>> keyLevels = null;
+
+    /**
+     * default constructor. instantiates the maps that back the book map
+     */
+    public FlatBookMap() {
+        levels = new LongHashMap<OrderQueue<T>>();
+        keyLevels = new LongHashMap<List<OrderQueue<T>>>();
+    }
+
+    /**
+     * copy constructor. every level of the map is copied, keeping the order of the swaps in each queue. the swaps
+     * themselves are shared with the original, the nodes are not
+     * @param bookMap
+     *      the map to copy
+     */
+    public FlatBookMap(FlatBookMap<V, T> bookMap) {
+        levels = new LongHashMap<OrderQueue<T>>(bookMap.levels.size());
+        keyLevels = new LongHashMap<List<OrderQueue<T>>>(bookMap.keyLevels.size());
+
+        long[] keys = bookMap.levels.keys();
+        List<OrderQueue<T>> queues = bookMap.levels.values();
+        for(int i = 0; i < keys.length; i++) {
+            OrderQueue<T> valueQueue = new OrderQueue<T>();
+            for(T value : queues.get(i)) {
+                valueQueue.add(value);
+            }
+            addLevel(keys[i], valueQueue);
+        }
+    }
+
+    /**
+     * puts the key, value pair in the map if both the key and the value are valid
+     * @param key
+     *      key used to map to the value
+     * @param value
+     *      value used to to map to itself in the queue
+     * @return
+     *      node of the value in its level. null if the value was not put
+     */
+    public OrderQueue.Node<T> put(T key, T value) {
+        if(key != null && key.valid() && value != null && value.valid()) {
+            long keyHalf = half(key);
+            long valueHalf = half(value);
+            if(keyHalf == -1 || valueHalf == -1) {
+                System.out.println("WARNING: " + key.getModel().getName() + " or " + value.getModel().getName()
+                        + " has no match key. The swap will be discarded");
+                return null;
+            }
+            long level = pack(keyHalf, valueHalf);
+            OrderQueue<T> valueQueue = levels.get(level);
+            if(valueQueue == null) {
+                valueQueue = new OrderQueue<T>();
+                addLevel(level, valueQueue);
+            }
+            return valueQueue.add(value);
+        }
+        return null;
+    }
+
+    /**
+     * gets a match that equals the value swap passed in that is mapped by key. The key and the matched swap
+     * must be valid. This method will find a match to the value passed in and insure that it
+     * cannot me matched elsewhere. The matched swap is removed from the map
+     * @param key
+     *      key pair to the value. this will be matched
+     * @param value
+     *      value swap used to find comparable match swap in map
+     * @return
+     *      the swap that matches value and is readily available
+     */
+    public T get(T key, T value) {
+        T match = null;
+
+        if(key != null && key.valid() && value != null && value.valid()) {
+            OrderQueue<T> valueQueue = level(key, value);
+            T tmpMatch = valueQueue != null ? valueQueue.peek() : null;
+            if(tmpMatch != null) {
+                UUID id = tmpMatch.match(value);
+                if(id != null && tmpMatch.valid()) {
+                    match = tmpMatch;
+                    match.setMatchId(id);
+                    key.setMatchId(id);
+                    valueQueue.poll();
+                }
+            }
+        }
+        return match;
+    }
+
+    /**
+     * gets a match that equals the keyValue and is paired with itself (bid/bid). The keyValue must be valid.
+     * This method will find a match to the keyValue passed in and insure that it
+     * cannot me matched elsewhere. The matched swap is removed from the map
+     * @param keyValue
+     *      value that is paired to itself. this will be matched
+     * @return
+     *      the swap that matches value and is readily available
+     */
+    public T get(T keyValue) {
+        T match = null;
+
+        if(keyValue != null && keyValue.valid()) {
+            OrderQueue<T> valueQueue = level(keyValue, keyValue);
+            T tmpMatch = valueQueue != null ? valueQueue.peek() : null;
+            if(tmpMatch != null) {
+                UUID id = tmpMatch.match(keyValue);
+                if(id != null && tmpMatch.valid() && tmpMatch.isForSale()) {
+                    match = tmpMatch;
+                    match.setMatchId(id);
+                    valueQueue.poll();
+                }
+            }
+        }
+        return match;
+    }
+
+    /**
+     * gets a match that equals the value swap passed in that is mapped by key. The key and the matched swap
+     * must be valid. This method will find a match to the value but will not remove match from the map.
+     * Nor will it block others from matching with it at a later time. equivalent of peeking into the map
+     * @param key
+     *      key pair to the value. this will be matched
+     * @param value
+     *      value swap used to find comparable match swap in map
+     * @return
+     *      the swap that equals the value and is readily available
+     */
+    public T check(T key, T value) {
+        T match = null;
+
+        if(key != null && key.valid() && value != null && value.valid()) {
+            OrderQueue<T> valueQueue = level(key, value);
+            T tmpMatch = valueQueue != null ? valueQueue.peek() : null;
+            if(tmpMatch != null) {
+                UUID id = tmpMatch.match(value);
+                if(id != null && tmpMatch.valid()) {
+                    match = tmpMatch;
+                }
+            }
+        }
+        return match;
+    }
+
+    /**
+     * gets a match that equals the keyValue and is paired with itself (bid/bid). The keyValue must be valid.
+     * This method will find a match to the keyValue passed and will not remove the match from the map.
+     * Nor will it block any other get from matching with this swap
+     * @param keyValue
+     *      value that is paired to itself.
+     * @return
+     *      the swap that equals the keyValue and is readily available
+     */
+    public T check(T keyValue) {
+        T match = null;
+
+        if(keyValue != null && keyValue.valid()) {
+            OrderQueue<T> valueQueue = level(keyValue, keyValue);
+            T tmpMatch = valueQueue != null ? valueQueue.peek() : null;
+            if(tmpMatch != null) {
+                UUID id = tmpMatch.match(keyValue);
+                if(id != null && tmpMatch.valid() && tmpMatch.isForSale()) {
+                    match = tmpMatch;
+                }
+            }
+        }
+        return match;
+    }
+
+    /**
+     * Removes the key / value pair from this map. The value is found by identity, a swap that only equals it is not
+     * removed. This walks the level of the pair, unlink the node put handed back to remove a swap in O(1)
+     * @param key
+     *      key that the value is paired to
+     * @param value
+     *      value to be removed from the map
+     * @return
+     *      true - value was removed from the map
+     */
+    public boolean remove(T key, T value) {
+        boolean removed = false;
+
+        if(key != null && value != null) {
+            OrderQueue<T> valueQueue = level(key, value);
+            if(valueQueue != null) {
+                Iterator<T> iterator = valueQueue.iterator();
+                while(iterator.hasNext() && !removed) {
+                    if(iterator.next() == value) {
+                        iterator.remove();
+                        removed = true;
+                    }
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * gets all swaps associated with that key
+     * @param key
+     *      key pair for all swaps returned
+     * @return
+     *      Set of swaps that pair with key, each level in the order it would match them
+     */
+    public Set<T> getSet(T key) {
+        Set<T> values = new LinkedHashSet<T>();
+
+        if(key != null && key.valid()) {
+            long keyHalf = half(key);
+            List<OrderQueue<T>> queues = keyHalf != -1 ? keyLevels.get(keyHalf) : null;
+            if(queues != null) {
+                for(OrderQueue<T> valueQueue : queues) {
+                    for(T value : valueQueue) {
+                        values.add(value);
+                    }
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * gets all swaps stored in this map
+     * @return
+     *      Set of all swaps in this map
+     */
+    public Set<T> getAll() {
+        return new LinkedHashSet<T>(values());
+    }
+
+    /**
+     * every swap stored in this map, in the order each level would match them. Levels come in the order of the
+     * open addressing map
+     * @return
+     *      List of all swaps in this map
+     */
+    public List<T> values() {
+        List<T> values = new ArrayList<T>();
+        for(OrderQueue<T> valueQueue : levels.values()) {
+            for(T value : valueQueue) {
+                values.add(value);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * digest of every swap in this map that can still be matched. The swaps of a level are digested in the order they
+     * would be matched, the levels are added up so the digest does not depend on the order of the levels. Same digest
+     * as a BookMap holding the same swaps
+     * @return
+     *      digest of the map. 0 if the map is empty
+     */
+    public long digest() {
+        long digest = 0;
+
+        for(OrderQueue<T> valueQueue : levels.values()) {
+            long level = SwapDigest.OFFSET;
+            int live = 0;
+            for(T swap : valueQueue) {
+                if(!swap.isMatched()) {
+                    level = SwapDigest.swap(level, swap);
+                    live++;
+                }
+            }
+            if(live > 0) {
+                digest += SwapDigest.mix(level, live);
+            }
+        }
+        return digest;
+    }
+
+    /**
+     * clears the entire map out.
+     */
+    public void clear() {
+        levels.clear();
+        keyLevels.clear();
+    }
+
+    /**
+     * gets the level of a key and value pair
+     * @param key
+     *      key swap of the level
+     * @param value
+     *      value swap of the level
+     * @return
+     *      swaps of the level. null if the map has no such level
+     */
+    private OrderQueue<T> level(T key, T value) {
+        long keyHalf = half(key);
+        long valueHalf = keyHalf != -1 ? half(value) : -1;
+        if(valueHalf == -1) {
+            return null;
+        }
+        return levels.get(pack(keyHalf, valueHalf));
+    }
+
+    /**
+     * stores a new level and links it under its key swap
+     * @param level
+     *      packed key of the level
+     * @param valueQueue
+     *      swaps of the level
+     */
+    private void addLevel(long level, OrderQueue<T> valueQueue) {
+        levels.put(level, valueQueue);
+        List<OrderQueue<T>> queues = keyLevels.get(level >>> 32);
+        if(queues == null) {
+            queues = new ArrayList<OrderQueue<T>>(2);
+            keyLevels.put(level >>> 32, queues);
+        }
+        queues.add(valueQueue);
+    }
+
+    /**
+     * half of a level key for a swap, which is its match key
+     * @param swap
+     *      the swap
+     * @return
+     *      half of a level key. -1 if the swap has no match key
+     */
+    private long half(T swap) {
+        return swap.getMatchKey();
+    }
+
+    /**
+     * packs the halves of a key swap and a value swap into a level key
+     * @param keyHalf
+     *      half of the key swap
+     * @param valueHalf
+     *      half of the value swap
+     * @return
+     *      the level key
+     */
+    private static long pack(long keyHalf, long valueHalf) {
+        return (keyHalf << 32) | valueHalf;
+    }
+}
@@ -2,6 +2,8 @@ package apollo.common.templates;
 
 import org.apache.commons.lang.builder.HashCodeBuilder;
 
+import apollo.common.util.SymbolRegistry;
+
 /**
  * Generic Make class
  * Created by santana on 7/27/14.
@@ -9,6 +11,8 @@ import org.apache.commons.lang.builder.HashCodeBuilder;
 public abstract class Make {
     //name of the make
     private String name = null;
+    //id of the name from the symbol registry. -1 if the name is null
+    private int id = -1;
 
     /**
      * Constructor that takes in name of Make object being created
@@ -17,11 +21,12 @@ public abstract class Make {
      */
     public Make(String name) {
         this.name = name;
+        this.id = SymbolRegistry.getMakeId(name);
     }
 
 
     /**
-     * Overridden equals to compare makes by name
+     * Overridden equals to compare makes by name. Makes with a name compare their ids
      * @param make
      *          Make object to be compared
      * @return
@@ -33,6 +38,10 @@ public abstract class Make {
            return false;
        }
 
+       if(id != -1) {
+           return id == ((Make) make).id;
+       }
+
        String name = ((Make) make).getName();
        if(getName().equals(name)) {
            return true;
@@ -48,6 +57,9 @@ public abstract class Make {
      */
     @Override
     public int hashCode() {
+        if(id != -1) {
+            return id;
+        }
         return new HashCodeBuilder(17, 31).
                 append(name).
                 toHashCode();
@@ -61,4 +73,13 @@ public abstract class Make {
     public String getName() {
         return name;
     }
+
+    /**
+     * get the id of the make's name, see SymbolRegistry
+     * @return
+     *        dense id of the make. -1 if the make has no name
+     */
+    public int getId() {
+        return id;
+    }
 }
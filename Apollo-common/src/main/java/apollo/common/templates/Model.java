@@ -2,6 +2,8 @@ package apollo.common.templates;
 
 import org.apache.commons.lang.builder.HashCodeBuilder;
 
+import apollo.common.util.SymbolRegistry;
+
 /**
  * Generic Model class
  * Created by santana on 7/27/14.
@@ -17,6 +19,8 @@ public abstract class Model {
     protected String condition = null;
     //description of the model
     protected String description = null;
+    //id of the make and name from the symbol registry. -1 if the model has no make or name
+    private int id = -1;
 
 
     /**
@@ -45,6 +49,7 @@ public abstract class Model {
                 this.make = make;
                 this.name = name;
                 this.year = year;
+                this.id = SymbolRegistry.getModelId(make.getName(), name);
             }
         }
         catch(Exception e) {
@@ -54,7 +59,8 @@ public abstract class Model {
     }
 
     /**
-     * Equals method that compares the model passed in to this model and returns true if they match
+     * Equals method that compares the model passed in to this model and returns true if they match. Models with a
+     * make and a name compare their ids
      * @param model
      *      Model that this model is being compared to
      * @return
@@ -65,6 +71,10 @@ public abstract class Model {
             return false;
         }
 
+        if(id != -1) {
+            return id == ((Model) model).id;
+        }
+
         String modelName = ((Model) model).getName();
 
         Make make = ((Model) model).getMake();
@@ -83,6 +93,9 @@ public abstract class Model {
      */
     @Override
     public int hashCode() {
+        if(id != -1) {
+            return id;
+        }
         return new HashCodeBuilder(17, 31).
                 append(name).
                 append(make).
@@ -109,6 +122,15 @@ public abstract class Model {
         return name;
     }
 
+    /**
+     * gets the id of this Model, see SymbolRegistry
+     * @return
+     *      dense id of the Model. -1 if the Model has no make or name
+     */
+    public int getId() {
+        return id;
+    }
+
     /**
      * gets the Make of this Model
      * @return
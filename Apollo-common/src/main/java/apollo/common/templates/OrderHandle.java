@@ -0,0 +1,122 @@
+package apollo.common.templates;
+
+import apollo.common.util.OrderQueue;
+
+/**
+ * Handle of a bid resting in a book. A bid sits in up to three maps of its book: on the bids map under its ask, on the
+ * asks map under itself when it is for sale and its ask sits on the goals map under the bid. The handle keeps the node
+ * of each entry, so once the bid is filled, grabbed or withdrawn every entry is unlinked in O(1) without hashing a swap
+ * or looking a level up. The handle is kept on the bid itself, see Swap.getHandle
+ */
+public class OrderHandle<T extends Swap> {
+
+    //book the bid rests in
+    private final Book<?, T> book;
+
+    //the resting bid and the ask it wants
+    private final T bid;
+    private final T ask;
+
+    //entries of the bid on the bids and asks maps and of the ask on the goals map. null where it has none
+    private OrderQueue.Node<T> bidsNode = null;
+    private OrderQueue.Node<T> asksNode = null;
+    private OrderQueue.Node<T> goalsNode = null;
+
+    /**
+     * constructor that takes the book and the order
+     * @param book
+     *      book the bid rests in
+     * @param bid
+     *      the resting bid
+     * @param ask
+     *      the ask of the bid
+     */
+    OrderHandle(Book<?, T> book, T bid, T ask) {
+        this.book = book;
+        this.bid = bid;
+        this.ask = ask;
+    }
+
+    /**
+     * unlinks every entry of the order from its book
+     * @return
+     *      True - at least one entry was still linked
+     */
+    boolean unlink() {
+        boolean unlinked = false;
+        if(bidsNode != null) {
+            unlinked |= bidsNode.unlink();
+        }
+        if(asksNode != null) {
+            unlinked |= asksNode.unlink();
+        }
+        if(goalsNode != null) {
+            unlinked |= goalsNode.unlink();
+        }
+        return unlinked;
+    }
+
+    /**
+     * whether any entry of the order is still in its book
+     * @return
+     *      True - the order is resting
+     */
+    public boolean isResting() {
+        return (bidsNode != null && bidsNode.isLinked()) || (asksNode != null && asksNode.isLinked())
+                || (goalsNode != null && goalsNode.isLinked());
+    }
+
+    /**
+     * book the bid rests in
+     * @return
+     *      the book
+     */
+    public Book<?, T> getBook() {
+        return book;
+    }
+
+    /**
+     * the resting bid
+     * @return
+     *      the bid
+     */
+    public T getBid() {
+        return bid;
+    }
+
+    /**
+     * the ask the bid wants
+     * @return
+     *      the ask
+     */
+    public T getAsk() {
+        return ask;
+    }
+
+    /**
+     * sets the entry of the bid on the bids map
+     * @param bidsNode
+     *      the node. null if the bid is not on the map
+     */
+    void setBidsNode(OrderQueue.Node<T> bidsNode) {
+        this.bidsNode = bidsNode;
+    }
+
+    /**
+     * sets the entry of the bid on the asks map
+     * @param asksNode
+     *      the node. null if the bid is not for sale
+     */
+    void setAsksNode(OrderQueue.Node<T> asksNode) {
+        this.asksNode = asksNode;
+    }
+
+    /**
+     * sets the entry of the ask on the goals map
+     * @param goalsNode
+     *      the node. null if the ask is not on the map
+     */
+    void setGoalsNode(OrderQueue.Node<T> goalsNode) {
+        this.goalsNode = goalsNode;
+    }
+}
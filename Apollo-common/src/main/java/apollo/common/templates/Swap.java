@@ -24,6 +24,14 @@ public class Swap {
     private boolean forSale = false;
     //reference of complimentary ask/bid if it exists
     private Swap pair = null;
+    //packed model id and size the swap matches on, see getMatchKey. worked out once when the swap is created
+    protected long matchKey = -1;
+    //handle of this swap while it rests in a book as a bid. null if it never rested
+    private OrderHandle<?> handle = null;
+    //id of the order this swap rests under, the id of the message that placed it. null if it was never placed
+    private UUID orderId = null;
+    //time in milliseconds from epoch the swap is good till as a resting order. 0 if it rests until it is cancelled
+    private long goodTill = 0;
 
 
 
@@ -67,6 +75,7 @@ public class Swap {
         this.userId = userId;
         this.pair = pair;
         this.forSale = forSale;
+        this.matchKey = matchKey(model, 0);
     }
 
     /**
@@ -90,7 +99,8 @@ public class Swap {
     }
 
     /**
-     * hashCode of swap object
+     * hashCode of swap object. Takes the same fields as equals, so swaps of different users on one model do not all
+     * land in one bucket
      * @return
      *      integer hashCode of swap object
      */
@@ -98,6 +108,7 @@ public class Swap {
     public int hashCode() {
         return new HashCodeBuilder(17, 31).
                 append(model).
+                append(userId).
                 toHashCode();
     }
 
@@ -147,6 +158,97 @@ public class Swap {
         return mapper.equals(inboundMapper);
     }
 
+    /**
+     * packed key of what this swap matches on: the model id in the upper 24 bits and the size in the lower 8 bits of
+     * an int. Two swaps of the same class match exactly when their keys are equal, so the books compare and index
+     * swaps by it instead of building mappers
+     * @return
+     *      the match key. -1 if the model has no id
+     */
+    public long getMatchKey() {
+        return matchKey;
+    }
+
+    /**
+     * handle of this swap in the book it rests in as a bid
+     * @return
+     *      the handle. null if the swap never rested in a book
+     */
+    public OrderHandle<?> getHandle() {
+        return handle;
+    }
+
+    /**
+     * sets the handle of this swap when it rests in a book as a bid
+     * @param handle
+     *      the handle
+     */
+    void setHandle(OrderHandle<?> handle) {
+        this.handle = handle;
+    }
+
+    /**
+     * id of the order this swap rests under as a bid, used to cancel or amend it
+     * @return
+     *      the order id. null if the swap was never placed as an order
+     */
+    public UUID getOrderId() {
+        return orderId;
+    }
+
+    /**
+     * sets the id of the order this swap rests under as a bid
+     * @param orderId
+     *      the order id
+     */
+    public void setOrderId(UUID orderId) {
+        this.orderId = orderId;
+    }
+
+    /**
+     * time the swap is good till as a resting order. Once it passes the engine withdraws the order
+     * @return
+     *      milliseconds from epoch. 0 if the swap rests until it is filled or cancelled
+     */
+    public long getGoodTill() {
+        return goodTill;
+    }
+
+    /**
+     * sets the time the swap is good till as a resting order
+     * @param goodTill
+     *      milliseconds from epoch. 0 to rest until filled or cancelled
+     */
+    public void setGoodTill(long goodTill) {
+        this.goodTill = goodTill;
+    }
+
+    /**
+     * makes the swap good for the amount of seconds passed in from now as a resting order
+     * @param seconds
+     *      seconds the swap may rest for
+     */
+    public void setGoodFor(long seconds) {
+        goodTill = System.currentTimeMillis() + seconds * 1000;
+    }
+
+    /**
+     * packs a model and size into a match key, see getMatchKey
+     * @param model
+     *      model of the swap
+     * @param size
+     *      size of the swap. 0 for swaps without a size
+     * @return
+     *      the match key. -1 if the model has no id or the id or size do not fit
+     */
+    public static long matchKey(Model model, int size) {
+        int id = model != null ? model.getId() : -1;
+        if(id < 0 || id > 0xFFFFFF || size < 0 || size > 0xFF) {
+            return -1;
+        }
+        return ((long) id << 8) | size;
+    }
+
     /**
      * returns the model of this swap
      * @return
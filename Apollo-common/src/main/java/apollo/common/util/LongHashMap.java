@@ -0,0 +1,243 @@
+package apollo.common.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Open addressing hash map from a primitive long key to a value. Keys and values live in two flat arrays probed
+ * linearly, so a lookup hashes the key once and walks adjacent slots without boxing the key or following entry
+ * objects. Removal shifts the following entries of the run back, so no tombstones are left behind. Capacity is kept a
+ * power of two at most half full. Not thread safe.
+ */
+public class LongHashMap<E> {
+
+    //keys of the slots. only meaningful where the value is not null
+    private long[] keys;
+
+    //values of the slots. null for a free slot
+    private Object[] values;
+
+    //mask used to turn a hash into a slot index
+    private int mask;
+
+    //amount of keys in the map
+    private int size = 0;
+
+    /**
+     * creates a map with room for 16 keys before it grows
+     */
+    public LongHashMap() {
+        this(16);
+    }
+
+    /**
+     * creates a map with room for the amount of keys passed in before it grows
+     * @param expected
+     *      amount of keys the map should hold without growing
+     */
+    public LongHashMap(int expected) {
+        int capacity = 4;
+        while(capacity < expected * 2) {
+            capacity <<= 1;
+        }
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * gets the value of a key
+     * @param key
+     *      key to look up
+     * @return
+     *      the value of the key. null if the key is not in the map
+     */
+    @SuppressWarnings("unchecked")
+    public E get(long key) {
+        int index = index(key);
+        Object value;
+        while((value = values[index]) != null) {
+            if(keys[index] == key) {
+                return (E) value;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * puts the value in the map under the key, replacing the value the key had
+     * @param key
+     *      key of the value
+     * @param value
+     *      value to store. must not be null
+     * @return
+     *      the value the key had before. null if it was not in the map
+     */
+    @SuppressWarnings("unchecked")
+    public E put(long key, E value) {
+        if(value == null) {
+            throw new IllegalArgumentException("LongHashMap does not store null values");
+        }
+
+        int index = index(key);
+        Object old;
+        while((old = values[index]) != null) {
+            if(keys[index] == key) {
+                values[index] = value;
+                return (E) old;
+            }
+            index = (index + 1) & mask;
+        }
+
+        keys[index] = key;
+        values[index] = value;
+        if(++size * 2 > values.length) {
+            resize(values.length * 2);
+        }
+        return null;
+    }
+
+    /**
+     * removes a key from the map
+     * @param key
+     *      key to remove
+     * @return
+     *      the value the key had. null if it was not in the map
+     */
+    @SuppressWarnings("unchecked")
+    public E remove(long key) {
+        int index = index(key);
+        Object value;
+        while((value = values[index]) != null) {
+            if(keys[index] == key) {
+                shift(index);
+                size--;
+                return (E) value;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * amount of keys in the map
+     * @return
+     *      the size of the map
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * whether the map has no keys
+     * @return
+     *      True - the map is empty
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * every value in the map, in slot order
+     * @return
+     *      List of the values
+     */
+    @SuppressWarnings("unchecked")
+    public List<E> values() {
+        List<E> list = new ArrayList<E>(size);
+        for(Object value : values) {
+            if(value != null) {
+                list.add((E) value);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * every key in the map, in the same slot order as values
+     * @return
+     *      the keys
+     */
+    public long[] keys() {
+        long[] list = new long[size];
+        int next = 0;
+        for(int i = 0; i < values.length; i++) {
+            if(values[i] != null) {
+                list[next++] = keys[i];
+            }
+        }
+        return list;
+    }
+
+    /**
+     * removes every key from the map. The capacity is kept
+     */
+    public void clear() {
+        for(int i = 0; i < values.length; i++) {
+            values[i] = null;
+        }
+        size = 0;
+    }
+
+    /**
+     * slot a key starts probing from. The key is mixed so keys that only differ in their high bits spread out
+     * @param key
+     *      the key
+     * @return
+     *      index of the first slot to look at
+     */
+    private int index(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    /**
+     * frees a slot and moves back the entries after it that could not get their own slot, so every key stays
+     * reachable from its first slot
+     * @param free
+     *      slot being freed
+     */
+    private void shift(int free) {
+        int index = free;
+        while(true) {
+            index = (index + 1) & mask;
+            if(values[index] == null) {
+                break;
+            }
+            int home = index(keys[index]);
+            //the entry stays if its home slot lies cyclically after the free slot and at or before where it sits
+            if(free <= index ? (free < home && home <= index) : (free < home || home <= index)) {
+                continue;
+            }
+            keys[free] = keys[index];
+            values[free] = values[index];
+            free = index;
+        }
+        values[free] = null;
+    }
+
+    /**
+     * moves every entry into new arrays of the capacity passed in
+     * @param capacity
+     *      the new capacity. a power of two
+     */
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+
+        for(int i = 0; i < oldValues.length; i++) {
+            if(oldValues[i] != null) {
+                int index = index(oldKeys[i]);
+                while(values[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package apollo.common.util;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * First in first out queue of resting orders. Each order sits in a node of a doubly linked list, so adding at the tail,
+ * taking the head and unlinking a node from anywhere in the queue are O(1) no matter how deep the queue is. Orders are
+ * told apart by the node they sit in, never by equals or hashCode, so two equal swaps are two orders. Not thread safe
+ */
+public class OrderQueue<T> implements Iterable<T> {
+
+    /**
+     * place of an order in a queue
+     */
+    public static class Node<T> {
+        //order in the node
+        private final T value;
+
+        //neighbours in the queue. null at the ends
+        private Node<T> prev = null;
+        private Node<T> next = null;
+
+        //queue the node is in. null once it is unlinked
+        private OrderQueue<T> queue = null;
+
+        /**
+         * constructor that takes the order of the node
+         * @param value
+         *      the order
+         */
+        private Node(T value) {
+            this.value = value;
+        }
+
+        /**
+         * the order in this node
+         * @return
+         *      the order
+         */
+        public T getValue() {
+            return value;
+        }
+
+        /**
+         * whether the node is still in a queue
+         * @return
+         *      True - the node has not been unlinked
+         */
+        public boolean isLinked() {
+            return queue != null;
+        }
+
+        /**
+         * takes the node out of its queue. Does nothing if it already was
+         * @return
+         *      True - the node was in a queue
+         */
+        public boolean unlink() {
+            if(queue == null) {
+                return false;
+            }
+            queue.unlink(this);
+            return true;
+        }
+    }
+
+    //oldest and newest node
+    private Node<T> head = null;
+    private Node<T> tail = null;
+
+    //amount of nodes in the queue
+    private int size = 0;
+
+    /**
+     * adds an order at the tail of the queue
+     * @param value
+     *      the order
+     * @return
+     *      the node of the order, used to unlink it later
+     */
+    public Node<T> add(T value) {
+        Node<T> node = new Node<T>(value);
+        node.queue = this;
+        node.prev = tail;
+        if(tail == null) {
+            head = node;
+        }
+        else {
+            tail.next = node;
+        }
+        tail = node;
+        size++;
+        return node;
+    }
+
+    /**
+     * the oldest order without taking it
+     * @return
+     *      the order at the head. null if the queue is empty
+     */
+    public T peek() {
+        return head != null ? head.value : null;
+    }
+
+    /**
+     * takes the oldest order
+     * @return
+     *      the order at the head. null if the queue is empty
+     */
+    public T poll() {
+        Node<T> node = head;
+        if(node == null) {
+            return null;
+        }
+        unlink(node);
+        return node.value;
+    }
+
+    /**
+     * takes a node out of this queue
+     * @param node
+     *      the node to take out
+     * @return
+     *      True - the node was in this queue
+     */
+    public boolean remove(Node<T> node) {
+        if(node == null || node.queue != this) {
+            return false;
+        }
+        unlink(node);
+        return true;
+    }
+
+    /**
+     * takes a node out of this queue
+     * @param node
+     *      a node of this queue
+     */
+    private void unlink(Node<T> node) {
+        if(node.prev == null) {
+            head = node.next;
+        }
+        else {
+            node.prev.next = node.next;
+        }
+        if(node.next == null) {
+            tail = node.prev;
+        }
+        else {
+            node.next.prev = node.prev;
+        }
+        //next is kept so an iterator standing on the node can still move on
+        node.prev = null;
+        node.queue = null;
+        size--;
+    }
+
+    /**
+     * amount of orders in the queue
+     * @return
+     *      the size of the queue
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * whether the queue has no orders
+     * @return
+     *      True - the queue is empty
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * iterates the orders from the oldest to the newest. remove unlinks the order last returned
+     * @return
+     *      the iterator
+     */
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            //node returned last and node to return next
+            private Node<T> last = null;
+            private Node<T> next = head;
+
+            public boolean hasNext() {
+                //skip nodes unlinked since they were reached
+                while(next != null && next.queue != OrderQueue.this) {
+                    next = next.next;
+                }
+                return next != null;
+            }
+
+            public T next() {
+                if(!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                last = next;
+                next = next.next;
+                return last.value;
+            }
+
+            public void remove() {
+                if(last == null || last.queue != OrderQueue.this) {
+                    throw new IllegalStateException();
+                }
+                unlink(last);
+                last = null;
+            }
+        };
+    }
+}
@@ -0,0 +1,146 @@
+package apollo.common.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.UUID;
+
+import apollo.common.shoe.ShoeModel;
+import apollo.common.shoe.ShoeSwap;
+import apollo.common.templates.Make;
+import apollo.common.templates.Model;
+import apollo.common.templates.Swap;
+
+/**
+ * Binary encoding of swaps for anything the engine writes to disk or to the wire. Only ShoeSwaps are supported since
+ * they are the only swaps the Mapper knows how to match. The pair of a swap is not written, whoever reads the swaps
+ * back is responsible for pairing them again
+ */
+public class SwapCodec {
+
+    //type markers
+    public static final byte NULL_SWAP = 0;
+    public static final byte SHOE_SWAP = 1;
+
+    /**
+     * default constructor
+     */
+    private SwapCodec() {
+
+    }
+
+    /**
+     * writes the swap passed in
+     * @param out
+     *      where the swap is written to
+     * @param swap
+     *      swap to write. may be null
+     * @throws IOException
+     *      if the write failed
+     */
+    public static void write(DataOutput out, Swap swap) throws IOException {
+        if(swap == null) {
+            out.writeByte(NULL_SWAP);
+            return;
+        }
+        if(!(swap instanceof ShoeSwap)) {
+            throw new IllegalArgumentException("Cannot encode swap of type " + swap.getClass().getName());
+        }
+
+        ShoeSwap shoe = (ShoeSwap) swap;
+        Model model = shoe.getModel();
+        Make make = model != null ? model.getMake() : null;
+
+        out.writeByte(SHOE_SWAP);
+        writeString(out, make != null ? make.getName() : null);
+        writeString(out, model != null ? model.getName() : null);
+        out.writeInt(model != null ? model.getYear() : 0);
+        out.writeInt(shoe.getSize());
+        writeUUID(out, shoe.getUserId());
+        out.writeBoolean(shoe.isForSale());
+        writeUUID(out, shoe.getMatchId());
+    }
+
+    /**
+     * reads a swap written by write
+     * @param in
+     *      where the swap is read from
+     * @return
+     *      the swap. null if a null swap was written
+     * @throws IOException
+     *      if the read failed or the data is not a swap
+     */
+    public static Swap read(DataInput in) throws IOException {
+        byte type = in.readByte();
+        if(type == NULL_SWAP) {
+            return null;
+        }
+        if(type != SHOE_SWAP) {
+            throw new IOException("Unknown swap type " + type);
+        }
+
+        String makeName = readString(in);
+        String modelName = readString(in);
+        int year = in.readInt();
+        int size = in.readInt();
+        UUID userId = readUUID(in);
+        boolean forSale = in.readBoolean();
+        UUID matchId = readUUID(in);
+
+        //the canonical model is shared unless the swap has its own year
+        Model model = null;
+        if(modelName != null) {
+            model = SymbolRegistry.getModel(makeName, modelName);
+            if(model == null || model.getYear() != year) {
+                model = new ShoeModel(SymbolRegistry.getMake(makeName), modelName, year);
+            }
+        }
+
+        ShoeSwap swap = new ShoeSwap(model, size, userId, null, forSale);
+        if(matchId != null) {
+            swap.setMatchId(matchId);
+        }
+        return swap;
+    }
+
+    /**
+     * writes a nullable string
+     */
+    public static void writeString(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if(value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    /**
+     * reads a nullable string
+     */
+    public static String readString(DataInput in) throws IOException {
+        if(in.readBoolean()) {
+            return in.readUTF();
+        }
+        return null;
+    }
+
+    /**
+     * writes a nullable UUID as two longs
+     */
+    public static void writeUUID(DataOutput out, UUID id) throws IOException {
+        out.writeBoolean(id != null);
+        if(id != null) {
+            out.writeLong(id.getMostSignificantBits());
+            out.writeLong(id.getLeastSignificantBits());
+        }
+    }
+
+    /**
+     * reads a nullable UUID written as two longs
+     */
+    public static UUID readUUID(DataInput in) throws IOException {
+        if(in.readBoolean()) {
+            return new UUID(in.readLong(), in.readLong());
+        }
+        return null;
+    }
+}
@@ -0,0 +1,102 @@
+package apollo.common.util;
+
+import java.util.UUID;
+
+import apollo.common.shoe.ShoeSwap;
+import apollo.common.templates.Make;
+import apollo.common.templates.Model;
+import apollo.common.templates.Swap;
+
+/**
+ * 64 bit FNV-1a digest of swaps, used to check that two runs over the same messages left the same books and produced
+ * the same bills. Only what a user put in a swap is digested, the match id is random and left out
+ */
+public class SwapDigest {
+
+    //FNV-1a 64 bit offset basis and prime
+    public static final long OFFSET = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    /**
+     * default constructor
+     */
+    private SwapDigest() {
+
+    }
+
+    /**
+     * folds a swap into the digest passed in
+     * @param hash
+     *      digest so far
+     * @param swap
+     *      swap to fold in. may be null
+     * @return
+     *      the new digest
+     */
+    public static long swap(long hash, Swap swap) {
+        if(swap == null) {
+            return mix(hash, 0);
+        }
+
+        Model model = swap.getModel();
+        Make make = model != null ? model.getMake() : null;
+        hash = string(hash, make != null ? make.getName() : null);
+        hash = string(hash, model != null ? model.getName() : null);
+        hash = mix(hash, model != null ? model.getYear() : 0);
+        hash = mix(hash, swap instanceof ShoeSwap ? ((ShoeSwap) swap).getSize() : 0);
+        hash = uuid(hash, swap.getUserId());
+        return mix(hash, swap.isForSale() ? 1 : 0);
+    }
+
+    /**
+     * folds a nullable UUID into the digest passed in
+     * @param hash
+     *      digest so far
+     * @param id
+     *      id to fold in
+     * @return
+     *      the new digest
+     */
+    public static long uuid(long hash, UUID id) {
+        if(id == null) {
+            return mix(hash, 0);
+        }
+        return mix(mix(hash, id.getMostSignificantBits()), id.getLeastSignificantBits());
+    }
+
+    /**
+     * folds a nullable string into the digest passed in
+     * @param hash
+     *      digest so far
+     * @param value
+     *      string to fold in
+     * @return
+     *      the new digest
+     */
+    public static long string(long hash, String value) {
+        if(value == null) {
+            return mix(hash, 0);
+        }
+        for(int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * PRIME;
+        }
+        return mix(hash, value.length());
+    }
+
+    /**
+     * folds the 8 bytes of a long into the digest passed in
+     * @param hash
+     *      digest so far
+     * @param value
+     *      value to fold in
+     * @return
+     *      the new digest
+     */
+    public static long mix(long hash, long value) {
+        for(int i = 0; i < 8; i++) {
+            hash = (hash ^ (value & 0xff)) * PRIME;
+            value >>>= 8;
+        }
+        return hash;
+    }
+}
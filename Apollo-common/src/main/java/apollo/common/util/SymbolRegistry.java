@@ -0,0 +1,174 @@
+package apollo.common.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import apollo.common.shoe.ShoeMake;
+import apollo.common.shoe.ShoeModel;
+import apollo.common.templates.Make;
+import apollo.common.templates.Model;
+
+/**
+ * Interns makes and models. Every make name and every make and model name pair gets a dense int id the first time it
+ * is seen, counting up from 0, and keeps it for the life of the JVM. Make and Model ask for their id when they are
+ * created, so two makes or models are equal exactly when their ids are and an id can index an array of books.
+ *
+ * The registry also hands out one canonical instance per make and per model, so decoders do not have to create a make
+ * and a model for every swap they read. Canonical instances are shared and must not be changed. Thread safe
+ */
+public class SymbolRegistry {
+
+    //id of every make name
+    private static final ConcurrentMap<String, Integer> makeIds = new ConcurrentHashMap<String, Integer>();
+
+    //id of every model name, by the name of its make
+    private static final ConcurrentMap<String, ConcurrentMap<String, Integer>> modelIds =
+            new ConcurrentHashMap<String, ConcurrentMap<String, Integer>>();
+
+    //canonical make of every make name
+    private static final ConcurrentMap<String, Make> makes = new ConcurrentHashMap<String, Make>();
+
+    //canonical model of every model name, by the name of its make
+    private static final ConcurrentMap<String, ConcurrentMap<String, Model>> models =
+            new ConcurrentHashMap<String, ConcurrentMap<String, Model>>();
+
+    //next ids to hand out
+    private static final AtomicInteger nextMake = new AtomicInteger();
+    private static final AtomicInteger nextModel = new AtomicInteger();
+
+    /**
+     * default constructor
+     */
+    private SymbolRegistry() {
+
+    }
+
+    /**
+     * gets the id of a make name, handing out the next one if the name is new
+     * @param name
+     *      name of the make
+     * @return
+     *      id of the make. -1 for a null name
+     */
+    public static int getMakeId(String name) {
+        if(name == null) {
+            return -1;
+        }
+        Integer id = makeIds.get(name);
+        if(id == null) {
+            synchronized (makeIds) {
+                id = makeIds.get(name);
+                if(id == null) {
+                    id = nextMake.getAndIncrement();
+                    makeIds.put(name, id);
+                }
+            }
+        }
+        return id;
+    }
+
+    /**
+     * gets the id of a model name of a make, handing out the next one if the pair is new
+     * @param makeName
+     *      name of the make of the model
+     * @param name
+     *      name of the model
+     * @return
+     *      id of the model. -1 if either name is null
+     */
+    public static int getModelId(String makeName, String name) {
+        if(makeName == null || name == null) {
+            return -1;
+        }
+        ConcurrentMap<String, Integer> ids = modelIds.get(makeName);
+        Integer id = ids != null ? ids.get(name) : null;
+        if(id == null) {
+            synchronized (modelIds) {
+                ids = modelIds.get(makeName);
+                if(ids == null) {
+                    ids = new ConcurrentHashMap<String, Integer>();
+                    modelIds.put(makeName, ids);
+                }
+                id = ids.get(name);
+                if(id == null) {
+                    id = nextModel.getAndIncrement();
+                    ids.put(name, id);
+                }
+            }
+        }
+        return id;
+    }
+
+    /**
+     * gets the canonical make of a name
+     * @param name
+     *      name of the make
+     * @return
+     *      the shared make. null for a null name
+     */
+    public static Make getMake(String name) {
+        if(name == null) {
+            return null;
+        }
+        Make make = makes.get(name);
+        if(make == null) {
+            make = new ShoeMake(name);
+            Make raced = makes.putIfAbsent(name, make);
+            if(raced != null) {
+                make = raced;
+            }
+        }
+        return make;
+    }
+
+    /**
+     * gets the canonical model of a make and model name. The canonical model has the default year
+     * @param makeName
+     *      name of the make of the model
+     * @param name
+     *      name of the model
+     * @return
+     *      the shared model. null if either name is null
+     */
+    public static Model getModel(String makeName, String name) {
+        if(makeName == null || name == null) {
+            return null;
+        }
+        ConcurrentMap<String, Model> named = models.get(makeName);
+        Model model = named != null ? named.get(name) : null;
+        if(model == null) {
+            if(named == null) {
+                named = new ConcurrentHashMap<String, Model>();
+                ConcurrentMap<String, Model> raced = models.putIfAbsent(makeName, named);
+                if(raced != null) {
+                    named = raced;
+                }
+            }
+            model = new ShoeModel(getMake(makeName), name);
+            Model raced = named.putIfAbsent(name, model);
+            if(raced != null) {
+                model = raced;
+            }
+        }
+        return model;
+    }
+
+    /**
+     * amount of make ids handed out. Every make id is below it
+     * @return
+     *      the amount of makes
+     */
+    public static int getMakeCount() {
+        return nextMake.get();
+    }
+
+    /**
+     * amount of model ids handed out. Every model id is below it
+     * @return
+     *      the amount of models
+     */
+    public static int getModelCount() {
+        return nextModel.get();
+    }
+}
@@ -0,0 +1,261 @@
+package apollo.common.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Hashed timing wheel of deadlines. Time is cut in ticks and every timeout sits in the slot of the tick its deadline
+ * falls in, wrapping around the wheel, so scheduling and cancelling a timeout are O(1) and advancing the wheel only
+ * looks at the slots of the ticks that passed, however many timeouts are waiting further out. Timeouts whose tick had
+ * already passed when they were scheduled wait in an overdue queue taken whole on the next advance.
+ *
+ * advance(now) hands back exactly the timeouts with a deadline at or before now, whatever ticks the wheel advanced to
+ * before, so two wheels given the same schedules, cancels and advances expire the same values. Not thread safe
+ */
+public class TimingWheel<T> {
+
+    //default length of a tick in milliseconds and amount of slots. one turn of the wheel is a little under a minute
+    public static final long DEFAULT_TICK = 100;
+    public static final int DEFAULT_SLOTS = 512;
+
+    /**
+     * a value waiting on its deadline
+     */
+    public static class Timeout<T> {
+        //the value and when it is due
+        private final T value;
+        private final long deadline;
+
+        //node of the timeout in its slot or the overdue queue
+        private OrderQueue.Node<Timeout<T>> node = null;
+
+        /**
+         * constructor that takes the value and its deadline
+         * @param value
+         *      the value
+         * @param deadline
+         *      when the value is due
+         */
+        private Timeout(T value, long deadline) {
+            this.value = value;
+            this.deadline = deadline;
+        }
+
+        /**
+         * the value waiting on the deadline
+         * @return
+         *      the value
+         */
+        public T getValue() {
+            return value;
+        }
+
+        /**
+         * when the value is due
+         * @return
+         *      the deadline
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+
+        /**
+         * whether the timeout is still on the wheel
+         * @return
+         *      True - it has neither expired nor been cancelled
+         */
+        public boolean isPending() {
+            return node != null && node.isLinked();
+        }
+    }
+
+    //length of a tick
+    private final long tick;
+
+    //timeouts by tick, wrapping around
+    private final OrderQueue<Timeout<T>>[] slots;
+    private final int mask;
+
+    //timeouts scheduled on a tick that had already passed
+    private final OrderQueue<Timeout<T>> overdue = new OrderQueue<Timeout<T>>();
+
+    //last tick whose deadlines have all been handed out. Long.MIN_VALUE until the first advance
+    private long passed = Long.MIN_VALUE;
+
+    //amount of timeouts on the wheel
+    private int size = 0;
+
+    /**
+     * creates a wheel with the default tick and slots
+     */
+    public TimingWheel() {
+        this(DEFAULT_TICK, DEFAULT_SLOTS);
+    }
+
+    /**
+     * creates a wheel
+     * @param tick
+     *      length of a tick, in the unit of the deadlines. at least 1
+     * @param slots
+     *      amount of slots, rounded up to a power of two
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long tick, int slots) {
+        this.tick = Math.max(1, tick);
+        int capacity = 1;
+        while(capacity < slots) {
+            capacity <<= 1;
+        }
+        this.slots = new OrderQueue[capacity];
+        for(int i = 0; i < capacity; i++) {
+            this.slots[i] = new OrderQueue<Timeout<T>>();
+        }
+        mask = capacity - 1;
+    }
+
+    /**
+     * puts a value on the wheel
+     * @param value
+     *      the value
+     * @param deadline
+     *      when the value is due
+     * @return
+     *      the timeout, used to cancel it
+     */
+    public Timeout<T> schedule(T value, long deadline) {
+        Timeout<T> timeout = new Timeout<T>(value, deadline);
+        long at = Math.floorDiv(deadline, tick);
+        OrderQueue<Timeout<T>> queue = passed != Long.MIN_VALUE && at <= passed ? overdue : slots[(int) (at & mask)];
+        timeout.node = queue.add(timeout);
+        size++;
+        return timeout;
+    }
+
+    /**
+     * takes a timeout off the wheel before it is due
+     * @param timeout
+     *      the timeout
+     * @return
+     *      True - the timeout was still pending
+     */
+    public boolean cancel(Timeout<T> timeout) {
+        if(timeout != null && timeout.node != null && timeout.node.unlink()) {
+            size--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * moves the wheel on to the time passed in and takes every timeout that is due off it. Only the slots of the ticks
+     * passed since the last advance are looked at, all of them once if a whole turn passed
+     * @param now
+     *      the current time
+     * @return
+     *      the values due at or before now, overdue ones first and then tick by tick
+     */
+    public List<T> advance(long now) {
+        List<T> expired = new ArrayList<T>();
+        Timeout<T> timeout;
+        while((timeout = overdue.poll()) != null) {
+            expired.add(timeout.value);
+            size--;
+        }
+
+        long current = Math.floorDiv(now, tick);
+        for(long at = first(current); at <= current; at++) {
+            Iterator<Timeout<T>> iterator = slots[(int) (at & mask)].iterator();
+            while(iterator.hasNext()) {
+                timeout = iterator.next();
+                if(timeout.deadline <= now) {
+                    iterator.remove();
+                    expired.add(timeout.value);
+                    size--;
+                }
+            }
+        }
+        //the current tick may still have deadlines after now
+        if(current - 1 > passed) {
+            passed = current - 1;
+        }
+        return expired;
+    }
+
+    /**
+     * whether an advance to the time passed in would take any timeout off the wheel. Nothing is changed
+     * @param now
+     *      the current time
+     * @return
+     *      True - a timeout is due
+     */
+    public boolean hasExpired(long now) {
+        if(!overdue.isEmpty()) {
+            return true;
+        }
+        long current = Math.floorDiv(now, tick);
+        for(long at = first(current); at <= current; at++) {
+            for(Timeout<T> timeout : slots[(int) (at & mask)]) {
+                if(timeout.deadline <= now) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * first tick an advance to the current tick has to look at
+     * @param current
+     *      tick being advanced to
+     * @return
+     *      the tick after the last passed one, or one turn back if a whole turn passed
+     */
+    private long first(long current) {
+        if(passed == Long.MIN_VALUE || current - passed >= slots.length) {
+            return current - slots.length + 1;
+        }
+        return passed + 1;
+    }
+
+    /**
+     * length of a tick
+     * @return
+     *      the tick
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * amount of timeouts on the wheel
+     * @return
+     *      the size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * whether the wheel has no timeouts
+     * @return
+     *      True - the wheel is empty
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * takes every timeout off the wheel without handing them out
+     */
+    public void clear() {
+        for(OrderQueue<Timeout<T>> slot : slots) {
+            while(slot.poll() != null) {
+                size--;
+            }
+        }
+        while(overdue.poll() != null) {
+            size--;
+        }
+    }
+}
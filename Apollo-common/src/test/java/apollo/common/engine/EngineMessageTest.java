@@ -6,6 +6,10 @@ import apollo.common.util.ApolloHelper;
 import apollo.common.util.TestHelper;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.util.UUID;
 
 import static junit.framework.Assert.assertEquals;
@@ -263,5 +267,107 @@ public class EngineMessageTest {
         assertEquals(message.getMaxBillLength(), ApolloHelper.TTL);
     }
 
+    /**
+     * Test: a goal message written by the codec reads back with the same id, type, swaps and max bill length
+     */
+    @Test
+    public void codecTest() throws Exception {
+        UUID uId = UUID.randomUUID();
+        Message message = Message.getMessage(TestHelper.getJordan(10, uId, false), TestHelper.getAirMax(12, uId, true), 3);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        MessageCodec.write(new DataOutputStream(bytes), message);
+        Message read = MessageCodec.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(message.getId(), read.getId());
+        assertEquals(Message.GOAL, read.getType());
+        assertEquals(3, read.getMaxBillLength());
+        assertEquals(message.getBid(), read.getBid());
+        assertEquals(message.getGoal(), read.getGoal());
+        assertEquals(null, read.getAsk());
+        assertEquals(read.getGoal(), read.getBid().getPair());
+        assertEquals(12, ((ShoeSwap) read.getGoal()).getSize());
+    }
+
+    /**
+     * Test: a cancel or amend message needs an order id and a valid bid, an amend also pairs its bid and ask
+     */
+    @Test
+    public void orderMessageTest() {
+        UUID uId = UUID.randomUUID();
+        UUID orderId = UUID.randomUUID();
+        Message message = Message.getCancelMessage(orderId, TestHelper.getJordan(10, uId, false));
+        assertEquals(message.isValid(), true);
+        assertEquals(message.getType(), Message.CANCEL);
+        assertEquals(message.getOrderId(), orderId);
+        assertEquals(message.getAsk(), null);
+
+        assertEquals(Message.getCancelMessage(null, TestHelper.getJordan(10, uId, false)).isValid(), false);
+        assertEquals(Message.getCancelMessage(orderId, null).isValid(), false);
+
+        message = Message.getAmendMessage(orderId, TestHelper.getJordan(10, uId, false), TestHelper.getAirMax(12, uId, false));
+        assertEquals(message.isValid(), true);
+        assertEquals(message.getType(), Message.AMEND);
+        assertEquals(message.getBid().getPair(), message.getAsk());
+        assertEquals(Message.getAmendMessage(null, TestHelper.getJordan(10, uId, false), TestHelper.getAirMax(12, uId, false)).isValid(), false);
+    }
+
+    /**
+     * Test: an amend message written by the codec reads back with its order id
+     */
+    @Test
+    public void orderCodecTest() throws Exception {
+        UUID uId = UUID.randomUUID();
+        UUID orderId = UUID.randomUUID();
+        Message message = Message.getAmendMessage(orderId, TestHelper.getJordan(10, uId, false), TestHelper.getAirMax(12, uId, false));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        MessageCodec.write(new DataOutputStream(bytes), message);
+        Message read = MessageCodec.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(message.getId(), read.getId());
+        assertEquals(Message.AMEND, read.getType());
+        assertEquals(orderId, read.getOrderId());
+        assertEquals(message.getBid(), read.getBid());
+        assertEquals(message.getAsk(), read.getAsk());
+        assertEquals(true, read.isValid());
+    }
 
+    /**
+     * Test: an EXPIRE keeps its time through the codec, and the good till of a bid is only written when it has one
+     */
+    @Test
+    public void expireCodecTest() throws Exception {
+        Message expire = Message.getExpireMessage(123456789L);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        MessageCodec.write(new DataOutputStream(bytes), expire);
+        Message read = MessageCodec.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(expire.getId(), read.getId());
+        assertEquals(Message.EXPIRE, read.getType());
+        assertEquals(123456789L, read.getTime());
+        assertEquals(true, read.isValid());
+
+        UUID uId = UUID.randomUUID();
+        Swap bid = TestHelper.getJordan(10, uId, false);
+        bid.setGoodTill(987654321L);
+        Message swap = Message.getMessage(bid, TestHelper.getAirMax(12, uId, false));
+        bytes = new ByteArrayOutputStream();
+        MessageCodec.write(new DataOutputStream(bytes), swap);
+        read = MessageCodec.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(Message.SWAP, read.getType());
+        assertEquals(987654321L, read.getBid().getGoodTill());
+        assertEquals(0, read.getAsk().getGoodTill());
+    }
+
+    /**
+     * Test: a swap or amend whose bid or ask has no match key is refused, it could never rest on a book
+     */
+    @Test
+    public void unkeyedTest() throws Exception {
+        UUID uId = UUID.randomUUID();
+        assertEquals(false, Message.getMessage(TestHelper.getJordan(10, uId, false), TestHelper.getNullMake(12, uId)).isValid());
+        assertEquals(false, Message.getMessage(TestHelper.getNullMake(10, uId), TestHelper.getJordan(12, uId, false)).isValid());
+        assertEquals(false, Message.getAmendMessage(UUID.randomUUID(), TestHelper.getJordan(10, uId, false), TestHelper.getNullMake(12, uId)).isValid());
+        assertEquals(true, Message.getMessage(TestHelper.getJordan(10, uId, false), TestHelper.getAirMax(12, uId, false)).isValid());
+    }
 }
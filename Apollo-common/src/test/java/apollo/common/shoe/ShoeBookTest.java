@@ -58,6 +58,33 @@ public class ShoeBookTest {
         }
     }
 
+    /**
+     * Test a copy of the book keeps the swaps that were filled out of the original
+     * @throws Exception
+     */
+    @org.junit.Test
+    public void testCopy() throws Exception {
+        Make make = new ShoeMake(ShoeConstants.NIKE);
+        Model model = new ShoeModel(make, ShoeConstants.JORDAN);
+        UUID uId = UUID.randomUUID();
+
+        ShoeSwap bid = new ShoeSwap(model, 12, uId);
+        ShoeSwap ask = new ShoeSwap(model, 10, uId);
+        bid.setPair(ask);
+        ask.setPair(bid);
+
+        Book<ShoeSwapMapper, ShoeSwap> copy = new Book<ShoeSwapMapper, ShoeSwap>(book);
+        assertEquals(book.size(), copy.size());
+        assertEquals(book.getAllBids(), copy.getAllBids());
+
+        //fill out of the original. the copy still has its own sets
+        ShoeSwap match = book.fillBook(bid, ask);
+        assertNotNull(match);
+        assertEquals(book.size() + 1, copy.size());
+        assertTrue(copy.getAllBids().contains(match));
+        assertTrue(!book.getAllBids().contains(match));
+    }
+
     /**
      * Test the fill functionality
      * @throws Exception
@@ -131,6 +158,55 @@ public class ShoeBookTest {
 
     }
 
+    /**
+     * Test the handle of a resting bid: a fill and a grab take the bid off every map of the book, so the size drops
+     * and the bid no longer shows up as an ask, a bid or a listing
+     * @throws Exception
+     */
+    @org.junit.Test
+    public void testHandle() throws Exception {
+        Make make = new ShoeMake(ShoeConstants.NIKE);
+        Model model = new ShoeModel(make, ShoeConstants.JORDAN);
+        UUID uId = UUID.randomUUID();
+        int size = book.size();
+
+        //the resting bid for sale filled by a bid that wants it
+        ShoeSwap bid = new ShoeSwap(model, 12, uId);
+        ShoeSwap ask = new ShoeSwap(model, 10, uId);
+        ShoeSwap match = book.fillBook(bid, ask);
+        assertNotNull(match);
+        assertTrue(match.getHandle().getBook() == book);
+        assertTrue(!match.getHandle().isResting());
+        assertEquals(size - 1, book.size());
+        assertEquals(0, book.getAsks(match).size());
+        assertNull(book.grab(new ShoeSwap(model, 10, uId)));
+
+        //a grabbed bid can no longer be filled
+        Model other = ShoeHelper.getTestShoeModels(make).get(1);
+        match = book.grab(new ShoeSwap(other, 10, uId));
+        assertNotNull(match);
+        assertTrue(!match.getHandle().isResting());
+        assertEquals(size - 2, book.size());
+        assertNull(book.fillBook(new ShoeSwap(other, 12, uId), new ShoeSwap(other, 10, uId)));
+    }
+
+    /**
+     * Test: a swap without a match key is refused by the book instead of being counted and lost
+     * @throws Exception
+     */
+    @org.junit.Test
+    public void testUnkeyed() throws Exception {
+        Model model = new ShoeModel(new ShoeMake(ShoeConstants.NIKE), ShoeConstants.JORDAN);
+        Model unkeyed = new ShoeModel((Make) null, ShoeConstants.JORDAN);
+        UUID uId = UUID.randomUUID();
+        int size = book.size();
+
+        ShoeSwap bid = new ShoeSwap(model, 12, uId);
+        assertNull(book.addToBook(bid, new ShoeSwap(unkeyed, 10, uId)));
+        assertNull(bid.getHandle());
+        assertEquals(size, book.size());
+    }
+
     /**
      * test grab functionality that guarantees a null return
      * @throws Exception
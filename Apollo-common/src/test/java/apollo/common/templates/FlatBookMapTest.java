@@ -0,0 +1,174 @@
+package apollo.common.templates;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import apollo.common.shoe.ShoeSwap;
+import apollo.common.shoe.ShoeSwapMapper;
+import apollo.common.util.LongHashMap;
+import apollo.common.util.OrderQueue;
+import apollo.common.util.TestHelper;
+
+/**
+ * Tests the flat book map against the nested BookMap it replaces and the long keyed map behind it
+ */
+public class FlatBookMapTest {
+
+    /**
+     * Test: swaps of one level match first in first out, a swap of another size or model does not match and a peek
+     * does not take the swap
+     */
+    @Test
+    public void fifoTest() {
+        FlatBookMap<ShoeSwapMapper, ShoeSwap> map = new FlatBookMap<ShoeSwapMapper, ShoeSwap>();
+        UUID uId1 = UUID.randomUUID();
+        UUID uId2 = UUID.randomUUID();
+        map.put(TestHelper.getAirMax(12, uId1, false), TestHelper.getJordan(10, uId1, false));
+        map.put(TestHelper.getAirMax(12, uId2, false), TestHelper.getJordan(10, uId2, false));
+        assertEquals(2, map.getSet(TestHelper.getAirMax(12, uId1, false)).size());
+        assertEquals(0, map.getSet(TestHelper.getAirMax(11, uId1, false)).size());
+
+        UUID uId = UUID.randomUUID();
+        assertNull(map.get(TestHelper.getJordan(10, uId, false), TestHelper.getAirMax(12, uId, false)));
+        assertNull(map.get(TestHelper.getAirMax(12, uId, false), TestHelper.getJordan(9, uId, false)));
+        assertNull(map.get(TestHelper.getRose(12, uId, false), TestHelper.getJordan(10, uId, false)));
+
+        assertEquals(uId1, map.check(TestHelper.getAirMax(12, uId, false), TestHelper.getJordan(10, uId, false)).getUserId());
+        assertEquals(uId1, map.get(TestHelper.getAirMax(12, uId, false), TestHelper.getJordan(10, uId, false)).getUserId());
+        assertEquals(uId2, map.get(TestHelper.getAirMax(12, uId, false), TestHelper.getJordan(10, uId, false)).getUserId());
+        assertNull(map.get(TestHelper.getAirMax(12, uId, false), TestHelper.getJordan(10, uId, false)));
+    }
+
+    /**
+     * Test: the same random puts, gets and removes leave a flat map and a BookMap with the same swaps and digest,
+     * and a copy keeps them after the original is cleared
+     */
+    @Test
+    public void sameAsBookMapTest() {
+        FlatBookMap<ShoeSwapMapper, ShoeSwap> flat = new FlatBookMap<ShoeSwapMapper, ShoeSwap>();
+        BookMap<ShoeSwapMapper, ShoeSwap> nested = new BookMap<ShoeSwapMapper, ShoeSwap>();
+        Random random = new Random(7);
+
+        for(int i = 0; i < 2000; i++) {
+            UUID uId = UUID.randomUUID();
+            ShoeSwap key = swap(random, uId);
+            ShoeSwap value = swap(random, uId);
+            switch(random.nextInt(3)) {
+                case 0:
+                    flat.put(key, value);
+                    nested.put(key, value);
+                    break;
+                case 1:
+                    ShoeSwap flatMatch = flat.check(key, value);
+                    ShoeSwap nestedMatch = nested.check(key, value);
+                    assertTrue(flatMatch == nestedMatch);
+                    if(flatMatch != null) {
+                        assertTrue(flat.remove(key, flatMatch));
+                        assertTrue(nested.remove(key, nestedMatch));
+                    }
+                    break;
+                default:
+                    ShoeSwap copy = swap(random, uId);
+                    flatMatch = flat.check(key, copy);
+                    assertTrue(flatMatch == nested.check(key, copy));
+                    break;
+            }
+        }
+        assertEquals(nested.getAll(), flat.getAll());
+
+        FlatBookMap<ShoeSwapMapper, ShoeSwap> copy = new FlatBookMap<ShoeSwapMapper, ShoeSwap>(flat);
+        long digest = flat.digest();
+        flat.clear();
+        assertEquals(0, flat.digest());
+        assertEquals(digest, copy.digest());
+    }
+
+    /**
+     * Test: two equal swaps of one user are two orders on the level, a remove only takes the swap passed in and not an
+     * equal one, and unlinking the node a put handed back takes the swap off its level
+     */
+    @Test
+    public void identityTest() {
+        FlatBookMap<ShoeSwapMapper, ShoeSwap> map = new FlatBookMap<ShoeSwapMapper, ShoeSwap>();
+        UUID uId1 = UUID.randomUUID();
+        ShoeSwap first = TestHelper.getJordan(10, uId1, false);
+        ShoeSwap second = TestHelper.getJordan(10, uId1, false);
+        assertEquals(first, second);
+        map.put(TestHelper.getAirMax(12, uId1, false), first);
+        map.put(TestHelper.getAirMax(12, uId1, false), second);
+        assertEquals(2, map.values().size());
+
+        assertTrue(!map.remove(TestHelper.getAirMax(12, uId1, false), TestHelper.getJordan(10, uId1, false)));
+        assertTrue(map.remove(TestHelper.getAirMax(12, uId1, false), first));
+        assertTrue(!map.remove(TestHelper.getAirMax(12, uId1, false), first));
+
+        UUID uId = UUID.randomUUID();
+        assertTrue(second == map.get(TestHelper.getAirMax(12, uId, false), TestHelper.getJordan(10, uId, false)));
+        assertEquals(0, map.values().size());
+
+        OrderQueue.Node<ShoeSwap> node = map.put(TestHelper.getAirMax(12, uId1, false), first);
+        assertTrue(node.getValue() == first);
+        assertTrue(node.unlink());
+        assertTrue(!node.unlink());
+        assertEquals(0, map.values().size());
+        assertNull(map.get(TestHelper.getAirMax(12, uId, false), TestHelper.getJordan(10, uId, false)));
+    }
+
+    /**
+     * Test: random puts and removes leave the long keyed map with the same entries as a HashMap, including keys that
+     * collide on their first slot
+     */
+    @Test
+    public void longHashMapTest() {
+        LongHashMap<Long> map = new LongHashMap<Long>();
+        Map<Long, Long> expected = new HashMap<Long, Long>();
+        Random random = new Random(11);
+
+        for(int i = 0; i < 100000; i++) {
+            long key = random.nextInt(512) << 20;
+            if(random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            }
+            else {
+                assertEquals(expected.put(key, (long) i), map.put(key, (long) i));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for(Map.Entry<Long, Long> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+        assertEquals(expected.size(), map.keys().length);
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(0));
+    }
+
+    /**
+     * random shoe out of a few models and sizes so levels fill up
+     * @param random
+     *      source of the shoe
+     * @param uId
+     *      owner of the shoe
+     * @return
+     *      the shoe
+     */
+    private ShoeSwap swap(Random random, UUID uId) {
+        int size = 9 + random.nextInt(3);
+        switch(random.nextInt(3)) {
+            case 0:
+                return TestHelper.getJordan(size, uId, false);
+            case 1:
+                return TestHelper.getAirMax(size, uId, false);
+            default:
+                return TestHelper.getRose(size, uId, false);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package apollo.common.util;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+import org.junit.Test;
+
+import apollo.common.constant.ShoeConstants;
+import apollo.common.shoe.ShoeMake;
+import apollo.common.shoe.ShoeModel;
+import apollo.common.templates.Make;
+import apollo.common.templates.Model;
+
+/**
+ * Tests the ids and canonical instances of the symbol registry
+ */
+public class SymbolRegistryTest {
+
+    /**
+     * Test: makes and models built apart get the same id for the same names, equal exactly when their ids are, and
+     * a new model name gets the next id
+     */
+    @Test
+    public void idTest() {
+        Make nike = new ShoeMake(ShoeConstants.NIKE);
+        Make adidas = new ShoeMake(ShoeConstants.ADIDAS);
+        assertEquals(nike.getId(), new ShoeMake(ShoeConstants.NIKE).getId());
+        assertTrue(nike.getId() != adidas.getId());
+        assertEquals(nike, new ShoeMake(ShoeConstants.NIKE));
+
+        Model jordan = new ShoeModel(nike, ShoeConstants.JORDAN);
+        Model other = new ShoeModel(new ShoeMake(ShoeConstants.NIKE), ShoeConstants.JORDAN, 1985);
+        assertEquals(jordan.getId(), other.getId());
+        assertEquals(jordan, other);
+        assertEquals(jordan.hashCode(), other.hashCode());
+
+        //the same model name under another make is another model
+        Model adidasJordan = new ShoeModel(adidas, ShoeConstants.JORDAN);
+        assertTrue(jordan.getId() != adidasJordan.getId());
+        assertTrue(!jordan.equals(adidasJordan));
+
+        int count = SymbolRegistry.getModelCount();
+        Model fresh = new ShoeModel(nike, "REGISTRY-" + System.nanoTime());
+        assertEquals(count, fresh.getId());
+        assertEquals(count + 1, SymbolRegistry.getModelCount());
+    }
+
+    /**
+     * Test: the registry hands out one shared instance per make and per model
+     */
+    @Test
+    public void canonicalTest() {
+        assertTrue(SymbolRegistry.getMake(ShoeConstants.REEBOK) == SymbolRegistry.getMake(ShoeConstants.REEBOK));
+        Model model = SymbolRegistry.getModel(ShoeConstants.REEBOK, ShoeConstants.ANSWER_V);
+        assertTrue(model == SymbolRegistry.getModel(ShoeConstants.REEBOK, ShoeConstants.ANSWER_V));
+        assertTrue(model.getMake() == SymbolRegistry.getMake(ShoeConstants.REEBOK));
+        assertEquals(new ShoeModel(new ShoeMake(ShoeConstants.REEBOK), ShoeConstants.ANSWER_V), model);
+        assertEquals(null, SymbolRegistry.getModel(null, ShoeConstants.ANSWER_V));
+    }
+}
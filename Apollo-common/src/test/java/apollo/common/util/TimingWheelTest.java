@@ -0,0 +1,112 @@
+package apollo.common.util;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests scheduling, cancelling and advancing the timing wheel
+ */
+public class TimingWheelTest {
+
+    /**
+     * Test: an advance hands out exactly the values due at or before the time passed in, tick by tick, and leaves the
+     * later deadlines of the current tick on the wheel
+     */
+    @Test
+    public void advanceTest() {
+        TimingWheel<String> wheel = new TimingWheel<String>(10, 8);
+        wheel.schedule("a", 1005);
+        wheel.schedule("b", 1012);
+        wheel.schedule("c", 1018);
+        wheel.schedule("d", 1040);
+        assertEquals(4, wheel.size());
+
+        assertFalse(wheel.hasExpired(1004));
+        assertEquals(0, wheel.advance(1004).size());
+
+        assertTrue(wheel.hasExpired(1015));
+        assertEquals(Arrays.asList("a", "b"), wheel.advance(1015));
+        //c is on the tick that was just advanced to but not due yet
+        assertEquals(Arrays.asList("c"), wheel.advance(1018));
+        assertEquals(0, wheel.advance(1039).size());
+        assertEquals(Arrays.asList("d"), wheel.advance(1040));
+        assertTrue(wheel.isEmpty());
+    }
+
+    /**
+     * Test: a cancelled timeout is never handed out and cannot be cancelled twice
+     */
+    @Test
+    public void cancelTest() {
+        TimingWheel<String> wheel = new TimingWheel<String>(10, 8);
+        TimingWheel.Timeout<String> a = wheel.schedule("a", 1005);
+        TimingWheel.Timeout<String> b = wheel.schedule("b", 1005);
+        assertTrue(a.isPending());
+
+        assertTrue(wheel.cancel(a));
+        assertFalse(wheel.cancel(a));
+        assertFalse(a.isPending());
+        assertEquals(1, wheel.size());
+
+        assertEquals(Arrays.asList("b"), wheel.advance(2000));
+        assertFalse(b.isPending());
+        assertFalse(wheel.cancel(b));
+        assertTrue(wheel.isEmpty());
+    }
+
+    /**
+     * Test: a deadline on a tick that has already passed goes out on the next advance, and deadlines a whole turn or
+     * more ahead stay on the wheel until they are due
+     */
+    @Test
+    public void wrapTest() {
+        TimingWheel<String> wheel = new TimingWheel<String>(10, 8);
+        wheel.advance(1000);
+        wheel.schedule("late", 900);
+        //8 slots of 10 is a turn of 80, these share slots with earlier ticks
+        wheel.schedule("turn", 1085);
+        wheel.schedule("turns", 1245);
+
+        assertEquals(Arrays.asList("late"), wheel.advance(1001));
+        assertEquals(0, wheel.advance(1084).size());
+        assertEquals(Arrays.asList("turn"), wheel.advance(1090));
+        assertEquals(0, wheel.advance(1200).size());
+        //a long gap scans the whole wheel once
+        assertEquals(Arrays.asList("turns"), wheel.advance(5000));
+        assertTrue(wheel.isEmpty());
+    }
+
+    /**
+     * Test: two wheels given the same schedules expire the same values at the same time, whatever ticks they advanced
+     * to before
+     */
+    @Test
+    public void determinismTest() {
+        TimingWheel<Integer> often = new TimingWheel<Integer>(10, 16);
+        TimingWheel<Integer> once = new TimingWheel<Integer>(10, 16);
+        for(int i = 0; i < 100; i++) {
+            long deadline = 1000 + (i * 37) % 500;
+            often.schedule(i, deadline);
+            once.schedule(i, deadline);
+        }
+
+        int expired = 0;
+        for(long now = 1000; now < 1300; now += 7) {
+            expired += often.advance(now).size();
+        }
+        expired += often.advance(1299).size();
+        List<Integer> all = once.advance(1299);
+        assertEquals(all.size(), expired);
+        assertEquals(often.size(), once.size());
+
+        assertEquals(often.advance(1500).size(), once.advance(1500).size());
+        assertTrue(often.isEmpty());
+        assertTrue(once.isEmpty());
+    }
+}
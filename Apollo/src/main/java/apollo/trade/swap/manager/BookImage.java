@@ -0,0 +1,78 @@
+package apollo.trade.swap.manager;
+
+import java.util.List;
+
+import apollo.common.templates.Book;
+import apollo.common.templates.Model;
+import apollo.common.templates.Swap;
+
+/**
+ * Frozen image of one book for a checkpoint. The image starts out as a reference to the live book and is only
+ * captured, as the lists of its resting and listed bids, the first time either side needs it: the core right before it
+ * writes to the book again, or the thread writing the checkpoint when it gets to the book. Books nobody writes to
+ * after the checkpoint are never copied by the core
+ */
+public class BookImage {
+    //model of the book
+    private final Model model;
+
+    //live book until the image is captured
+    private Book book;
+
+    //bids of the book at the checkpoint, see Book.getResting and Book.getListed
+    private List<Swap> resting = null;
+    private List<Swap> listed = null;
+
+    /**
+     * constructor that takes the book to freeze
+     * @param model
+     *      model of the book
+     * @param book
+     *      the live book
+     */
+    BookImage(Model model, Book book) {
+        this.model = model;
+        this.book = book;
+    }
+
+    /**
+     * captures the image if it has not been captured yet. Must be called before the book changes
+     */
+    @SuppressWarnings("unchecked")
+    synchronized void capture() {
+        if(book != null) {
+            resting = book.getResting();
+            listed = book.getListed();
+            book = null;
+        }
+    }
+
+    /**
+     * model of the book
+     * @return
+     *      the model
+     */
+    public Model getModel() {
+        return model;
+    }
+
+    /**
+     * bids resting in the book at the checkpoint, each paired with its ask
+     * @return
+     *      the resting bids in level order
+     */
+    public synchronized List<Swap> getResting() {
+        capture();
+        return resting;
+    }
+
+    /**
+     * bids for sale in the book at the checkpoint
+     * @return
+     *      the listed bids in grab order
+     */
+    public synchronized List<Swap> getListed() {
+        capture();
+        return listed;
+    }
+}
@@ -0,0 +1,56 @@
+package apollo.trade.swap.manager;
+
+import java.util.List;
+
+import apollo.common.engine.Message;
+import apollo.common.templates.Swap;
+
+/**
+ * Read only copy of the books at one book version. Goal searches run against a view so they never touch the books the
+ * matching threads are writing to, and any number of query threads can share one view. The books of a make are copied
+ * together and books that did not change are shared with the view before, see ModelManager.view. Nothing in a view is
+ * ever written to, a model or make without books just has nothing to match. The swaps are shared with the live books,
+ * a swap that gets filled after the view was taken reads as invalid and is skipped by the search
+ */
+public class BookView {
+    //manager over the copied books
+    private final MessageManager manager;
+
+    //version of the books this view is a copy of
+    private final long version;
+
+    /**
+     * creates a view over copied books
+     * @param manager
+     *      manager over the copied books
+     * @param version
+     *      version of the books that were copied
+     */
+    BookView(MessageManager manager, long version) {
+        this.manager = manager;
+        this.version = version;
+    }
+
+    /**
+     * runs a goal search against the view
+     * @param message
+     *      GOAL engine
+     * @return
+     *      chain of swaps from the bid to the goal. null if there is none or the engine is not a goal
+     */
+    public List<Swap> processGoal(Message message) {
+        if(message.getType() != Message.GOAL) {
+            return null;
+        }
+        return manager.processChain(message);
+    }
+
+    /**
+     * version of the books this view is a copy of
+     * @return
+     *      the book version
+     */
+    public long getVersion() {
+        return version;
+    }
+}
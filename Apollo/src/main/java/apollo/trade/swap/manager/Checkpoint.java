@@ -0,0 +1,97 @@
+package apollo.trade.swap.manager;
+
+import java.util.List;
+
+/**
+ * Consistent view of every book taken at one point in the message stream. Taking it only collects a BookImage per
+ * book, the images are captured lazily so a checkpoint can be written by another thread while the books keep changing.
+ * A delta checkpoint only has the books that changed since the checkpoint it is based on
+ */
+public class Checkpoint {
+    //images of every book that had resting bids, or of every book that changed for a delta
+    private final List<BookImage> images;
+
+    //book version of the checkpoint a delta is based on. -1 for a full checkpoint
+    private final long baseVersion;
+
+    //book version and journal sequence the checkpoint was taken at
+    private final long version;
+    private final long sequence;
+
+    //timestamp when this was created
+    private final long createTime;
+
+    /**
+     * constructor that takes the images of the books
+     * @param images
+     *      image of every book
+     * @param version
+     *      book version at the checkpoint
+     * @param sequence
+     *      sequence of the next journal record at the checkpoint. -1 if there is no journal
+     * @param baseVersion
+     *      book version of the checkpoint a delta is based on. -1 for a full checkpoint
+     */
+    Checkpoint(List<BookImage> images, long version, long sequence, long baseVersion) {
+        this.images = images;
+        this.baseVersion = baseVersion;
+        this.version = version;
+        this.sequence = sequence;
+        this.createTime = System.currentTimeMillis();
+    }
+
+    /**
+     * image of every book that had resting bids at the checkpoint
+     * @return
+     *      the book images
+     */
+    public List<BookImage> getImages() {
+        return images;
+    }
+
+    /**
+     * whether this checkpoint only has the books that changed since the checkpoint it is based on
+     * @return
+     *      True - delta checkpoint
+     */
+    public boolean isDelta() {
+        return baseVersion != -1;
+    }
+
+    /**
+     * book version of the checkpoint this delta is based on
+     * @return
+     *      the base book version. -1 for a full checkpoint
+     */
+    public long getBaseVersion() {
+        return baseVersion;
+    }
+
+    /**
+     * book version the checkpoint was taken at, see MessageManager.getVersion
+     * @return
+     *      the book version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * sequence of the first journal record that is not part of the checkpoint. Recovery loads the checkpoint and
+     * replays the journal from here
+     * @return
+     *      the journal sequence. -1 if there is no journal
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * timestamp when this checkpoint was created
+     * @return
+     *      creation time in milliseconds
+     */
+    public long getTimestamp() {
+        return createTime;
+    }
+}
@@ -7,8 +7,11 @@ import apollo.common.templates.Book;
 import apollo.common.templates.Make;
 import apollo.common.templates.Model;
 import apollo.common.templates.Swap;
+import apollo.common.util.TimingWheel;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Manager class for Message. This class handles the Different Message types and based
@@ -16,18 +19,36 @@ import java.util.*;
  * SWAP - Exchange a shoe you have (bid) for a shoe you want (ask)
  * GOAL - Give a possible trade path from the shoe you have (bid) to the shoe you want (goal)
  * GRAB - Grab a shoe that matches (bid) and is also for sale
+ * CANCEL - Withdraw a resting order by its order id
+ * AMEND - Replace the ask of a resting order, keeping its order id
+ * EXPIRE - Withdraw the resting orders past their good till time, sent by the core thread
  * Created by santana on 7/28/14.
  */
 public class MessageManager {
-    //map of ModelManagers by their Make
+    //map of ModelManagers by their Make. concurrent since a sharded core adds makes from more than one thread
     public Map<Make, ModelManager> makeManager = null;
-    private boolean dirtyBook = false;
+    private volatile boolean dirtyBook = false;
+
+    //version of the books. moves on every change to the books so a book view knows which state it is a copy of
+    private final AtomicLong version = new AtomicLong();
+
+    //book version of the last checkpoint. -1 before the first one
+    private long checkpointVersion = -1;
+
+    //resting orders by order id, see Swap.getOrderId. concurrent since a sharded core places orders from more than one
+    //thread
+    private Map<UUID, Swap> orders = new ConcurrentHashMap<UUID, Swap>();
+
+    //resting orders with a good till time, on the wheel by that time and by order id to take them off once they leave
+    //the books. guarded by the wheel since shards place orders from more than one thread
+    private final TimingWheel<Swap> wheel = new TimingWheel<Swap>();
+    private final Map<UUID, TimingWheel.Timeout<Swap>> expiries = new HashMap<UUID, TimingWheel.Timeout<Swap>>();
 
     /**
      * default constructor will create a clean book
      */
     public MessageManager() {
-        makeManager = new HashMap<Make, ModelManager>();
+        makeManager = new ConcurrentHashMap<Make, ModelManager>();
     }
 
     /**
@@ -39,6 +60,15 @@ public class MessageManager {
         rebuildBook(snapshot);
     }
 
+    /**
+     * creates a manager over model managers that already exist. Used for book views
+     * @param makeManager
+     *          the model managers by make
+     */
+    MessageManager(Map<Make, ModelManager> makeManager) {
+        this.makeManager = makeManager;
+    }
+
     /**
      * method that processes the engine passed in based on the engine type.
      * @param message
@@ -47,6 +77,20 @@ public class MessageManager {
      *          Bill of the engine passed in.
      */
     public Bill processMessage(Message message) {
+        Bill bill = new Bill(processChain(message), message.getId(), message.getStatistics());
+        bill.setExpiry(message.getType() == Message.EXPIRE);
+        return bill;
+    }
+
+    /**
+     * matching part of processMessage. Runs the engine against the books and returns the chain without building the
+     * bill, so the bill can be built off the matching thread
+     * @param message
+     *          engine to be processed
+     * @return
+     *          chain of swaps for the engine. null if a goal search found nothing
+     */
+    public List<Swap> processChain(Message message) {
         List<Swap> chain = null;
 
         switch(message.getType()) {
@@ -65,9 +109,65 @@ public class MessageManager {
             case Message.GOAL:
                 chain = processGoal(message);
                 break;
+
+            //CANCEL: withdraws the resting order with the order id
+            case Message.CANCEL:
+                chain = processCancel(message);
+                break;
+
+            //AMEND: withdraws the resting order with the order id and places the new bid and ask under it
+            case Message.AMEND:
+                chain = processAmend(message);
+                break;
+
+            //EXPIRE: withdraws every resting order good till the time of the engine or earlier
+            case Message.EXPIRE:
+                chain = processExpire(message);
+                break;
         }
 
-        return new Bill(chain, message.getId(), message.getStatistics());
+        return chain;
+    }
+
+    /**
+     * checks whether the swaps the engine needs for its type are valid. An engine that fails this never touches the
+     * books, see rejectChain
+     * @param message
+     *          engine to be validated
+     * @return
+     *          True - the engine can be matched
+     */
+    public boolean validate(Message message) {
+        switch(message.getType()) {
+            case Message.SWAP:
+                return validate(message.getBid()) && keyed(message.getAsk());
+            case Message.GRAB:
+                return validate(message.getAsk());
+            case Message.GOAL:
+                return validate(message.getBid()) && validate(message.getGoal());
+            case Message.CANCEL:
+            case Message.AMEND:
+                return message.getOrderId() != null && validate(message.getBid())
+                        && (message.getType() == Message.CANCEL || keyed(message.getAsk()));
+            case Message.EXPIRE:
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * chain of an engine that failed validation. The same chain processChain gives for it, without touching the books
+     * @param message
+     *          engine that failed validation
+     * @return
+     *          empty chain, null for goals and unknown types
+     */
+    public List<Swap> rejectChain(Message message) {
+        if(message.getType() == Message.SWAP || message.getType() == Message.GRAB
+                || message.getType() == Message.CANCEL || message.getType() == Message.AMEND) {
+            return new ArrayList<Swap>();
+        }
+        return null;
     }
 
     /**
@@ -78,31 +178,49 @@ public class MessageManager {
      *         List of swaps for this engine
      */
     private List<Swap> processSwap(Message message) {
-        Swap bid = message.getBid();
-        Swap ask = message.getAsk();
+        return place(message.getBid(), message.getAsk(), message.getId());
+    }
+
+    /**
+     * fills the bid against the books or rests it under the order id passed in
+     * @param bid
+     *          the swap you have
+     * @param ask
+     *          the swap you want to trade your bid for
+     * @param orderId
+     *          id the bid rests under if nothing fills it
+     * @return
+     *         List of swaps for this engine
+     */
+    private List<Swap> place(Swap bid, Swap ask, UUID orderId) {
         Swap match = null;
         Make make = null;
         ModelManager modelManager;
         List<Swap> chain = new ArrayList<Swap>();
 
-        //check the bids modelManager for the proper book and possible fill
-        if(validate(bid)) {
+        //a swap without a match key could never rest, it is refused before it reaches a book
+        if(validate(bid) && keyed(bid) && keyed(ask)) {
             make = bid.getModel().getMake();
-            modelManager = makeManager.get(make);
+            bid.setOrderId(orderId);
 
-            if(modelManager == null) {
-                modelManager = new ModelManager(make);
-                makeManager.put(make, modelManager);
-            }
-            match = modelManager.addAndFill(bid, ask);
-        }
+            //cross make swap: fill against the ask make first and only rest the bid on its own make if nothing
+            //filled it. The bid make never holds a filled bid this way
+            if(validate(ask)) {
+                Make askMake = ask.getModel().getMake();
+
+                if(!make.equals(askMake)) {
+                    modelManager = makeManager.get(askMake);
 
-        //check the ask side to match
-        if(match == null && validate(ask)) {
-            Make askMake  = ask.getModel().getMake();
+                    if(modelManager == null) {
+                        modelManager = new ModelManager(askMake);
+                        makeManager.put(askMake, modelManager);
+                    }
+                    match = modelManager.addAndFill(bid, ask);
+                }
+            }
 
-            if(!make.equals(askMake)){
-                make = ask.getModel().getMake();
+            //check the bids modelManager for the proper book and possible fill
+            if(match == null) {
                 modelManager = makeManager.get(make);
 
                 if(modelManager == null) {
@@ -112,10 +230,19 @@ public class MessageManager {
                 match = modelManager.addAndFill(bid, ask);
             }
         }
+
         //add match to chain
         if(match != null) {
             chain.add(bid);
             chain.add(match);
+            forget(match);
+        }
+        else if(bid != null && bid.getHandle() != null && bid.getHandle().isResting()) {
+            orders.put(orderId, bid);
+            schedule(bid);
+        }
+        if(validate(bid)) {
+            version.incrementAndGet();
         }
 
         dirtyBook = true;
@@ -148,11 +275,202 @@ public class MessageManager {
 
         if(match != null) {
             chain.add(match);
+            forget(match);
             dirtyBook = true;
+            version.incrementAndGet();
+        }
+        return chain;
+    }
+
+    /**
+     * Internal process Cancel method
+     * @param message
+     *      CANCEL engine
+     * @return
+     *      List with the withdrawn order. Empty if the order id has no resting order of the bid's user and make
+     */
+    private List<Swap> processCancel(Message message) {
+        List<Swap> chain = new ArrayList<Swap>();
+        Swap order = getOrder(message.getOrderId(), message.getBid());
+
+        if(order != null && withdraw(order)) {
+            chain.add(order);
+        }
+        return chain;
+    }
+
+    /**
+     * Internal process Amend method. The new bid is only placed if the order was withdrawn
+     * @param message
+     *      AMEND engine
+     * @return
+     *      List with the withdrawn order followed by the chain of the new bid, see processSwap. Empty if the order id
+     *      has no resting order of the bid's user and model
+     */
+    private List<Swap> processAmend(Message message) {
+        Swap bid = message.getBid();
+        List<Swap> chain = new ArrayList<Swap>();
+        Swap order = getOrder(message.getOrderId(), bid);
+
+        if(order != null && order.getModel().equals(bid.getModel()) && withdraw(order)) {
+            chain.add(order);
+            chain.addAll(place(bid, message.getAsk(), message.getOrderId()));
+        }
+        return chain;
+    }
+
+    /**
+     * Internal process Expire method. Orders come off the timing wheel in O(1) each and are withdrawn through their
+     * handles, so the cost only depends on how many orders expire
+     * @param message
+     *      EXPIRE engine
+     * @return
+     *      List of the withdrawn orders
+     */
+    private List<Swap> processExpire(Message message) {
+        List<Swap> due;
+        synchronized(wheel) {
+            due = wheel.advance(message.getTime());
+            for(Swap order : due) {
+                expiries.remove(order.getOrderId());
+            }
+        }
+
+        List<Swap> chain = new ArrayList<Swap>(due.size());
+        for(Swap order : due) {
+            if(withdraw(order)) {
+                chain.add(order);
+            }
         }
         return chain;
     }
 
+    /**
+     * whether any resting order is good till the time passed in or earlier, without withdrawing it. Used by the core
+     * thread to decide whether to send an EXPIRE
+     * @param time
+     *      milliseconds from epoch
+     * @return
+     *      True - an EXPIRE with the time would withdraw at least one order
+     */
+    public boolean hasExpired(long time) {
+        synchronized(wheel) {
+            return !wheel.isEmpty() && wheel.hasExpired(time);
+        }
+    }
+
+    /**
+     * whether any resting order has a good till time
+     * @return
+     *      True - an order may still expire
+     */
+    public boolean hasExpiries() {
+        synchronized(wheel) {
+            return !wheel.isEmpty();
+        }
+    }
+
+    /**
+     * length of a tick of the timing wheel the orders expire on
+     * @return
+     *      milliseconds per tick
+     */
+    public long getExpiryTick() {
+        return wheel.getTick();
+    }
+
+    /**
+     * puts a resting order with a good till time on the timing wheel
+     * @param order
+     *      bid of the order
+     */
+    private void schedule(Swap order) {
+        if(order.getGoodTill() != 0 && order.getOrderId() != null) {
+            synchronized(wheel) {
+                TimingWheel.Timeout<Swap> old = expiries.put(order.getOrderId(), wheel.schedule(order, order.getGoodTill()));
+                wheel.cancel(old);
+            }
+        }
+    }
+
+    /**
+     * looks a resting order up by its order id
+     * @param orderId
+     *      id of the order
+     * @return
+     *      the resting bid of the order. null if no order rests under the id
+     */
+    public Swap getOrder(UUID orderId) {
+        return orderId != null ? orders.get(orderId) : null;
+    }
+
+    /**
+     * amount of orders resting in the books
+     * @return
+     *      the order count
+     */
+    public int getOrderCount() {
+        return orders.size();
+    }
+
+    /**
+     * looks a resting order up for a cancel or amend. The order must belong to the user of the swap passed in and be
+     * of its make, so the order is in a book the message was routed to
+     * @param orderId
+     *      id of the order
+     * @param owner
+     *      swap of the cancel or amend
+     * @return
+     *      the resting bid of the order. null if there is none or it is not the owner's
+     */
+    private Swap getOrder(UUID orderId, Swap owner) {
+        Swap order = getOrder(orderId);
+        if(order == null || !validate(owner) || owner.getUserId() == null
+                || !owner.getUserId().equals(order.getUserId())
+                || !owner.getModel().getMake().equals(order.getModel().getMake())) {
+            return null;
+        }
+        return order;
+    }
+
+    /**
+     * withdraws a resting order from its book and the order index
+     * @param order
+     *      the resting bid of the order
+     * @return
+     *      True - the order was still resting
+     */
+    private boolean withdraw(Swap order) {
+        forget(order);
+        ModelManager modelManager = makeManager.get(order.getModel().getMake());
+        if(modelManager != null && modelManager.cancel(order)) {
+            dirtyBook = true;
+            version.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * takes an order that left the books off the order index
+     * @param order
+     *      bid of the order
+     */
+    private void forget(Swap order) {
+        if(order.getOrderId() != null) {
+            orders.remove(order.getOrderId(), order);
+            if(order.getGoodTill() != 0) {
+                synchronized(wheel) {
+                    TimingWheel.Timeout<Swap> timeout = expiries.get(order.getOrderId());
+                    if(timeout != null && timeout.getValue() == order) {
+                        expiries.remove(order.getOrderId());
+                        wheel.cancel(timeout);
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * internal process goal engine
      * @param message
@@ -186,26 +504,20 @@ public class MessageManager {
             make = bid.getModel().getMake();
             modelManager = makeManager.get(make);
 
-            //if model manager doesn't exist for this make, make one
-            if(modelManager == null) {
-                modelManager = new ModelManager(make);
-                makeManager.put(make, modelManager);
+            //a make without a model manager has nothing resting to match. read only, a book view runs this too
+            if(modelManager != null) {
+                goalMatch = modelManager.match(bid, ask);
             }
-
-            goalMatch = modelManager.match(bid, ask);
         }
 
         if(goalMatch == null && validate(ask)) {
             make = ask.getModel().getMake();
             modelManager = makeManager.get(make);
 
-            //if model manager doesn't exist for this make, make one
-            if(modelManager == null) {
-                modelManager = new ModelManager(make);
-                makeManager.put(make, modelManager);
+            //a make without a model manager has nothing resting to match. read only, a book view runs this too
+            if(modelManager != null) {
+                goalMatch = modelManager.match(bid, ask);
             }
-
-            goalMatch = modelManager.match(bid, ask);
         }
 
         return goalMatch;
@@ -242,6 +554,11 @@ public class MessageManager {
         Make make = goal.getModel().getMake();
         ModelManager modelManager = makeManager.get(make);
 
+        //nothing of this make has ever rested so nobody has the goal
+        if(modelManager == null) {
+            return null;
+        }
+
         Set<Swap> goalDown = modelManager.getAsks(goal);
 
         //if both sets aren't null we can continue down a level
@@ -265,6 +582,101 @@ public class MessageManager {
         return null;
     }
 
+    /**
+     * version of the books. Moves on every swap that rests or fills, every grab that fills and every flush
+     * @return
+     *      the current book version
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * makes that have books, see getView
+     * @return
+     *      every make with a model manager
+     */
+    public Set<Make> getMakes() {
+        return makeManager.keySet();
+    }
+
+    /**
+     * copies the books of one make for a book view, see ModelManager.view. Only the books whose version moved since
+     * the last view are copied. The caller has to make sure nothing changes the books of the make while the copy is
+     * taken
+     * @param make
+     *      make of the books
+     * @return
+     *      read only copy of the make's books. null if the make has no books
+     */
+    public ModelManager getView(Make make) {
+        ModelManager modelManager = makeManager.get(make);
+        return modelManager != null ? modelManager.view() : null;
+    }
+
+    /**
+     * puts the copies of getView together into a read only view. The version has to be read before the first copy is
+     * taken, so a view is never tagged with a version newer than the books it holds
+     * @param views
+     *      copies of the books by make
+     * @param version
+     *      book version read before the copies were taken
+     * @return
+     *      a view of the books
+     */
+    public BookView getBookView(Map<Make, ModelManager> views, long version) {
+        return new BookView(new MessageManager(views), version);
+    }
+
+    /**
+     * takes a checkpoint of every book at the current version. The books are frozen, not copied, so this costs one
+     * image per book with resting bids. The caller must keep the books from changing while it runs
+     * @param sequence
+     *      sequence of the next journal record. -1 if there is no journal
+     * @return
+     *      the checkpoint, which may be written by another thread
+     */
+    public Checkpoint checkpoint(long sequence) {
+        return checkpoint(sequence, false);
+    }
+
+    /**
+     * takes a checkpoint of the books, see checkpoint. A delta only has the books whose version moved since the last
+     * checkpoint, so with few busy models it is a fraction of a full one. The first checkpoint is always full
+     * @param sequence
+     *      sequence of the next journal record. -1 if there is no journal
+     * @param delta
+     *      true for a delta on the last checkpoint
+     * @return
+     *      the checkpoint, which may be written by another thread
+     */
+    public Checkpoint checkpoint(long sequence, boolean delta) {
+        delta = delta && checkpointVersion != -1;
+        List<BookImage> images = new ArrayList<BookImage>();
+        for(ModelManager manager : makeManager.values()) {
+            images.addAll(manager.freeze(delta));
+        }
+        Checkpoint checkpoint = new Checkpoint(images, version.get(), sequence, delta ? checkpointVersion : -1);
+        checkpointVersion = checkpoint.getVersion();
+        return checkpoint;
+    }
+
+    /**
+     * takes a full image of the books at the current version without starting a new checkpoint, so the next delta
+     * checkpoint is still based on the last one. The caller must keep the books from changing while it runs
+     * @param sequence
+     *      sequence the image is taken at
+     * @return
+     *      the image, which may be written by another thread
+     */
+    public Checkpoint image(long sequence) {
+        List<BookImage> images = new ArrayList<BookImage>();
+        for(ModelManager manager : makeManager.values()) {
+            images.addAll(manager.image());
+        }
+        return new Checkpoint(images, version.get(), sequence, -1);
+    }
+
     /**
      * Goes through the current state of the model managers and returns the complete books for each model in the engine.
      * @return
@@ -288,12 +700,28 @@ public class MessageManager {
         return bookSnapshot;
     }
 
+    /**
+     * digest of every book in the engine. Two managers that processed the same messages in the same order have the
+     * same digest. The caller must keep the books from changing while it runs
+     * @return
+     *      digest of the books. 0 if every book is empty
+     */
+    public long digest() {
+        long digest = 0;
+        for(ModelManager manager : makeManager.values()) {
+            for(Book book : manager.getBookstore().values()) {
+                digest += book.digest();
+            }
+        }
+        return digest;
+    }
+
     /**
      * Rebuilds the make manager with the snapshot that was passed in.
      * @param snapshot
      */
     private void rebuildBook(BookSnapshot snapshot) {
-        makeManager = new HashMap<Make, ModelManager>();
+        makeManager = new ConcurrentHashMap<Make, ModelManager>();
 
         //rebuild book from snapshot
         if(snapshot != null && !snapshot.isEmpty()) {
@@ -302,6 +730,17 @@ public class MessageManager {
                 Map<Model, Book> bookMap = snapshot.getBooksForMake(make);
                 ModelManager manager = new ModelManager(make, bookMap);
                 makeManager.put(make, manager);
+
+                //orders placed under an order id can be cancelled again
+                for(Book book : manager.getBookstore().values()) {
+                    for(Object bid : book.getResting()) {
+                        Swap order = (Swap) bid;
+                        if(order.getOrderId() != null) {
+                            orders.put(order.getOrderId(), order);
+                            schedule(order);
+                        }
+                    }
+                }
             }
         }
     }
@@ -350,6 +789,12 @@ public class MessageManager {
      */
     public boolean flush() {
         boolean flushed = true;
+        version.incrementAndGet();
+        orders.clear();
+        synchronized(wheel) {
+            wheel.clear();
+            expiries.clear();
+        }
 
         Set<Make> makes = makeManager.keySet();
         for(Make make : makes) {
@@ -378,4 +823,15 @@ public class MessageManager {
         return false;
     }
 
+    /**
+     * whether the swap can be put on a book, see Swap.getMatchKey
+     * @param swap
+     *      the swap. may be null
+     * @return
+     *      True - the swap is null or has a match key
+     */
+    private boolean keyed(Swap swap) {
+        return swap == null || swap.getMatchKey() != -1;
+    }
+
 }
@@ -1,6 +1,9 @@
 package apollo.trade.swap.manager;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -20,6 +23,16 @@ public class ModelManager {
     private Make make = null;
     //map of all the models and books associated with the models
     private Map<Model, Book> bookMap = null;
+    //books of bookMap by model id, see SymbolRegistry. null where the model has no book yet
+    private Book[] books = new Book[16];
+    //images of the books of the last checkpoint that have not been captured yet. null if there are none
+    private Map<Model, BookImage> frozen = null;
+    //models whose books were written to since the last checkpoint
+    private Set<Model> dirty = new HashSet<Model>();
+    //version of each book at the last checkpoint
+    private Map<Model, Long> checkpointVersions = new HashMap<Model, Long>();
+    //copies of the books handed to the last book view. a book is only copied again once its version moved
+    private Map<Model, Book> viewed = new HashMap<Model, Book>();
 
     /**
      * Constructor that takes only a make and makes a blank book map
@@ -54,11 +67,34 @@ public class ModelManager {
             for(Model model : modelSet) {
                 if(make.equals(model.getMake())) {
                     this.bookMap.put(model, bookMap.get(model));
+                    index(model, bookMap.get(model));
                 }
             }
         }
     }
 
+    /**
+     * creates a read only copy of this model manager for a book view. Only the books whose version moved since the last
+     * view are copied, the others are shared with the last view. The copy is never written to once it is made, so
+     * several readers can share it. The caller has to make sure nothing writes to the books while the copy is taken
+     * @return
+     *      the copy
+     */
+    public ModelManager view() {
+        ModelManager copy = new ModelManager(make);
+        for(Map.Entry<Model, Book> entry : bookMap.entrySet()) {
+            Book book = entry.getValue();
+            Book last = viewed.get(entry.getKey());
+            if(last == null || last.getVersion() != book.getVersion()) {
+                last = new Book(book);
+                viewed.put(entry.getKey(), last);
+            }
+            copy.bookMap.put(entry.getKey(), last);
+            copy.index(entry.getKey(), last);
+        }
+        return copy;
+    }
+
     /**
      * checks the book for a match for the swap passed in. If there is a match than the matching swap with user information
      * is returned and that swap is removed from the engine (matched)
@@ -72,16 +108,31 @@ public class ModelManager {
         if(validate(ask)) {
             Model model = ask.getModel();
 
-            Book book = bookMap.get(model);
-            if(book == null) {
-                book = new Book<SwapMapper, Swap>();
-                bookMap.put(model, book);
-            }
+            Book book = book(model);
+            touch(model);
             return book.grab(ask);
         }
         return null;
     }
 
+    /**
+     * withdraws a resting bid from the book of its model, see Book.cancel
+     * @param bid
+     *      The resting bid
+     * @return
+     *      True - the bid was resting and is now withdrawn
+     */
+    public boolean cancel(Swap bid) {
+        if(validate(bid)) {
+            Model model = bid.getModel();
+
+            Book book = book(model);
+            touch(model);
+            return book.cancel(bid);
+        }
+        return false;
+    }
+
     /**
      * attempts to find a swap that matches ask and is looking for bid. This is a read only and does not edit the book
      * (does not match the actual swap and remove it from the engine)
@@ -110,11 +161,8 @@ public class ModelManager {
     public Swap addAndFill(Swap bid, Swap ask) {
         Swap match = internalMatch(bid, ask, true);
         if(match == null && bid != null && validate(bid)) {
-            Book book = bookMap.get(bid.getModel());
-            if(book == null) {
-            	book = new Book();
-            	bookMap.put(bid.getModel(), book);
-            }
+            Book book = book(bid.getModel());
+            touch(bid.getModel());
             book.addToBook(bid, ask);
         }
 
@@ -143,18 +191,17 @@ public class ModelManager {
         if(validate(ask)) {
             model = ask.getModel();
 
-            book = bookMap.get(model);
-            if(book == null) {
-                book = new Book<SwapMapper, Swap>();
-                bookMap.put(model, book);
-            }
             //if fill is true that means we want to actually edit the book and return a hard match if possible
             if(fill) {
+                book = book(model);
+                touch(model);
                 match = book.fillBook(bid, ask);
             }
-            //else we just match and see if, at the current state of the book, we have a match
+            //else we just match and see if, at the current state of the book, we have a match. A model without a book
+            //has nothing to match
             else {
-                match = book.match(bid, ask);
+                book = find(model);
+                match = book != null ? book.match(bid, ask) : null;
             }
         }
 
@@ -166,19 +213,15 @@ public class ModelManager {
      * @param bid
      *      the swap that you have
      * @return
-     *      A list of swaps that currently want bid
+     *      A list of swaps that currently want bid. null if the model has no book
      */
     public Set<Swap> getAsks(Swap bid) {
         if(validate(bid)) {
             Model model = bid.getModel();
 
-            Book book = bookMap.get(model);
-            if(book == null) {
-                book = new Book<SwapMapper, Swap>();
-                bookMap.put(model, book);
-            }
-            return book.getAsks(bid);
-            }
+            Book book = find(model);
+            return book != null ? book.getAsks(bid) : null;
+        }
         return null;
     }
 
@@ -187,17 +230,68 @@ public class ModelManager {
      * @param bid
      *      The bid to be matched
      * @return
-     *      A list of actual bids matching that criteria
+     *      A list of actual bids matching that criteria. null if the model has no book
      */
     public Set<Swap> getBids(Swap bid) {
         Model model = bid.getModel();
 
-        Book book = bookMap.get(model);
+        Book book = find(model);
+        return book != null ? book.getBids(bid) : null;
+    }
+
+    /**
+     * gets the book of a model, making an empty one if the model has none. The book is found by the model's id without
+     * hashing the model, models without an id fall back to the book map
+     * @param model
+     *      model of the book
+     * @return
+     *      the book of the model
+     */
+    private Book book(Model model) {
+        Book book = find(model);
         if(book == null) {
             book = new Book<SwapMapper, Swap>();
             bookMap.put(model, book);
+            index(model, book);
+        }
+        return book;
+    }
+
+    /**
+     * gets the book of a model without making one. Read only, so it is safe on the copies of a book view
+     * @param model
+     *      model of the book
+     * @return
+     *      the book of the model. null if the model has no book
+     */
+    private Book find(Model model) {
+        int id = model.getId();
+        Book[] indexed = books;
+        Book book = id >= 0 && id < indexed.length ? indexed[id] : null;
+        if(book == null) {
+            book = bookMap.get(model);
+        }
+        return book;
+    }
+
+    /**
+     * stores a book under the id of its model, growing the index to fit the id
+     * @param model
+     *      model of the book
+     * @param book
+     *      the book
+     */
+    private void index(Model model, Book book) {
+        int id = model.getId();
+        if(id < 0) {
+            return;
+        }
+        if(id >= books.length) {
+            Book[] grown = new Book[Math.max(id + 1, books.length * 2)];
+            System.arraycopy(books, 0, grown, 0, books.length);
+            books = grown;
         }
-        return book.getBids(bid);
+        books[id] = book;
     }
 
     /**
@@ -209,12 +303,116 @@ public class ModelManager {
         return new HashMap<Model, Book>(bookMap);
     }
 
+    /**
+     * freezes every book that has resting bids for a checkpoint. Nothing is copied, each book is captured by its image
+     * right before it is written to again. Images of an earlier checkpoint that were not captured yet are captured now
+     * @return
+     *      image of every book with resting bids
+     */
+    public List<BookImage> freeze() {
+        return freeze(false);
+    }
+
+    /**
+     * freezes the books for a checkpoint, see freeze. A delta only freezes the books whose version moved since the last
+     * checkpoint, found through the models written to since then. Books that were emptied are frozen too so the delta
+     * empties them when it is merged onto the checkpoint before it
+     * @param delta
+     *      true to only freeze the books that changed since the last checkpoint
+     * @return
+     *      image of every frozen book
+     */
+    public List<BookImage> freeze(boolean delta) {
+        Set<Model> models = delta ? dirty : bookMap.keySet();
+        List<BookImage> images = freeze(models, delta);
+
+        if(!delta) {
+            checkpointVersions.clear();
+        }
+        for(Model model : models) {
+            checkpointVersions.put(model, bookMap.get(model).getVersion());
+        }
+        dirty.clear();
+        return images;
+    }
+
+    /**
+     * freezes every book that has resting bids like freeze, without starting a new checkpoint. The next delta is still
+     * based on the last checkpoint
+     * @return
+     *      image of every book with resting bids
+     */
+    public List<BookImage> image() {
+        return freeze(bookMap.keySet(), false);
+    }
+
+    /**
+     * freezes the books of the models passed in. Images of an earlier freeze that were not captured yet are captured
+     * @param models
+     *      models of the books to freeze
+     * @param delta
+     *      true to only freeze the books whose version moved since the last checkpoint, false for the books with
+     *      resting bids
+     * @return
+     *      image of every frozen book
+     */
+    private List<BookImage> freeze(Set<Model> models, boolean delta) {
+        if(frozen != null) {
+            for(BookImage image : frozen.values()) {
+                image.capture();
+            }
+        }
+
+        frozen = new HashMap<Model, BookImage>();
+        List<BookImage> images = new ArrayList<BookImage>();
+        for(Model model : models) {
+            Book book = bookMap.get(model);
+            //books made since the last checkpoint start at version 0
+            Long last = checkpointVersions.get(model);
+            if(delta ? book.getVersion() != (last != null ? last.longValue() : 0) : !book.isEmpty()) {
+                BookImage image = new BookImage(model, book);
+                frozen.put(model, image);
+                images.add(image);
+            }
+        }
+        if(frozen.isEmpty()) {
+            frozen = null;
+        }
+        return images;
+    }
+
+    /**
+     * captures the checkpoint image of a book and marks it dirty before it is written to
+     * @param model
+     *      model of the book about to change
+     */
+    private void touch(Model model) {
+        dirty.add(model);
+        if(frozen != null) {
+            BookImage image = frozen.remove(model);
+            if(image != null) {
+                image.capture();
+                if(frozen.isEmpty()) {
+                    frozen = null;
+                }
+            }
+        }
+    }
+
     /**
      * flushes each models book so the book is completely empty
      * @return
      *         true if the full flush succeeded
      */
     public boolean flush() {
+        if(frozen != null) {
+            for(BookImage image : frozen.values()) {
+                image.capture();
+            }
+            frozen = null;
+        }
+        dirty.addAll(bookMap.keySet());
+
         Set<Model> models = bookMap.keySet();
         for(Model model : models) {
             Book book = bookMap.get(model);
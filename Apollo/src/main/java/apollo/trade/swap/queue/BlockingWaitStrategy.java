@@ -0,0 +1,51 @@
+package apollo.trade.swap.queue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Wait strategy that blocks the waiting thread on a condition until the other side of the queue signals. Signals only
+ * take the lock when someone is waiting. Waits are bounded so a signal that races a thread going to sleep costs at most
+ * one timeout instead of a lost wake up
+ */
+public class BlockingWaitStrategy implements WaitStrategy {
+
+    //longest a thread blocks before it checks the queue again
+    private static final long MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    //guards the condition
+    private final ReentrantLock lock = new ReentrantLock();
+
+    //waiting threads block here
+    private final Condition progress = lock.newCondition();
+
+    //amount of threads currently blocked
+    private final AtomicInteger waiters = new AtomicInteger();
+
+    public int idle(int counter) throws InterruptedException {
+        lock.lockInterruptibly();
+        waiters.incrementAndGet();
+        try {
+            progress.awaitNanos(MAX_WAIT_NANOS);
+        }
+        finally {
+            waiters.decrementAndGet();
+            lock.unlock();
+        }
+        return counter + 1;
+    }
+
+    public void signal() {
+        if(waiters.get() > 0) {
+            lock.lock();
+            try {
+                progress.signalAll();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+}
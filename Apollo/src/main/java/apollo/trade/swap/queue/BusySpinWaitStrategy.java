@@ -0,0 +1,18 @@
+package apollo.trade.swap.queue;
+
+/**
+ * Wait strategy that never gives up the CPU. Only worth it when every waiting thread has a core to itself
+ */
+public class BusySpinWaitStrategy implements WaitStrategy {
+
+    public int idle(int counter) throws InterruptedException {
+        if(Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        return counter + 1;
+    }
+
+    public void signal() {
+
+    }
+}
@@ -0,0 +1,127 @@
+package apollo.trade.swap.queue;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queue contract used by the engine core for the inbound message queue and the outbound bill queue. It is the subset
+ * of BlockingQueue the core actually uses so that the backing implementation can be swapped out for something that
+ * does not allocate or lock on every put/take
+ */
+public interface EngineQueue<E> {
+
+    /**
+     * non blocking insert of an element
+     * @param element
+     *      element to be added to the queue
+     * @return
+     *      true if the element was added, false if the queue is full
+     */
+    boolean offer(E element);
+
+    /**
+     * blocking insert of an element. waits until there is space in the queue
+     * @param element
+     *      element to be added to the queue
+     * @throws InterruptedException
+     *      if the thread was interrupted while waiting for space
+     */
+    void put(E element) throws InterruptedException;
+
+    /**
+     * insert of an element that waits up to the timeout passed in for space
+     * @param element
+     *      element to be added to the queue
+     * @param timeout
+     *      how long to wait
+     * @param unit
+     *      unit of the timeout
+     * @return
+     *      true if the element was added, false if the queue stayed full until the timeout passed
+     * @throws InterruptedException
+     *      if the thread was interrupted while waiting for space
+     */
+    boolean offer(E element, long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * blocking insert of every element in the list, in order. Implementations claim as much space as they can in one
+     * operation instead of one element at a time
+     * @param elements
+     *      elements to be added to the queue
+     * @return
+     *      the amount of elements added. less than the size of the list only if the thread was interrupted, in which
+     *      case the interrupt flag is set again
+     */
+    int putAll(List<? extends E> elements);
+
+    /**
+     * non blocking retrieval of the next element
+     * @return
+     *      the next element or null if the queue is empty
+     */
+    E poll();
+
+    /**
+     * retrieval of the next element that waits up to the timeout passed in
+     * @param timeout
+     *      how long to wait
+     * @param unit
+     *      unit of the timeout
+     * @return
+     *      the next element or null if the timeout passed
+     * @throws InterruptedException
+     *      if the thread was interrupted while waiting
+     */
+    E poll(long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * blocking retrieval of the next element. waits until an element is available
+     * @return
+     *      the next element
+     * @throws InterruptedException
+     *      if the thread was interrupted while waiting
+     */
+    E take() throws InterruptedException;
+
+    /**
+     * removes every available element and adds them to the collection passed in
+     * @param collection
+     *      collection the elements are drained to
+     * @return
+     *      the amount of elements drained
+     */
+    int drainTo(Collection<? super E> collection);
+
+    /**
+     * removes at most maxElements available elements and adds them to the collection passed in
+     * @param collection
+     *      collection the elements are drained to
+     * @param maxElements
+     *      maximum amount of elements to drain
+     * @return
+     *      the amount of elements drained
+     */
+    int drainTo(Collection<? super E> collection, int maxElements);
+
+    /**
+     * amount of elements currently in the queue
+     * @return
+     *      size of the queue
+     */
+    int size();
+
+    /**
+     * maximum amount of elements the queue can hold
+     * @return
+     *      capacity of the queue
+     */
+    int capacity();
+
+    /**
+     * whether or not the queue has any elements
+     * @return
+     *      true if the queue is empty
+     */
+    boolean isEmpty();
+}
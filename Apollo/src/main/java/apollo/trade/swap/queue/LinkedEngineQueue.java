@@ -0,0 +1,88 @@
+package apollo.trade.swap.queue;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * EngineQueue backed by a LinkedBlockingQueue. This is the original engine queue and allocates a node and takes a lock
+ * on every put/take. Kept around for comparison and for deployments that want the old behaviour. Waiting threads always
+ * block on the queue's own lock, so no WaitStrategy applies
+ */
+public class LinkedEngineQueue<E> implements EngineQueue<E> {
+
+    //backing queue
+    private final LinkedBlockingQueue<E> queue;
+
+    //capacity of the queue
+    private final int capacity;
+
+    /**
+     * creates a linked queue with the capacity passed in
+     * @param capacity
+     *      maximum amount of elements in the queue
+     */
+    public LinkedEngineQueue(int capacity) {
+        this.capacity = capacity;
+        queue = new LinkedBlockingQueue<E>(capacity);
+    }
+
+    public boolean offer(E element) {
+        return queue.offer(element);
+    }
+
+    public boolean offer(E element, long timeout, TimeUnit unit) throws InterruptedException {
+        return queue.offer(element, timeout, unit);
+    }
+
+    public void put(E element) throws InterruptedException {
+        queue.put(element);
+    }
+
+    public int putAll(List<? extends E> elements) {
+        int added = 0;
+        try {
+            for(E element : elements) {
+                queue.put(element);
+                added++;
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return added;
+    }
+
+    public E poll() {
+        return queue.poll();
+    }
+
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return queue.poll(timeout, unit);
+    }
+
+    public E take() throws InterruptedException {
+        return queue.take();
+    }
+
+    public int drainTo(Collection<? super E> collection) {
+        return queue.drainTo(collection);
+    }
+
+    public int drainTo(Collection<? super E> collection, int maxElements) {
+        return queue.drainTo(collection, maxElements);
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+}
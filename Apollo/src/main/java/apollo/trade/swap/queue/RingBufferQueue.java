@@ -0,0 +1,321 @@
+package apollo.trade.swap.queue;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded ring buffer with preallocated slots and sequence cursors. Producers claim a slot by moving the producer
+ * cursor and publish it by advancing that slot's sequence, consumers do the same on the consumer cursor. Nothing is
+ * allocated and no lock is taken on the hot path.
+ *
+ * The buffer runs in one of two producer modes:
+ * single producer - the producer cursor is only ever moved by one thread at a time so no CAS is needed to claim
+ * multi producer - producers race for a slot with a CAS on the producer cursor
+ *
+ * Consumers always claim with a CAS so more than one thread can read from the buffer (the bill queue is read by
+ * whichever client thread asks for a bill). Capacity is rounded up to the next power of two. Threads that find the
+ * buffer full or empty wait with the WaitStrategy the buffer was created with.
+ */
+public class RingBufferQueue<E> implements EngineQueue<E> {
+
+    //preallocated slots
+    private final Object[] slots;
+
+    //per slot sequence. a slot is free for position p when its sequence is p and full when it is p + 1
+    private final AtomicLongArray sequences;
+
+    //mask used to turn a cursor position into a slot index
+    private final int mask;
+
+    //true if more than one thread can offer at the same time
+    private final boolean multiProducer;
+
+    //next position to be claimed by a producer
+    private final AtomicLong producerCursor = new AtomicLong();
+
+    //next position to be claimed by a consumer
+    private final AtomicLong consumerCursor = new AtomicLong();
+
+    //how producers wait on a full buffer and consumers on an empty one
+    private final WaitStrategy waitStrategy;
+
+    /**
+     * creates a ring buffer with at least the capacity passed in that waits with the sleeping strategy
+     * @param capacity
+     *      minimum amount of slots. rounded up to the next power of two
+     * @param multiProducer
+     *      true if more than one thread will be offering at the same time
+     */
+    public RingBufferQueue(int capacity, boolean multiProducer) {
+        this(capacity, multiProducer, new SleepingWaitStrategy());
+    }
+
+    /**
+     * creates a ring buffer with at least the capacity passed in
+     * @param capacity
+     *      minimum amount of slots. rounded up to the next power of two
+     * @param multiProducer
+     *      true if more than one thread will be offering at the same time
+     * @param waitStrategy
+     *      how threads wait on a full or empty buffer. the sleeping strategy if null
+     */
+    public RingBufferQueue(int capacity, boolean multiProducer, WaitStrategy waitStrategy) {
+        int size = 2;
+        while(size < capacity) {
+            size <<= 1;
+        }
+
+        slots = new Object[size];
+        sequences = new AtomicLongArray(size);
+        for(int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+        this.multiProducer = multiProducer;
+        this.waitStrategy = waitStrategy != null ? waitStrategy : new SleepingWaitStrategy();
+    }
+
+    public boolean offer(E element) {
+        if(element == null) {
+            throw new NullPointerException("ring buffer does not accept null elements");
+        }
+
+        long position;
+        int index;
+
+        if(multiProducer) {
+            while(true) {
+                position = producerCursor.get();
+                index = (int) position & mask;
+                long difference = sequences.get(index) - position;
+
+                if(difference == 0) {
+                    if(producerCursor.compareAndSet(position, position + 1)) {
+                        break;
+                    }
+                }
+                //slot still holds an element from the last lap so the buffer is full
+                else if(difference < 0) {
+                    return false;
+                }
+            }
+        }
+        else {
+            position = producerCursor.get();
+            index = (int) position & mask;
+            if(sequences.get(index) != position) {
+                return false;
+            }
+            producerCursor.lazySet(position + 1);
+        }
+
+        //write the slot and then publish it to the consumers
+        slots[index] = element;
+        sequences.lazySet(index, position + 1);
+        waitStrategy.signal();
+        return true;
+    }
+
+    public void put(E element) throws InterruptedException {
+        int counter = 0;
+        while(!offer(element)) {
+            counter = waitStrategy.idle(counter);
+        }
+    }
+
+    public boolean offer(E element, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int counter = 0;
+
+        while(!offer(element)) {
+            if(System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            counter = waitStrategy.idle(counter);
+        }
+        return true;
+    }
+
+    public int putAll(List<? extends E> elements) {
+        //a null half way through would leave the elements before it on the queue
+        checkRun(elements, 0, elements.size());
+
+        int added = 0;
+        int counter = 0;
+
+        while(added < elements.size()) {
+            int claimed = offerBatch(elements, added);
+            if(claimed > 0) {
+                added += claimed;
+                counter = 0;
+            }
+            else {
+                try {
+                    counter = waitStrategy.idle(counter);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        return added;
+    }
+
+    /**
+     * non blocking insert of a run of elements. Claims every free slot it can, up to the end of the list, with a
+     * single move of the producer cursor. The run is checked for nulls before anything is claimed, a claimed slot that
+     * is never published would stall the consumers on it for good
+     * @param elements
+     *      elements to be added
+     * @param from
+     *      index of the first element to add
+     * @return
+     *      the amount of elements added. zero if the buffer is full
+     */
+    public int offerBatch(List<? extends E> elements, int from) {
+        int wanted = Math.min(elements.size() - from, slots.length);
+        checkRun(elements, from, from + wanted);
+        long position;
+        int free;
+
+        while(true) {
+            position = producerCursor.get();
+
+            //count the run of free slots starting at the cursor
+            free = 0;
+            while(free < wanted && sequences.get((int) (position + free) & mask) == position + free) {
+                free++;
+            }
+
+            if(free == 0) {
+                //slot at the cursor still holds an element from the last lap so the buffer is full
+                if(sequences.get((int) position & mask) < position) {
+                    return 0;
+                }
+                //another producer claimed the slot first
+                continue;
+            }
+
+            if(!multiProducer) {
+                producerCursor.lazySet(position + free);
+                break;
+            }
+            else if(producerCursor.compareAndSet(position, position + free)) {
+                break;
+            }
+        }
+
+        for(int i = 0; i < free; i++) {
+            E element = elements.get(from + i);
+            int index = (int) (position + i) & mask;
+            slots[index] = element;
+            sequences.lazySet(index, position + i + 1);
+        }
+        waitStrategy.signal();
+        return free;
+    }
+
+    /**
+     * checks a run of elements for nulls before any slot is claimed for it
+     * @param elements
+     *      elements about to be added
+     * @param from
+     *      index of the first element of the run
+     * @param to
+     *      index after the last element of the run
+     */
+    private void checkRun(List<? extends E> elements, int from, int to) {
+        for(int i = from; i < to; i++) {
+            if(elements.get(i) == null) {
+                throw new NullPointerException("ring buffer does not accept null elements");
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        while(true) {
+            long position = consumerCursor.get();
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - (position + 1);
+
+            if(difference == 0) {
+                if(consumerCursor.compareAndSet(position, position + 1)) {
+                    E element = (E) slots[index];
+                    slots[index] = null;
+                    //free the slot for the producer one lap ahead
+                    sequences.lazySet(index, position + mask + 1);
+                    waitStrategy.signal();
+                    return element;
+                }
+            }
+            //slot has not been published yet so the buffer is empty
+            else if(difference < 0) {
+                return null;
+            }
+        }
+    }
+
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int counter = 0;
+
+        E element = poll();
+        while(element == null) {
+            if(System.nanoTime() - deadline >= 0) {
+                return null;
+            }
+            counter = waitStrategy.idle(counter);
+            element = poll();
+        }
+        return element;
+    }
+
+    public E take() throws InterruptedException {
+        int counter = 0;
+
+        E element = poll();
+        while(element == null) {
+            counter = waitStrategy.idle(counter);
+            element = poll();
+        }
+        return element;
+    }
+
+    public int drainTo(Collection<? super E> collection) {
+        return drainTo(collection, Integer.MAX_VALUE);
+    }
+
+    public int drainTo(Collection<? super E> collection, int maxElements) {
+        int drained = 0;
+        while(drained < maxElements) {
+            E element = poll();
+            if(element == null) {
+                break;
+            }
+            collection.add(element);
+            drained++;
+        }
+        return drained;
+    }
+
+    public int size() {
+        long size = producerCursor.get() - consumerCursor.get();
+        if(size < 0) {
+            return 0;
+        }
+        return (int) Math.min(size, slots.length);
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+}
@@ -0,0 +1,42 @@
+package apollo.trade.swap.queue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Wait strategy that spins, then yields and finally parks. The park time doubles on every wait up to a maximum so a
+ * queue that stays empty costs next to no CPU. This is the default strategy of the ring buffer
+ */
+public class SleepingWaitStrategy implements WaitStrategy {
+
+    //spins before the waiting thread starts yielding
+    private static final int SPIN_TRIES = 100;
+    //yields before the waiting thread starts parking
+    private static final int YIELD_TRIES = 200;
+    //first and longest park of the waiting thread
+    private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+    private static final long MAX_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    public int idle(int counter) throws InterruptedException {
+        if(Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+
+        if(counter < SPIN_TRIES) {
+            return counter + 1;
+        }
+        else if(counter < YIELD_TRIES) {
+            Thread.yield();
+            return counter + 1;
+        }
+
+        //back off: park for twice as long as last time
+        int parks = Math.min(counter - YIELD_TRIES, 30);
+        LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, MIN_PARK_NANOS << parks));
+        return counter + 1;
+    }
+
+    public void signal() {
+
+    }
+}
@@ -0,0 +1,29 @@
+package apollo.trade.swap.queue;
+
+/**
+ * How a thread waits on an engine queue that is empty (consumer) or full (producer). The queue calls idle every time
+ * the thread finds nothing to do and signal every time it publishes or frees a slot, so strategies that block can wake
+ * their waiters. Strategies trade latency for CPU:
+ * busy spin - never gives up the CPU. lowest latency, burns a core per waiting thread
+ * yielding - spins then yields to other threads. low latency, still burns a core when nothing else is runnable
+ * sleeping - spins, yields then parks for a growing amount of time. little CPU when idle, higher wake up latency
+ * blocking - waits on a condition until a signal. no CPU when idle, pays for a lock on the signal side
+ */
+public interface WaitStrategy {
+
+    /**
+     * waits once because the queue could not make progress
+     * @param counter
+     *      how many times the caller has already idled without making progress. zero on the first wait
+     * @return
+     *      the counter to pass in on the next idle
+     * @throws InterruptedException
+     *      if the waiting thread was interrupted
+     */
+    int idle(int counter) throws InterruptedException;
+
+    /**
+     * called after an element was published or a slot was freed so waiting threads can make progress
+     */
+    void signal();
+}
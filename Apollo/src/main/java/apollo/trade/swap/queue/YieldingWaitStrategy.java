@@ -0,0 +1,26 @@
+package apollo.trade.swap.queue;
+
+/**
+ * Wait strategy that spins for a short time and then yields to other threads on every wait
+ */
+public class YieldingWaitStrategy implements WaitStrategy {
+
+    //spins before the waiting thread starts yielding
+    private static final int SPIN_TRIES = 100;
+
+    public int idle(int counter) throws InterruptedException {
+        if(Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+
+        if(counter < SPIN_TRIES) {
+            return counter + 1;
+        }
+        Thread.yield();
+        return counter;
+    }
+
+    public void signal() {
+
+    }
+}
@@ -0,0 +1,119 @@
+package apollo.trade.swap.replay;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import apollo.common.engine.Bill;
+import apollo.common.engine.Message;
+import apollo.common.templates.Swap;
+import apollo.common.util.SwapDigest;
+import apollo.trade.swap.manager.MessageManager;
+import apollo.trade.swap.store.MessageCapture;
+
+/**
+ * Replays a capture written by a core with a capture file into a fresh MessageManager, as fast as one thread can,
+ * without any of the engine queues. Used to benchmark changes against production traffic and to check that two builds
+ * produce the same bills and books for the same input.
+ *
+ * Run with: java apollo.trade.swap.replay.CaptureReplayer capture-file [runs]
+ */
+public class CaptureReplayer {
+
+    //capture being replayed
+    private final File file;
+
+    /**
+     * constructor that takes the capture to replay
+     * @param file
+     *      capture file
+     */
+    public CaptureReplayer(File file) {
+        this.file = file;
+    }
+
+    /**
+     * reads the capture and replays it into a new MessageManager. Reading the file is not part of the timing
+     * @return
+     *      the report of the replay
+     * @throws IOException
+     *      if the capture could not be read
+     */
+    public ReplayReport replay() throws IOException {
+        return replay(MessageCapture.read(file), new MessageManager());
+    }
+
+    /**
+     * replays messages into the manager passed in. The swaps of the messages are matched against each other, so
+     * a list of messages can only be replayed once
+     * @param messages
+     *      messages to replay, in order
+     * @param manager
+     *      manager the messages are processed by
+     * @return
+     *      the report of the replay
+     */
+    public static ReplayReport replay(List<Message> messages, MessageManager manager) {
+        LatencyHistogram[] latencies = new LatencyHistogram[Message.MAX_TYPE + 1];
+        for(int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+
+        long billDigest = SwapDigest.OFFSET;
+        long start = System.nanoTime();
+        for(Message message : messages) {
+            long begin = System.nanoTime();
+            Bill bill = manager.processMessage(message);
+            long end = System.nanoTime();
+
+            int type = message.getType();
+            if(type >= 0 && type < latencies.length) {
+                latencies[type].record(end - begin);
+            }
+            billDigest = digest(billDigest, bill);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        return new ReplayReport(messages.size(), elapsed, latencies, billDigest, manager.digest());
+    }
+
+    /**
+     * folds a bill into the digest passed in
+     * @param hash
+     *      digest so far
+     * @param bill
+     *      bill to fold in
+     * @return
+     *      the new digest
+     */
+    private static long digest(long hash, Bill bill) {
+        hash = SwapDigest.uuid(hash, bill.getId());
+        hash = SwapDigest.mix(hash, bill.size());
+        for(int i = 0; i < bill.size(); i++) {
+            Swap swap = bill.get(i);
+            hash = SwapDigest.swap(hash, swap);
+        }
+        return hash;
+    }
+
+    /**
+     * replays a capture and prints the report of every run
+     * @param args
+     *      capture file and optionally the amount of runs, 1 by default
+     * @throws IOException
+     *      if the capture could not be read
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length < 1) {
+            System.out.println("Usage: CaptureReplayer capture-file [runs]");
+            return;
+        }
+
+        CaptureReplayer replayer = new CaptureReplayer(new File(args[0]));
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        for(int run = 1; run <= runs; run++) {
+            System.out.println("run " + run + " of " + runs);
+            System.out.println(replayer.replay());
+        }
+    }
+}
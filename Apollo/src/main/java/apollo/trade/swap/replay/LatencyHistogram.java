@@ -0,0 +1,125 @@
+package apollo.trade.swap.replay;
+
+/**
+ * Histogram of latencies in nanoseconds. Every power of two is split into 16 buckets, so a percentile is off by at
+ * most one sixteenth of the value. Recording never allocates
+ */
+public class LatencyHistogram {
+
+    //bits of a value kept below its highest bit
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    //counts per bucket
+    private final long[] counts = new long[(64 - SUB_BITS + 1) * SUB_BUCKETS];
+
+    //amount, sum and largest of the recorded values
+    private long count = 0;
+    private long total = 0;
+    private long max = 0;
+
+    /**
+     * records a latency
+     * @param nanos
+     *      latency in nanoseconds. anything less than zero counts as zero
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts[bucket(value)]++;
+        count++;
+        total += value;
+        max = Math.max(max, value);
+    }
+
+    /**
+     * amount of latencies recorded
+     * @return
+     *      the count
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * average latency
+     * @return
+     *      the mean in nanoseconds. 0 if nothing was recorded
+     */
+    public long getMean() {
+        return count == 0 ? 0 : total / count;
+    }
+
+    /**
+     * largest latency recorded
+     * @return
+     *      the maximum in nanoseconds
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * latency below which the percentage passed in of the recorded latencies fall
+     * @param percentile
+     *      percentage between 0 and 100
+     * @return
+     *      upper bound of the bucket the percentile falls in, in nanoseconds. 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        if(count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100.0);
+        long seen = 0;
+        for(int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if(seen >= Math.max(1, rank)) {
+                return Math.min(max, upperBound(i));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * bucket of a value
+     * @param value
+     *      value that is not negative
+     * @return
+     *      index of its bucket
+     */
+    private static int bucket(long value) {
+        if(value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * largest value that falls in a bucket
+     * @param bucket
+     *      index of the bucket
+     * @return
+     *      the upper bound of the bucket
+     */
+    private static long upperBound(int bucket) {
+        if(bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << shift) - 1;
+    }
+
+    /**
+     * summary of the histogram
+     * @return
+     *      count, mean, percentiles and max in nanoseconds
+     */
+    @Override
+    public String toString() {
+        return "count=" + count + " mean=" + getMean() + "ns p50=" + getPercentile(50) + "ns p90="
+                + getPercentile(90) + "ns p99=" + getPercentile(99) + "ns p99.9=" + getPercentile(99.9) + "ns max="
+                + max + "ns";
+    }
+}
@@ -0,0 +1,124 @@
+package apollo.trade.swap.replay;
+
+import apollo.common.engine.Message;
+
+/**
+ * Result of replaying a capture: throughput, a latency histogram per message type and digests of the bills and of
+ * the books the replay left behind. Two builds that produce the same bills for a capture have the same bill digest
+ */
+public class ReplayReport {
+
+    //messages replayed and how long it took
+    private final long messages;
+    private final long elapsedNanos;
+
+    //latency of processMessage per type, indexed by message type
+    private final LatencyHistogram[] latencies;
+
+    //digest of every bill in replay order and of the books at the end
+    private final long billDigest;
+    private final long bookDigest;
+
+    /**
+     * constructor that takes the results of a replay
+     * @param messages
+     *      amount of messages replayed
+     * @param elapsedNanos
+     *      time the replay took
+     * @param latencies
+     *      histograms indexed by message type
+     * @param billDigest
+     *      digest of the bills
+     * @param bookDigest
+     *      digest of the books
+     */
+    ReplayReport(long messages, long elapsedNanos, LatencyHistogram[] latencies, long billDigest, long bookDigest) {
+        this.messages = messages;
+        this.elapsedNanos = elapsedNanos;
+        this.latencies = latencies;
+        this.billDigest = billDigest;
+        this.bookDigest = bookDigest;
+    }
+
+    /**
+     * amount of messages replayed
+     * @return
+     *      the message count
+     */
+    public long getMessages() {
+        return messages;
+    }
+
+    /**
+     * time the replay took
+     * @return
+     *      elapsed nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * replay throughput
+     * @return
+     *      messages processed per second
+     */
+    public double getMessagesPerSecond() {
+        return elapsedNanos == 0 ? 0 : messages * 1000000000.0 / elapsedNanos;
+    }
+
+    /**
+     * latency histogram of a message type
+     * @param type
+     *      Message.SWAP, GOAL, GRAB, CANCEL, AMEND or EXPIRE
+     * @return
+     *      the histogram. null for any other type
+     */
+    public LatencyHistogram getLatency(int type) {
+        if(type < 0 || type >= latencies.length) {
+            return null;
+        }
+        return latencies[type];
+    }
+
+    /**
+     * digest of every bill, in the order they were produced
+     * @return
+     *      the bill digest
+     */
+    public long getBillDigest() {
+        return billDigest;
+    }
+
+    /**
+     * digest of the books after the replay, see MessageManager.digest
+     * @return
+     *      the book digest
+     */
+    public long getBookDigest() {
+        return bookDigest;
+    }
+
+    /**
+     * printable report
+     * @return
+     *      throughput, latencies per type and digests
+     */
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        report.append("messages: ").append(messages).append('\n');
+        report.append("elapsed: ").append(elapsedNanos / 1000000).append("ms\n");
+        report.append("throughput: ").append((long) getMessagesPerSecond()).append(" messages/s\n");
+        String[] names = {"SWAP", "GOAL", "GRAB", "CANCEL", "AMEND", "EXPIRE"};
+        int[] types = {Message.SWAP, Message.GOAL, Message.GRAB, Message.CANCEL, Message.AMEND, Message.EXPIRE};
+        for(int i = 0; i < types.length; i++) {
+            if(latencies[types[i]].getCount() > 0) {
+                report.append(names[i]).append(": ").append(latencies[types[i]]).append('\n');
+            }
+        }
+        report.append("bill digest: ").append(String.format("%016x", billDigest)).append('\n');
+        report.append("book digest: ").append(String.format("%016x", bookDigest));
+        return report.toString();
+    }
+}
@@ -0,0 +1,323 @@
+package apollo.trade.swap.replica;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import apollo.common.engine.Message;
+import apollo.common.engine.MessageCodec;
+import apollo.trade.swap.manager.MessageManager;
+import apollo.trade.swap.service.EngineConfig;
+import apollo.trade.swap.service.EngineCore;
+import apollo.trade.swap.store.BookSnapshotFile;
+
+/**
+ * Hot standby copy of the books of a primary core. The replica connects to the ReplicaPublisher of the primary, loads
+ * the image of the books it gets first and then applies every message of the stream to its own MessageManager in
+ * sequence order. Messages are only matched, no bills are built or sent to anyone. Promoting the replica closes the
+ * stream and hands its books to a new EngineCore without copying them, so the replica takes over in the time it takes
+ * to close a socket.
+ *
+ * Run a replica in its own JVM with: ReplicaEngine [host] port. It prints its lag every second and promotes itself when
+ * "promote" is typed
+ */
+public class ReplicaEngine implements Runnable {
+
+    //where the primary publishes
+    private final String host;
+    private final int port;
+
+    //connection to the primary. null until connected
+    private volatile Socket socket = null;
+
+    //books of the replica. null until the image is loaded
+    private volatile MessageManager messageManager = null;
+
+    //next sequence the replica expects and next sequence of the primary at its last frame
+    private volatile long sequence = -1;
+    private volatile long primarySequence = -1;
+
+    //milliseconds between the primary publishing the last applied message and the replica applying it
+    private volatile long delayMillis = 0;
+
+    //true once the replica was promoted
+    private volatile boolean promoted = false;
+
+    //counted down once the image is loaded and once the stream stops
+    private final CountDownLatch ready = new CountDownLatch(1);
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    /**
+     * constructor that takes where the primary publishes
+     * @param host
+     *      host of the primary
+     * @param port
+     *      replication port of the primary
+     */
+    public ReplicaEngine(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * connects to the primary. Call run afterwards to load the books and follow the stream
+     * @throws IOException
+     *      if the primary could not be reached
+     */
+    public void connect() throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+    }
+
+    /**
+     * loads the image of the books and applies the stream until the primary goes away or the replica is promoted
+     */
+    public void run() {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64));
+
+            while(!promoted) {
+                byte type = in.readByte();
+                long frameSequence = in.readLong();
+                long time = in.readLong();
+                byte[] payload = new byte[in.readInt()];
+                in.readFully(payload);
+
+                switch(type) {
+                    case ReplicaPublisher.SNAPSHOT:
+                        messageManager = new MessageManager(BookSnapshotFile.read(ByteBuffer.wrap(payload)));
+                        sequence = frameSequence;
+                        primarySequence = frameSequence;
+                        ready.countDown();
+                        break;
+
+                    case ReplicaPublisher.MESSAGE:
+                    case ReplicaPublisher.FLUSH:
+                        if(frameSequence != sequence) {
+                            System.out.println("WARNING: Replica expected message " + sequence + " but got "
+                                    + frameSequence + ". Stopping replication");
+                            return;
+                        }
+                        apply(type, payload);
+                        sequence = frameSequence + 1;
+                        primarySequence = Math.max(primarySequence, sequence);
+                        delayMillis = System.currentTimeMillis() - time;
+                        break;
+
+                    case ReplicaPublisher.HEARTBEAT:
+                        primarySequence = frameSequence;
+                        break;
+
+                    default:
+                        System.out.println("WARNING: Unknown replication frame " + type + ". Stopping replication");
+                        return;
+                }
+
+                //acknowledge once the frames that already arrived are applied
+                if(in.available() == 0) {
+                    out.writeLong(sequence);
+                    out.flush();
+                }
+            }
+        }
+        catch (EOFException e) {
+            System.out.println("WARNING: Primary closed the replication stream at sequence " + sequence);
+        }
+        catch (IOException e) {
+            if(!promoted) {
+                e.printStackTrace();
+                System.out.println("WARNING: Replication stream lost at sequence " + sequence);
+            }
+        }
+        finally {
+            close();
+            stopped.countDown();
+        }
+    }
+
+    /**
+     * applies a frame of the stream to the books
+     * @param type
+     *      MESSAGE or FLUSH
+     * @param payload
+     *      encoded message of a MESSAGE frame
+     * @throws IOException
+     *      if the message could not be decoded
+     */
+    private synchronized void apply(byte type, byte[] payload) throws IOException {
+        if(type == ReplicaPublisher.FLUSH) {
+            messageManager.flush();
+        }
+        else {
+            Message message = MessageCodec.read(new DataInputStream(new ByteArrayInputStream(payload)));
+            messageManager.processChain(message);
+        }
+    }
+
+    /**
+     * waits until the image of the books is loaded
+     * @param timeout
+     *      how long to wait
+     * @param unit
+     *      unit of the timeout
+     * @return
+     *      true if the books are loaded
+     * @throws InterruptedException
+     *      if the wait was interrupted
+     */
+    public boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+        return ready.await(timeout, unit);
+    }
+
+    /**
+     * next sequence the replica expects. Every message before it is applied
+     * @return
+     *      the next sequence. -1 before the books are loaded
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * next sequence of the primary as of the last frame the replica read
+     * @return
+     *      the primary's next sequence. -1 before the books are loaded
+     */
+    public long getPrimarySequence() {
+        return primarySequence;
+    }
+
+    /**
+     * how many messages the replica is behind the primary, as of the last frame it read
+     * @return
+     *      messages published and not applied yet
+     */
+    public long getLag() {
+        return Math.max(0, primarySequence - sequence);
+    }
+
+    /**
+     * milliseconds between the primary publishing the last applied message and the replica applying it. Only
+     * meaningful on one machine where both clocks are the same
+     * @return
+     *      replication delay of the last message
+     */
+    public long getDelayMillis() {
+        return delayMillis;
+    }
+
+    /**
+     * whether the replica is still following the primary
+     * @return
+     *      True - the stream is open
+     */
+    public boolean isConnected() {
+        return stopped.getCount() > 0 && socket != null && !socket.isClosed();
+    }
+
+    /**
+     * digest of the books of the replica, see MessageManager.digest
+     * @return
+     *      digest of the books. 0 before they are loaded
+     */
+    public synchronized long digest() {
+        return messageManager != null ? messageManager.digest() : 0;
+    }
+
+    /**
+     * stops following the primary and starts a core over the books of the replica. The books are handed over as they
+     * are, the core still has to be run
+     * @param config
+     *      settings of the new core
+     * @return
+     *      the new core
+     * @throws InterruptedException
+     *      if the wait for the stream to stop was interrupted
+     */
+    public EngineCore promote(EngineConfig config) throws InterruptedException {
+        if(!ready.await(0, TimeUnit.MILLISECONDS)) {
+            throw new IllegalStateException("Replica has no books to promote yet");
+        }
+        promoted = true;
+        close();
+        stopped.await();
+        return new EngineCore(config, messageManager);
+    }
+
+    /**
+     * closes the connection to the primary
+     */
+    private void close() {
+        try {
+            if(socket != null) {
+                socket.close();
+            }
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * runs a replica of the primary on the port passed in and promotes it on request
+     * @param args
+     *      [host] port
+     */
+    public static void main(String[] args) throws Exception {
+        if(args.length < 1) {
+            System.out.println("Usage: ReplicaEngine [host] port");
+            return;
+        }
+        String host = args.length > 1 ? args[0] : "127.0.0.1";
+        int port = Integer.parseInt(args[args.length - 1]);
+
+        final ReplicaEngine replica = new ReplicaEngine(host, port);
+        replica.connect();
+        Thread follower = new Thread(replica, "apollo-replica");
+        follower.setDaemon(true);
+        follower.start();
+        replica.awaitReady(30, TimeUnit.SECONDS);
+
+        Thread status = new Thread(new Runnable() {
+            public void run() {
+                while(!replica.promoted) {
+                    System.out.println("replica at " + replica.getSequence() + ", lag " + replica.getLag()
+                            + " messages, delay " + replica.getDelayMillis() + "ms");
+                    try {
+                        Thread.sleep(1000);
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }, "apollo-replica-status");
+        status.setDaemon(true);
+        status.start();
+
+        BufferedReader console = new BufferedReader(new InputStreamReader(System.in));
+        String line;
+        while((line = console.readLine()) != null) {
+            if("promote".equals(line.trim())) {
+                long start = System.nanoTime();
+                EngineCore core = replica.promote(new EngineConfig());
+                new Thread(core, "apollo-core").start();
+                System.out.println("promoted at sequence " + replica.getSequence() + " in "
+                        + (System.nanoTime() - start) / 1000 + "us");
+                core.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+                return;
+            }
+        }
+    }
+}
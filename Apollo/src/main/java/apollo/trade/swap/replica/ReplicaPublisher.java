@@ -0,0 +1,443 @@
+package apollo.trade.swap.replica;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import apollo.common.engine.Message;
+import apollo.common.engine.MessageCodec;
+import apollo.trade.swap.manager.Checkpoint;
+import apollo.trade.swap.store.BookSnapshotFile;
+
+/**
+ * Primary side of replication. Every message that changes the books gets the next sequence number and is streamed to
+ * the replicas connected on a loopback port, in the order the books saw them. A replica that connects first gets an
+ * image of the books taken with the books held still, then every message from the image's sequence on, so it never
+ * misses or repeats one. Each replica has its own sender thread and a bounded backlog of frames, the matching threads
+ * only encode the frame once and offer it. A replica that falls a whole backlog behind is dropped and has to connect
+ * again. Replicas acknowledge the sequence they applied up to, which gives the lag in messages.
+ *
+ * Frame layout: type (byte), sequence (long), time in milliseconds (long), length (int), payload. The payload is a
+ * snapshot file for SNAPSHOT, a MessageCodec message for MESSAGE and empty for FLUSH and HEARTBEAT. A heartbeat carries
+ * the next sequence of the primary. Replicas answer with the next sequence they expect (long)
+ */
+public class ReplicaPublisher {
+
+    //frame types
+    public static final byte SNAPSHOT = 1;
+    public static final byte MESSAGE = 2;
+    public static final byte FLUSH = 3;
+    public static final byte HEARTBEAT = 4;
+
+    //frames queued for a replica before it is dropped
+    public static final int DEFAULT_BACKLOG = 64 * 1024;
+
+    //how long a sender waits for frames before it sends a heartbeat
+    private static final long HEARTBEAT_MILLIS = 100;
+
+    /**
+     * books the replicas are started from
+     */
+    public interface Source {
+        /**
+         * takes a full image of the books with every writer to the books held still, and runs attach before letting
+         * them go
+         * @param attach
+         *      attaches the replica to the stream. Every message published after it runs goes to the replica
+         * @return
+         *      image of the books
+         */
+        Checkpoint image(Runnable attach);
+    }
+
+    //socket replicas connect to
+    private final ServerSocket server;
+
+    //books new replicas start from
+    private final Source source;
+
+    //frames queued per replica before it is dropped
+    private final int backlog;
+
+    //replicas receiving the stream
+    private final List<Link> links = new CopyOnWriteArrayList<Link>();
+
+    //sequence of the next message. guarded by this
+    private long sequence = 0;
+
+    //reused encoding buffer. guarded by this
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    private final DataOutputStream out = new DataOutputStream(bytes);
+
+    //true once the publisher is closed
+    private volatile boolean closed = false;
+
+    /**
+     * opens the port replicas connect to and starts accepting them
+     * @param port
+     *      loopback port to listen on. 0 for any free port
+     * @param backlog
+     *      frames queued per replica before it is dropped
+     * @param source
+     *      books new replicas start from
+     * @throws IOException
+     *      if the port could not be opened
+     */
+    public ReplicaPublisher(int port, int backlog, Source source) throws IOException {
+        this.source = source;
+        this.backlog = Math.max(1, backlog);
+        server = new ServerSocket(port, 4, InetAddress.getLoopbackAddress());
+
+        Thread acceptor = new Thread(new Runnable() {
+            public void run() {
+                accept();
+            }
+        }, "apollo-replica-accept-" + server.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * opens the port replicas connect to like the constructor, for a core that keeps running without replication when
+     * the port cannot be opened
+     * @param port
+     *      loopback port to listen on. 0 for any free port, less than 0 for no replication
+     * @param backlog
+     *      frames queued per replica before it is dropped
+     * @param source
+     *      books new replicas start from
+     * @return
+     *      the publisher. null if there is no replication or the port could not be opened
+     */
+    public static ReplicaPublisher open(int port, int backlog, Source source) {
+        if(port < 0) {
+            return null;
+        }
+        try {
+            return new ReplicaPublisher(port, backlog, source);
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("WARNING: Could not open replication port " + port + ". Running without replication");
+            return null;
+        }
+    }
+
+    /**
+     * accepts replicas until the publisher is closed
+     */
+    private void accept() {
+        while(!closed) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                Thread sender = new Thread(new Link(socket), "apollo-replica-" + socket.getPort());
+                sender.setDaemon(true);
+                sender.start();
+            }
+            catch (IOException e) {
+                if(!closed) {
+                    e.printStackTrace();
+                    System.out.println("WARNING: Could not accept replica on port " + server.getLocalPort());
+                }
+            }
+        }
+    }
+
+    /**
+     * port replicas connect to
+     * @return
+     *      the loopback port
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * publishes a message to every replica. Messages that do not change the books are skipped. Must be called in the
+     * order the books see the messages
+     * @param message
+     *      message about to be matched
+     * @return
+     *      sequence of the message. -1 if it was skipped
+     */
+    public synchronized long publish(Message message) {
+        if(message == null || (message.getType() != Message.SWAP && message.getType() != Message.GRAB
+                && message.getType() != Message.CANCEL && message.getType() != Message.AMEND
+                && message.getType() != Message.EXPIRE)) {
+            return -1;
+        }
+        return send(MESSAGE, message);
+    }
+
+    /**
+     * publishes a batch of messages to every replica, stopping at the first kill core message
+     * @param messages
+     *      messages about to be matched in this order
+     * @return
+     *      amount of messages published
+     */
+    public synchronized int publish(List<Message> messages) {
+        int published = 0;
+        for(Message message : messages) {
+            if(message.getType() == Message.KILL_CORE) {
+                break;
+            }
+            if(publish(message) != -1) {
+                published++;
+            }
+        }
+        return published;
+    }
+
+    /**
+     * publishes a flush of every book to every replica
+     * @return
+     *      sequence of the flush
+     */
+    public synchronized long publishFlush() {
+        return send(FLUSH, null);
+    }
+
+    /**
+     * encodes a frame once and queues it for every replica. caller holds the publisher's monitor
+     * @param type
+     *      frame type
+     * @param message
+     *      message of the frame. null for none
+     * @return
+     *      sequence of the frame
+     */
+    private long send(byte type, Message message) {
+        long frameSequence = sequence++;
+        if(links.isEmpty()) {
+            return frameSequence;
+        }
+
+        byte[] frame;
+        try {
+            bytes.reset();
+            out.writeByte(type);
+            out.writeLong(frameSequence);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(0);
+            if(message != null) {
+                MessageCodec.write(out, message);
+            }
+            frame = bytes.toByteArray();
+            int length = frame.length - 21;
+            frame[17] = (byte) (length >>> 24);
+            frame[18] = (byte) (length >>> 16);
+            frame[19] = (byte) (length >>> 8);
+            frame[20] = (byte) length;
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("WARNING: Could not encode frame " + frameSequence + " for the replicas");
+            return frameSequence;
+        }
+
+        for(Link link : links) {
+            link.offer(frame);
+        }
+        return frameSequence;
+    }
+
+    /**
+     * sequence the next message will get
+     * @return
+     *      the next sequence
+     */
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * amount of replicas receiving the stream
+     * @return
+     *      connected replicas
+     */
+    public int getReplicas() {
+        return links.size();
+    }
+
+    /**
+     * how far the slowest replica is behind in messages, by the last sequence it acknowledged
+     * @return
+     *      messages published that the slowest replica has not acknowledged. 0 without replicas
+     */
+    public long getLag() {
+        long next = getSequence();
+        long lag = 0;
+        for(Link link : links) {
+            lag = Math.max(lag, next - link.acknowledged);
+        }
+        return lag;
+    }
+
+    /**
+     * stops accepting replicas. Every replica still gets the frames already queued for it before its socket is closed
+     */
+    public void close() {
+        closed = true;
+        try {
+            server.close();
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+        for(Link link : links) {
+            link.closing = true;
+        }
+    }
+
+    /**
+     * a connected replica. Sends the image and then the queued frames, reads acknowledgements on a second thread
+     */
+    private class Link implements Runnable {
+        //connection to the replica
+        private final Socket socket;
+
+        //frames waiting to be sent
+        private final BlockingQueue<byte[]> queue;
+
+        //next sequence the replica expects, by its last acknowledgement
+        private volatile long acknowledged = 0;
+
+        //true once the publisher closes, the queue is drained and the link closed
+        private volatile boolean closing = false;
+
+        //true once the link is closed
+        private volatile boolean dropped = false;
+
+        /**
+         * constructor that takes the replica's socket
+         * @param socket
+         *      connection to the replica
+         */
+        Link(Socket socket) {
+            this.socket = socket;
+            this.queue = new ArrayBlockingQueue<byte[]>(backlog);
+        }
+
+        /**
+         * queues a frame. A replica whose backlog is full is dropped
+         * @param frame
+         *      frame to send
+         */
+        void offer(byte[] frame) {
+            if(!queue.offer(frame)) {
+                System.out.println("WARNING: Replica " + socket.getRemoteSocketAddress() + " is " + backlog
+                        + " frames behind. Dropping it");
+                drop();
+            }
+        }
+
+        /**
+         * sends the image and then the stream until the link is dropped or the publisher closed
+         */
+        public void run() {
+            try {
+                DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(),
+                        64 * 1024));
+
+                final long[] start = new long[1];
+                Checkpoint image = source.image(new Runnable() {
+                    public void run() {
+                        start[0] = getSequence();
+                        acknowledged = start[0];
+                        links.add(Link.this);
+                    }
+                });
+                if(closed) {
+                    closing = true;
+                }
+
+                ByteArrayOutputStream snapshot = new ByteArrayOutputStream(64 * 1024);
+                BookSnapshotFile.write(image, snapshot);
+                stream.writeByte(SNAPSHOT);
+                stream.writeLong(start[0]);
+                stream.writeLong(image.getTimestamp());
+                stream.writeInt(snapshot.size());
+                snapshot.writeTo(stream);
+                stream.flush();
+
+                Thread reader = new Thread(new Runnable() {
+                    public void run() {
+                        acknowledge();
+                    }
+                }, "apollo-replica-ack-" + socket.getPort());
+                reader.setDaemon(true);
+                reader.start();
+
+                while(!dropped) {
+                    byte[] frame = queue.poll(HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+                    if(frame == null) {
+                        if(closing) {
+                            break;
+                        }
+                        stream.writeByte(HEARTBEAT);
+                        stream.writeLong(getSequence());
+                        stream.writeLong(System.currentTimeMillis());
+                        stream.writeInt(0);
+                    }
+                    else {
+                        stream.write(frame);
+                        while((frame = queue.poll()) != null) {
+                            stream.write(frame);
+                        }
+                    }
+                    stream.flush();
+                }
+            }
+            catch (IOException e) {
+                if(!dropped) {
+                    System.out.println("WARNING: Replica " + socket.getRemoteSocketAddress() + " disconnected");
+                }
+            }
+            catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            drop();
+        }
+
+        /**
+         * reads the acknowledgements of the replica until it disconnects
+         */
+        private void acknowledge() {
+            try {
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                while(!dropped) {
+                    acknowledged = in.readLong();
+                }
+            }
+            catch (IOException e) {
+                //the sender notices the closed socket
+            }
+        }
+
+        /**
+         * closes the link and stops sending to it
+         */
+        private void drop() {
+            dropped = true;
+            links.remove(this);
+            try {
+                socket.close();
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
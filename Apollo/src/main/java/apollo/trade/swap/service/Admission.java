@@ -0,0 +1,86 @@
+package apollo.trade.swap.service;
+
+import java.util.UUID;
+
+/**
+ * Result of handing a message to the engine. Says whether the message was accepted and if not, why it was refused.
+ * Also carries the depth of the queue the message was routed to so callers can see the engine filling up
+ */
+public class Admission {
+
+    //enums for the outcome of an admission
+    //ACCEPTED - message is on its way to the core
+    //INVALID - message is null, invalid or already in flight
+    //NOT_RUNNING - core is stopping or stopped
+    //QUEUE_FULL - queue stayed full for as long as the caller was willing to wait
+    //SHED - queue is past the shed mark for the message's type
+    //INTERRUPTED - caller was interrupted while waiting for space
+    public enum REASON {
+        ACCEPTED, INVALID, NOT_RUNNING, QUEUE_FULL, SHED, INTERRUPTED
+    }
+
+    //outcome of the admission
+    private final REASON reason;
+
+    //id of the message. null if there was no message
+    private final UUID id;
+
+    //depth of the queue the message was routed to, at the time of the admission
+    private final int depth;
+
+    /**
+     * creates an admission result
+     * @param reason
+     *      outcome of the admission
+     * @param id
+     *      id of the message
+     * @param depth
+     *      depth of the queue the message was routed to
+     */
+    public Admission(REASON reason, UUID id, int depth) {
+        this.reason = reason;
+        this.id = id;
+        this.depth = depth;
+    }
+
+    /**
+     * whether the message was accepted
+     * @return
+     *      true if the message is on its way to the core
+     */
+    public boolean isAccepted() {
+        return reason == REASON.ACCEPTED;
+    }
+
+    /**
+     * outcome of the admission
+     * @return
+     *      ACCEPTED or the reason the message was refused
+     */
+    public REASON getReason() {
+        return reason;
+    }
+
+    /**
+     * id of the message
+     * @return
+     *      message id, which is also the id of its bill
+     */
+    public UUID getId() {
+        return id;
+    }
+
+    /**
+     * depth of the queue the message was routed to
+     * @return
+     *      amount of messages waiting in that queue
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    @Override
+    public String toString() {
+        return "Admission " + reason + " for message " + id + " at queue depth " + depth;
+    }
+}
@@ -0,0 +1,221 @@
+package apollo.trade.swap.service;
+
+import apollo.common.engine.Message;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Decides whether the core takes a message and watches the depth of the inbound queues.
+ *
+ * Shedding: every message type can be given a shed mark, a fraction of the queue capacity. Once the queue a message is
+ * routed to is at or past the mark for its type, the message is refused with SHED instead of waiting. That lets cheap
+ * to drop traffic (GOAL searches) go first while SWAPs still get in. Types without a mark are never shed.
+ *
+ * Back pressure: once a queue fills past the high water mark every listener is told, and told again once the queue
+ * has drained back under the low water mark. Callers can also poll isPressured.
+ *
+ * Marks should be set before the engine starts. Every refusal is counted by reason.
+ */
+public class AdmissionController {
+
+    //default fraction of capacity at which a queue is under pressure
+    public static final double DEFAULT_HIGH_WATER = 0.75;
+
+    //default fraction of capacity at which a queue is no longer under pressure
+    public static final double DEFAULT_LOW_WATER = 0.25;
+
+    //shed mark of each message type as a fraction of capacity. indexed by message type
+    private final double[] shedMarks = new double[Message.MAX_TYPE + 1];
+
+    //water marks as fractions of capacity
+    private final double highWater;
+    private final double lowWater;
+
+    //told when a queue crosses a water mark
+    private final List<BackpressureListener> listeners = new CopyOnWriteArrayList<BackpressureListener>();
+
+    //shards whose queue is past the high water mark
+    private final Set<Integer> pressured = ConcurrentHashMap.newKeySet();
+
+    //admissions by outcome. indexed by reason ordinal
+    private final AtomicLongArray outcomes = new AtomicLongArray(Admission.REASON.values().length);
+
+    /**
+     * creates a controller with the default water marks that never sheds
+     */
+    public AdmissionController() {
+        this(DEFAULT_HIGH_WATER, DEFAULT_LOW_WATER);
+    }
+
+    /**
+     * creates a controller with the water marks passed in that never sheds
+     * @param highWater
+     *      fraction of capacity at which a queue is under pressure
+     * @param lowWater
+     *      fraction of capacity at which a queue is no longer under pressure. should be below the high water mark
+     */
+    public AdmissionController(double highWater, double lowWater) {
+        this.highWater = highWater;
+        this.lowWater = Math.min(lowWater, highWater);
+
+        for(int i = 0; i < shedMarks.length; i++) {
+            shedMarks[i] = Double.POSITIVE_INFINITY;
+        }
+    }
+
+    /**
+     * sets the shed mark of a message type. the kill core and expire messages are never shed
+     * @param type
+     *      message type, one of the Message type constants
+     * @param fraction
+     *      fraction of capacity at which messages of the type are shed
+     */
+    public void setShedMark(int type, double fraction) {
+        if(type > 0 && type < shedMarks.length && type != Message.KILL_CORE && type != Message.EXPIRE) {
+            shedMarks[type] = fraction;
+        }
+    }
+
+    /**
+     * shed mark of a message type
+     * @param type
+     *      message type
+     * @return
+     *      fraction of capacity at which messages of the type are shed. infinite if they are never shed
+     */
+    public double getShedMark(int type) {
+        if(type > 0 && type < shedMarks.length) {
+            return shedMarks[type];
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * whether the message should be shed
+     * @param message
+     *      message being admitted
+     * @param depth
+     *      depth of the queue the message is routed to
+     * @param capacity
+     *      capacity of that queue
+     * @return
+     *      true if the queue is at or past the shed mark of the message's type
+     */
+    public boolean shed(Message message, int depth, int capacity) {
+        int type = message.getType();
+        return type > 0 && type < shedMarks.length && depth >= shedMarks[type] * capacity;
+    }
+
+    /**
+     * records an accepted message
+     * @param id
+     *      id of the message
+     * @param depth
+     *      depth of the queue the message went to
+     * @return
+     *      the admission
+     */
+    public Admission accept(UUID id, int depth) {
+        outcomes.incrementAndGet(Admission.REASON.ACCEPTED.ordinal());
+        return new Admission(Admission.REASON.ACCEPTED, id, depth);
+    }
+
+    /**
+     * records a refused message
+     * @param reason
+     *      why the message was refused
+     * @param id
+     *      id of the message. null if there was no message
+     * @param depth
+     *      depth of the queue the message was routed to
+     * @return
+     *      the admission
+     */
+    public Admission refuse(Admission.REASON reason, UUID id, int depth) {
+        outcomes.incrementAndGet(reason.ordinal());
+        return new Admission(reason, id, depth);
+    }
+
+    /**
+     * adds to the count of an outcome without creating an admission. Used for batches
+     * @param reason
+     *      outcome of the admissions
+     * @param amount
+     *      amount of messages with that outcome
+     */
+    public void count(Admission.REASON reason, int amount) {
+        if(amount > 0) {
+            outcomes.addAndGet(reason.ordinal(), amount);
+        }
+    }
+
+    /**
+     * reports the depth of a shard's queue. tells the listeners if the queue crossed a water mark. cheap when no
+     * queue is under pressure and the depth is under the high water mark
+     * @param shard
+     *      index of the shard. the shard count for the goal query queue
+     * @param depth
+     *      messages waiting in the queue
+     * @param capacity
+     *      capacity of the queue
+     */
+    public void depth(int shard, int depth, int capacity) {
+        if(depth >= highWater * capacity) {
+            if(pressured.add(shard)) {
+                for(BackpressureListener listener : listeners) {
+                    listener.onHighWater(shard, depth, capacity);
+                }
+            }
+        }
+        else if(depth <= lowWater * capacity && !pressured.isEmpty() && pressured.remove(shard)) {
+            for(BackpressureListener listener : listeners) {
+                listener.onLowWater(shard, depth, capacity);
+            }
+        }
+    }
+
+    /**
+     * whether any queue is past the high water mark and has not drained under the low water mark yet
+     * @return
+     *      true if the engine is under pressure
+     */
+    public boolean isPressured() {
+        return !pressured.isEmpty();
+    }
+
+    /**
+     * adds a listener for water mark crossings
+     * @param listener
+     *      the listener
+     */
+    public void addListener(BackpressureListener listener) {
+        if(listener != null) {
+            listeners.add(listener);
+        }
+    }
+
+    /**
+     * removes a listener
+     * @param listener
+     *      the listener
+     */
+    public void removeListener(BackpressureListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * amount of admissions with the outcome passed in
+     * @param reason
+     *      outcome of the admission
+     * @return
+     *      count of admissions
+     */
+    public long getCount(Admission.REASON reason) {
+        return outcomes.get(reason.ordinal());
+    }
+}
@@ -0,0 +1,643 @@
+package apollo.trade.swap.service;
+
+
+import apollo.common.engine.Bill;
+import apollo.common.engine.BookSnapshot;
+import apollo.common.engine.Message;
+import apollo.common.engine.Statistics;
+import apollo.trade.swap.store.BillStore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static apollo.trade.swap.service.EngineCore.*;
+
+/**
+ * An engine instance. Every instance has its own core, queues, bill store and book snapshot so several independent
+ * books (per region, per tenant) can run side by side in one JVM. The threads of the core come from the instance's
+ * thread factory so each book can be pinned to its own threads.
+ *
+ * Sending, reading bills and state checks take no engine wide lock, so any number of client threads can send at the
+ * same time and a client waiting on a bill does not hold up anyone else. Only starting, stopping and flushing are
+ * serialized, on the instance's lifecycle lock. The static Engine class wraps a default instance
+ */
+public class ApolloEngine {
+
+    //time, in milliseconds, given to the core on top of the drain timeout to finish dying
+    private static final long TERMINATION_GRACE = 1000;
+
+    //bills of sent messages that have not been read yet. bounded and expiring so unread bills do not pile up
+    private volatile BillStore billStore = new BillStore();
+
+    //settings new cores are created with. changed only under the lifecycle lock
+    private final EngineConfig config;
+
+    //held while the core is started, stopped, flushed or replaced. producers and state probes never take it
+    private final Object lifecycle = new Object();
+
+    //name of the engine, used to name its threads
+    private final String name;
+
+    //the core of the engine. replaced only under the lifecycle lock, read without it
+    private volatile EngineCore core;
+
+    //book snapshot
+    private volatile BookSnapshot bookSnapshot = null;
+
+    //told about the expiry bills of every core of the engine. expiry bills nobody listens for go to the bill store
+    private final List<ExpiryListener> expiryListeners = new CopyOnWriteArrayList<ExpiryListener>();
+
+    /**
+     * creates an engine named default
+     */
+    public ApolloEngine() {
+        this("default");
+    }
+
+    /**
+     * creates an engine whose threads are named after the engine
+     * @param name
+     *      name of the engine
+     */
+    public ApolloEngine(String name) {
+        this(name, new EngineConfig());
+    }
+
+    /**
+     * creates an engine whose core runs on threads from the factory passed in
+     * @param name
+     *      name of the engine
+     * @param threadFactory
+     *      factory for the core and shard threads. threads named apollo-name-n if null
+     */
+    public ApolloEngine(String name, ThreadFactory threadFactory) {
+        this(name, threadFactory(threadFactory));
+    }
+
+    /**
+     * creates an engine with the settings passed in. The engine keeps its own copy of the settings
+     * @param name
+     *      name of the engine
+     * @param config
+     *      settings of the engine's cores. threads named apollo-name-n if the config has no thread factory
+     */
+    public ApolloEngine(final String name, EngineConfig config) {
+        this.name = name;
+        this.config = new EngineConfig(config);
+
+        if(this.config.getThreadFactory() == null) {
+            final AtomicInteger threads = new AtomicInteger();
+            this.config.setThreadFactory(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    return new Thread(runnable, "apollo-" + name + "-" + threads.getAndIncrement());
+                }
+            });
+        }
+        core = newCore(null);
+    }
+
+    /**
+     * default settings with the thread factory passed in
+     */
+    private static EngineConfig threadFactory(ThreadFactory threadFactory) {
+        EngineConfig config = new EngineConfig();
+        config.setThreadFactory(threadFactory);
+        return config;
+    }
+
+    /**
+     * start method. if engine is down this method will restart it
+     */
+    public void start() {
+        start(null);
+    }
+    
+    /**
+     * start method with book snapshot passed in. if engine is down this method will restart it
+     * @param snapshot
+     * 			Snapshot of the book that should be loaded in if this engine has not started yet
+     * 
+     */
+    public void start(BookSnapshot snapshot) {
+        synchronized(lifecycle) {
+            //if core was nullified for some reason
+            if(core == null) {
+                System.out.println("WARNING: Core vanished Recreating...");
+                core = newCore(bookSnapshot);
+            }
+
+            //if engine is dead, restart
+            if(down()) {
+                System.out.println("Engine died. Recreating...");
+                core = newCore(bookSnapshot);
+            }
+        
+        	//if snapshot passed in is not null then recreate engine with this snapshot (only if engine is warming up)
+            if(warmingUp() && snapshot != null) {
+            	System.out.println("Recreating engine with snapshot...");
+            	bookSnapshot = snapshot;
+                core = newCore(bookSnapshot);
+            }
+            //if engine is new, thread start
+            if(warmingUp()) {
+                System.out.println("Starting engine...");
+                config.getThreadFactory().newThread(core).start();
+            }
+
+            //engine is running so leave it alone
+            if(running()) {
+                System.out.println("Engine running");
+            }
+        }
+    }
+
+    /**
+     * start method for a sharded engine. The core is split into the amount of matching threads passed in, each
+     * owning a disjoint set of makes. If the engine is already running with a different amount of shards it has to be
+     * stopped first for the new shard count to take effect
+     * @param snapshot
+     *          Snapshot of the book that should be loaded in if this engine has not started yet
+     * @param shards
+     *          amount of matching threads
+     */
+    public void start(BookSnapshot snapshot, int shards) {
+        synchronized(lifecycle) {
+            start(snapshot, shards, config.getInboundWait(), config.getOutboundWait());
+        }
+    }
+
+    /**
+     * start method for a sharded engine that also picks how the core waits. Busy spin and yielding give the
+     * lowest latency and cost a core per waiting thread, sleeping and blocking free the CPU while the engine is quiet.
+     * Like the shard count, new wait strategies only take effect on a core that has not started yet
+     * @param snapshot
+     *          Snapshot of the book that should be loaded in if this engine has not started yet
+     * @param shards
+     *          amount of matching threads
+     * @param inbound
+     *          how the matching threads wait for messages
+     * @param outbound
+     *          how readers wait for bills
+     */
+    public void start(BookSnapshot snapshot, int shards, WAIT_TYPE inbound, WAIT_TYPE outbound) {
+        synchronized(lifecycle) {
+            EngineConfig changed = new EngineConfig(config);
+            changed.setShards(shards);
+            changed.setInboundWait(inbound);
+            changed.setOutboundWait(outbound);
+            configure(changed, snapshot);
+            start(snapshot);
+        }
+    }
+
+    /**
+     * replaces the settings of the engine. Like the shard count, new settings only take effect on a core that has not
+     * started yet, a running engine has to be stopped and started again to pick them up
+     * @param config
+     *          the new settings. a config without a thread factory keeps the engine's thread factory
+     */
+    public void configure(EngineConfig config) {
+        synchronized(lifecycle) {
+            configure(config, null);
+        }
+    }
+
+    /**
+     * replaces the settings and recreates the core if it has not started yet. caller holds the lifecycle lock
+     * @param changed
+     *          the new settings
+     * @param snapshot
+     *          snapshot a recreated core is built from. the last snapshot if null
+     */
+    private void configure(EngineConfig changed, BookSnapshot snapshot) {
+        ThreadFactory threadFactory = config.getThreadFactory();
+        boolean differs = config.getShards() != changed.getShards()
+                || config.getInboundWait() != changed.getInboundWait()
+                || config.getOutboundWait() != changed.getOutboundWait()
+                || config.getQueueType() != changed.getQueueType()
+                || config.getInboundCapacity() != changed.getInboundCapacity()
+                || config.getOutboundCapacity() != changed.getOutboundCapacity()
+                || config.getDrainBatch() != changed.getDrainBatch()
+                || config.isPipelined() != changed.isPipelined()
+                || config.getQueryThreads() != changed.getQueryThreads()
+                || config.getJournalDirectory() != changed.getJournalDirectory()
+                || config.getJournalSegmentSize() != changed.getJournalSegmentSize()
+                || config.isJournalSync() != changed.isJournalSync()
+                || config.isRecover() != changed.isRecover()
+                || config.getCaptureFile() != changed.getCaptureFile()
+                || config.getCheckpointFile() != changed.getCheckpointFile()
+                || config.getCheckpointDeltas() != changed.getCheckpointDeltas()
+                || config.getReplicationPort() != changed.getReplicationPort()
+                || config.getReplicationBacklog() != changed.getReplicationBacklog()
+                || config.getAdmissionController() != changed.getAdmissionController()
+                || (changed.getThreadFactory() != null && changed.getThreadFactory() != threadFactory);
+
+        config.setShards(changed.getShards());
+        config.setInboundWait(changed.getInboundWait());
+        config.setOutboundWait(changed.getOutboundWait());
+        config.setQueueType(changed.getQueueType());
+        config.setInboundCapacity(changed.getInboundCapacity());
+        config.setOutboundCapacity(changed.getOutboundCapacity());
+        config.setDrainBatch(changed.getDrainBatch());
+        config.setDrainTimeout(changed.getDrainTimeout());
+        config.setPipelined(changed.isPipelined());
+        config.setQueryThreads(changed.getQueryThreads());
+        config.setJournalDirectory(changed.getJournalDirectory());
+        config.setJournalSegmentSize(changed.getJournalSegmentSize());
+        config.setJournalSync(changed.isJournalSync());
+        config.setRecover(changed.isRecover());
+        config.setCaptureFile(changed.getCaptureFile());
+        config.setCheckpointFile(changed.getCheckpointFile());
+        config.setCheckpointDeltas(changed.getCheckpointDeltas());
+        config.setReplicationPort(changed.getReplicationPort());
+        config.setReplicationBacklog(changed.getReplicationBacklog());
+        config.setAdmissionController(changed.getAdmissionController());
+        if(changed.getThreadFactory() != null) {
+            config.setThreadFactory(changed.getThreadFactory());
+        }
+
+        //core hasn't started yet so it can be recreated with the new settings
+        if(core != null && warmingUp() && differs) {
+            core = newCore(snapshot != null ? snapshot : bookSnapshot);
+        }
+    }
+
+    /**
+     * creates a new core with the current settings
+     * @param snapshot
+     *          snapshot the core is built from
+     * @return
+     *          the new core
+     */
+    private EngineCore newCore(BookSnapshot snapshot) {
+        EngineCore created = new EngineCore(snapshot, config);
+        //the core's bill queue is never read, expiry bills go to the engine's listeners or the bill store instead
+        created.addExpiryListener(new ExpiryListener() {
+            public void onExpiry(Bill bill) {
+                if(expiryListeners.isEmpty()) {
+                    billStore.put(bill);
+                }
+                for(ExpiryListener listener : expiryListeners) {
+                    listener.onExpiry(bill);
+                }
+            }
+        });
+        return created;
+    }
+
+    /**
+     * copy of the settings new cores are created with
+     * @return
+     *          the settings of the engine
+     */
+    public EngineConfig getConfig() {
+        synchronized(lifecycle) {
+            return new EngineConfig(config);
+        }
+    }
+
+    /**
+     * stops the core and sets the book snapshot
+     */
+    public void stop() {
+        synchronized(lifecycle) {
+            stopCore();
+            bookSnapshot = getBookSnapshot();
+            System.out.println("Engine shut down and snapshot created");
+        }
+    }
+
+    /**
+     * restarts the engine core and flushes the entire book so the engine core starts clean
+     */
+    public void flush() {
+        synchronized(lifecycle) {
+            System.out.println("Flushing all books in the engine...");
+
+            core.flush();
+            bookSnapshot = null;
+            System.out.println("Engine and snapshot cleaned");
+        }
+    }
+
+    /**
+     * internal method that stops the current core of the engine and cleans out the bill queue. The shards get the
+     * configured drain timeout, the engine waits on the core's termination instead of polling its state and then moves
+     * every bill left on the bill queue to the bill store in one go
+     */
+    private void stopCore() {
+        if(running()) {
+            System.out.println("Stopping engine...");
+            long drainTimeout = config.getDrainTimeout();
+            core.stop(drainTimeout, TimeUnit.MILLISECONDS);
+
+            //let engine die before dumping bills to cache
+            if(!core.awaitTermination(drainTimeout + TERMINATION_GRACE, TimeUnit.MILLISECONDS)) {
+                System.out.println("WARNING: Engine " + name + " core did not die within " + (drainTimeout
+                        + TERMINATION_GRACE) + "ms. State is " + core.state());
+            }
+
+            //dump all bills from core to engine
+            List<Bill> bills = new ArrayList<Bill>();
+            core.drainBills(bills);
+            billStore.putAll(bills);
+        }
+    }
+
+    /**
+     * send a engine to the engine. The bill can be read later with getBill
+     * @param message
+     *      Message to be sent to the engine
+     * @return
+     *      UUID of the engine
+     */
+    public UUID send(Message message) {
+        if(message != null && message.isValid()) {
+            CompletableFuture<Bill> future = core.submit(message);
+            if(!future.isCompletedExceptionally()) {
+                billStore.put(message.getId(), future);
+                return message.getId();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * send a engine to the engine without waiting for space on a full queue. The bill can be read later with getBill
+     * @param message
+     *      Message to be sent to the engine
+     * @return
+     *      the admission of the message. says why the message was refused if it was
+     */
+    public Admission trySend(Message message) {
+        return trySend(message, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * send a engine to the engine, waiting up to the timeout for space on a full queue. The bill can be read later
+     * with getBill. A refused message can be sent again
+     * @param message
+     *      Message to be sent to the engine
+     * @param timeout
+     *      how long to wait for space
+     * @param unit
+     *      unit of the timeout
+     * @return
+     *      the admission of the message. says why the message was refused if it was
+     */
+    public Admission trySend(Message message, long timeout, TimeUnit unit) {
+        EngineCore current = core;
+        CompletableFuture<Bill> future = new CompletableFuture<Bill>();
+
+        if(message == null || !message.isValid() || !message.setBillFuture(future)) {
+            return current.getAdmissionController().refuse(Admission.REASON.INVALID,
+                    message != null ? message.getId() : null, 0);
+        }
+
+        Admission admission = current.offer(message, timeout, unit);
+        if(admission.isAccepted()) {
+            billStore.put(message.getId(), future);
+        }
+        else {
+            //frees the message to be sent again
+            future.completeExceptionally(new IllegalStateException(admission.toString()));
+        }
+        return admission;
+    }
+
+    /**
+     * submits a engine to the engine and returns a future that the core completes with the bill as soon as the bill
+     * is created. The bill is not kept by the engine so getBill will not find it
+     * @param message
+     *      Message to be sent to the engine
+     * @return
+     *      future completed with the bill. Completed exceptionally if the engine is invalid or was not accepted
+     */
+    public CompletableFuture<Bill> submit(Message message) {
+        if(message == null || !message.isValid()) {
+            CompletableFuture<Bill> future = new CompletableFuture<Bill>();
+            future.completeExceptionally(new IllegalArgumentException("Message is null or invalid"));
+            return future;
+        }
+        return core.submit(message);
+    }
+
+    /**
+     * sends a batch of messages to the engine in one operation. The core takes the whole batch at once instead of one
+     * handoff per engine and the bills come back as a group. Like submit, the bills are not kept by the engine so
+     * getBill will not find them
+     * @param messages
+     *      Messages to be sent to the engine
+     * @return
+     *      future completed with the bills in the order the messages were passed in. Completed exceptionally without
+     *      sending anything if any engine is invalid, or if the core did not accept the batch
+     */
+    public CompletableFuture<List<Bill>> sendBatch(List<Message> messages) {
+        if(messages != null) {
+            for(Message message : messages) {
+                if(message == null || !message.isValid()) {
+                    messages = null;
+                    break;
+                }
+            }
+        }
+
+        if(messages == null) {
+            CompletableFuture<List<Bill>> future = new CompletableFuture<List<Bill>>();
+            future.completeExceptionally(new IllegalArgumentException("Batch is null or holds an invalid message"));
+            return future;
+        }
+        return core.submitBatch(messages);
+    }
+
+    /**
+     * returns the bill for the id passed in. Waits until the core has created the bill if it has not yet
+     * @param id
+     *      id of the bill that should be retrieved
+     * @return
+     *      the Bill with the matching id. null if no engine with this id was sent or its bill was evicted
+     */
+    public Bill getBill(UUID id) {
+        return getBill(id, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * returns the bill for the id passed in. Waits up to the timeout for the core to create the bill. A bill that
+     * timed out can still be read by a later call
+     * @param id
+     *      id of the bill that should be retrieved
+     * @param timeout
+     *      how long to wait for the bill
+     * @param unit
+     *      unit of the timeout
+     * @return
+     *      the Bill with the matching id. null if no engine with this id was sent, its bill was evicted or the timeout
+     *      passed
+     */
+    public Bill getBill(UUID id, long timeout, TimeUnit unit) {
+        Bill bill = null;
+
+        if(id != null) {
+            CompletableFuture<Bill> future = billStore.remove(id);
+
+            if(future != null) {
+                try {
+                    bill = future.get(timeout, unit);
+                }
+                catch (TimeoutException e) {
+                    //nobody else can be waiting on this id so put it back for the next read
+                    billStore.put(id, future);
+                }
+                catch (InterruptedException e) {
+                    billStore.put(id, future);
+                    Thread.currentThread().interrupt();
+                }
+                catch (ExecutionException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        //set the bill read time in the stats
+        if(bill != null) {
+            Statistics stats = bill.getStatistics();
+            if(stats != null) {
+                stats.setBillReadTime();
+            }
+        }
+        return bill;
+    }
+
+    /**
+     * replaces the store that holds bills until they are read. Bills in the old store are not carried over
+     * @param store
+     *      the new bill store
+     */
+    public void setBillStore(BillStore store) {
+        synchronized(lifecycle) {
+            if(store != null) {
+                billStore = store;
+            }
+        }
+    }
+
+    /**
+     * the admission controller of the engine. Takes back pressure listeners and counts admissions by outcome
+     * @return
+     *      the admission controller
+     */
+    public AdmissionController getAdmissionController() {
+        return core.getAdmissionController();
+    }
+
+    /**
+     * the store holding bills until they are read. Exposes the eviction counters
+     * @return
+     *      the bill store
+     */
+    public BillStore getBillStore() {
+        return billStore;
+    }
+
+    /**
+     * adds a listener told about the orders that expire off the books. Kept across flushes and restarts
+     * @param listener
+     *      the listener
+     */
+    public void addExpiryListener(ExpiryListener listener) {
+        if(listener != null) {
+            expiryListeners.add(listener);
+        }
+    }
+
+    /**
+     * removes an expiry listener
+     * @param listener
+     *      the listener
+     * @return
+     *      True - the listener was registered
+     */
+    public boolean removeExpiryListener(ExpiryListener listener) {
+        return expiryListeners.remove(listener);
+    }
+
+    /**
+     * gets the snapshot of the current book from the core
+     * @return
+     *      snapshot of the current state of the book
+     */
+    public BookSnapshot getBookSnapshot() {
+        synchronized(lifecycle) {
+            BookSnapshot snapshot = core.getBookSnapshot();
+            if(snapshot != null) {
+                bookSnapshot = snapshot;
+            }
+            return bookSnapshot;
+        }
+    }
+
+    /**
+     * state check: is engine running?
+     * @return
+     *      true if engine is running
+     */
+    public boolean running() {
+        if(core.state() == CORE_STATE.RUNNING) {
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * state check: is engine ready to start?
+     * @return
+     *      true if engine is warming up
+     */
+    public boolean warmingUp() {
+        if(core.state() == CORE_STATE.WARMING) {
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * state check: is engine idle?
+     * @return
+     *      true if engine is idle
+     */
+    public boolean idle() {
+        if(core.state() == CORE_STATE.IDLE) {
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * state check: is engine dead?
+     * @return
+     *      true if engine is dead
+     */    
+    public boolean down() {
+        if(core.state() == CORE_STATE.DEAD) {
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * name of the engine
+     * @return
+     *      the name passed in when the engine was created
+     */
+    public String getName() {
+        return name;
+    }
+}
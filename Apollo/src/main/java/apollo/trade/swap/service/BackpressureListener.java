@@ -0,0 +1,31 @@
+package apollo.trade.swap.service;
+
+/**
+ * Told when an inbound queue of the core crosses the high water mark of its admission controller, and again when it
+ * has drained back under the low water mark. Callers use it to throttle before latency grows. Called on the thread
+ * that saw the crossing (a producer for high water, a shard for low water) so implementations should return quickly
+ */
+public interface BackpressureListener {
+
+    /**
+     * the queue of a shard filled up past the high water mark
+     * @param shard
+     *      index of the shard. the shard count for the goal query queue
+     * @param depth
+     *      messages waiting in the queue
+     * @param capacity
+     *      capacity of the queue
+     */
+    void onHighWater(int shard, int depth, int capacity);
+
+    /**
+     * the queue of a shard drained back under the low water mark
+     * @param shard
+     *      index of the shard. the shard count for the goal query queue
+     * @param depth
+     *      messages waiting in the queue
+     * @param capacity
+     *      capacity of the queue
+     */
+    void onLowWater(int shard, int depth, int capacity);
+}
@@ -4,29 +4,25 @@ package apollo.trade.swap.service;
 import apollo.common.engine.Bill;
 import apollo.common.engine.BookSnapshot;
 import apollo.common.engine.Message;
-import apollo.common.engine.Statistics;
+import apollo.trade.swap.store.BillStore;
 
-import java.util.Map;
+import java.util.List;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import static apollo.trade.swap.service.EngineCore.*;
 
 /**
- * Static engine class that wraps the core thread and gives static access to the engine functionality. interface used
- * by all clients
+ * Static engine class that wraps a default ApolloEngine instance and gives static access to the engine functionality.
+ * interface used by all clients that only need one book. Clients that need several independent books create their own
+ * ApolloEngine instances
  * Created by santana on 7/27/14.
  */
 public class Engine {
 
-    //map of old bills from the engine in case anyone looks for them
-    private static Map<UUID, Bill> billOrganizer = new ConcurrentHashMap<UUID, Bill>();
-
-    //the core of the engine
-    private static EngineCore core = new EngineCore(null);
-
-    //book snapshot
-    private static BookSnapshot bookSnapshot = null;
+    //the engine behind the static methods
+    private static final ApolloEngine engine = new ApolloEngine();
 
     /**
      * default constructor
@@ -35,11 +31,20 @@ public class Engine {
 
     }
 
+    /**
+     * the instance behind the static methods
+     * @return
+     *      the default engine
+     */
+    public static ApolloEngine getDefault() {
+        return engine;
+    }
+
     /**
      * static start method. if engine is down this method will restart it
      */
-    public static synchronized void start() {
-        start(null);
+    public static void start() {
+        engine.start();
     }
     
     /**
@@ -48,126 +53,191 @@ public class Engine {
      * 			Snapshot of the book that should be loaded in if this engine has not started yet
      * 
      */
-    public static synchronized void start(BookSnapshot snapshot) {
-        //if core was nullified for some reason
-        if(core == null) {
-            System.out.println("WARNING: Core vanished Recreating...");
-            core = new EngineCore(bookSnapshot);
-        }
-
-        //if engine is dead, restart
-        if(down()) {
-            System.out.println("Engine died. Recreating...");
-            core = new EngineCore(bookSnapshot);
-        }
-        
-    	//if snapshot passed in is not null then recreate engine with this snapshot (only if engine is warming up)
-        if(warmingUp() && snapshot != null) {
-        	System.out.println("Recreating engine with snapshot...");
-        	bookSnapshot = snapshot;
-            core = new EngineCore(bookSnapshot);
-        }
-        //if engine is new, thread start
-        if(warmingUp()) {
-            System.out.println("Starting engine...");
-            new Thread(core).start();
-        }
-
-        //engine is running so leave it alone
-        if(running()) {
-            System.out.println("Engine running");
-        }
+    public static void start(BookSnapshot snapshot) {
+        engine.start(snapshot);
+    }
+
+    /**
+     * static start method for a sharded engine. See ApolloEngine.start
+     * @param snapshot
+     *          Snapshot of the book that should be loaded in if this engine has not started yet
+     * @param shards
+     *          amount of matching threads
+     */
+    public static void start(BookSnapshot snapshot, int shards) {
+        engine.start(snapshot, shards);
+    }
+
+    /**
+     * static start method for a sharded engine that also picks how the core waits. See ApolloEngine.start
+     * @param snapshot
+     *          Snapshot of the book that should be loaded in if this engine has not started yet
+     * @param shards
+     *          amount of matching threads
+     * @param inbound
+     *          how the matching threads wait for messages
+     * @param outbound
+     *          how readers wait for bills
+     */
+    public static void start(BookSnapshot snapshot, int shards, WAIT_TYPE inbound, WAIT_TYPE outbound) {
+        engine.start(snapshot, shards, inbound, outbound);
+    }
+
+    /**
+     * replaces the settings of the engine. See ApolloEngine.configure
+     * @param config
+     *          the new settings
+     */
+    public static void configure(EngineConfig config) {
+        engine.configure(config);
     }
 
     /**
      * stops the core and sets the book snapshot
      */
-    public static synchronized void stop() {
-        stopCore();
-        bookSnapshot = getBookSnapshot();
-        System.out.println("Engine shut down and snapshot created");
+    public static void stop() {
+        engine.stop();
     }
 
     /**
      * restarts the engine core and flushes the entire book so the engine core starts clean
      */
-    public static synchronized void flush() {
-        System.out.println("Flushing all books in the engine...");
-
-        core.flush();
-        bookSnapshot = null;
-        System.out.println("Engine and snapshot cleaned");
+    public static void flush() {
+        engine.flush();
     }
 
     /**
-     * internal method that stops the current core of the engine and cleans out the bill queue
+     * send a engine to the engine. The bill can be read later with getBill
+     * @param message
+     *      Message to be sent to the engine
+     * @return
+     *      UUID of the engine
      */
-    private static void stopCore() {
-        if(running()) {
-            System.out.println("Stopping engine...");
-            core.stop();
+    public static UUID send(Message message) {
+        return engine.send(message);
+    }
 
-            //let engine die before dumping bills to cache
-            while(!down());
+    /**
+     * send a engine to the engine without waiting for space on a full queue. See ApolloEngine.trySend
+     * @param message
+     *      Message to be sent to the engine
+     * @return
+     *      the admission of the message
+     */
+    public static Admission trySend(Message message) {
+        return engine.trySend(message);
+    }
 
-            //dump all bills from core to engine
-            Bill bill = core.quickBill();
-            while(bill != null) {
-                billOrganizer.put(bill.getId(), bill);
-                bill = core.quickBill();
-            }
-        }
+    /**
+     * send a engine to the engine, waiting up to the timeout for space on a full queue. See ApolloEngine.trySend
+     * @param message
+     *      Message to be sent to the engine
+     * @param timeout
+     *      how long to wait for space
+     * @param unit
+     *      unit of the timeout
+     * @return
+     *      the admission of the message
+     */
+    public static Admission trySend(Message message, long timeout, TimeUnit unit) {
+        return engine.trySend(message, timeout, unit);
     }
 
     /**
-     * send a engine to the engine
+     * submits a engine to the engine and returns a future that the core completes with the bill as soon as the bill
+     * is created. The bill is not kept by the engine so getBill will not find it
      * @param message
      *      Message to be sent to the engine
      * @return
-     *      UUID of the engine
+     *      future completed with the bill. Completed exceptionally if the engine is invalid or was not accepted
      */
-    public static synchronized UUID send(Message message) {
-        if(message != null && message.isValid()) {
-            return core.input(message);
-        }
-        return null;
+    public static CompletableFuture<Bill> submit(Message message) {
+        return engine.submit(message);
     }
 
     /**
-     * returns the bill for the id passed in
+     * sends a batch of messages to the engine in one operation. See ApolloEngine.sendBatch
+     * @param messages
+     *      Messages to be sent to the engine
+     * @return
+     *      future completed with the bills in the order the messages were passed in
+     */
+    public static CompletableFuture<List<Bill>> sendBatch(List<Message> messages) {
+        return engine.sendBatch(messages);
+    }
+
+    /**
+     * returns the bill for the id passed in. Waits until the core has created the bill if it has not yet
      * @param id
      *      id of the bill that should be retrieved
      * @return
-     *      the Bill with the matching id
+     *      the Bill with the matching id. null if no engine with this id was sent or its bill was evicted
      */
-    public static synchronized Bill getBill(UUID id) {
-        Bill bill = null;
+    public static Bill getBill(UUID id) {
+        return engine.getBill(id);
+    }
 
-        if(id != null) {
-            bill = billOrganizer.remove(id);
+    /**
+     * returns the bill for the id passed in. Waits up to the timeout for the core to create the bill
+     * @param id
+     *      id of the bill that should be retrieved
+     * @param timeout
+     *      how long to wait for the bill
+     * @param unit
+     *      unit of the timeout
+     * @return
+     *      the Bill with the matching id. null if no engine with this id was sent, its bill was evicted or the timeout
+     *      passed
+     */
+    public static Bill getBill(UUID id, long timeout, TimeUnit unit) {
+        return engine.getBill(id, timeout, unit);
+    }
 
-            //no bill in the organizer
-            if(bill == null) {
-                do {
-                    bill = core.nextBill();
-                    if(bill != null && bill.getId().equals(id)) {
-                        break;
-                    }
-                    else {
-                        billOrganizer.put(bill.getId(), bill);
-                    }
-                } while(bill != null);
-            }
-        }
+    /**
+     * replaces the store that holds bills until they are read. Bills in the old store are not carried over
+     * @param store
+     *      the new bill store
+     */
+    public static void setBillStore(BillStore store) {
+        engine.setBillStore(store);
+    }
 
-        //set the bill read time in the stats
-        if(bill != null) {
-            Statistics stats = bill.getStatistics();
-            if(stats != null) {
-                stats.setBillReadTime();
-            }
-        }
-        return bill;
+    /**
+     * the admission controller of the engine. Takes back pressure listeners and counts admissions by outcome
+     * @return
+     *      the admission controller
+     */
+    public static AdmissionController getAdmissionController() {
+        return engine.getAdmissionController();
+    }
+
+    /**
+     * the store holding bills until they are read. Exposes the eviction counters
+     * @return
+     *      the bill store
+     */
+    public static BillStore getBillStore() {
+        return engine.getBillStore();
+    }
+
+    /**
+     * adds a listener told about the orders that expire off the books. Kept across flushes and restarts
+     * @param listener
+     *      the listener
+     */
+    public static void addExpiryListener(ExpiryListener listener) {
+        engine.addExpiryListener(listener);
+    }
+
+    /**
+     * removes an expiry listener
+     * @param listener
+     *      the listener
+     * @return
+     *      True - the listener was registered
+     */
+    public static boolean removeExpiryListener(ExpiryListener listener) {
+        return engine.removeExpiryListener(listener);
     }
 
     /**
@@ -175,12 +245,8 @@ public class Engine {
      * @return
      *      snapshot of the current state of the book
      */
-    public static synchronized BookSnapshot getBookSnapshot() {
-        BookSnapshot snapshot = core.getBookSnapshot();
-        if(snapshot != null) {
-            bookSnapshot = snapshot;
-        }
-        return bookSnapshot;
+    public static BookSnapshot getBookSnapshot() {
+        return engine.getBookSnapshot();
     }
 
     /**
@@ -188,11 +254,8 @@ public class Engine {
      * @return
      *      true if engine is running
      */
-    public static synchronized boolean running() {
-        if(core.state() == CORE_STATE.RUNNING) {
-            return true;
-        }
-        return false;
+    public static boolean running() {
+        return engine.running();
     }
 
     /**
@@ -200,11 +263,8 @@ public class Engine {
      * @return
      *      true if engine is warming up
      */
-    public static synchronized boolean warmingUp() {
-        if(core.state() == CORE_STATE.WARMING) {
-            return true;
-        }
-        return false;
+    public static boolean warmingUp() {
+        return engine.warmingUp();
     }
 
     /**
@@ -212,11 +272,8 @@ public class Engine {
      * @return
      *      true if engine is idle
      */
-    public static synchronized boolean idle() {
-        if(core.state() == CORE_STATE.IDLE) {
-            return true;
-        }
-        return false;
+    public static boolean idle() {
+        return engine.idle();
     }
 
     /**
@@ -224,10 +281,7 @@ public class Engine {
      * @return
      *      true if engine is dead
      */    
-    public static synchronized boolean down() {
-        if(core.state() == CORE_STATE.DEAD) {
-            return true;
-        }
-        return false;
+    public static boolean down() {
+        return engine.down();
     }
 }
@@ -0,0 +1,504 @@
+package apollo.trade.swap.service;
+
+import java.io.File;
+import java.util.concurrent.ThreadFactory;
+
+import apollo.trade.swap.replica.ReplicaPublisher;
+import apollo.trade.swap.store.MessageJournal;
+
+import static apollo.trade.swap.service.EngineCore.*;
+
+/**
+ * Settings of an engine core: queue type and capacities, wait strategies, shard count, threads, drain batch size and
+ * admission control, pipelining, query threads, the message journal, checkpoints, replication and message capture. Cores take a copy of the settings when they are created
+ */
+public class EngineConfig {
+
+    //capacity of each shard's inbound queue
+    private int inboundCapacity = QUEUE_CAPACITY;
+
+    //capacity of the outbound bill queue
+    private int outboundCapacity = QUEUE_CAPACITY;
+
+    //type of queue backing the inbound and outbound queues. inbound queues are never single producer
+    private QUEUE_TYPE queueType = QUEUE_TYPE.MULTI_PRODUCER;
+
+    //how the shards wait for messages and readers wait for bills
+    private WAIT_TYPE inboundWait = WAIT_TYPE.SLEEPING;
+    private WAIT_TYPE outboundWait = WAIT_TYPE.SLEEPING;
+
+    //amount of matching threads
+    private int shards = 1;
+
+    //maximum amount of messages a shard takes off its queue per wakeup
+    private int drainBatch = DRAIN_BATCH;
+
+    //how long, in milliseconds, the shards may spend draining their queues on shutdown
+    private long drainTimeout = DRAIN_TIMEOUT;
+
+    //true if every shard splits its work over a pre-match, a match and a publish thread
+    private boolean pipelined = false;
+
+    //amount of threads answering goal searches off a book view. 0 to search on the matching threads
+    private int queryThreads = 0;
+
+    //directory of the message journal. null for no journal
+    private File journalDirectory = null;
+
+    //size of a journal segment file in bytes
+    private int journalSegmentSize = MessageJournal.DEFAULT_SEGMENT_SIZE;
+
+    //true if every journal append is forced to disk
+    private boolean journalSync = false;
+
+    //true if a new core rebuilds its books from the journal instead of the snapshot
+    private boolean recover = false;
+
+    //file the accepted messages are captured to. null for no capture
+    private File captureFile = null;
+
+    //file checkpoints are written to and recovered from. null for no checkpoints
+    private File checkpointFile = null;
+
+    //amount of delta checkpoints written after a full one before they are compacted into it. 0 for full checkpoints only
+    private int checkpointDeltas = 0;
+
+    //loopback port replicas connect to. 0 for any free port, -1 for no replication
+    private int replicationPort = -1;
+
+    //frames queued per replica before it is dropped
+    private int replicationBacklog = ReplicaPublisher.DEFAULT_BACKLOG;
+
+    //creates the core and shard threads. null for plain named threads
+    private ThreadFactory threadFactory = null;
+
+    //decides which messages get in and watches the queue depths
+    private AdmissionController admissionController = new AdmissionController();
+
+    /**
+     * creates a config with the defaults
+     */
+    public EngineConfig() {
+
+    }
+
+    /**
+     * creates a copy of the config passed in. the admission controller and thread factory are shared
+     * @param config
+     *      config to copy
+     */
+    public EngineConfig(EngineConfig config) {
+        inboundCapacity = config.inboundCapacity;
+        outboundCapacity = config.outboundCapacity;
+        queueType = config.queueType;
+        inboundWait = config.inboundWait;
+        outboundWait = config.outboundWait;
+        shards = config.shards;
+        drainBatch = config.drainBatch;
+        drainTimeout = config.drainTimeout;
+        pipelined = config.pipelined;
+        queryThreads = config.queryThreads;
+        journalDirectory = config.journalDirectory;
+        journalSegmentSize = config.journalSegmentSize;
+        journalSync = config.journalSync;
+        recover = config.recover;
+        captureFile = config.captureFile;
+        checkpointFile = config.checkpointFile;
+        checkpointDeltas = config.checkpointDeltas;
+        replicationPort = config.replicationPort;
+        replicationBacklog = config.replicationBacklog;
+        threadFactory = config.threadFactory;
+        admissionController = config.admissionController;
+    }
+
+    /**
+     * capacity of each shard's inbound queue
+     * @return
+     *      capacity of each shard's inbound queue
+     */
+    public int getInboundCapacity() {
+        return inboundCapacity;
+    }
+
+    /**
+     * sets the capacity of each shard's inbound queue
+     * @param inboundCapacity
+     *      capacity of each shard's inbound queue. ring buffers round it up to a power of two
+     */
+    public void setInboundCapacity(int inboundCapacity) {
+        this.inboundCapacity = Math.max(1, inboundCapacity);
+    }
+
+    /**
+     * capacity of the bill queue
+     * @return
+     *      capacity of the bill queue
+     */
+    public int getOutboundCapacity() {
+        return outboundCapacity;
+    }
+
+    /**
+     * sets the capacity of the bill queue
+     * @param outboundCapacity
+     *      capacity of the bill queue. ring buffers round it up to a power of two
+     */
+    public void setOutboundCapacity(int outboundCapacity) {
+        this.outboundCapacity = Math.max(1, outboundCapacity);
+    }
+
+    /**
+     * type of queue backing the inbound and outbound queues
+     * @return
+     *      type of queue backing the inbound and outbound queues
+     */
+    public QUEUE_TYPE getQueueType() {
+        return queueType;
+    }
+
+    /**
+     * sets the type of queue backing the inbound and outbound queues
+     * @param queueType
+     *      type of queue backing the inbound and outbound queues
+     */
+    public void setQueueType(QUEUE_TYPE queueType) {
+        this.queueType = queueType;
+    }
+
+    /**
+     * how the shards wait for messages
+     * @return
+     *      how the shards wait for messages
+     */
+    public WAIT_TYPE getInboundWait() {
+        return inboundWait;
+    }
+
+    /**
+     * sets the how the shards wait for messages
+     * @param inboundWait
+     *      how the shards wait for messages
+     */
+    public void setInboundWait(WAIT_TYPE inboundWait) {
+        this.inboundWait = inboundWait;
+    }
+
+    /**
+     * how readers wait for bills and shards wait for space on the bill queue
+     * @return
+     *      how readers wait for bills and shards wait for space on the bill queue
+     */
+    public WAIT_TYPE getOutboundWait() {
+        return outboundWait;
+    }
+
+    /**
+     * sets the how readers wait for bills and shards wait for space on the bill queue
+     * @param outboundWait
+     *      how readers wait for bills and shards wait for space on the bill queue
+     */
+    public void setOutboundWait(WAIT_TYPE outboundWait) {
+        this.outboundWait = outboundWait;
+    }
+
+    /**
+     * amount of matching threads
+     * @return
+     *      amount of matching threads
+     */
+    public int getShards() {
+        return shards;
+    }
+
+    /**
+     * sets the amount of matching threads
+     * @param shards
+     *      amount of matching threads. anything less than one is treated as one
+     */
+    public void setShards(int shards) {
+        this.shards = Math.max(1, shards);
+    }
+
+    /**
+     * maximum amount of messages a shard takes off its queue per wakeup
+     * @return
+     *      maximum amount of messages a shard takes off its queue per wakeup
+     */
+    public int getDrainBatch() {
+        return drainBatch;
+    }
+
+    /**
+     * sets the maximum amount of messages a shard takes off its queue per wakeup
+     * @param drainBatch
+     *      maximum amount of messages a shard takes off its queue per wakeup. anything less than one is one
+     */
+    public void setDrainBatch(int drainBatch) {
+        this.drainBatch = Math.max(1, drainBatch);
+    }
+
+    /**
+     * how long the shards may spend draining their queues on shutdown
+     * @return
+     *      drain timeout in milliseconds
+     */
+    public long getDrainTimeout() {
+        return drainTimeout;
+    }
+
+    /**
+     * sets how long the shards may spend draining their queues on shutdown. Messages still queued after that are not
+     * processed
+     * @param drainTimeout
+     *      drain timeout in milliseconds. anything less than zero is zero
+     */
+    public void setDrainTimeout(long drainTimeout) {
+        this.drainTimeout = Math.max(0, drainTimeout);
+    }
+
+    /**
+     * whether every shard splits its work over a pre-match, a match and a publish thread
+     * @return
+     *      true if the shards are pipelined
+     */
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    /**
+     * sets whether every shard splits its work over a pre-match, a match and a publish thread. A pipelined shard
+     * validates and stamps messages on one thread, touches the books on another and builds and publishes the bills on
+     * a third, so a slow bill reader never holds up matching. Costs three threads per shard instead of one
+     * @param pipelined
+     *      true to pipeline the shards
+     */
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    /**
+     * amount of threads answering goal searches off a book view
+     * @return
+     *      amount of query threads. 0 if goals are searched on the matching threads
+     */
+    public int getQueryThreads() {
+        return queryThreads;
+    }
+
+    /**
+     * sets the amount of threads answering goal searches. With query threads goals get their own inbound queue and are
+     * searched against a versioned copy of the books, so a deep search never holds up the swaps queued behind it
+     * @param queryThreads
+     *      amount of query threads. anything less than zero is zero, which searches on the matching threads
+     */
+    public void setQueryThreads(int queryThreads) {
+        this.queryThreads = Math.max(0, queryThreads);
+    }
+
+    /**
+     * directory of the message journal
+     * @return
+     *      journal directory. null if there is no journal
+     */
+    public File getJournalDirectory() {
+        return journalDirectory;
+    }
+
+    /**
+     * sets the directory of the message journal. Every message that changes the books is appended to the journal
+     * before it is matched
+     * @param journalDirectory
+     *      journal directory. null for no journal
+     */
+    public void setJournalDirectory(File journalDirectory) {
+        this.journalDirectory = journalDirectory;
+    }
+
+    /**
+     * size of a journal segment file
+     * @return
+     *      segment size in bytes
+     */
+    public int getJournalSegmentSize() {
+        return journalSegmentSize;
+    }
+
+    /**
+     * sets the size of a journal segment file
+     * @param journalSegmentSize
+     *      segment size in bytes. anything less than one is one, the journal rounds it up to fit a record
+     */
+    public void setJournalSegmentSize(int journalSegmentSize) {
+        this.journalSegmentSize = Math.max(1, journalSegmentSize);
+    }
+
+    /**
+     * whether every journal append is forced to disk
+     * @return
+     *      true if appends are forced
+     */
+    public boolean isJournalSync() {
+        return journalSync;
+    }
+
+    /**
+     * sets whether every journal append is forced to disk. Without it a crashed JVM loses nothing, a crashed machine
+     * can lose what the operating system had not written back yet
+     * @param journalSync
+     *      true to force appends
+     */
+    public void setJournalSync(boolean journalSync) {
+        this.journalSync = journalSync;
+    }
+
+    /**
+     * whether a new core rebuilds its books from the journal
+     * @return
+     *      true if cores recover from the journal
+     */
+    public boolean isRecover() {
+        return recover;
+    }
+
+    /**
+     * sets whether a new core rebuilds its books by replaying the journal. A recovering core ignores the snapshot it
+     * is given, the journal already has every message behind it
+     * @param recover
+     *      true to recover from the journal
+     */
+    public void setRecover(boolean recover) {
+        this.recover = recover;
+    }
+
+    /**
+     * file the accepted messages are captured to
+     * @return
+     *      capture file. null if nothing is captured
+     */
+    public File getCaptureFile() {
+        return captureFile;
+    }
+
+    /**
+     * sets the file every message a core accepts is captured to, for replaying it later with CaptureReplayer. The file
+     * is replaced when the core is created
+     * @param captureFile
+     *      capture file. null for no capture
+     */
+    public void setCaptureFile(File captureFile) {
+        this.captureFile = captureFile;
+    }
+
+    /**
+     * file checkpoints are written to
+     * @return
+     *      checkpoint file. null if there are no checkpoints
+     */
+    public File getCheckpointFile() {
+        return checkpointFile;
+    }
+
+    /**
+     * sets the file EngineCore.checkpoint writes to. A recovering core loads the file and only replays the journal
+     * after the checkpoint's sequence
+     * @param checkpointFile
+     *      checkpoint file. null for no checkpoints
+     */
+    public void setCheckpointFile(File checkpointFile) {
+        this.checkpointFile = checkpointFile;
+    }
+
+    /**
+     * amount of delta checkpoints written after a full checkpoint before they are compacted into it
+     * @return
+     *      delta checkpoints per full checkpoint. 0 if every checkpoint is full
+     */
+    public int getCheckpointDeltas() {
+        return checkpointDeltas;
+    }
+
+    /**
+     * sets how many delta checkpoints follow a full one. A delta only has the books that changed since the checkpoint
+     * before it and is written next to the checkpoint file, see SnapshotCompactor. Once there are this many they are
+     * merged into the checkpoint file
+     * @param checkpointDeltas
+     *      delta checkpoints per full checkpoint. 0 to write every checkpoint in full
+     */
+    public void setCheckpointDeltas(int checkpointDeltas) {
+        this.checkpointDeltas = checkpointDeltas;
+    }
+
+    /**
+     * loopback port replicas connect to
+     * @return
+     *      replication port. 0 for any free port, -1 if there is no replication
+     */
+    public int getReplicationPort() {
+        return replicationPort;
+    }
+
+    /**
+     * sets the loopback port a core streams the messages that change its books on, see ReplicaPublisher. The port a
+     * core actually listens on is EngineCore.getReplicationPort
+     * @param replicationPort
+     *      replication port. 0 for any free port, -1 for no replication
+     */
+    public void setReplicationPort(int replicationPort) {
+        this.replicationPort = replicationPort;
+    }
+
+    /**
+     * frames queued per replica before it is dropped
+     * @return
+     *      the replication backlog
+     */
+    public int getReplicationBacklog() {
+        return replicationBacklog;
+    }
+
+    /**
+     * sets how many frames can wait for a replica. A replica that falls further behind is dropped so it never holds
+     * up matching
+     * @param replicationBacklog
+     *      frames queued per replica
+     */
+    public void setReplicationBacklog(int replicationBacklog) {
+        this.replicationBacklog = replicationBacklog;
+    }
+
+    /**
+     * factory for the core and shard threads
+     * @return
+     *      factory for the core and shard threads
+     */
+    public ThreadFactory getThreadFactory() {
+        return threadFactory;
+    }
+
+    /**
+     * sets the factory for the core and shard threads
+     * @param threadFactory
+     *      factory for the core and shard threads. null for plain named threads
+     */
+    public void setThreadFactory(ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+    }
+
+    /**
+     * the controller deciding which messages get in
+     * @return
+     *      the controller deciding which messages get in
+     */
+    public AdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
+    /**
+     * sets the controller deciding which messages get in
+     * @param admissionController
+     *      decides which messages get in. a controller that never sheds if null
+     */
+    public void setAdmissionController(AdmissionController admissionController) {
+        this.admissionController = admissionController != null ? admissionController : new AdmissionController();
+    }
+}
@@ -4,18 +4,95 @@ import apollo.common.engine.Bill;
 import apollo.common.engine.BookSnapshot;
 import apollo.common.engine.Message;
 import apollo.common.engine.Statistics;
+import apollo.common.templates.Make;
+import apollo.trade.swap.manager.BookView;
+import apollo.trade.swap.manager.Checkpoint;
 import apollo.trade.swap.manager.MessageManager;
+import apollo.trade.swap.manager.ModelManager;
+import apollo.trade.swap.queue.BlockingWaitStrategy;
+import apollo.trade.swap.queue.BusySpinWaitStrategy;
+import apollo.trade.swap.queue.EngineQueue;
+import apollo.trade.swap.queue.LinkedEngineQueue;
+import apollo.trade.swap.queue.RingBufferQueue;
+import apollo.trade.swap.queue.SleepingWaitStrategy;
+import apollo.trade.swap.queue.WaitStrategy;
+import apollo.trade.swap.queue.YieldingWaitStrategy;
+import apollo.trade.swap.replica.ReplicaPublisher;
+import apollo.trade.swap.store.CheckpointWriter;
+import apollo.trade.swap.store.MessageCapture;
+import apollo.trade.swap.store.MessageJournal;
+import apollo.trade.swap.store.SnapshotCompactor;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 
 /**
  * The core of the engine. This thread does all the work whereas the engine class does the managing of the thread and
- * wraps the core methods
+ * wraps the core methods.
+ *
+ * The core can be sharded by Make. Every shard has its own inbound queue and matching thread and owns a disjoint set
+ * of Makes (see ShardRouter), all shards share the MessageManager and the outbound bill queue. With one shard the core
+ * behaves exactly like a single matching thread and takes its lock once per batch instead of once per message.
+ *
+ * A shard can also be pipelined, see Shard. The pre-match thread validates and stamps the messages off the inbound queue, the
+ * matching thread only touches the books and the publish thread builds the bills, hands them to their waiters or the
+ * bill queue. The stages hand over through single producer ring buffers, and the publish thread puts bills that do not
+ * fit on the bill queue in the overflow behind it, so a slow bill reader never stalls matching.
+ *
+ * With query threads, goals skip the shards. They go to their own inbound queue and are searched by a pool of query
+ * threads (see QueryWorker) against a BookView, a copy of the books tagged with the book version it was taken at. A
+ * new view is only taken once the books have moved on, and only the books that changed since the last view are
+ * copied again, with every shard locked so a view never holds half of a swap across makes. The matching threads keep
+ * writing while the searches run.
+ *
+ * With a journal every message that changes the books is appended to a memory mapped MessageJournal before it is
+ * matched. A single shard journals each batch it takes with one append, a sharded core journals each message while
+ * it holds the message's shards so the journal order matches the order the books saw. A recovering core rebuilds its
+ * books by replaying the journal.
+ *
+ * A checkpoint freezes the books at a journal sequence with every shard locked and is written to a BookSnapshotFile
+ * by a background thread while the shards keep matching. Freezing copies nothing, a book is only captured when a shard
+ * is about to write to it, see BookImage. A recovering core loads the checkpoint file and replays the journal from the
+ * checkpoint's sequence. With checkpoint deltas set, the checkpoints after a full one only write the books that changed
+ * since the checkpoint before them and are compacted into the checkpoint file once there are enough of them. Checkpoint
+ * files are written one after the other in the order the checkpoints were taken, see CheckpointWriter.
+ *
+ * With a replication port every message that changes the books is also published, from the same place it is journaled,
+ * to the replicas connected to the core, see ReplicaPublisher and ReplicaEngine. A new replica starts from an image of
+ * the books taken with every shard locked.
+ *
+ * With a capture file every message the core accepts, goals included, is recorded in the order it was accepted so the
+ * traffic can be replayed later by CaptureReplayer. Messages sent from several threads to the same shard are captured
+ * in the order their admission finished, which can differ from the order the shard took them.
+ *
+ * Resting swaps with a good till time sit on a timing wheel in the MessageManager. Once a tick, while orders are due,
+ * the shard that gets there first puts an EXPIRE in front of its batch. The EXPIRE locks every shard and is journaled
+ * and replicated like any other message, so recovery and the replicas withdraw the same orders. Expiry bills have no
+ * waiter. Without an expiry listener they are published like any other bill, on the bill queue or the overflow behind
+ * it. With one, the core's expiry thread hands them to the listeners so a slow listener never stalls matching, see
+ * ExpiryWorker.
  * Created by santana on 10/18/14.
  */
 public class EngineCore implements Runnable {
@@ -26,21 +103,125 @@ public class EngineCore implements Runnable {
 
     }
 
-    //the inbound engine queue
-    private volatile BlockingQueue<Message> messageQueue;
+    //enums for the queues backing the core
+    //LINKED - LinkedBlockingQueue, allocates and locks on every put/take
+    //SINGLE_PRODUCER - ring buffer where only one thread offers at a time. only used where one thread offers, the
+    //                  inbound queues are always multi producer
+    //MULTI_PRODUCER - ring buffer where any number of threads can offer at the same time
+    public enum QUEUE_TYPE {
+        LINKED, SINGLE_PRODUCER, MULTI_PRODUCER
+    }
+
+    //enums for how threads wait on the ring buffer queues. LINKED queues always block
+    //BUSY_SPIN - never gives up the CPU
+    //YIELDING - spins then yields
+    //SLEEPING - spins, yields then parks with a growing back off
+    //BLOCKING - waits on a condition until signalled
+    public enum WAIT_TYPE {
+        BUSY_SPIN, YIELDING, SLEEPING, BLOCKING
+    }
+
+    //default capacity of the inbound and outbound queues
+    public static final int QUEUE_CAPACITY = 1000;
+
+    //default maximum amount of messages a shard takes off its queue per wakeup
+    public static final int DRAIN_BATCH = 64;
+
+    //default time, in milliseconds, the shards may spend draining their queues on shutdown
+    public static final long DRAIN_TIMEOUT = 5000;
+
+    //the shards of the core. each shard has its own inbound queue
+    private final Shard[] shards;
+
+    //routes messages to the shard that owns their make
+    final ShardRouter router;
+
+    //counted down by each shard once it has drained after a KILL_CORE
+    final CountDownLatch shardsDrained;
+
+    //completed once every shard has drained and the core is DEAD
+    private final CompletableFuture<Void> terminated = new CompletableFuture<Void>();
+
+    //System.nanoTime after which draining shards give up on their left over messages. only read if drainBounded
+    private volatile long drainDeadline;
+
+    //true if stop was called with a drain timeout
+    private volatile boolean drainBounded = false;
 
     //the outbound bill queue
-    private volatile BlockingQueue<Bill> billQueue;
+    volatile EngineQueue<Bill> billQueue;
+
+    //bills that found the bill queue full on a path that cannot wait for a reader. read after the bill queue, a bill
+    //for a message that reached the books is never dropped
+    final ConcurrentLinkedQueue<Bill> overflow = new ConcurrentLinkedQueue<Bill>();
 
     //the engine manager that processes all the messages
-    private volatile MessageManager messageManager;
+    volatile MessageManager messageManager;
+
+    //the state of the core. published through an atomic so producers and state probes never take a lock
+    final AtomicReference<CORE_STATE> state = new AtomicReference<CORE_STATE>(CORE_STATE.WARMING);
 
-    //the state of the core
-    private volatile CORE_STATE state;
+    //producers between their accepting check and the end of their add. a dying shard waits for them before its last
+    //drain so no accepted message lands on a queue nobody takes from again
+    private final AtomicInteger entering = new AtomicInteger(0);
 
     //core ID
     private UUID id;
 
+    //settings the core was created with
+    final EngineConfig config;
+
+    //creates the threads of the extra shards. null for plain named threads
+    private final ThreadFactory threadFactory;
+
+    //decides which messages get in and watches the inbound queue depths
+    final AdmissionController admission;
+
+    //maximum amount of messages a shard takes off its queue per wakeup
+    final int drainBatch;
+
+    //true if every shard runs as a pre-match, match and publish pipeline
+    final boolean pipelined;
+
+    //inbound queue of the goals when there are query threads, null otherwise
+    final EngineQueue<Message> queryQueue;
+
+    //amount of query threads
+    private final int queryThreads;
+
+    //every inbound queue. the shard queues by shard index followed by the query queue if there is one
+    private final List<EngineQueue<Message>> lanes;
+
+    //last copy of the books taken for the query threads
+    private volatile BookView view = null;
+
+    //held while a query thread copies the books so only one copy is taken per version
+    private final ReentrantLock viewLock = new ReentrantLock();
+
+    //true if a single shard owns the books. It takes its lock once per batch instead of once per message
+    final boolean batchLocked;
+
+    //write-ahead journal of the messages that change the books. null if there is none
+    final MessageJournal journal;
+
+    //stream of the messages that change the books to the replicas. null if there is no replication
+    final ReplicaPublisher publisher;
+
+    //capture of the accepted messages. null if there is none
+    private final MessageCapture capture;
+
+    //writes the checkpoints in the order they were taken and keeps their chain of deltas
+    private final CheckpointWriter checkpoints;
+
+    //time the books are next checked for expired orders. claimed by one shard per tick
+    final AtomicLong nextExpiry = new AtomicLong(0);
+
+    //told about every expiry bill
+    private final List<ExpiryListener> expiryListeners = new CopyOnWriteArrayList<ExpiryListener>();
+
+    //hands the expiry bills to the expiry listeners off the matching threads
+    private final ExpiryWorker expiryWorker = new ExpiryWorker(this, expiryListeners);
+
 
     /**
      * Core constructor that starts core and creates the queues, creates the engine manager
@@ -49,75 +230,455 @@ public class EngineCore implements Runnable {
      *      last state of the book so the core can reset itself where it left off last
      */
     public EngineCore(BookSnapshot snapshot) {
-        state = CORE_STATE.WARMING;
+        this(snapshot, QUEUE_TYPE.MULTI_PRODUCER);
+    }
 
-        id = UUID.randomUUID();
+    /**
+     * Core constructor that starts core and creates the queues of the type passed in, creates the engine manager
+     * and sets the state to WARMING
+     * @param snapshot
+     *      last state of the book so the core can reset itself where it left off last
+     * @param queueType
+     *      the type of queue backing the inbound and outbound queues
+     */
+    public EngineCore(BookSnapshot snapshot, QUEUE_TYPE queueType) {
+        this(snapshot, queueType, 1);
+    }
 
-        messageQueue = new LinkedBlockingQueue<Message>(1000);
-        billQueue = new LinkedBlockingQueue<Bill>(1000);
+    /**
+     * Core constructor that creates a core sharded by make. Each shard gets its own inbound queue of the type passed in
+     * and its own matching thread once the core is run
+     * @param snapshot
+     *      last state of the book so the core can reset itself where it left off last
+     * @param queueType
+     *      the type of queue backing the inbound and outbound queues
+     * @param shardCount
+     *      amount of matching threads. anything less than one is treated as one
+     */
+    public EngineCore(BookSnapshot snapshot, QUEUE_TYPE queueType, int shardCount) {
+        this(snapshot, queueType, shardCount, WAIT_TYPE.SLEEPING, WAIT_TYPE.SLEEPING);
+    }
 
-        messageManager = new MessageManager(snapshot);
+    /**
+     * Core constructor that creates a core sharded by make where the inbound and outbound queues wait with the
+     * strategies passed in
+     * @param snapshot
+     *      last state of the book so the core can reset itself where it left off last
+     * @param queueType
+     *      the type of queue backing the inbound and outbound queues
+     * @param shardCount
+     *      amount of matching threads. anything less than one is treated as one
+     * @param inboundWait
+     *      how the shards wait for messages
+     * @param outboundWait
+     *      how readers wait for bills, and shards wait for space on the bill queue
+     */
+    public EngineCore(BookSnapshot snapshot, QUEUE_TYPE queueType, int shardCount, WAIT_TYPE inboundWait,
+                      WAIT_TYPE outboundWait) {
+        this(snapshot, queueType, shardCount, inboundWait, outboundWait, null);
     }
 
     /**
-     * main core running logic. While core is running it will take a engine off the queue and process it. Once finished
-     * it will create a bill and put it on the bill queue for the engine to take. If kill core engine gets received,
-     * the engine will kill itself, drain the messages left in the queue and process them, adding the bills to the
-     * outbound queue
+     * Core constructor that creates a core sharded by make whose extra shards run on threads from the factory passed in
+     * @param snapshot
+     *      last state of the book so the core can reset itself where it left off last
+     * @param queueType
+     *      the type of queue backing the inbound and outbound queues
+     * @param shardCount
+     *      amount of matching threads. anything less than one is treated as one
+     * @param inboundWait
+     *      how the shards wait for messages
+     * @param outboundWait
+     *      how readers wait for bills, and shards wait for space on the bill queue
+     * @param threadFactory
+     *      factory for the threads of shards 1 and up. threads named apollo-core-shard-n if null
      */
-    public void run() {
-        state = CORE_STATE.RUNNING;
-        Statistics stats;
-
-        //never break unless kill core engine gets received
-        while(true) {
-            try {
-                //take engine off queue
-                Message message = messageQueue.take();
-                //get stats from engine
-                stats = message.getStatistics();
-                //if kill core is received. break loop
-                if(message.getType() == Message.KILL_CORE && message.getId().equals(id) ) {
-                    break;
+    public EngineCore(BookSnapshot snapshot, QUEUE_TYPE queueType, int shardCount, WAIT_TYPE inboundWait,
+                      WAIT_TYPE outboundWait, ThreadFactory threadFactory) {
+        this(snapshot, config(queueType, shardCount, inboundWait, outboundWait, threadFactory));
+    }
+
+    /**
+     * Core constructor that creates a core from the settings passed in. The core keeps its own copy of the settings
+     * @param snapshot
+     *      last state of the book so the core can reset itself where it left off last
+     * @param config
+     *      queue types and capacities, wait strategies, shards, threads and admission control of the core
+     */
+    public EngineCore(BookSnapshot snapshot, EngineConfig config) {
+        this(snapshot, null, config);
+    }
+
+    /**
+     * Core constructor that matches against books that already exist, for example the books of a promoted replica.
+     * The books are not copied and are not recovered from the journal
+     * @param config
+     *      queue types and capacities, wait strategies, shards, threads and admission control of the core
+     * @param messageManager
+     *      books of the core
+     */
+    public EngineCore(EngineConfig config, MessageManager messageManager) {
+        this(null, messageManager, config);
+    }
+
+    /**
+     * creates the core from either a snapshot or existing books
+     * @param snapshot
+     *      last state of the book. ignored if there are books
+     * @param books
+     *      books of the core. null to build them from the snapshot or the journal
+     * @param config
+     *      settings of the core
+     */
+    private EngineCore(BookSnapshot snapshot, MessageManager books, EngineConfig config) {
+        this.config = new EngineConfig(config);
+        threadFactory = this.config.getThreadFactory();
+        admission = this.config.getAdmissionController();
+        drainBatch = this.config.getDrainBatch();
+        pipelined = this.config.isPipelined();
+        queryThreads = this.config.getQueryThreads();
+
+        id = UUID.randomUUID();
+
+        QUEUE_TYPE queueType = this.config.getQueueType();
+        router = new ShardRouter(this.config.getShards());
+        shards = new Shard[router.shards()];
+
+        //messages come from any client thread and the kill from the stop thread so inbound queues are multi producer
+        QUEUE_TYPE inboundType = queueType == QUEUE_TYPE.LINKED ? QUEUE_TYPE.LINKED : QUEUE_TYPE.MULTI_PRODUCER;
+        for(int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(this, i, EngineCore.<Message>createQueue(inboundType, this.config.getInboundCapacity(),
+                    this.config.getInboundWait()));
+        }
+        lanes = new ArrayList<EngineQueue<Message>>(shards.length + 1);
+        for(Shard shard : shards) {
+            lanes.add(shard.messageQueue);
+        }
+
+        if(queryThreads > 0) {
+            queryQueue = createQueue(inboundType, this.config.getInboundCapacity(), this.config.getInboundWait());
+            lanes.add(queryQueue);
+        }
+        else {
+            queryQueue = null;
+        }
+        batchLocked = shards.length == 1;
+        shardsDrained = new CountDownLatch(shards.length + queryThreads);
+
+        //every shard and query thread publishes bills so a single producer queue is only safe with one of them
+        if((shards.length > 1 || queryThreads > 0) && queueType == QUEUE_TYPE.SINGLE_PRODUCER) {
+            queueType = QUEUE_TYPE.MULTI_PRODUCER;
+        }
+        billQueue = createQueue(queueType, this.config.getOutboundCapacity(), this.config.getOutboundWait());
+
+        journal = MessageJournal.open(this.config.getJournalDirectory(), this.config.getJournalSegmentSize(),
+                this.config.isJournalSync());
+        capture = MessageCapture.open(this.config.getCaptureFile());
+        checkpoints = new CheckpointWriter(this.config.getCheckpointDeltas(), threadFactory, "apollo-checkpoint-" + id,
+                new CheckpointWriter.Books() {
+                    public void hold(Runnable task) {
+                        lock(router.allShards());
+                        try {
+                            task.run();
+                        }
+                        finally {
+                            unlock(router.allShards());
+                        }
+                    }
+                });
+        if(books != null) {
+            messageManager = books;
+        }
+        else if(journal != null && this.config.isRecover()) {
+            if(snapshot != null) {
+                System.out.println("WARNING: Core " + id + " recovers from its journal. Snapshot ignored");
+            }
+            long from = 0;
+            BookSnapshot checkpoint = null;
+            File checkpointFile = this.config.getCheckpointFile();
+            if(checkpointFile != null && checkpointFile.isFile()) {
+                try {
+                    List<File> deltas = SnapshotCompactor.getDeltas(checkpointFile);
+                    checkpoint = SnapshotCompactor.load(checkpointFile, deltas);
+                    from = Math.max(0, SnapshotCompactor.getSequence(checkpointFile, deltas));
                 }
-                //start processing
-                stats.setProcessingStartTime();
-                Bill bill = messageManager.processMessage(message);
-                stats.setProcessingEndTime();
-                //end processing
-
-                //if bill is set than add to queue
-                if(bill != null) {
-                    billQueue.put(bill);
+                catch (IOException e) {
+                    e.printStackTrace();
+                    System.out.println("WARNING: Could not load checkpoint " + checkpointFile
+                            + ". Replaying the whole journal");
+                    checkpoint = null;
+                    from = 0;
                 }
             }
-            catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+            messageManager = new MessageManager(checkpoint);
+            long replayed = journal.replay(messageManager, from);
+            System.out.println("Core " + id + " recovered " + replayed + " messages from journal"
+                    + (checkpoint != null ? " after checkpoint at sequence " + from : ""));
+        }
+        else {
+            messageManager = new MessageManager(snapshot);
         }
+        //replicas start from an image of the books taken with every shard locked
+        publisher = ReplicaPublisher.open(this.config.getReplicationPort(), this.config.getReplicationBacklog(),
+                new ReplicaPublisher.Source() {
+                    public Checkpoint image(Runnable attach) {
+                        lock(router.allShards());
+                        try {
+                            attach.run();
+                            return messageManager.image(journal != null ? journal.getSequence() : -1);
+                        }
+                        finally {
+                            unlock(router.allShards());
+                        }
+                    }
+                });
+    }
 
-        //set state to idle when engine is about to die and needs to be cleaned
-        state = CORE_STATE.IDLE;
+    /**
+     * builds the settings for the constructors that take them one by one
+     */
+    private static EngineConfig config(QUEUE_TYPE queueType, int shardCount, WAIT_TYPE inboundWait,
+                                       WAIT_TYPE outboundWait, ThreadFactory threadFactory) {
+        EngineConfig config = new EngineConfig();
+        config.setQueueType(queueType);
+        config.setShards(shardCount);
+        config.setInboundWait(inboundWait);
+        config.setOutboundWait(outboundWait);
+        config.setThreadFactory(threadFactory);
+        return config;
+    }
 
-        //start processing of left over messages
-        List<Message> messages = new ArrayList<Message>();
+    /**
+     * creates a queue of the type passed in
+     * @param queueType
+     *      type of the queue. defaults to MULTI_PRODUCER if null
+     * @param capacity
+     *      capacity of the queue
+     * @return
+     *      the new queue
+     */
+    public static <E> EngineQueue<E> createQueue(QUEUE_TYPE queueType, int capacity) {
+        return createQueue(queueType, capacity, WAIT_TYPE.SLEEPING);
+    }
 
-        messageQueue.drainTo(messages);
+    /**
+     * creates a queue of the type passed in that waits with the strategy passed in
+     * @param queueType
+     *      type of the queue. defaults to MULTI_PRODUCER if null
+     * @param capacity
+     *      capacity of the queue
+     * @param waitType
+     *      how threads wait on the queue. ignored by LINKED queues
+     * @return
+     *      the new queue
+     */
+    public static <E> EngineQueue<E> createQueue(QUEUE_TYPE queueType, int capacity, WAIT_TYPE waitType) {
+        if(queueType == QUEUE_TYPE.LINKED) {
+            return new LinkedEngineQueue<E>(capacity);
+        }
+        return new RingBufferQueue<E>(capacity, queueType != QUEUE_TYPE.SINGLE_PRODUCER, createWaitStrategy(waitType));
+    }
 
-        for(Message message : messages) {
-            stats.setProcessingStartTime();
-            Bill bill = messageManager.processMessage(message);
-            stats.setProcessingEndTime();
-            //end processing
-
-            //if bill is set than add to queue
-            if(bill != null) {
-                billQueue.add(bill);
+    /**
+     * creates a wait strategy of the type passed in. every queue needs its own instance
+     * @param waitType
+     *      type of the strategy. defaults to SLEEPING if null
+     * @return
+     *      the new strategy
+     */
+    public static WaitStrategy createWaitStrategy(WAIT_TYPE waitType) {
+        if(waitType == WAIT_TYPE.BUSY_SPIN) {
+            return new BusySpinWaitStrategy();
+        }
+        else if(waitType == WAIT_TYPE.YIELDING) {
+            return new YieldingWaitStrategy();
+        }
+        else if(waitType == WAIT_TYPE.BLOCKING) {
+            return new BlockingWaitStrategy();
+        }
+        return new SleepingWaitStrategy();
+    }
+
+    /**
+     * main core running logic. Starts a thread for every extra shard and runs the first shard on this thread. Once
+     * every shard has received its kill core engine and drained its queue the core is dead
+     */
+    public void run() {
+        if(!state.compareAndSet(CORE_STATE.WARMING, CORE_STATE.RUNNING)) {
+            System.out.println("WARNING: Core " + id + " already started. State is " + state.get());
+            return;
+        }
+
+        //the stages around every matching thread have to be up before any matching starts
+        if(pipelined) {
+            for(final Shard shard : shards) {
+                startThread(new Runnable() {
+                    public void run() {
+                        shard.preMatch();
+                    }
+                }, "apollo-core-shard-" + shard.index + "-prematch");
+                startThread(new Runnable() {
+                    public void run() {
+                        shard.publish();
+                    }
+                }, "apollo-core-shard-" + shard.index + "-publish");
             }
         }
 
+        for(int i = 0; i < queryThreads; i++) {
+            startThread(new QueryWorker(this, i), "apollo-core-query-" + i);
+        }
+        startThread(expiryWorker, "apollo-core-expiry");
+
+        for(int i = 1; i < shards.length; i++) {
+            startThread(shards[i], "apollo-core-shard-" + i);
+        }
+        shards[0].run();
+
+        //wait for the rest of the shards to drain
+        try {
+            shardsDrained.await();
+        }
+        catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        //no more expiries once the shards drained, the listeners get what is left within the drain deadline
+        long expiryTimeout = drainBounded
+                ? Math.max(0, TimeUnit.NANOSECONDS.toMillis(drainDeadline - System.nanoTime())) : Long.MAX_VALUE;
+        if(!expiryWorker.stop(expiryTimeout)) {
+            System.out.println("WARNING: Core " + id + " expiry listeners did not finish before the drain deadline");
+        }
+
+        if(journal != null) {
+            journal.close();
+        }
+        if(capture != null) {
+            capture.close();
+        }
+        if(publisher != null) {
+            publisher.close();
+        }
+
         //core is now dead
-        state = CORE_STATE.DEAD;
+        state.set(CORE_STATE.DEAD);
+        terminated.complete(null);
+    }
+
+    /**
+     * starts a thread for the runnable passed in. the thread comes from the thread factory if there is one
+     * @param runnable
+     *      work of the thread
+     * @param name
+     *      name of the thread when there is no thread factory
+     */
+    private void startThread(Runnable runnable, String name) {
+        Thread thread = threadFactory != null ? threadFactory.newThread(runnable) : new Thread(runnable, name);
+        thread.start();
+    }
+
+    /**
+     * journals a message of a sharded core and publishes it to the replicas. called while the message's shards are
+     * locked
+     * @param message
+     *      message about to be matched
+     */
+    void journal(Message message) {
+        if(shards.length > 1) {
+            if(journal != null) {
+                journal.append(message);
+            }
+            if(publisher != null) {
+                publisher.publish(message);
+            }
+        }
+    }
+
+    /**
+     * journals a batch of a single shard core, up to the kill core message, with one append and publishes it to the
+     * replicas
+     * @param batch
+     *      messages about to be matched in this order
+     */
+    void journal(List<Message> batch) {
+        if(shards.length == 1) {
+            if(journal != null) {
+                journal.append(batch);
+            }
+            if(publisher != null) {
+                publisher.publish(batch);
+            }
+        }
+    }
+
+    /**
+     * completes the future waiting on the bill of the message, if there is one
+     * @param message
+     *      message the bill was created for
+     * @param bill
+     *      the bill
+     * @return
+     *      true if a waiter was given the bill
+     */
+    boolean complete(Message message, Bill bill) {
+        CompletableFuture<Bill> future = message.getBillFuture();
+        if(future != null) {
+            future.complete(bill);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * puts a bill without a waiter on the bill queue without waiting for room. A full bill queue puts it in the overflow
+     * instead, where the bill readers find it once the bill queue is empty
+     * @param bill
+     *      the bill
+     */
+    void publishBill(Bill bill) {
+        if(!billQueue.offer(bill)) {
+            overflow.add(bill);
+        }
+    }
+
+    /**
+     * queues an expiry bill for the expiry thread, or publishes it if there are no expiry listeners. Never waits, see
+     * publishBill. Bills of expiries that withdrew nothing are dropped
+     * @param bill
+     *      the expiry bill
+     */
+    void expired(Bill bill) {
+        if(bill.size() == 0) {
+            return;
+        }
+        if(expiryListeners.isEmpty()) {
+            publishBill(bill);
+        }
+        else {
+            expiryWorker.offer(bill);
+        }
+    }
+
+    /**
+     * locks the shards passed in. shards must be in ascending order
+     * @param lockSet
+     *      shards to lock
+     */
+    void lock(int[] lockSet) {
+        for(int shard : lockSet) {
+            shards[shard].lock.lock();
+        }
+    }
+
+    /**
+     * unlocks the shards passed in
+     * @param lockSet
+     *      shards to unlock
+     */
+    void unlock(int[] lockSet) {
+        for(int i = lockSet.length - 1; i >= 0; i--) {
+            shards[lockSet[i]].lock.unlock();
+        }
     }
 
     /**
@@ -125,50 +686,318 @@ public class EngineCore implements Runnable {
      * @param message
      *      Message to be added to queue
      * @return
-     *      UUID of engine
+     *      UUID of engine. null if the message was refused, offer tells why
      */
     public UUID quickInput(Message message) {
-        if(message != null) {
-            Statistics stats = new Statistics();
-            stats.setEngineTimestamp();
-            message.setStatistics(stats);
-
-            if((state == CORE_STATE.RUNNING || state == CORE_STATE.WARMING) && messageQueue.offer(message)) {
-                stats.setEngineTimestamp();
-                return message.getId();
-            }
+        Admission admission = offer(message);
+        return admission.isAccepted() ? admission.getId() : null;
+    }
+
+    /**
+     * blocking input of engine to queue. Waits for as long as it takes for space on the queue
+     * @param message
+     *      Message to be added to queue
+     * @return
+     *      UUID of engine. null if the message was refused, offer tells why
+     */
+    public UUID input(Message message) {
+        Admission admission = enqueue(message, -1);
+        return admission.isAccepted() ? admission.getId() : null;
+    }
+
+    /**
+     * non blocking input of engine to queue that says why a message was refused
+     * @param message
+     *      Message to be added to queue
+     * @return
+     *      the admission of the message
+     */
+    public Admission offer(Message message) {
+        return enqueue(message, 0);
+    }
+
+    /**
+     * input of engine to queue that waits up to the timeout for space on the queue
+     * @param message
+     *      Message to be added to queue
+     * @param timeout
+     *      how long to wait for space
+     * @param unit
+     *      unit of the timeout
+     * @return
+     *      the admission of the message. QUEUE_FULL if the queue stayed full until the timeout passed
+     */
+    public Admission offer(Message message, long timeout, TimeUnit unit) {
+        return enqueue(message, Math.max(0, unit.toNanos(timeout)));
+    }
+
+    /**
+     * admits the message and adds it to the queue of the shard that owns it
+     * @param message
+     *      Message to be added to queue
+     * @param timeoutNanos
+     *      how long to wait for space on a full queue. 0 to not wait, less than 0 to wait for as long as it takes
+     * @return
+     *      the admission of the message
+     */
+    private Admission enqueue(Message message, long timeoutNanos) {
+        if(message == null) {
+            return admission.refuse(Admission.REASON.INVALID, null, 0);
         }
-        return null;
 
+        entering.incrementAndGet();
+        try {
+            return admit(message, timeoutNanos);
+        }
+        finally {
+            entering.decrementAndGet();
+        }
     }
 
     /**
-     * blocking input of engine to queue
+     * body of enqueue, called while the producer counts as entering
      * @param message
      *      Message to be added to queue
+     * @param timeoutNanos
+     *      how long to wait for space on a full queue. 0 to not wait, less than 0 to wait for as long as it takes
      * @return
-     *      UUID of engine
+     *      the admission of the message
      */
-    public UUID input(Message message) {
-        if(message != null) {
-            //create stats object and set the engine timestamp. add to engine for later processing
-            Statistics stats = new Statistics();
-            stats.setEngineTimestamp();
-            message.setStatistics(stats);
-
-            if((state == CORE_STATE.RUNNING || state == CORE_STATE.WARMING)) {
-              try {
-                    messageQueue.put(message);
-                    return message.getId();
+    private Admission admit(Message message, long timeoutNanos) {
+
+        int lane = lane(message);
+        EngineQueue<Message> queue = lanes.get(lane);
+        int depth = queue.size();
+
+        if(!accepting()) {
+            return admission.refuse(Admission.REASON.NOT_RUNNING, message.getId(), depth);
+        }
+        if(admission.shed(message, depth, queue.capacity())) {
+            return admission.refuse(Admission.REASON.SHED, message.getId(), depth);
+        }
+
+        //create stats object and set the engine timestamp. add to engine for later processing
+        Statistics stats = new Statistics();
+        stats.setEngineTimestamp();
+        message.setStatistics(stats);
+
+        //encoded before the shard can start matching it
+        byte[] record = capture != null ? MessageCapture.encode(message) : null;
+
+        boolean added = queue.offer(message);
+        try {
+            if(!added && timeoutNanos < 0) {
+                queue.put(message);
+                added = true;
+            }
+            else if(!added && timeoutNanos > 0) {
+                added = queue.offer(message, timeoutNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        catch (InterruptedException e) {
+            e.printStackTrace();
+            Thread.currentThread().interrupt();
+            return admission.refuse(Admission.REASON.INTERRUPTED, message.getId(), queue.size());
+        }
+
+        depth = queue.size();
+        if(!added) {
+            return admission.refuse(Admission.REASON.QUEUE_FULL, message.getId(), depth);
+        }
+        admission.depth(lane, depth, queue.capacity());
+        if(record != null) {
+            capture.record(record);
+        }
+        return admission.accept(message.getId(), depth);
+    }
+
+    /**
+     * inbound queue a message goes to. goals go to the query queue if there are query threads, everything else to the
+     * shard that owns its make
+     * @param message
+     *      message to route
+     * @return
+     *      index of the queue in lanes
+     */
+    private int lane(Message message) {
+        if(queryQueue != null && message.getType() == Message.GOAL) {
+            return shards.length;
+        }
+        return router.route(message);
+    }
+
+    /**
+     * blocking input of a batch of messages. The batch is stamped with one clock read, split by shard and every
+     * shard's part is added to its queue in one operation instead of one put per message
+     * @param messages
+     *      Messages to be added to the queues. null messages are skipped
+     * @return
+     *      UUIDs of the messages that were accepted, in the order they were passed in. Messages past the shed mark of
+     *      their type are left out. Empty if the core is not accepting messages
+     */
+    public List<UUID> inputBatch(List<Message> messages) {
+        entering.incrementAndGet();
+        try {
+            return admitBatch(messages);
+        }
+        finally {
+            entering.decrementAndGet();
+        }
+    }
+
+    /**
+     * body of inputBatch, called while the producer counts as entering
+     * @param messages
+     *      Messages to be added to the queues. null messages are skipped
+     * @return
+     *      UUIDs of the messages that were accepted, in the order they were passed in
+     */
+    private List<UUID> admitBatch(List<Message> messages) {
+        List<UUID> ids = new ArrayList<UUID>();
+        if(messages == null || messages.isEmpty() || !accepting()) {
+            return ids;
+        }
+
+        //stamp the batch and split it by the queue each message goes to. messages past their shed mark stay out
+        long now = System.currentTimeMillis();
+        List<List<Message>> routed = new ArrayList<List<Message>>(lanes.size());
+        int[] depths = new int[lanes.size()];
+        for(int i = 0; i < lanes.size(); i++) {
+            routed.add(new ArrayList<Message>());
+            depths[i] = lanes.get(i).size();
+        }
+        int[] routes = new int[messages.size()];
+        byte[][] records = capture != null ? new byte[messages.size()][] : null;
+        int shed = 0;
+        for(int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            routes[i] = -1;
+            if(message != null) {
+                int shard = lane(message);
+                if(admission.shed(message, depths[shard] + routed.get(shard).size(), lanes.get(shard).capacity())) {
+                    shed++;
+                    continue;
                 }
-                catch (InterruptedException e) {
-                    e.printStackTrace();
+
+                Statistics stats = new Statistics();
+                stats.setEngineTimestamp(now);
+                message.setStatistics(stats);
+
+                routes[i] = shard;
+                routed.get(shard).add(message);
+                if(records != null) {
+                    records[i] = MessageCapture.encode(message);
                 }
+            }
+        }
 
+        //one putAll per queue. a short put only happens if this thread was interrupted
+        int[] added = new int[lanes.size()];
+        for(int i = 0; i < lanes.size(); i++) {
+            List<Message> batch = routed.get(i);
+            if(!batch.isEmpty()) {
+                added[i] = lanes.get(i).putAll(batch);
+                if(added[i] < batch.size()) {
+                    System.out.println("WARNING: Interrupted while adding batch to queue " + i + ". "
+                            + (batch.size() - added[i]) + " messages not accepted");
+                    break;
+                }
             }
         }
-        return null;
 
+        int accepted = 0;
+        for(int i = 0; i < lanes.size(); i++) {
+            accepted += added[i];
+            if(added[i] > 0) {
+                admission.depth(i, lanes.get(i).size(), lanes.get(i).capacity());
+            }
+        }
+        admission.count(Admission.REASON.ACCEPTED, accepted);
+        admission.count(Admission.REASON.SHED, shed);
+
+        //the first added[shard] messages routed to a shard were accepted
+        int[] seen = new int[lanes.size()];
+        List<byte[]> captured = capture != null ? new ArrayList<byte[]>(accepted) : null;
+        for(int i = 0; i < messages.size(); i++) {
+            int shard = routes[i];
+            if(shard != -1 && seen[shard]++ < added[shard]) {
+                ids.add(messages.get(i).getId());
+                if(captured != null) {
+                    captured.add(records[i]);
+                }
+            }
+        }
+        if(captured != null) {
+            capture.record(captured);
+        }
+        return ids;
+    }
+
+    /**
+     * blocking input of engine to queue where the bill is handed straight back to the caller. The core completes the
+     * returned future when it creates the bill, the bill never goes on the bill queue
+     * @param message
+     *      Message to be added to queue
+     * @return
+     *      future completed with the bill of the engine. Completed exceptionally if the core did not accept the engine
+     */
+    public CompletableFuture<Bill> submit(Message message) {
+        CompletableFuture<Bill> future = new CompletableFuture<Bill>();
+
+        if(message == null || !message.setBillFuture(future)) {
+            future.completeExceptionally(new IllegalArgumentException("Message is null or already submitted"));
+        }
+        else {
+            Admission admission = enqueue(message, -1);
+            if(!admission.isAccepted()) {
+                future.completeExceptionally(new IllegalStateException("Core " + id + " refused message. " + admission));
+            }
+        }
+        return future;
+    }
+
+    /**
+     * blocking input of a batch where the bills are handed straight back to the caller as a group. See inputBatch
+     * @param messages
+     *      Messages to be added to the queues
+     * @return
+     *      future completed with the bills of the batch in the order the messages were passed in. Completed
+     *      exceptionally if any message of the batch was null, already submitted or not accepted by the core
+     */
+    public CompletableFuture<List<Bill>> submitBatch(List<Message> messages) {
+        final List<CompletableFuture<Bill>> futures = new ArrayList<CompletableFuture<Bill>>(messages.size());
+        List<Message> accepted = new ArrayList<Message>(messages.size());
+
+        for(Message message : messages) {
+            CompletableFuture<Bill> future = new CompletableFuture<Bill>();
+            if(message == null || !message.setBillFuture(future)) {
+                future.completeExceptionally(new IllegalArgumentException("Message is null or already submitted"));
+            }
+            else {
+                accepted.add(message);
+            }
+            futures.add(future);
+        }
+
+        //fail the futures of the messages the core did not take
+        Set<UUID> ids = new HashSet<UUID>(inputBatch(accepted));
+        for(Message message : accepted) {
+            if(!ids.contains(message.getId())) {
+                message.getBillFuture().completeExceptionally(
+                        new IllegalStateException("Core " + id + " is not accepting messages"));
+            }
+        }
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()]))
+                .thenApply(new Function<Void, List<Bill>>() {
+                    public List<Bill> apply(Void ignored) {
+                        List<Bill> bills = new ArrayList<Bill>(futures.size());
+                        for(CompletableFuture<Bill> future : futures) {
+                            bills.add(future.join());
+                        }
+                        return bills;
+                    }
+                });
     }
 
     /**
@@ -179,7 +1008,14 @@ public class EngineCore implements Runnable {
     public Bill nextBill() {
         Bill bill = null;
         try {
-            bill =  billQueue.take();
+            //a bill only goes to the overflow while the bill queue is full, so the take never misses one
+            bill = billQueue.poll();
+            if(bill == null) {
+                bill = overflow.poll();
+            }
+            if(bill == null) {
+                bill = billQueue.take();
+            }
         }
         catch (InterruptedException e) {
             e.printStackTrace();
@@ -196,8 +1032,14 @@ public class EngineCore implements Runnable {
     public Bill quickBill() {
         Bill bill = null;
         try {
+            bill = billQueue.poll();
+            if(bill == null) {
+                bill = overflow.poll();
+            }
             //times out after 2 seconds
-            bill = billQueue.poll(2, TimeUnit.SECONDS);
+            if(bill == null) {
+                bill = billQueue.poll(2, TimeUnit.SECONDS);
+            }
         }
         catch (InterruptedException e) {
             e.printStackTrace();
@@ -212,47 +1054,361 @@ public class EngineCore implements Runnable {
      *      returns state of the core
      */
     public CORE_STATE state() {
-        return state;
+        return state.get();
     }
 
     /**
-     * stops the core
+     * takes everything left on an inbound queue of a dying core. The core must have stopped accepting. Producers that
+     * got past the accepting check before that are waited for, the queue is drained once more after the last of them
+     * so nothing they added is left behind
+     * @param queue
+     *      the inbound queue
+     * @param leftovers
+     *      collection the messages are added to
+     */
+    void drainLeft(EngineQueue<Message> queue, Collection<Message> leftovers) {
+        queue.drainTo(leftovers);
+        //draining frees room for producers blocked on a full queue
+        while(entering.get() > 0) {
+            Thread.yield();
+            queue.drainTo(leftovers);
+        }
+        queue.drainTo(leftovers);
+    }
+
+    /**
+     * whether the core takes new messages
      * @return
-     *      true if the core stop engine was added to queue
+     *      true if the core is warming up or running
+     */
+    private boolean accepting() {
+        CORE_STATE current = state.get();
+        return current == CORE_STATE.RUNNING || current == CORE_STATE.WARMING;
+    }
+
+    /**
+     * stops the core. every shard gets its own kill core engine and drains everything left in its queue
+     * @return
+     *      true if the core stop engine was added to every queue
      */
     public boolean stop() {
+        return kill();
+    }
+
+    /**
+     * stops the core with a bounded drain. every shard gets its own kill core engine and processes what is left in its
+     * queue until the deadline passes. Messages still left after the deadline are not processed, their bill futures are
+     * completed exceptionally
+     * @param drainTimeout
+     *      how long the shards may spend draining
+     * @param unit
+     *      unit of the timeout
+     * @return
+     *      true if the core stop engine was added to every queue
+     */
+    public boolean stop(long drainTimeout, TimeUnit unit) {
+        drainDeadline = System.nanoTime() + unit.toNanos(drainTimeout);
+        drainBounded = true;
+        return kill();
+    }
+
+    /**
+     * puts a kill core engine on every shard queue
+     * @return
+     *      true if the kill core engine was added to every queue
+     */
+    private boolean kill() {
         Message message = Message.getMessage(id);
         try {
-            messageQueue.put(message);
+            for(Shard shard : shards) {
+                shard.messageQueue.put(message);
+            }
+            //the query threads pass the one kill on to each other
+            if(queryQueue != null) {
+                queryQueue.put(message);
+            }
+            return true;
+        }
+        catch (InterruptedException e) {
+            e.printStackTrace();
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * waits for the core to die. Returns as soon as every shard has drained, nothing spins while waiting
+     * @param timeout
+     *      maximum time to wait
+     * @param unit
+     *      unit of the timeout
+     * @return
+     *      true if the core is dead, false if the timeout passed or the thread was interrupted first
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+        try {
+            terminated.get(timeout, unit);
             return true;
         }
+        catch (TimeoutException e) {
+            return false;
+        }
         catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        catch (ExecutionException e) {
             e.printStackTrace();
             return false;
         }
     }
 
     /**
-     * flushes the book for every model in the engine. It also locks the messageQueue so no new messages get added and
-     * or pulled from the queue while the flush is happening
+     * completion of the core. Completes once every shard has drained and the core is DEAD
+     * @return
+     *      stage that completes when the core dies
+     */
+    public CompletionStage<Void> getTermination() {
+        return terminated;
+    }
+
+    /**
+     * moves every bill waiting on the bill queue and in the overflow behind it into the collection passed in, in one
+     * go. Used to hand the bills over once the core is dead
+     * @param bills
+     *      collection the bills are added to
+     * @return
+     *      the amount of bills moved
+     */
+    public int drainBills(Collection<? super Bill> bills) {
+        int drained = billQueue.drainTo(bills);
+        Bill bill;
+        while((bill = overflow.poll()) != null) {
+            bills.add(bill);
+            drained++;
+        }
+        return drained;
+    }
+
+    /**
+     * whether a bounded drain has run out of time
+     * @return
+     *      true if stop was called with a drain timeout that has passed
+     */
+    boolean drainExpired() {
+        return drainBounded && System.nanoTime() - drainDeadline >= 0;
+    }
+
+    /**
+     * flushes the book for every model in the engine. It also locks every shard so no shard is matching while the
+     * flush is happening. The journal is cleared along with the books
      * @return
      *      returns true if the flush was successful
      */
     public boolean flush() {
         boolean flushed;
-        synchronized (messageQueue) {
+        lock(router.allShards());
+        try {
             flushed = messageManager.flush();
+            //a recovering core must not bring the flushed books back
+            if(journal != null) {
+                journal.clear();
+            }
+            if(publisher != null) {
+                publisher.publishFlush();
+            }
+            checkpoints.delete(config.getCheckpointFile());
+        }
+        finally {
+            unlock(router.allShards());
         }
 
         return flushed;
     }
 
+    /**
+     * loopback port replicas connect to, see ReplicaEngine
+     * @return
+     *      the replication port. -1 if there is no replication
+     */
+    public int getReplicationPort() {
+        return publisher != null ? publisher.getPort() : -1;
+    }
+
+    /**
+     * how far the slowest replica is behind in messages
+     * @return
+     *      messages the slowest replica has not acknowledged. 0 without replication or replicas
+     */
+    public long getReplicationLag() {
+        return publisher != null ? publisher.getLag() : 0;
+    }
+
+    /**
+     * takes a checkpoint and writes it to the checkpoint file of the settings in the background
+     * @return
+     *      future completed with the checkpoint once it is on disk. Completed exceptionally if there is no checkpoint
+     *      file or the write failed
+     */
+    public CompletableFuture<Checkpoint> checkpoint() {
+        File checkpointFile = config.getCheckpointFile();
+        if(checkpointFile == null) {
+            CompletableFuture<Checkpoint> future = new CompletableFuture<Checkpoint>();
+            future.completeExceptionally(new IllegalStateException("Core " + id + " has no checkpoint file"));
+            return future;
+        }
+        return checkpoint(checkpointFile);
+    }
+
+    /**
+     * takes a checkpoint of the books and writes it to the file passed in on a background thread. The shards are only
+     * stopped while the books are frozen, which copies nothing. The file is written next to the target and moved over
+     * it once complete, so a crash during the write leaves the last checkpoint in place. With checkpoint deltas set and
+     * a full checkpoint already in the file, only the books that changed are written to the next delta file, the last
+     * delta is compacted into the file with the deltas before it, see CheckpointWriter
+     * @param file
+     *      file the checkpoint is written to
+     * @return
+     *      future completed with the checkpoint once it is on disk
+     */
+    public CompletableFuture<Checkpoint> checkpoint(final File file) {
+        lock(router.allShards());
+        try {
+            Checkpoint checkpoint = messageManager.checkpoint(journal != null ? journal.getSequence() : -1,
+                    checkpoints.isDelta(file));
+            return checkpoints.write(file, checkpoint);
+        }
+        finally {
+            unlock(router.allShards());
+        }
+    }
+
     /**
      * gets the book snapshot from the engine manager
      * @return
      *      current state of the book
      */
     public BookSnapshot getBookSnapshot() {
-       return messageManager.getBookSnapshot();
+        lock(router.allShards());
+        try {
+            return messageManager.getBookSnapshot();
+        }
+        finally {
+            unlock(router.allShards());
+        }
+    }
+
+    /**
+     * the admission controller of this core. Exposes the refusal counts and takes back pressure listeners
+     * @return
+     *      the admission controller
+     */
+    public AdmissionController getAdmissionController() {
+        return admission;
+    }
+
+    /**
+     * adds a listener told about every expiry bill, on the core's expiry thread. With a listener, expiry bills no
+     * longer go on the bill queue
+     * @param listener
+     *      the listener
+     */
+    public void addExpiryListener(ExpiryListener listener) {
+        if(listener != null) {
+            expiryListeners.add(listener);
+        }
+    }
+
+    /**
+     * removes an expiry listener
+     * @param listener
+     *      the listener
+     * @return
+     *      True - the listener was registered
+     */
+    public boolean removeExpiryListener(ExpiryListener listener) {
+        return expiryListeners.remove(listener);
+    }
+
+    /**
+     * copy of the settings this core was created with
+     * @return
+     *      the settings of the core
+     */
+    public EngineConfig getConfig() {
+        return new EngineConfig(config);
+    }
+
+    /**
+     * amount of shards (matching threads) in this core
+     * @return
+     *      shard count
+     */
+    public int shards() {
+        return shards.length;
+    }
+
+    /**
+     * whether the message is the kill core engine for this core
+     * @param message
+     *      message to check
+     * @return
+     *      true if the message stops this core
+     */
+    boolean isKill(Message message) {
+        return message.getType() == Message.KILL_CORE && message.getId().equals(id);
+    }
+
+    /**
+     * gives up on a message that is left over after the drain deadline. its waiter is told it was not processed
+     * @param message
+     *      message that will not be processed
+     */
+    void abandon(Message message) {
+        CompletableFuture<Bill> future = message.getBillFuture();
+        if(future != null) {
+            future.completeExceptionally(new IllegalStateException("Core " + id
+                    + " drain deadline passed before message " + message.getId() + " was processed"));
+        }
+    }
+
+    /**
+     * view of the books for the query threads. The last view is reused while the book version has not moved, otherwise
+     * one query thread takes a new view and the others wait for it. The version is read and the books are copied with
+     * every shard locked, so the view holds the books at exactly that version. Only the books whose version moved since
+     * the last view are copied again, which keeps the shards stopped briefly
+     * @return
+     *      a view of the books at the current version
+     */
+    BookView bookView() {
+        BookView current = view;
+        if(current != null && current.getVersion() == messageManager.getVersion()) {
+            return current;
+        }
+
+        viewLock.lock();
+        try {
+            current = view;
+            if(current == null || current.getVersion() != messageManager.getVersion()) {
+                Map<Make, ModelManager> views = new HashMap<Make, ModelManager>();
+                long version;
+                lock(router.allShards());
+                try {
+                    version = messageManager.getVersion();
+                    for(Make make : messageManager.getMakes()) {
+                        views.put(make, messageManager.getView(make));
+                    }
+                }
+                finally {
+                    unlock(router.allShards());
+                }
+                current = messageManager.getBookView(views, version);
+                view = current;
+            }
+            return current;
+        }
+        finally {
+            viewLock.unlock();
+        }
     }
 }
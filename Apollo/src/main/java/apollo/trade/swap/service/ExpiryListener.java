@@ -0,0 +1,18 @@
+package apollo.trade.swap.service;
+
+import apollo.common.engine.Bill;
+
+/**
+ * Told when resting orders reach their good till time and are taken off the book. Expiry bills have no waiter, without
+ * a listener they go on the bill queue, or the overflow behind it when it is full. Called on the core's expiry thread,
+ * never on a matching thread, so a slow listener only holds up the expiry bills behind it
+ */
+public interface ExpiryListener {
+
+    /**
+     * resting orders expired
+     * @param bill
+     *      expiry bill. its chain holds the withdrawn orders
+     */
+    void onExpiry(Bill bill);
+}
@@ -0,0 +1,97 @@
+package apollo.trade.swap.service;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import apollo.common.engine.Bill;
+
+/**
+ * The expiry thread of an EngineCore. Hands the expiry bills to the expiry listeners off the matching threads, so a
+ * slow listener never stalls matching or holds a shard lock. Bills are handed over in the order they were withdrawn
+ */
+class ExpiryWorker implements Runnable {
+    //core the expiry thread belongs to
+    private final EngineCore core;
+
+    //listeners told about every expiry bill
+    private final List<ExpiryListener> listeners;
+
+    //expiry bills waiting for the listeners. unbounded so a matching thread never waits on it
+    private final LinkedBlockingQueue<Bill> bills = new LinkedBlockingQueue<Bill>();
+
+    //put behind the last expiry bill once every shard has drained
+    private final Bill end = new Bill(null, null, null);
+
+    //counted down once every expiry bill is handed over
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    /**
+     * creates an expiry thread
+     * @param core
+     *      core the expiry thread belongs to
+     * @param listeners
+     *      listeners told about every expiry bill
+     */
+    ExpiryWorker(EngineCore core, List<ExpiryListener> listeners) {
+        this.core = core;
+        this.listeners = listeners;
+    }
+
+    /**
+     * queues an expiry bill for the listeners. called by the matching threads, never waits
+     * @param bill
+     *      the expiry bill
+     */
+    void offer(Bill bill) {
+        bills.offer(bill);
+    }
+
+    /**
+     * tells the expiry thread no more bills are coming and waits for it to hand over the ones it has
+     * @param timeout
+     *      how long to wait, in milliseconds
+     * @return
+     *      True - every expiry bill was handed over
+     */
+    boolean stop(long timeout) {
+        bills.offer(end);
+        try {
+            return done.await(timeout, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * main expiry logic. Hands every expiry bill to the listeners until the core stops. A bill that comes through
+     * once the last listener was removed goes to the bill queue instead, see EngineCore.publishBill
+     */
+    public void run() {
+        try {
+            Bill bill;
+            while((bill = bills.take()) != end) {
+                if(listeners.isEmpty()) {
+                    core.publishBill(bill);
+                }
+                for(ExpiryListener listener : listeners) {
+                    try {
+                        listener.onExpiry(bill);
+                    }
+                    catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        finally {
+            done.countDown();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package apollo.trade.swap.service;
+
+import static apollo.trade.swap.service.EngineCore.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import apollo.common.engine.Bill;
+import apollo.common.engine.Message;
+import apollo.common.engine.Statistics;
+import apollo.common.templates.Swap;
+import apollo.trade.swap.manager.BookView;
+
+/**
+ * A query thread of an EngineCore. Answers goal searches off the query queue against a book view, so the matching
+ * threads never run a goal search themselves. The query threads of a core share its book view, see EngineCore.bookView
+ */
+class QueryWorker implements Runnable {
+    //core the query thread belongs to
+    private final EngineCore core;
+
+    //index of the query thread
+    private final int index;
+
+    /**
+     * creates a query thread
+     * @param core
+     *      core the query thread belongs to
+     * @param index
+     *      index of the query thread
+     */
+    QueryWorker(EngineCore core, int index) {
+        this.core = core;
+        this.index = index;
+    }
+
+    /**
+     * main query logic. Takes goals off the query queue and answers them until the kill core engine comes through.
+     * The thread that takes the kill answers what is left within the drain deadline and passes the kill on to the
+     * next query thread
+     */
+    public void run() {
+        List<Message> batch = new ArrayList<Message>(core.drainBatch);
+        Message kill = null;
+
+        while(kill == null) {
+            try {
+                batch.add(core.queryQueue.take());
+                core.queryQueue.drainTo(batch, core.drainBatch - 1);
+
+                for(Message message : batch) {
+                    if(core.isKill(message)) {
+                        kill = message;
+                    }
+                    else {
+                        answer(message);
+                    }
+                }
+                core.admission.depth(core.shards(), core.queryQueue.size(), core.queryQueue.capacity());
+                batch.clear();
+            }
+            catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+
+        //the kill may reach the query threads before any shard
+        core.state.compareAndSet(CORE_STATE.RUNNING, CORE_STATE.IDLE);
+
+        //answer what is left while there is time
+        core.drainLeft(core.queryQueue, batch);
+        int abandoned = 0;
+        for(Message message : batch) {
+            if(core.isKill(message)) {
+                continue;
+            }
+            if(core.drainExpired()) {
+                core.abandon(message);
+                abandoned++;
+            }
+            else {
+                answer(message);
+            }
+        }
+        if(abandoned > 0) {
+            System.out.println("WARNING: Drain deadline passed on query thread " + index + ". " + abandoned
+                    + " goals not searched");
+        }
+
+        try {
+            core.queryQueue.put(kill);
+        }
+        catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        core.shardsDrained.countDown();
+    }
+
+    /**
+     * searches a goal against the current book view and hands the bill to its waiter or the bill queue
+     * @param message
+     *      GOAL engine
+     */
+    private void answer(Message message) {
+        long start = System.currentTimeMillis();
+        BookView current = core.bookView();
+
+        List<Swap> chain = null;
+        try {
+            chain = current.processGoal(message);
+        }
+        catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+
+        Statistics stats = message.getStatistics();
+        if(stats != null) {
+            stats.setProcessingStartTime(start);
+            stats.setProcessingEndTime(System.currentTimeMillis());
+        }
+        Bill bill = new Bill(chain, message.getId(), stats);
+        bill.setBookVersion(current.getVersion());
+
+        if(!core.complete(message, bill)) {
+            try {
+                core.billQueue.put(bill);
+            }
+            catch (InterruptedException e) {
+                e.printStackTrace();
+                core.overflow.add(bill);
+            }
+        }
+    }
+}
@@ -0,0 +1,588 @@
+package apollo.trade.swap.service;
+
+import static apollo.trade.swap.service.EngineCore.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import apollo.common.engine.Bill;
+import apollo.common.engine.Message;
+import apollo.common.engine.Statistics;
+import apollo.common.templates.Swap;
+import apollo.trade.swap.queue.EngineQueue;
+
+/**
+ * A shard of an EngineCore. Owns an inbound queue and runs the matching loop for the makes routed to it, see
+ * ShardRouter. A plain shard matches and builds the bills on one thread. A pipelined shard splits that into a pre-match
+ * thread that validates and stamps the messages, a matching thread that only touches the books and a publish thread
+ * that builds the bills and hands them out, handing over through single producer ring buffers.
+ *
+ * A shard journals and replicates the messages it matches. A single shard does it per batch while it holds its lock, a
+ * sharded core per message while the message's shards are locked, so the journal order matches the order the books saw
+ */
+class Shard implements Runnable {
+    //core the shard belongs to
+    private final EngineCore core;
+
+    //index of the shard
+    final int index;
+
+    //the inbound engine queue of this shard
+    final EngineQueue<Message> messageQueue;
+
+    //held while this shard, or a shard coordinating with it, is processing
+    final ReentrantLock lock = new ReentrantLock();
+
+    //hand over from the pre-match thread to the matching thread. null unless pipelined
+    private final EngineQueue<StagedMessage> matchQueue;
+
+    //hand over from the matching thread to the publish thread. null unless pipelined
+    private final EngineQueue<StagedMessage> publishQueue;
+
+    /**
+     * creates a shard with the queue passed in
+     * @param core
+     *      core the shard belongs to
+     * @param index
+     *      index of the shard
+     * @param messageQueue
+     *      inbound queue of the shard
+     */
+    Shard(EngineCore core, int index, EngineQueue<Message> messageQueue) {
+        this.core = core;
+        this.index = index;
+        this.messageQueue = messageQueue;
+
+        //every stage is the only producer of the queue after it
+        if(core.pipelined) {
+            matchQueue = createQueue(QUEUE_TYPE.SINGLE_PRODUCER, core.config.getInboundCapacity(),
+                    core.config.getInboundWait());
+            publishQueue = createQueue(QUEUE_TYPE.SINGLE_PRODUCER, core.config.getOutboundCapacity(),
+                    core.config.getInboundWait());
+        }
+        else {
+            matchQueue = null;
+            publishQueue = null;
+        }
+    }
+
+    /**
+     * main shard running logic. While the core is running it will wait for a engine, then take up to drainBatch
+     * messages off the queue and process them back to back. The bills of the batch are put on the bill queue
+     * together once the batch is done. If kill core engine gets received, the shard will drain the messages left
+     * in its queue and process them, adding the bills to the outbound queue
+     */
+    public void run() {
+        if(core.pipelined) {
+            matchStage();
+            return;
+        }
+
+        List<Message> batch = new ArrayList<Message>(core.drainBatch);
+        List<Bill> bills = new ArrayList<Bill>(core.drainBatch);
+        List<Message> leftovers = new ArrayList<Message>();
+
+        //never break unless kill core engine gets received
+        while(true) {
+            try {
+                //wait for a engine and take whatever else is already waiting
+                Message first = next();
+                if(first != null) {
+                    batch.add(first);
+                    messageQueue.drainTo(batch, core.drainBatch - 1);
+                }
+
+                //orders that are due expire ahead of the batch
+                Message expire = expire(System.currentTimeMillis());
+                if(expire != null) {
+                    batch.add(0, expire);
+                }
+                if(batch.isEmpty()) {
+                    continue;
+                }
+
+                int kill = processBatch(batch, bills);
+                core.admission.depth(index, messageQueue.size(), messageQueue.capacity());
+
+                //hand the bills without a waiter to the bill queue as one group
+                int published = core.billQueue.putAll(bills);
+                //interrupted while waiting for room, the rest waits in the overflow
+                for(int i = published; i < bills.size(); i++) {
+                    core.overflow.add(bills.get(i));
+                }
+                bills.clear();
+
+                //if kill core is received. keep what came after it for the drain and break loop
+                if(kill != -1) {
+                    leftovers.addAll(batch.subList(kill + 1, batch.size()));
+                    batch.clear();
+                    break;
+                }
+                batch.clear();
+            }
+            catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+
+        //set state to idle when engine is about to die and needs to be cleaned
+        //only the first shard to get here moves the core from running to idle
+        core.state.compareAndSet(CORE_STATE.RUNNING, CORE_STATE.IDLE);
+
+        //start processing of left over messages
+        core.drainLeft(messageQueue, leftovers);
+        for(Message message : leftovers) {
+            //a second kill for this core has nothing left to stop
+            if(core.isKill(message)) {
+                continue;
+            }
+            batch.add(message);
+        }
+        int abandoned = drainBatch(batch, bills);
+        if(abandoned > 0) {
+            System.out.println("WARNING: Drain deadline passed on shard " + index + ". " + abandoned
+                    + " messages not processed");
+        }
+
+        for(Bill bill : bills) {
+            core.publishBill(bill);
+        }
+
+        core.shardsDrained.countDown();
+    }
+
+    /**
+     * pre-match stage of a pipelined shard. Takes the messages off the inbound queue, validates and stamps them and
+     * hands them to the matching thread. On the kill core engine it drains the inbound queue within the drain
+     * deadline, passes the left overs on and then the kill itself so the later stages stop behind them
+     */
+    void preMatch() {
+        List<Message> batch = new ArrayList<Message>(core.drainBatch);
+        List<StagedMessage> staged = new ArrayList<StagedMessage>(core.drainBatch);
+        Message kill = null;
+
+        while(kill == null) {
+            try {
+                Message first = next();
+                if(first != null) {
+                    batch.add(first);
+                    messageQueue.drainTo(batch, core.drainBatch - 1);
+                }
+
+                //orders that are due expire ahead of the batch
+                long time = System.currentTimeMillis();
+                Message expire = expire(time);
+                if(expire != null) {
+                    batch.add(0, expire);
+                }
+                if(batch.isEmpty()) {
+                    continue;
+                }
+
+                for(int i = 0; i < batch.size() && kill == null; i++) {
+                    Message message = batch.get(i);
+                    if(core.isKill(message)) {
+                        kill = message;
+                        //keep what came after the kill for the drain
+                        for(int j = i + 1; j < batch.size(); j++) {
+                            if(!core.isKill(batch.get(j))) {
+                                staged.add(stage(batch.get(j), time));
+                            }
+                        }
+                    }
+                    else {
+                        staged.add(stage(message, time));
+                    }
+                }
+                core.admission.depth(index, messageQueue.size(), messageQueue.capacity());
+
+                hand(matchQueue, staged);
+                batch.clear();
+                staged.clear();
+            }
+            catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+
+        //set state to idle when engine is about to die and needs to be cleaned
+        core.state.compareAndSet(CORE_STATE.RUNNING, CORE_STATE.IDLE);
+
+        //pass the left over messages on while there is time, drop the rest
+        core.drainLeft(messageQueue, batch);
+        long time = System.currentTimeMillis();
+        int abandoned = 0;
+        for(Message message : batch) {
+            if(core.isKill(message)) {
+                continue;
+            }
+            if(core.drainExpired()) {
+                core.abandon(message);
+                abandoned++;
+            }
+            else {
+                staged.add(stage(message, time));
+            }
+        }
+        if(abandoned > 0) {
+            System.out.println("WARNING: Drain deadline passed on shard " + index + ". " + abandoned
+                    + " messages not processed");
+        }
+
+        staged.add(new StagedMessage(kill, false));
+        hand(matchQueue, staged);
+    }
+
+    /**
+     * matching stage of a pipelined shard. Only matches the staged messages against the books, the bills are built
+     * by the publish thread. Stops once the kill core engine has been passed on to the publish thread
+     */
+    private void matchStage() {
+        List<StagedMessage> batch = new ArrayList<StagedMessage>(core.drainBatch);
+        boolean killed = false;
+
+        while(!killed) {
+            try {
+                batch.add(matchQueue.take());
+                matchQueue.drainTo(batch, core.drainBatch - 1);
+
+                if(core.batchLocked) {
+                    lock.lock();
+                }
+                try {
+                    journalStaged(batch);
+                    for(StagedMessage staged : batch) {
+                        if(core.isKill(staged.message)) {
+                            killed = true;
+                        }
+                        else {
+                            staged.chain = staged.valid ? match(staged.message)
+                                    : core.messageManager.rejectChain(staged.message);
+                        }
+                    }
+                }
+                finally {
+                    if(core.batchLocked) {
+                        lock.unlock();
+                    }
+                }
+
+                hand(publishQueue, batch);
+                batch.clear();
+            }
+            catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * publish stage of a pipelined shard. Builds the bills of the matched messages and hands them to their waiter
+     * or the bill queue. Bills that do not fit on the bill queue wait in a backlog so the matching thread never
+     * waits on a bill reader. Once the kill core engine comes through, what is left of the backlog moves to the
+     * overflow behind the bill queue and the shard counts as drained
+     */
+    void publish() {
+        List<StagedMessage> batch = new ArrayList<StagedMessage>(core.drainBatch);
+        ArrayDeque<Bill> backlog = new ArrayDeque<Bill>();
+        boolean killed = false;
+
+        while(!killed) {
+            try {
+                //with a backlog the bill queue has to be retried even if nothing new comes in
+                StagedMessage first = backlog.isEmpty() ? publishQueue.take()
+                        : publishQueue.poll(1, TimeUnit.MILLISECONDS);
+                if(first != null) {
+                    batch.add(first);
+                    publishQueue.drainTo(batch, core.drainBatch - 1);
+                }
+
+                long time = System.currentTimeMillis();
+                for(StagedMessage staged : batch) {
+                    if(core.isKill(staged.message)) {
+                        killed = true;
+                        continue;
+                    }
+
+                    Statistics stats = staged.message.getStatistics();
+                    if(stats != null) {
+                        stats.setProcessingEndTime(time);
+                    }
+                    Bill bill = new Bill(staged.chain, staged.message.getId(), stats);
+                    if(staged.message.getType() == Message.EXPIRE) {
+                        bill.setExpiry(true);
+                        core.expired(bill);
+                    }
+                    else if(!core.complete(staged.message, bill)) {
+                        backlog.add(bill);
+                    }
+                }
+                batch.clear();
+
+                while(!backlog.isEmpty() && core.billQueue.offer(backlog.peek())) {
+                    backlog.poll();
+                }
+            }
+            catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+
+        //the readers find what is left after the bill queue
+        core.overflow.addAll(backlog);
+
+        core.shardsDrained.countDown();
+    }
+
+    /**
+     * waits for the next message. While orders are waiting to expire, or the matching thread of a pipelined shard
+     * may be scheduling them, the wait ends at the next expiry check so an idle shard still expires orders
+     * @return
+     *      the next message. null if the wait ended without one
+     * @throws InterruptedException
+     *      if the thread was interrupted while waiting
+     */
+    private Message next() throws InterruptedException {
+        if(!core.pipelined && !core.messageManager.hasExpiries()) {
+            return messageQueue.take();
+        }
+        long wait = Math.max(1, core.nextExpiry.get() - System.currentTimeMillis());
+        return messageQueue.poll(Math.min(wait, core.messageManager.getExpiryTick()), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * the EXPIRE this shard has to send ahead of its batch. At most one shard a tick checks the books, and only
+     * sends an EXPIRE if an order is due
+     * @param time
+     *      current time
+     * @return
+     *      the EXPIRE engine, null if none is due or another shard checked this tick
+     */
+    private Message expire(long time) {
+        long next = core.nextExpiry.get();
+        if(time < next || !core.nextExpiry.compareAndSet(next, time + core.messageManager.getExpiryTick())) {
+            return null;
+        }
+        return core.messageManager.hasExpired(time) ? Message.getExpireMessage(time) : null;
+    }
+
+    /**
+     * journals a batch the matching thread is about to match. With one shard this is called with the shard locked
+     * so a checkpoint never sees the journal ahead of the books
+     * @param staged
+     *      messages about to be matched
+     */
+    private void journalStaged(List<StagedMessage> staged) {
+        if((core.journal != null || core.publisher != null) && core.batchLocked && !staged.isEmpty()) {
+            List<Message> messages = new ArrayList<Message>(staged.size());
+            for(StagedMessage message : staged) {
+                messages.add(message.message);
+            }
+            core.journal(messages);
+        }
+    }
+
+    /**
+     * matches a message against the book without building its bill. When the core is sharded the shards the message
+     * touches are locked for the duration of the matching
+     * @param message
+     *      message to be matched
+     * @return
+     *      the chain of the message
+     */
+    private List<Swap> match(Message message) {
+        if(core.batchLocked) {
+            return core.messageManager.processChain(message);
+        }
+
+        int[] lockSet = core.router.lockSet(message);
+        core.lock(lockSet);
+        try {
+            core.journal(message);
+            return core.messageManager.processChain(message);
+        }
+        finally {
+            core.unlock(lockSet);
+        }
+    }
+
+    /**
+     * processes a message against the book. When the core is sharded the shards the message touches are locked for
+     * the duration of the processing
+     * @param message
+     *      message to be processed
+     * @return
+     *      the bill of the message
+     */
+    private Bill process(Message message) {
+        if(core.batchLocked) {
+            return core.messageManager.processMessage(message);
+        }
+
+        int[] lockSet = core.router.lockSet(message);
+        core.lock(lockSet);
+        try {
+            core.journal(message);
+            return core.messageManager.processMessage(message);
+        }
+        finally {
+            core.unlock(lockSet);
+        }
+    }
+
+    /**
+     * validates and stamps a message for the matching thread
+     * @param message
+     *      message coming off the inbound queue
+     * @param time
+     *      processing start time of the message
+     * @return
+     *      the staged message
+     */
+    private StagedMessage stage(Message message, long time) {
+        Statistics stats = message.getStatistics();
+        if(stats != null) {
+            stats.setProcessingStartTime(time);
+        }
+        return new StagedMessage(message, core.messageManager.validate(message));
+    }
+
+    /**
+     * hands a batch to the next stage, waiting for room if the next stage is behind. An interrupt does not stop the
+     * hand over, the matching thread hands over messages that are already on the books
+     * @param queue
+     *      queue of the next stage
+     * @param staged
+     *      messages to hand over
+     */
+    private void hand(EngineQueue<StagedMessage> queue, List<StagedMessage> staged) {
+        int handed = queue.putAll(staged);
+        while(handed < staged.size()) {
+            //putAll stops on an interrupt and sets the flag again, clear it to keep waiting for room
+            Thread.interrupted();
+            System.out.println("WARNING: Interrupted while handing over on shard " + index + ". Retrying "
+                    + (staged.size() - handed) + " messages");
+            handed += queue.putAll(staged.subList(handed, staged.size()));
+        }
+    }
+
+    /**
+     * processes the left over messages of a dying shard until the drain deadline passes. Messages past the deadline
+     * are not processed and their bill futures are completed exceptionally
+     * @param leftovers
+     *      messages to process
+     * @param bills
+     *      bills that still have to be put on the bill queue
+     * @return
+     *      the amount of messages that were not processed
+     */
+    private int drainBatch(List<Message> leftovers, List<Bill> bills) {
+        int from = 0;
+        while(from < leftovers.size() && !core.drainExpired()) {
+            int to = Math.min(from + core.drainBatch, leftovers.size());
+            processBatch(leftovers.subList(from, to), bills);
+            from = to;
+        }
+
+        for(int i = from; i < leftovers.size(); i++) {
+            core.abandon(leftovers.get(i));
+        }
+        return leftovers.size() - from;
+    }
+
+    /**
+     * processes a batch back to back, stopping at the kill core engine. The clock is read once per engine, the end
+     * of one engine is the start of the next. Bills with a waiter are handed over straight away, the rest are
+     * added to the bills passed in
+     * @param batch
+     *      messages to process
+     * @param bills
+     *      bills that still have to be put on the bill queue
+     * @return
+     *      index of the kill core engine in the batch, -1 if there is none
+     */
+    private int processBatch(List<Message> batch, List<Bill> bills) {
+        if(!core.batchLocked) {
+            return processRun(batch, bills);
+        }
+        lock.lock();
+        try {
+            return processRun(batch, bills);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * body of processBatch, called with the shard locked if the shard owns the books
+     * @param batch
+     *      messages to process
+     * @param bills
+     *      bills that still have to be put on the bill queue
+     * @return
+     *      index of the kill core engine in the batch, -1 if there is none
+     */
+    private int processRun(List<Message> batch, List<Bill> bills) {
+        core.journal(batch);
+        long time = System.currentTimeMillis();
+
+        for(int i = 0; i < batch.size(); i++) {
+            Message message = batch.get(i);
+            if(core.isKill(message)) {
+                return i;
+            }
+
+            //start processing
+            Statistics stats = message.getStatistics();
+            if(stats != null) {
+                stats.setProcessingStartTime(time);
+            }
+            Bill bill = process(message);
+            time = System.currentTimeMillis();
+            if(stats != null) {
+                stats.setProcessingEndTime(time);
+            }
+            //end processing
+
+            //if bill is set than hand it to the waiter or keep it for the bill queue
+            if(bill != null && bill.isExpiry()) {
+                core.expired(bill);
+            }
+            else if(bill != null && !core.complete(message, bill)) {
+                bills.add(bill);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A message on its way through a pipelined shard. Carries what the pre-match thread found out about the message and
+     * the chain the matching thread found for it
+     */
+    private static class StagedMessage {
+        //the message
+        private final Message message;
+
+        //true if the message passed validation and has to be matched
+        private final boolean valid;
+
+        //chain found by the matching thread. handed to the publish thread through the ring buffer
+        private List<Swap> chain;
+
+        /**
+         * stages a message
+         * @param message
+         *      the message
+         * @param valid
+         *      true if the message passed validation
+         */
+        private StagedMessage(Message message, boolean valid) {
+            this.message = message;
+            this.valid = valid;
+        }
+    }
+}
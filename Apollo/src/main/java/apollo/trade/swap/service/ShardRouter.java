@@ -0,0 +1,141 @@
+package apollo.trade.swap.service;
+
+import apollo.common.engine.Message;
+import apollo.common.templates.Make;
+import apollo.common.templates.Model;
+import apollo.common.templates.Swap;
+
+/**
+ * Routes messages to the core shard that owns the Make of the message and works out which shards a message has to
+ * coordinate with. Every Make is owned by exactly one shard (hash of the make) so the shards own disjoint sets of
+ * books.
+ *
+ * Coordination protocol for messages that touch more than one shard:
+ * SWAP - owned by the bid make's shard. If the ask is for a make owned by another shard, the owning shard also takes
+ *        the lock of the ask make's shard before it fills
+ * GRAB - owned by the ask make's shard and never touches another shard
+ * GOAL - the search can walk into any make so it takes the lock of every shard
+ * Locks are always taken in ascending shard order so two shards coordinating at the same time can never deadlock.
+ */
+public class ShardRouter {
+
+    //amount of shards the messages are routed over
+    private final int shards;
+
+    //lock set used by messages that have to lock every shard
+    private final int[] allShards;
+
+    /**
+     * creates a router for the amount of shards passed in
+     * @param shards
+     *      amount of shards. anything less than one is treated as one
+     */
+    public ShardRouter(int shards) {
+        this.shards = Math.max(1, shards);
+
+        allShards = new int[this.shards];
+        for(int i = 0; i < this.shards; i++) {
+            allShards[i] = i;
+        }
+    }
+
+    /**
+     * the shard that owns this message. SWAP and GOAL messages are owned by the bid's make, GRAB by the ask's make
+     * @param message
+     *      message to be routed
+     * @return
+     *      index of the shard that should process the message
+     */
+    public int route(Message message) {
+        if(shards == 1 || message == null) {
+            return 0;
+        }
+
+        Swap swap = message.getBid();
+        if(swap == null) {
+            swap = message.getAsk();
+        }
+        return shardFor(swap);
+    }
+
+    /**
+     * the shards that have to be locked while this message is processed, in ascending order
+     * @param message
+     *      message being processed
+     * @return
+     *      ascending shard indexes
+     */
+    public int[] lockSet(Message message) {
+        int owner = route(message);
+
+        if(shards > 1 && message != null) {
+            switch(message.getType()) {
+                case Message.SWAP:
+                case Message.AMEND:
+                    if(message.getAsk() != null) {
+                        int askShard = shardFor(message.getAsk());
+                        if(askShard < owner) {
+                            return new int[] {askShard, owner};
+                        }
+                        else if(askShard > owner) {
+                            return new int[] {owner, askShard};
+                        }
+                    }
+                    break;
+                case Message.GOAL:
+                case Message.EXPIRE:
+                    return allShards;
+            }
+        }
+        return new int[] {owner};
+    }
+
+    /**
+     * the shard that owns the make of the swap passed in
+     * @param swap
+     *      swap to look up
+     * @return
+     *      index of the owning shard. Swaps without a make go to shard zero
+     */
+    public int shardFor(Swap swap) {
+        if(swap != null) {
+            Model model = swap.getModel();
+            if(model != null) {
+                return shardFor(model.getMake());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * the shard that owns the make passed in
+     * @param make
+     *      make to look up
+     * @return
+     *      index of the owning shard
+     */
+    public int shardFor(Make make) {
+        if(make == null || make.getName() == null || shards == 1) {
+            return 0;
+        }
+        return (make.hashCode() & Integer.MAX_VALUE) % shards;
+    }
+
+    /**
+     * every shard index in ascending order
+     * @return
+     *      all shard indexes
+     */
+    public int[] allShards() {
+        return allShards;
+    }
+
+    /**
+     * amount of shards being routed over
+     * @return
+     *      shard count
+     */
+    public int shards() {
+        return shards;
+    }
+}
@@ -0,0 +1,178 @@
+package apollo.trade.swap.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import apollo.common.engine.Bill;
+import apollo.common.templates.Swap;
+import apollo.common.util.SwapCodec;
+
+/**
+ * Local append-only file that bills are spilled to when they are evicted from the bill store so a late reader can
+ * still find them. Records are length prefixed and start with the bill id so a lookup can skip everything else.
+ * Lookups scan the file, this is the slow path for readers that showed up after their bill was evicted.
+ *
+ * Record layout: length (int), id (2 longs), bill timestamp (long), chain size (int), chain swaps (SwapCodec)
+ */
+public class BillSpillFile {
+
+    //the spill file
+    private final RandomAccessFile file;
+
+    //path of the spill file
+    private final File path;
+
+    /**
+     * opens the spill file for appending, creating it if it does not exist
+     * @param path
+     *      location of the spill file
+     * @throws IOException
+     *      if the file could not be opened
+     */
+    public BillSpillFile(File path) throws IOException {
+        this.path = path;
+        file = new RandomAccessFile(path, "rw");
+    }
+
+    /**
+     * appends the bill to the end of the file
+     * @param bill
+     *      bill to spill
+     * @return
+     *      true if the bill was written
+     */
+    public synchronized boolean append(Bill bill) {
+        if(bill == null || bill.getId() == null) {
+            return false;
+        }
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            out.writeLong(bill.getId().getMostSignificantBits());
+            out.writeLong(bill.getId().getLeastSignificantBits());
+            out.writeLong(bill.getTimestamp());
+            out.writeInt(bill.size());
+            for(int i = 0; i < bill.size(); i++) {
+                SwapCodec.write(out, bill.get(i));
+            }
+            out.flush();
+
+            file.seek(file.length());
+            file.writeInt(bytes.size());
+            file.write(bytes.toByteArray());
+            return true;
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * scans the file for the bill with the id passed in
+     * @param id
+     *      id of the bill
+     * @return
+     *      the bill rebuilt from the file. Statistics are not spilled so the bill has none. null if not found
+     */
+    public synchronized Bill find(UUID id) {
+        if(id == null) {
+            return null;
+        }
+
+        try {
+            long position = 0;
+            long length = file.length();
+
+            while(position + 4 <= length) {
+                file.seek(position);
+                int recordLength = file.readInt();
+                long msb = file.readLong();
+                long lsb = file.readLong();
+
+                if(msb == id.getMostSignificantBits() && lsb == id.getLeastSignificantBits()) {
+                    byte[] record = new byte[recordLength - 16];
+                    file.readFully(record);
+                    return readBill(id, record);
+                }
+                position += 4 + recordLength;
+            }
+        }
+        catch (EOFException e) {
+            //partially written record at the end of the file
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * rebuilds a bill from the rest of a record
+     * @param id
+     *      id of the bill
+     * @param record
+     *      record bytes after the id
+     * @return
+     *      the bill
+     * @throws IOException
+     *      if the record is corrupt
+     */
+    private Bill readBill(UUID id, byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        in.readLong();
+        int size = in.readInt();
+
+        List<Swap> chain = new ArrayList<Swap>(size);
+        for(int i = 0; i < size; i++) {
+            chain.add(SwapCodec.read(in));
+        }
+        return new Bill(chain, id, null);
+    }
+
+    /**
+     * size of the spill file in bytes
+     * @return
+     *      bytes written so far
+     */
+    public synchronized long length() {
+        try {
+            return file.length();
+        }
+        catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * location of the spill file
+     * @return
+     *      path of the file
+     */
+    public File getPath() {
+        return path;
+    }
+
+    /**
+     * closes the spill file
+     */
+    public synchronized void close() {
+        try {
+            file.close();
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
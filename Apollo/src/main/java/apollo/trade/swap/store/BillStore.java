@@ -0,0 +1,266 @@
+package apollo.trade.swap.store;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import apollo.common.engine.Bill;
+
+/**
+ * Bounded, expiring store of bills waiting to be read. Entries are futures so a bill can be stored before the core has
+ * created it. The store holds at most maxBills entries and no entry for longer than the time to live, the oldest
+ * entries are evicted first. Eviction happens on the writer's thread when a bill is put, so no extra thread is needed.
+ *
+ * Evicted bills can optionally be spilled to a local append-only file, a reader that asks for an evicted bill will
+ * then still find it there.
+ */
+public class BillStore {
+
+    //default amount of bills held in memory
+    public static final int DEFAULT_MAX_BILLS = 100000;
+
+    //default time a bill is held in memory
+    public static final long DEFAULT_TIME_TO_LIVE = TimeUnit.MINUTES.toMillis(5);
+
+    //bills by id
+    private final Map<UUID, Entry> bills = new ConcurrentHashMap<UUID, Entry>();
+
+    //entries in insertion order, which is also expiry order. may hold entries that were already read
+    private final Queue<Entry> order = new ConcurrentLinkedQueue<Entry>();
+
+    //maximum amount of bills held in memory
+    private final int maxBills;
+
+    //time a bill is held in memory in milliseconds
+    private final long timeToLive;
+
+    //where evicted bills go. null if evicted bills are dropped
+    private final BillSpillFile spillFile;
+
+    //eviction counters
+    private final AtomicLong sizeEvictions = new AtomicLong();
+    private final AtomicLong expiredEvictions = new AtomicLong();
+    private final AtomicLong spilledBills = new AtomicLong();
+    private final AtomicLong spillHits = new AtomicLong();
+
+    /**
+     * creates a store with the default limits that drops evicted bills
+     */
+    public BillStore() {
+        this(DEFAULT_MAX_BILLS, DEFAULT_TIME_TO_LIVE, null);
+    }
+
+    /**
+     * creates a store with the limits passed in
+     * @param maxBills
+     *      maximum amount of bills held in memory
+     * @param timeToLive
+     *      milliseconds a bill is held in memory before it is evicted
+     * @param spillFile
+     *      file evicted bills are appended to. null to drop evicted bills
+     */
+    public BillStore(int maxBills, long timeToLive, BillSpillFile spillFile) {
+        this.maxBills = Math.max(1, maxBills);
+        this.timeToLive = timeToLive;
+        this.spillFile = spillFile;
+    }
+
+    /**
+     * stores the future of a bill. Evicts the oldest bills if the store is over its limits
+     * @param id
+     *      id of the bill
+     * @param future
+     *      future that is, or will be, completed with the bill
+     */
+    public void put(UUID id, CompletableFuture<Bill> future) {
+        if(id == null || future == null) {
+            return;
+        }
+
+        Entry entry = new Entry(id, future, System.currentTimeMillis());
+        bills.put(id, entry);
+        order.offer(entry);
+
+        evict(entry.createTime);
+    }
+
+    /**
+     * stores a bill that has already been created
+     * @param bill
+     *      the bill
+     */
+    public void put(Bill bill) {
+        if(bill != null) {
+            put(bill.getId(), CompletableFuture.completedFuture(bill));
+        }
+    }
+
+    /**
+     * stores a group of bills that have already been created. The store is only checked for evictions once, after the
+     * whole group is in
+     * @param group
+     *      the bills
+     */
+    public void putAll(Collection<Bill> group) {
+        long now = System.currentTimeMillis();
+        for(Bill bill : group) {
+            if(bill != null) {
+                Entry entry = new Entry(bill.getId(), CompletableFuture.completedFuture(bill), now);
+                bills.put(entry.id, entry);
+                order.offer(entry);
+            }
+        }
+        evict(now);
+    }
+
+    /**
+     * removes the future of the bill with the id passed in. If the bill was evicted and spilled, the spilled bill is
+     * returned in a completed future
+     * @param id
+     *      id of the bill
+     * @return
+     *      the future of the bill. null if the store never had it or it was evicted without spilling
+     */
+    public CompletableFuture<Bill> remove(UUID id) {
+        if(id == null) {
+            return null;
+        }
+
+        Entry entry = bills.remove(id);
+        if(entry != null) {
+            return entry.future;
+        }
+
+        if(spillFile != null) {
+            Bill bill = spillFile.find(id);
+            if(bill != null) {
+                spillHits.incrementAndGet();
+                return CompletableFuture.completedFuture(bill);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * evicts every bill whose time to live has passed
+     */
+    public void evictExpired() {
+        evict(System.currentTimeMillis());
+    }
+
+    /**
+     * evicts from the oldest entry until the store is within its size limit and the oldest entry has not expired
+     * @param now
+     *      current time in milliseconds
+     */
+    private void evict(long now) {
+        Entry head = order.peek();
+        while(head != null) {
+            //entry was already read
+            if(bills.get(head.id) != head) {
+                order.remove(head);
+            }
+            else if(bills.size() > maxBills) {
+                evict(head, sizeEvictions);
+            }
+            else if(now - head.createTime >= timeToLive) {
+                evict(head, expiredEvictions);
+            }
+            else {
+                break;
+            }
+            head = order.peek();
+        }
+    }
+
+    /**
+     * evicts the entry passed in and spills its bill once the bill exists
+     * @param entry
+     *      entry to evict
+     * @param counter
+     *      counter for the reason of the eviction
+     */
+    private void evict(Entry entry, AtomicLong counter) {
+        order.remove(entry);
+        if(bills.remove(entry.id, entry)) {
+            counter.incrementAndGet();
+
+            if(spillFile != null) {
+                entry.future.thenAccept(new Consumer<Bill>() {
+                    public void accept(Bill bill) {
+                        if(spillFile.append(bill)) {
+                            spilledBills.incrementAndGet();
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * amount of bills held in memory
+     * @return
+     *      size of the store
+     */
+    public int size() {
+        return bills.size();
+    }
+
+    /**
+     * bills evicted because the store was full
+     * @return
+     *      eviction count
+     */
+    public long getSizeEvictions() {
+        return sizeEvictions.get();
+    }
+
+    /**
+     * bills evicted because their time to live passed
+     * @return
+     *      eviction count
+     */
+    public long getExpiredEvictions() {
+        return expiredEvictions.get();
+    }
+
+    /**
+     * evicted bills written to the spill file
+     * @return
+     *      spill count
+     */
+    public long getSpilledBills() {
+        return spilledBills.get();
+    }
+
+    /**
+     * reads that were answered from the spill file
+     * @return
+     *      spill hit count
+     */
+    public long getSpillHits() {
+        return spillHits.get();
+    }
+
+    /**
+     * entry of the store
+     */
+    private static class Entry {
+        private final UUID id;
+        private final CompletableFuture<Bill> future;
+        private final long createTime;
+
+        private Entry(UUID id, CompletableFuture<Bill> future, long createTime) {
+            this.id = id;
+            this.future = future;
+            this.createTime = createTime;
+        }
+    }
+}
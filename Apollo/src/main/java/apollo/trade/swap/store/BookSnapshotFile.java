@@ -0,0 +1,715 @@
+package apollo.trade.swap.store;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import apollo.common.engine.BookSnapshot;
+import apollo.common.shoe.ShoeModel;
+import apollo.common.shoe.ShoeSwap;
+import apollo.common.templates.Book;
+import apollo.common.templates.Make;
+import apollo.common.templates.Model;
+import apollo.common.templates.Swap;
+import apollo.common.util.SymbolRegistry;
+import apollo.trade.swap.manager.BookImage;
+import apollo.trade.swap.manager.Checkpoint;
+
+/**
+ * Compact binary file of a BookSnapshot so the books survive the JVM. Every resting order of every book is written
+ * column by column: one column of bid models, one of bid sizes, two of user id halves and so on, with make and model
+ * names dictionary encoded. Loading maps the file and reads each column in one bulk get, every swap of a model shares
+ * one Model instance and each book is bulk loaded in the order its levels match, so a core started from the file
+ * behaves exactly like the one the snapshot was taken from.
+ *
+ * Only ShoeSwaps are supported. Bids filled by a grab but still in the maps of a book are not written.
+ *
+ * A delta file only has the books that changed since the checkpoint it is based on, including books that were emptied.
+ * It cannot be read on its own, SnapshotCompactor merges it onto its base.
+ *
+ * Layout: magic (int), version (int), create time (long), book version (long), journal sequence (long),
+ *         base book version (long, -1 unless this is a delta),
+ *         strings: count (int), then length (int) and UTF-8 bytes per string,
+ *         models: count (int), make name column, model name column, year column (ints),
+ *         books: count (int), model column, resting count column, listed count column (ints),
+ *         orders: bid model, bid size, bid user high, bid user low, ask model (-1 for none), ask size, flags columns,
+ *         ask users: count (int), high column, low column, for the asks whose user differs from the bid's,
+ *         order ids: count (int), high column, low column, for the bids placed under an order id,
+ *         good till: count (int), time column (longs), for the bids with a good till time,
+ *         listed: position of every bid for sale within the resting orders of its book (ints)
+ */
+public class BookSnapshotFile {
+
+    //first bytes of every snapshot file
+    public static final int MAGIC = 0x41505353;
+    public static final int VERSION = 5;
+
+    //bits of the flags column
+    private static final byte BID_FOR_SALE = 1;
+    private static final byte ASK_FOR_SALE = 2;
+    private static final byte ASK_USER = 4;
+    private static final byte ORDER_ID = 8;
+    private static final byte GOOD_TILL = 16;
+
+    //encoding of the dictionary
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * default constructor
+     */
+    private BookSnapshotFile() {
+
+    }
+
+    /**
+     * writes the snapshot passed in. The books must not change while they are written
+     * @param snapshot
+     *      snapshot to write. null is written as an empty snapshot
+     * @param file
+     *      file to write, replaced if it is already there
+     * @return
+     *      amount of resting orders written
+     * @throws IOException
+     *      if the file could not be written
+     */
+    @SuppressWarnings("unchecked")
+    public static long write(BookSnapshot snapshot, File file) throws IOException {
+        List<Model> bookModels = new ArrayList<Model>();
+        List<List<Swap>> resting = new ArrayList<List<Swap>>();
+        List<List<Swap>> listed = new ArrayList<List<Swap>>();
+
+        if(snapshot != null && !snapshot.isEmpty()) {
+            for(Make make : snapshot.getMakers()) {
+                Map<Model, Book> books = snapshot.getBooksForMake(make);
+                if(books == null) {
+                    continue;
+                }
+                for(Map.Entry<Model, Book> entry : books.entrySet()) {
+                    bookModels.add(entry.getKey());
+                    resting.add(entry.getValue().getResting());
+                    listed.add(entry.getValue().getListed());
+                }
+            }
+        }
+
+        Contents contents = new Contents();
+        contents.models = bookModels;
+        contents.resting = resting;
+        contents.listed = listed;
+        contents.createTime = snapshot != null ? snapshot.getTimestamp() : System.currentTimeMillis();
+        return write(contents, file);
+    }
+
+    /**
+     * writes the checkpoint passed in. The books behind it may keep changing, every image is captured before its book
+     * is written to again. A delta checkpoint is written as a delta file
+     * @param checkpoint
+     *      checkpoint to write
+     * @param file
+     *      file to write, replaced if it is already there
+     * @return
+     *      amount of resting orders written
+     * @throws IOException
+     *      if the file could not be written
+     */
+    public static long write(Checkpoint checkpoint, File file) throws IOException {
+        return write(contents(checkpoint), file);
+    }
+
+    /**
+     * writes the checkpoint passed in to a stream in the layout of a snapshot file, see write(Checkpoint, File). The
+     * stream is flushed but not closed
+     * @param checkpoint
+     *      checkpoint to write
+     * @param out
+     *      stream to write to
+     * @return
+     *      amount of resting orders written
+     * @throws IOException
+     *      if the checkpoint could not be written
+     */
+    public static long write(Checkpoint checkpoint, OutputStream out) throws IOException {
+        return write(contents(checkpoint), out);
+    }
+
+    /**
+     * captures the images of the checkpoint passed in as contents to write
+     * @param checkpoint
+     *      the checkpoint
+     * @return
+     *      books and header of the checkpoint
+     */
+    private static Contents contents(Checkpoint checkpoint) {
+        List<Model> bookModels = new ArrayList<Model>();
+        List<List<Swap>> resting = new ArrayList<List<Swap>>();
+        List<List<Swap>> listed = new ArrayList<List<Swap>>();
+
+        for(BookImage image : checkpoint.getImages()) {
+            bookModels.add(image.getModel());
+            resting.add(image.getResting());
+            listed.add(image.getListed());
+        }
+
+        Contents contents = new Contents();
+        contents.models = bookModels;
+        contents.resting = resting;
+        contents.listed = listed;
+        contents.createTime = checkpoint.getTimestamp();
+        contents.bookVersion = checkpoint.getVersion();
+        contents.sequence = checkpoint.getSequence();
+        contents.baseVersion = checkpoint.getBaseVersion();
+        return contents;
+    }
+
+    /**
+     * sequence of the first journal record that is not part of the snapshot in the file passed in
+     * @param file
+     *      snapshot file
+     * @return
+     *      the journal sequence. -1 if the snapshot was not taken from a checkpoint with a journal
+     * @throws IOException
+     *      if the file could not be read or is not a snapshot
+     */
+    public static long getSequence(File file) throws IOException {
+        return header(file).sequence;
+    }
+
+    /**
+     * reads the header of the file passed in without its books
+     * @param file
+     *      snapshot file
+     * @return
+     *      contents of the file without any books
+     * @throws IOException
+     *      if the file could not be read or is not a snapshot
+     */
+    static Contents header(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            if(in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a book snapshot");
+            }
+            int version = in.readInt();
+            if(version != VERSION) {
+                throw new IOException("Unknown snapshot version " + version);
+            }
+            Contents contents = new Contents();
+            contents.createTime = in.readLong();
+            contents.bookVersion = in.readLong();
+            contents.sequence = in.readLong();
+            contents.baseVersion = in.readLong();
+            return contents;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * writes the books passed in to a file, see write(Contents, OutputStream)
+     * @param contents
+     *      books and header to write
+     * @param file
+     *      file to write
+     * @return
+     *      amount of resting orders written
+     * @throws IOException
+     *      if the file could not be written
+     */
+    static long write(Contents contents, File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            return write(contents, out);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * writes the books passed in column by column. Books without resting bids are dropped unless the contents are a
+     * delta, where they empty the book of the base. The stream is flushed but not closed
+     * @param contents
+     *      books and header to write
+     * @param stream
+     *      stream to write to
+     * @return
+     *      amount of resting orders written
+     * @throws IOException
+     *      if the books could not be written
+     */
+    private static long write(Contents contents, OutputStream stream) throws IOException {
+        List<Model> bookModels = new ArrayList<Model>(contents.models);
+        List<List<Swap>> resting = new ArrayList<List<Swap>>(contents.resting);
+        List<List<Swap>> listedBids = new ArrayList<List<Swap>>(contents.listed);
+
+        //dictionaries of names and models in the order they are first seen
+        Map<String, Integer> strings = new HashMap<String, Integer>();
+        List<String> stringList = new ArrayList<String>();
+        Map<Model, Integer> models = new HashMap<Model, Integer>();
+        List<Model> modelList = new ArrayList<Model>();
+
+        if(contents.baseVersion == -1) {
+            for(int b = bookModels.size() - 1; b >= 0; b--) {
+                if(resting.get(b).isEmpty()) {
+                    bookModels.remove(b);
+                    resting.remove(b);
+                    listedBids.remove(b);
+                }
+            }
+        }
+
+        List<int[]> listed = new ArrayList<int[]>();
+        int orders = 0;
+        int totalListed = 0;
+        for(int b = 0; b < bookModels.size(); b++) {
+            List<Swap> bookResting = resting.get(b);
+
+            //position of every resting bid so the listed bids can point at it
+            Map<Swap, Integer> positions = new IdentityHashMap<Swap, Integer>(bookResting.size() * 2);
+            for(int i = 0; i < bookResting.size(); i++) {
+                Swap bid = bookResting.get(i);
+                positions.put(bid, i);
+                index(bid.getModel(), models, modelList, strings, stringList);
+                if(bid.getPair() != null) {
+                    index(bid.getPair().getModel(), models, modelList, strings, stringList);
+                }
+            }
+            List<Swap> bookListed = listedBids.get(b);
+            int[] listedPositions = new int[bookListed.size()];
+            for(int i = 0; i < listedPositions.length; i++) {
+                listedPositions[i] = positions.get(bookListed.get(i));
+            }
+
+            index(bookModels.get(b), models, modelList, strings, stringList);
+            listed.add(listedPositions);
+            orders += bookResting.size();
+            totalListed += listedPositions.length;
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 256 * 1024));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(contents.createTime);
+            out.writeLong(contents.bookVersion);
+            out.writeLong(contents.sequence);
+            out.writeLong(contents.baseVersion);
+
+            out.writeInt(stringList.size());
+            for(String string : stringList) {
+                byte[] bytes = string.getBytes(UTF8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            out.writeInt(modelList.size());
+            for(Model model : modelList) {
+                out.writeInt(strings.get(model.getMake().getName()));
+            }
+            for(Model model : modelList) {
+                out.writeInt(strings.get(model.getName()));
+            }
+            for(Model model : modelList) {
+                out.writeInt(model.getYear());
+            }
+
+            out.writeInt(bookModels.size());
+            for(Model model : bookModels) {
+                out.writeInt(models.get(model));
+            }
+            for(List<Swap> bookResting : resting) {
+                out.writeInt(bookResting.size());
+            }
+            for(int[] bookListed : listed) {
+                out.writeInt(bookListed.length);
+            }
+
+            //order columns
+            out.writeInt(orders);
+            for(List<Swap> bookResting : resting) {
+                for(Swap bid : bookResting) {
+                    out.writeInt(models.get(bid.getModel()));
+                }
+            }
+            for(List<Swap> bookResting : resting) {
+                for(Swap bid : bookResting) {
+                    out.writeInt(shoe(bid).getSize());
+                }
+            }
+            for(List<Swap> bookResting : resting) {
+                for(Swap bid : bookResting) {
+                    out.writeLong(bid.getUserId().getMostSignificantBits());
+                }
+            }
+            for(List<Swap> bookResting : resting) {
+                for(Swap bid : bookResting) {
+                    out.writeLong(bid.getUserId().getLeastSignificantBits());
+                }
+            }
+            for(List<Swap> bookResting : resting) {
+                for(Swap bid : bookResting) {
+                    Swap ask = bid.getPair();
+                    out.writeInt(ask != null ? models.get(ask.getModel()) : -1);
+                }
+            }
+            for(List<Swap> bookResting : resting) {
+                for(Swap bid : bookResting) {
+                    Swap ask = bid.getPair();
+                    out.writeInt(ask != null ? shoe(ask).getSize() : 0);
+                }
+            }
+            List<UUID> askUsers = new ArrayList<UUID>();
+            List<UUID> orderIds = new ArrayList<UUID>();
+            List<Long> goodTills = new ArrayList<Long>();
+            for(List<Swap> bookResting : resting) {
+                for(Swap bid : bookResting) {
+                    Swap ask = bid.getPair();
+                    byte flags = bid.isForSale() ? BID_FOR_SALE : 0;
+                    if(bid.getOrderId() != null) {
+                        flags |= ORDER_ID;
+                        orderIds.add(bid.getOrderId());
+                    }
+                    if(bid.getGoodTill() != 0) {
+                        flags |= GOOD_TILL;
+                        goodTills.add(bid.getGoodTill());
+                    }
+                    if(ask != null) {
+                        if(ask.isForSale()) {
+                            flags |= ASK_FOR_SALE;
+                        }
+                        if(ask.getUserId() != null && !ask.getUserId().equals(bid.getUserId())) {
+                            flags |= ASK_USER;
+                            askUsers.add(ask.getUserId());
+                        }
+                    }
+                    out.writeByte(flags);
+                }
+            }
+
+            out.writeInt(askUsers.size());
+            for(UUID user : askUsers) {
+                out.writeLong(user.getMostSignificantBits());
+            }
+            for(UUID user : askUsers) {
+                out.writeLong(user.getLeastSignificantBits());
+            }
+
+            out.writeInt(orderIds.size());
+            for(UUID orderId : orderIds) {
+                out.writeLong(orderId.getMostSignificantBits());
+            }
+            for(UUID orderId : orderIds) {
+                out.writeLong(orderId.getLeastSignificantBits());
+            }
+
+            out.writeInt(goodTills.size());
+            for(Long goodTill : goodTills) {
+                out.writeLong(goodTill);
+            }
+
+            out.writeInt(totalListed);
+            for(int[] bookListed : listed) {
+                for(int position : bookListed) {
+                    out.writeInt(position);
+                }
+            }
+        }
+        finally {
+            out.flush();
+        }
+        return orders;
+    }
+
+    /**
+     * maps a snapshot file and bulk loads its books
+     * @param file
+     *      snapshot file written by write
+     * @return
+     *      the snapshot. Empty if the file has no orders
+     * @throws IOException
+     *      if the file could not be read, is not a snapshot or is a delta
+     */
+    public static BookSnapshot read(File file) throws IOException {
+        Contents contents = readContents(file);
+        if(contents.baseVersion != -1) {
+            throw new IOException(file + " is a delta snapshot, load it with SnapshotCompactor");
+        }
+        return toSnapshot(contents);
+    }
+
+    /**
+     * bulk loads the books of the contents passed in into a snapshot. Books without resting bids are left out
+     * @param contents
+     *      books read from snapshot files
+     * @return
+     *      the snapshot. Empty if there are no orders
+     */
+    @SuppressWarnings("unchecked")
+    static BookSnapshot toSnapshot(Contents contents) {
+        BookSnapshot snapshot = new BookSnapshot();
+        Map<Make, Map<Model, Book>> booksByMake = new HashMap<Make, Map<Model, Book>>();
+        for(int b = 0; b < contents.models.size(); b++) {
+            if(contents.resting.get(b).isEmpty()) {
+                continue;
+            }
+            Book book = new Book();
+            book.restore(contents.resting.get(b), contents.listed.get(b));
+            Model model = contents.models.get(b);
+            Map<Model, Book> books = booksByMake.get(model.getMake());
+            if(books == null) {
+                books = new HashMap<Model, Book>();
+                booksByMake.put(model.getMake(), books);
+            }
+            books.put(model, book);
+        }
+
+        for(Map<Model, Book> books : booksByMake.values()) {
+            snapshot.add(books);
+        }
+        return snapshot;
+    }
+
+    /**
+     * maps a snapshot file and bulk reads its columns into the resting and listed bids of every book
+     * @param file
+     *      snapshot file written by write
+     * @return
+     *      the books and header of the file
+     * @throws IOException
+     *      if the file could not be read or is not a snapshot
+     */
+    static Contents readContents(File file) throws IOException {
+        RandomAccessFile mapped = new RandomAccessFile(file, "r");
+        MappedByteBuffer buffer;
+        try {
+            buffer = mapped.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, mapped.length());
+        }
+        finally {
+            //the mapping stays valid once the file is closed
+            mapped.close();
+        }
+        return readContents(buffer, file.getPath());
+    }
+
+    /**
+     * loads the books of a snapshot held in memory, for example one received from another engine
+     * @param buffer
+     *      bytes of a full snapshot, from its position on
+     * @return
+     *      the snapshot. Empty if it has no orders
+     * @throws IOException
+     *      if the bytes are not a full snapshot
+     */
+    public static BookSnapshot read(ByteBuffer buffer) throws IOException {
+        Contents contents = readContents(buffer, "buffer");
+        if(contents.baseVersion != -1) {
+            throw new IOException("Cannot load a delta snapshot without its base");
+        }
+        return toSnapshot(contents);
+    }
+
+    /**
+     * bulk reads the columns of a snapshot into the resting and listed bids of every book
+     * @param buffer
+     *      bytes of the snapshot, from its position on
+     * @param source
+     *      where the bytes come from, for errors
+     * @return
+     *      the books and header of the snapshot
+     * @throws IOException
+     *      if the bytes are not a snapshot
+     */
+    private static Contents readContents(ByteBuffer buffer, String source) throws IOException {
+        try {
+            if(buffer.getInt() != MAGIC) {
+                throw new IOException(source + " is not a book snapshot");
+            }
+            int version = buffer.getInt();
+            if(version != VERSION) {
+                throw new IOException("Unknown snapshot version " + version);
+            }
+            Contents contents = new Contents();
+            contents.createTime = buffer.getLong();
+            contents.bookVersion = buffer.getLong();
+            contents.sequence = buffer.getLong();
+            contents.baseVersion = buffer.getLong();
+
+            String[] strings = new String[buffer.getInt()];
+            for(int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                strings[i] = new String(bytes, UTF8);
+            }
+
+            //one model instance per name, on the canonical make
+            int modelCount = buffer.getInt();
+            int[] makeNames = ints(buffer, modelCount);
+            int[] modelNames = ints(buffer, modelCount);
+            int[] years = ints(buffer, modelCount);
+            Model[] models = new Model[modelCount];
+            for(int i = 0; i < modelCount; i++) {
+                models[i] = new ShoeModel(SymbolRegistry.getMake(strings[makeNames[i]]), strings[modelNames[i]], years[i]);
+            }
+
+            int bookCount = buffer.getInt();
+            int[] bookModels = ints(buffer, bookCount);
+            int[] restingCounts = ints(buffer, bookCount);
+            int[] listedCounts = ints(buffer, bookCount);
+
+            int orders = buffer.getInt();
+            int[] bidModels = ints(buffer, orders);
+            int[] bidSizes = ints(buffer, orders);
+            long[] bidHigh = longs(buffer, orders);
+            long[] bidLow = longs(buffer, orders);
+            int[] askModels = ints(buffer, orders);
+            int[] askSizes = ints(buffer, orders);
+            byte[] flags = new byte[orders];
+            buffer.get(flags);
+
+            int askUserCount = buffer.getInt();
+            long[] askHigh = longs(buffer, askUserCount);
+            long[] askLow = longs(buffer, askUserCount);
+
+            int orderIdCount = buffer.getInt();
+            long[] orderHigh = longs(buffer, orderIdCount);
+            long[] orderLow = longs(buffer, orderIdCount);
+
+            long[] goodTills = longs(buffer, buffer.getInt());
+
+            int[] listedPositions = ints(buffer, buffer.getInt());
+
+            contents.models = new ArrayList<Model>(bookCount);
+            contents.resting = new ArrayList<List<Swap>>(bookCount);
+            contents.listed = new ArrayList<List<Swap>>(bookCount);
+            int order = 0;
+            int askUser = 0;
+            int orderId = 0;
+            int goodTill = 0;
+            int listedOrder = 0;
+            for(int b = 0; b < bookCount; b++) {
+                List<Swap> resting = new ArrayList<Swap>(restingCounts[b]);
+                for(int i = 0; i < restingCounts[b]; i++, order++) {
+                    UUID user = new UUID(bidHigh[order], bidLow[order]);
+                    ShoeSwap bid = new ShoeSwap(models[bidModels[order]], bidSizes[order], user,
+                            (flags[order] & BID_FOR_SALE) != 0);
+                    if((flags[order] & ORDER_ID) != 0) {
+                        bid.setOrderId(new UUID(orderHigh[orderId], orderLow[orderId]));
+                        orderId++;
+                    }
+                    if((flags[order] & GOOD_TILL) != 0) {
+                        bid.setGoodTill(goodTills[goodTill]);
+                        goodTill++;
+                    }
+                    if(askModels[order] != -1) {
+                        UUID askUserId = user;
+                        if((flags[order] & ASK_USER) != 0) {
+                            askUserId = new UUID(askHigh[askUser], askLow[askUser]);
+                            askUser++;
+                        }
+                        ShoeSwap ask = new ShoeSwap(models[askModels[order]], askSizes[order], askUserId,
+                                (flags[order] & ASK_FOR_SALE) != 0);
+                        bid.setPair(ask);
+                        ask.setPair(bid);
+                    }
+                    resting.add(bid);
+                }
+
+                List<Swap> listed = new ArrayList<Swap>(listedCounts[b]);
+                for(int i = 0; i < listedCounts[b]; i++, listedOrder++) {
+                    listed.add(resting.get(listedPositions[listedOrder]));
+                }
+
+                contents.models.add(models[bookModels[b]]);
+                contents.resting.add(resting);
+                contents.listed.add(listed);
+            }
+            return contents;
+        }
+        catch (RuntimeException e) {
+            throw new IOException("Corrupt book snapshot " + source, e);
+        }
+    }
+
+    /**
+     * books and header of a snapshot file, in book order
+     */
+    static class Contents {
+        //model, resting bids and listed bids of every book
+        List<Model> models = new ArrayList<Model>();
+        List<List<Swap>> resting = new ArrayList<List<Swap>>();
+        List<List<Swap>> listed = new ArrayList<List<Swap>>();
+
+        //header of the file, see the layout
+        long createTime = 0;
+        long bookVersion = -1;
+        long sequence = -1;
+        long baseVersion = -1;
+    }
+
+    /**
+     * adds a model and its names to the dictionaries if they are not in them yet
+     */
+    private static void index(Model model, Map<Model, Integer> models, List<Model> modelList,
+                              Map<String, Integer> strings, List<String> stringList) {
+        if(model == null || model.getMake() == null || model.getName() == null || model.getMake().getName() == null) {
+            throw new IllegalArgumentException("Cannot write swap without a make and model");
+        }
+        if(!models.containsKey(model)) {
+            models.put(model, modelList.size());
+            modelList.add(model);
+            for(String name : new String[] {model.getMake().getName(), model.getName()}) {
+                if(!strings.containsKey(name)) {
+                    strings.put(name, stringList.size());
+                    stringList.add(name);
+                }
+            }
+        }
+    }
+
+    /**
+     * the swap passed in as a ShoeSwap
+     */
+    private static ShoeSwap shoe(Swap swap) {
+        if(!(swap instanceof ShoeSwap)) {
+            throw new IllegalArgumentException("Cannot write swap of type " + swap.getClass().getName());
+        }
+        return (ShoeSwap) swap;
+    }
+
+    /**
+     * reads a column of ints with one bulk get
+     */
+    private static int[] ints(ByteBuffer buffer, int count) {
+        int[] column = new int[count];
+        buffer.asIntBuffer().get(column);
+        buffer.position(buffer.position() + count * 4);
+        return column;
+    }
+
+    /**
+     * reads a column of longs with one bulk get
+     */
+    private static long[] longs(ByteBuffer buffer, int count) {
+        long[] column = new long[count];
+        buffer.asLongBuffer().get(column);
+        buffer.position(buffer.position() + count * 8);
+        return column;
+    }
+}
@@ -0,0 +1,209 @@
+package apollo.trade.swap.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+
+import apollo.trade.swap.manager.Checkpoint;
+
+/**
+ * Writes the checkpoints of a core to their BookSnapshotFile, each on its own background thread and one after the
+ * other in the order they were taken. Keeps the chain of deltas of a checkpoint file: once a full checkpoint is in the
+ * file the checkpoints after it can be deltas, written to the delta files next to it and compacted into it once there
+ * are enough of them. A file is written next to its target and moved over it once complete, so a crash during the
+ * write leaves the last checkpoint in place. A write that fails breaks the chain and the next checkpoint is a full one.
+ *
+ * The core freezes the books and calls isDelta, write and delete with its books locked, so the chain always matches the
+ * order the books were frozen in
+ */
+public class CheckpointWriter {
+
+    /**
+     * Books of the core the checkpoints are taken from
+     */
+    public interface Books {
+
+        /**
+         * runs a task with every writer to the books held still, the way the core takes a checkpoint
+         * @param task
+         *      task to run
+         */
+        void hold(Runnable task);
+    }
+
+    //deltas written before they are compacted into the checkpoint file. 0 or less for full checkpoints only
+    private final int deltas;
+
+    //creates the writer threads. null for plain named threads
+    private final ThreadFactory threadFactory;
+
+    //name of the writer threads when there is no thread factory
+    private final String name;
+
+    //books the checkpoints are taken from
+    private final Books books;
+
+    //file of the full checkpoint the deltas are based on and amount of deltas written since. -1 until there is one
+    private File base = null;
+    private int written = -1;
+
+    //last checkpoint being written, the next one is written after it
+    private CompletableFuture<Checkpoint> last = null;
+
+    /**
+     * creates a writer
+     * @param deltas
+     *      deltas written before they are compacted into the checkpoint file. 0 or less for full checkpoints only
+     * @param threadFactory
+     *      factory for the writer threads. plain threads named after the name passed in if null
+     * @param name
+     *      name of the writer threads when there is no thread factory
+     * @param books
+     *      books the checkpoints are taken from. held still when a failed write breaks the chain
+     */
+    public CheckpointWriter(int deltas, ThreadFactory threadFactory, String name, Books books) {
+        this.deltas = deltas;
+        this.threadFactory = threadFactory;
+        this.name = name;
+        this.books = books;
+    }
+
+    /**
+     * whether the next checkpoint to the file passed in can be a delta. Called with the books locked, right before
+     * they are frozen
+     * @param file
+     *      checkpoint file
+     * @return
+     *      true if the file holds a full checkpoint this writer wrote and the chain of deltas after it is unbroken
+     */
+    public boolean isDelta(File file) {
+        return deltas > 0 && written >= 0 && file.equals(base);
+    }
+
+    /**
+     * deletes a checkpoint file and its deltas and starts a new chain. Called with the books locked
+     * @param file
+     *      checkpoint file. nothing is deleted if null
+     */
+    public void delete(File file) {
+        if(file != null) {
+            deleteDeltas(file);
+            if(file.isFile() && !file.delete()) {
+                System.out.println("WARNING: Could not delete checkpoint " + file);
+            }
+        }
+        written = -1;
+    }
+
+    /**
+     * writes a checkpoint to the file passed in on a background thread, once the checkpoint before it is written.
+     * Called with the books locked, right after they were frozen. A delta goes to the next delta file of the file, the
+     * last delta before a compaction is compacted into the file with the deltas before it
+     * @param file
+     *      checkpoint file
+     * @param checkpoint
+     *      the frozen books
+     * @return
+     *      future completed with the checkpoint once it is on disk
+     */
+    public CompletableFuture<Checkpoint> write(final File file, final Checkpoint checkpoint) {
+        final CompletableFuture<Checkpoint> future = new CompletableFuture<Checkpoint>();
+        final CompletableFuture<Checkpoint> previous = last;
+        final File target;
+        final boolean compact;
+
+        if(checkpoint.isDelta()) {
+            written++;
+            target = SnapshotCompactor.getDeltaFile(file, written);
+            compact = written >= deltas;
+            if(compact) {
+                written = 0;
+            }
+        }
+        else {
+            base = file;
+            written = 0;
+            target = file;
+            compact = false;
+        }
+        last = future;
+
+        Runnable writer = new Runnable() {
+            public void run() {
+                //a delta can only follow the checkpoint it is based on
+                if(previous != null) {
+                    try {
+                        previous.join();
+                    }
+                    catch (RuntimeException e) {
+                        //already reported by its writer
+                    }
+                }
+
+                File partial = new File(target.getPath() + ".partial");
+                try {
+                    BookSnapshotFile.write(checkpoint, partial);
+                    if(!checkpoint.isDelta()) {
+                        deleteDeltas(file);
+                    }
+                    move(partial, target);
+
+                    if(compact) {
+                        List<File> deltas = SnapshotCompactor.getDeltas(file);
+                        partial = new File(file.getPath() + ".partial");
+                        SnapshotCompactor.compact(file, deltas, partial);
+                        move(partial, file);
+                        deleteDeltas(file);
+                    }
+                    future.complete(checkpoint);
+                }
+                catch (IOException e) {
+                    e.printStackTrace();
+                    System.out.println("WARNING: Could not write checkpoint " + target);
+                    partial.delete();
+
+                    //the chain of deltas is broken, the next checkpoint starts a new one
+                    books.hold(new Runnable() {
+                        public void run() {
+                            written = -1;
+                        }
+                    });
+                    future.completeExceptionally(e);
+                }
+            }
+        };
+        Thread thread = threadFactory != null ? threadFactory.newThread(writer) : new Thread(writer, name);
+        thread.start();
+        return future;
+    }
+
+    /**
+     * moves a completely written checkpoint file over the file it replaces
+     * @param partial
+     *      the written file
+     * @param file
+     *      file it replaces
+     * @throws IOException
+     *      if the file could not be moved
+     */
+    private static void move(File partial, File file) throws IOException {
+        Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * deletes the delta checkpoints of the checkpoint file passed in
+     * @param file
+     *      checkpoint file
+     */
+    private static void deleteDeltas(File file) {
+        for(File delta : SnapshotCompactor.getDeltas(file)) {
+            if(!delta.delete()) {
+                System.out.println("WARNING: Could not delete checkpoint delta " + delta);
+            }
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package apollo.trade.swap.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import apollo.common.engine.Message;
+import apollo.common.engine.MessageCodec;
+
+/**
+ * Capture of the messages a core accepted, in the order they were accepted, so production traffic can be replayed
+ * against a fresh MessageManager. Unlike the journal every type is captured, goals included, and nothing is ever
+ * cleared. Records are buffered and only reach the file when the buffer fills, on flush and on close
+ *
+ * File layout: magic (int), version (int), then one MessageCodec record per message
+ */
+public class MessageCapture {
+
+    //first bytes of every capture file
+    public static final int MAGIC = 0x41504350;
+    public static final int VERSION = 1;
+
+    //size of the write buffer
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    //file being written
+    private final File file;
+    private DataOutputStream out = null;
+
+    //messages captured so far
+    private long count = 0;
+
+    /**
+     * creates the capture file passed in, replacing one that is already there
+     * @param file
+     *      capture file
+     * @throws IOException
+     *      if the file could not be created
+     */
+    public MessageCapture(File file) throws IOException {
+        this.file = file;
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    /**
+     * creates the capture file passed in like the constructor, for a core that keeps running without a capture when
+     * it cannot be created
+     * @param file
+     *      capture file. null for no capture
+     * @return
+     *      the capture. null if there is no file or it could not be created
+     */
+    public static MessageCapture open(File file) {
+        if(file == null) {
+            return null;
+        }
+        try {
+            return new MessageCapture(file);
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("WARNING: Could not create capture file " + file + ". Running without capture");
+            return null;
+        }
+    }
+
+    /**
+     * encodes a message for record. A core encodes a message before it is queued, once a shard starts matching it
+     * the swaps pick up match ids the capture must not have
+     * @param message
+     *      message to encode
+     * @return
+     *      the encoded message. null for null and kill core messages, which are not captured
+     */
+    public static byte[] encode(Message message) {
+        if(message == null || message.getType() == Message.KILL_CORE) {
+            return null;
+        }
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            MessageCodec.write(new DataOutputStream(bytes), message);
+            return bytes.toByteArray();
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("WARNING: Could not encode message " + message.getId() + " for capture");
+            return null;
+        }
+    }
+
+    /**
+     * captures a message that has not been queued yet
+     * @param message
+     *      message the core accepted
+     * @return
+     *      true if the message was captured
+     */
+    public boolean record(Message message) {
+        return record(encode(message));
+    }
+
+    /**
+     * captures a message encoded by encode
+     * @param record
+     *      the encoded message. null is skipped
+     * @return
+     *      true if the message was captured
+     */
+    public synchronized boolean record(byte[] record) {
+        if(out == null || record == null) {
+            return false;
+        }
+
+        try {
+            out.write(record);
+            count++;
+            return true;
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("WARNING: Could not write capture record. Capture to " + file + " stopped");
+            close();
+            return false;
+        }
+    }
+
+    /**
+     * captures a batch of encoded messages with one lock, so the batch stays together in the capture
+     * @param records
+     *      the encoded messages. nulls are skipped
+     * @return
+     *      amount of messages captured
+     */
+    public synchronized int record(List<byte[]> records) {
+        int recorded = 0;
+        for(byte[] record : records) {
+            if(record(record)) {
+                recorded++;
+            }
+        }
+        return recorded;
+    }
+
+    /**
+     * writes the buffered records to the file
+     */
+    public synchronized void flush() {
+        if(out != null) {
+            try {
+                out.flush();
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * writes the buffered records and closes the file. Later records are dropped
+     */
+    public synchronized void close() {
+        if(out != null) {
+            try {
+                out.close();
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * amount of messages captured
+     * @return
+     *      the message count
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * reads every message of a capture file. A record cut short by a crash ends the capture
+     * @param file
+     *      capture file
+     * @return
+     *      the captured messages in the order they were accepted
+     * @throws IOException
+     *      if the file could not be read or is not a capture
+     */
+    public static List<Message> read(File file) throws IOException {
+        List<Message> messages = new ArrayList<Message>();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        try {
+            if(in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a message capture");
+            }
+            int version = in.readInt();
+            if(version != VERSION) {
+                throw new IOException("Unknown capture version " + version);
+            }
+
+            while(true) {
+                try {
+                    messages.add(MessageCodec.read(in));
+                }
+                catch (EOFException e) {
+                    break;
+                }
+            }
+        }
+        finally {
+            in.close();
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,444 @@
+package apollo.trade.swap.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import apollo.common.engine.Message;
+import apollo.common.engine.MessageCodec;
+import apollo.trade.swap.manager.MessageManager;
+
+/**
+ * Write-ahead journal of the messages that change the books. Messages are appended to memory mapped segment files
+ * before they are matched, so a crashed JVM leaves every accepted message in the page cache and a new core can rebuild
+ * its books by replaying the journal. Goals and kill core messages never change the books and are not journaled.
+ *
+ * Each segment is a fixed size file named after the sequence of its first record. Once a record does not fit the
+ * journal rolls over to a new segment. A record is written payload first and length last, so a record torn by a crash
+ * reads as the end of its segment.
+ *
+ * Record layout: length (int), sequence (long), CRC32 of the payload (int), payload (MessageCodec)
+ */
+public class MessageJournal {
+
+    //default size of a segment file
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    //bytes in front of every payload: length, sequence and checksum
+    private static final int HEADER = 16;
+
+    //segment file names are the prefix, the zero padded first sequence and the suffix
+    private static final String PREFIX = "journal-";
+    private static final String SUFFIX = ".seg";
+
+    //directory the segments live in
+    private final File directory;
+
+    //size of a new segment
+    private final int segmentSize;
+
+    //true if every append is forced to disk before it returns
+    private final boolean sync;
+
+    //file and mapping of the segment being written
+    private RandomAccessFile file = null;
+    private MappedByteBuffer segment = null;
+
+    //sequence of the next record
+    private long sequence = 0;
+
+    //reused encoding buffer and checksum
+    private final Buffer bytes = new Buffer();
+    private final DataOutputStream out = new DataOutputStream(bytes);
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * opens the journal in the directory passed in with the default segment size, creating the directory if needed.
+     * Appends go after the last complete record already in the journal
+     * @param directory
+     *      directory of the segment files
+     * @throws IOException
+     *      if the journal could not be opened
+     */
+    public MessageJournal(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, false);
+    }
+
+    /**
+     * opens the journal in the directory passed in, creating the directory if needed. Appends go after the last
+     * complete record already in the journal
+     * @param directory
+     *      directory of the segment files
+     * @param segmentSize
+     *      size of a new segment file in bytes
+     * @param sync
+     *      true to force every append to disk. Without it the operating system writes the pages back, which survives
+     *      a crashed JVM but not a crashed machine
+     * @throws IOException
+     *      if the journal could not be opened
+     */
+    public MessageJournal(File directory, int segmentSize, boolean sync) throws IOException {
+        this.directory = directory;
+        this.segmentSize = Math.max(HEADER * 2, segmentSize);
+        this.sync = sync;
+
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create journal directory " + directory);
+        }
+
+        //pick up where the last segment ends
+        File[] segments = segments();
+        if(segments.length > 0) {
+            open(segments[segments.length - 1]);
+            sequence = scan(segment, null, null, 0);
+            if(sequence == 0) {
+                sequence = firstSequence(segments[segments.length - 1]);
+            }
+            zeroTail();
+        }
+    }
+
+    /**
+     * opens the journal in the directory passed in like the constructor, for a core that keeps running without a
+     * journal when it cannot be opened
+     * @param directory
+     *      directory of the segment files. null for no journal
+     * @param segmentSize
+     *      size of a new segment file in bytes
+     * @param sync
+     *      true to force every append to disk
+     * @return
+     *      the journal. null if there is no directory or the journal could not be opened
+     */
+    public static MessageJournal open(File directory, int segmentSize, boolean sync) {
+        if(directory == null) {
+            return null;
+        }
+        try {
+            return new MessageJournal(directory, segmentSize, sync);
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("WARNING: Could not open journal in " + directory + ". Running without a journal");
+            return null;
+        }
+    }
+
+    /**
+     * zeroes the segment from the write position to its end. A record torn by a crash can leave payload bytes behind
+     * that would otherwise be read as the length of the record written over them
+     */
+    private void zeroTail() {
+        int position = segment.position();
+        byte[] zeros = new byte[64 * 1024];
+        while(segment.remaining() > 0) {
+            segment.put(zeros, 0, Math.min(zeros.length, segment.remaining()));
+        }
+        segment.position(position);
+    }
+
+    /**
+     * appends a message to the journal. Messages that do not change the books are skipped
+     * @param message
+     *      message to append
+     * @return
+     *      sequence of the record. -1 if the message was skipped or could not be written
+     */
+    public synchronized long append(Message message) {
+        long written = write(message);
+        if(sync && written != -1) {
+            segment.force();
+        }
+        return written;
+    }
+
+    /**
+     * appends a batch of messages to the journal, stopping at the first kill core message. Messages that do not change
+     * the books are skipped. With sync on the batch is forced to disk once
+     * @param messages
+     *      messages to append
+     * @return
+     *      amount of records written
+     */
+    public synchronized int append(List<Message> messages) {
+        int written = 0;
+        for(Message message : messages) {
+            if(message.getType() == Message.KILL_CORE) {
+                break;
+            }
+            if(write(message) != -1) {
+                written++;
+            }
+        }
+        if(sync && written > 0) {
+            segment.force();
+        }
+        return written;
+    }
+
+    /**
+     * encodes and writes one message. caller holds the journal's monitor
+     * @param message
+     *      message to write
+     * @return
+     *      sequence of the record. -1 if the message was skipped or could not be written
+     */
+    private long write(Message message) {
+        if(message == null || (message.getType() != Message.SWAP && message.getType() != Message.GRAB
+                && message.getType() != Message.CANCEL && message.getType() != Message.AMEND
+                && message.getType() != Message.EXPIRE)) {
+            return -1;
+        }
+
+        try {
+            bytes.reset();
+            MessageCodec.write(out, message);
+            int length = bytes.size();
+
+            if(segment == null || segment.remaining() < HEADER + length) {
+                roll(HEADER + length);
+            }
+
+            crc.reset();
+            crc.update(bytes.array(), 0, length);
+
+            //payload and header first, length last so a torn record reads as the end of the segment
+            int position = segment.position();
+            segment.position(position + HEADER);
+            segment.put(bytes.array(), 0, length);
+            segment.putLong(position + 4, sequence);
+            segment.putInt(position + 12, (int) crc.getValue());
+            segment.putInt(position, length);
+            return sequence++;
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("WARNING: Could not journal message " + message.getId());
+            return -1;
+        }
+    }
+
+    /**
+     * rebuilds the books of the manager passed in by processing every record in the journal in sequence order
+     * @param manager
+     *      manager whose books are rebuilt. should be empty
+     * @return
+     *      amount of messages replayed
+     */
+    public synchronized long replay(MessageManager manager) {
+        return replay(manager, 0);
+    }
+
+    /**
+     * rebuilds the books of the manager passed in by processing the records from the sequence passed in onwards. Used
+     * to bring the books of a checkpoint up to date, segments that end before the sequence are not read
+     * @param manager
+     *      manager whose books are rebuilt. should hold the books as they were at the sequence
+     * @param from
+     *      sequence of the first record to process
+     * @return
+     *      amount of messages replayed
+     */
+    public synchronized long replay(MessageManager manager, long from) {
+        long replayed = 0;
+        File[] segments = segments();
+        for(int i = 0; i < segments.length; i++) {
+            File path = segments[i];
+            if(i + 1 < segments.length && firstSequence(segments[i + 1]) <= from) {
+                continue;
+            }
+            try {
+                RandomAccessFile segmentFile = new RandomAccessFile(path, "r");
+                try {
+                    MappedByteBuffer buffer = segmentFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                            segmentFile.length());
+                    long[] count = new long[1];
+                    scan(buffer, manager, count, from);
+                    replayed += count[0];
+                }
+                finally {
+                    segmentFile.close();
+                }
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+                System.out.println("WARNING: Could not replay journal segment " + path);
+            }
+        }
+        return replayed;
+    }
+
+    /**
+     * walks the complete records of a segment, leaving the buffer positioned after the last one. If a manager is passed
+     * in every record is processed by it
+     * @param buffer
+     *      mapped segment
+     * @param manager
+     *      manager to process the records with. null to only find the end
+     * @param count
+     *      incremented for every record processed. may be null
+     * @param from
+     *      records before this sequence are walked over but not processed
+     * @return
+     *      sequence after the last complete record. 0 if the segment has none
+     */
+    private long scan(MappedByteBuffer buffer, MessageManager manager, long[] count, long from) {
+        long next = 0;
+        int position = 0;
+        byte[] payload = new byte[256];
+
+        while(position + HEADER <= buffer.limit()) {
+            int length = buffer.getInt(position);
+            if(length <= 0 || position + HEADER + length > buffer.limit()) {
+                break;
+            }
+
+            if(payload.length < length) {
+                payload = new byte[length];
+            }
+            buffer.position(position + HEADER);
+            buffer.get(payload, 0, length);
+            crc.reset();
+            crc.update(payload, 0, length);
+            if((int) crc.getValue() != buffer.getInt(position + 12)) {
+                System.out.println("WARNING: Torn journal record at sequence " + buffer.getLong(position + 4));
+                break;
+            }
+
+            if(manager != null && buffer.getLong(position + 4) >= from) {
+                try {
+                    Message message = MessageCodec.read(new DataInputStream(new ByteArrayInputStream(payload, 0,
+                            length)));
+                    manager.processMessage(message);
+                    count[0]++;
+                }
+                catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            next = buffer.getLong(position + 4) + 1;
+            position += HEADER + length;
+        }
+
+        buffer.position(position);
+        return next;
+    }
+
+    /**
+     * removes every segment. used when the books are flushed, the sequence keeps counting
+     */
+    public synchronized void clear() {
+        close();
+        for(File path : segments()) {
+            if(!path.delete()) {
+                System.out.println("WARNING: Could not delete journal segment " + path);
+            }
+        }
+    }
+
+    /**
+     * closes the segment being written. The next append opens a new segment
+     */
+    public synchronized void close() {
+        if(file != null) {
+            try {
+                if(sync) {
+                    segment.force();
+                }
+                file.close();
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+            file = null;
+            segment = null;
+        }
+    }
+
+    /**
+     * sequence the next record will get
+     * @return
+     *      the next sequence
+     */
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * closes the current segment and starts a new one named after the next sequence
+     * @param needed
+     *      bytes the next record needs. a segment is never smaller than that
+     * @throws IOException
+     *      if the new segment could not be created
+     */
+    private void roll(int needed) throws IOException {
+        close();
+        File path = new File(directory, String.format("%s%020d%s", PREFIX, sequence, SUFFIX));
+        RandomAccessFile created = new RandomAccessFile(path, "rw");
+        created.setLength(Math.max(segmentSize, needed));
+        created.close();
+        open(path);
+    }
+
+    /**
+     * maps the segment passed in for writing
+     * @param path
+     *      segment file
+     * @throws IOException
+     *      if the segment could not be mapped
+     */
+    private void open(File path) throws IOException {
+        file = new RandomAccessFile(path, "rw");
+        segment = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+    }
+
+    /**
+     * every segment file in the directory, oldest first
+     * @return
+     *      the segment files
+     */
+    private File[] segments() {
+        File[] segments = directory.listFiles(new FileFilter() {
+            public boolean accept(File path) {
+                return path.isFile() && path.getName().startsWith(PREFIX) && path.getName().endsWith(SUFFIX);
+            }
+        });
+        if(segments == null) {
+            return new File[0];
+        }
+        //names are zero padded so name order is sequence order
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    /**
+     * sequence of the first record of a segment, taken from its name
+     * @param path
+     *      segment file
+     * @return
+     *      the first sequence
+     */
+    private long firstSequence(File path) {
+        String name = path.getName();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    /**
+     * byte array output stream that hands out its buffer instead of a copy
+     */
+    private static class Buffer extends ByteArrayOutputStream {
+        private byte[] array() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package apollo.trade.swap.store;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import apollo.common.engine.BookSnapshot;
+import apollo.common.templates.Model;
+
+/**
+ * Merges a full snapshot file and the delta files written after it. Each delta replaces the books it has and empties
+ * the ones it has without resting bids, so the base plus its deltas load as the books at the last delta. Deltas live
+ * next to their base, named after it with a .delta suffix and their index. A delta whose base version is not the book
+ * version of the file before it does not belong to the chain, it and everything after it is ignored
+ */
+public class SnapshotCompactor {
+
+    //suffix of the delta files before their index
+    private static final String DELTA = ".delta";
+
+    /**
+     * default constructor
+     */
+    private SnapshotCompactor() {
+
+    }
+
+    /**
+     * file of the delta with the index passed in
+     * @param base
+     *      full snapshot file the delta is based on
+     * @param index
+     *      index of the delta, starting at 1
+     * @return
+     *      the delta file
+     */
+    public static File getDeltaFile(File base, int index) {
+        return new File(base.getPath() + String.format("%s%06d", DELTA, index));
+    }
+
+    /**
+     * delta files next to the base passed in, in index order
+     * @param base
+     *      full snapshot file
+     * @return
+     *      the delta files. Empty if there are none
+     */
+    public static List<File> getDeltas(final File base) {
+        File directory = base.getAbsoluteFile().getParentFile();
+        final String prefix = base.getName() + DELTA;
+        File[] deltas = directory != null ? directory.listFiles(new FileFilter() {
+            public boolean accept(File path) {
+                return path.isFile() && path.getName().startsWith(prefix)
+                        && path.getName().substring(prefix.length()).matches("[0-9]+");
+            }
+        }) : null;
+
+        if(deltas == null) {
+            return new ArrayList<File>();
+        }
+        Arrays.sort(deltas, new Comparator<File>() {
+            public int compare(File a, File b) {
+                return a.getName().compareTo(b.getName());
+            }
+        });
+        return new ArrayList<File>(Arrays.asList(deltas));
+    }
+
+    /**
+     * loads the base and its deltas as one snapshot
+     * @param base
+     *      full snapshot file
+     * @param deltas
+     *      delta files in the order they were written
+     * @return
+     *      the books at the last delta of the chain
+     * @throws IOException
+     *      if a file could not be read or the base is not a full snapshot
+     */
+    public static BookSnapshot load(File base, List<File> deltas) throws IOException {
+        return BookSnapshotFile.toSnapshot(merge(base, deltas));
+    }
+
+    /**
+     * sequence of the first journal record that is not part of the base and its deltas. Only the headers are read
+     * @param base
+     *      full snapshot file
+     * @param deltas
+     *      delta files in the order they were written
+     * @return
+     *      the journal sequence of the last delta of the chain. -1 if there is no journal
+     * @throws IOException
+     *      if a file could not be read or the base is not a full snapshot
+     */
+    public static long getSequence(File base, List<File> deltas) throws IOException {
+        BookSnapshotFile.Contents last = BookSnapshotFile.header(base);
+        if(last.baseVersion != -1) {
+            throw new IOException(base + " is a delta snapshot");
+        }
+        for(File delta : deltas) {
+            BookSnapshotFile.Contents header = BookSnapshotFile.header(delta);
+            if(header.baseVersion != last.bookVersion) {
+                break;
+            }
+            last = header;
+        }
+        return last.sequence;
+    }
+
+    /**
+     * merges the base and its deltas into one full snapshot file
+     * @param base
+     *      full snapshot file
+     * @param deltas
+     *      delta files in the order they were written
+     * @param file
+     *      file to write, may be the base itself
+     * @return
+     *      amount of resting orders written
+     * @throws IOException
+     *      if a file could not be read or written
+     */
+    public static long compact(File base, List<File> deltas, File file) throws IOException {
+        return BookSnapshotFile.write(merge(base, deltas), file);
+    }
+
+    /**
+     * merges the books of the base and its deltas. Books keep the position they first had, books emptied by a delta
+     * are dropped
+     * @param base
+     *      full snapshot file
+     * @param deltas
+     *      delta files in the order they were written
+     * @return
+     *      the merged books with the header of the last delta of the chain
+     * @throws IOException
+     *      if a file could not be read or the base is not a full snapshot
+     */
+    static BookSnapshotFile.Contents merge(File base, List<File> deltas) throws IOException {
+        BookSnapshotFile.Contents merged = BookSnapshotFile.readContents(base);
+        if(merged.baseVersion != -1) {
+            throw new IOException(base + " is a delta snapshot");
+        }
+
+        Map<Model, Integer> books = new HashMap<Model, Integer>();
+        for(int b = 0; b < merged.models.size(); b++) {
+            books.put(merged.models.get(b), b);
+        }
+
+        for(File file : deltas) {
+            BookSnapshotFile.Contents delta = BookSnapshotFile.readContents(file);
+            if(delta.baseVersion != merged.bookVersion) {
+                System.out.println("WARNING: Delta " + file + " is not based on version " + merged.bookVersion
+                        + ". Ignoring it and every delta after it");
+                break;
+            }
+
+            for(int b = 0; b < delta.models.size(); b++) {
+                Model model = delta.models.get(b);
+                Integer position = books.get(model);
+                if(position == null) {
+                    books.put(model, merged.models.size());
+                    merged.models.add(model);
+                    merged.resting.add(delta.resting.get(b));
+                    merged.listed.add(delta.listed.get(b));
+                }
+                else {
+                    merged.resting.set(position, delta.resting.get(b));
+                    merged.listed.set(position, delta.listed.get(b));
+                }
+            }
+            merged.createTime = delta.createTime;
+            merged.bookVersion = delta.bookVersion;
+            merged.sequence = delta.sequence;
+        }
+
+        //emptied books are left with no resting bids and are dropped when written or loaded
+        merged.baseVersion = -1;
+        return merged;
+    }
+}
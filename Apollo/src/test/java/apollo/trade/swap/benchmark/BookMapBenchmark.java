@@ -0,0 +1,136 @@
+package apollo.trade.swap.benchmark;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.UUID;
+
+import org.junit.Test;
+
+import apollo.common.shoe.ShoeMake;
+import apollo.common.shoe.ShoeModel;
+import apollo.common.shoe.ShoeSwap;
+import apollo.common.shoe.ShoeSwapMapper;
+import apollo.common.templates.BookMap;
+import apollo.common.templates.FlatBookMap;
+import apollo.common.templates.Make;
+import apollo.common.templates.Model;
+
+/**
+ * Benchmark of the nested BookMap against the flat book map with one packed key per level.
+ * Run with: mvn test -Dtest=BookMapBenchmark
+ */
+public class BookMapBenchmark {
+    //models and sizes the levels are spread over
+    private final int models = 500;
+    private final int sizes = 14;
+
+    //swaps resting in the map and lookups timed
+    private final int resting = 200000;
+    private final int lookups = 2000000;
+
+    /**
+     * Benchmark: fills both maps with the same swaps, then times lookups, fills and removes with swaps built the way
+     * decoded messages are, each with its own model instance
+     */
+    @Test
+    public void lookup() {
+        System.out.println("Starting benchmark: " + lookups + " lookups over " + resting + " swaps on "
+                + (models * sizes) + " key levels");
+
+        Make make = new ShoeMake("BENCH");
+        ShoeSwap[] keys = new ShoeSwap[resting];
+        ShoeSwap[] values = new ShoeSwap[resting];
+        for(int i = 0; i < resting; i++) {
+            UUID uId = UUID.randomUUID();
+            keys[i] = shoe(make, i, uId);
+            values[i] = shoe(make, i + 7, uId);
+        }
+        //a missing level and a resting level for every probe
+        ShoeSwap[] probes = new ShoeSwap[4 * 4096];
+        for(int i = 0; i < 4096; i++) {
+            UUID uId = UUID.randomUUID();
+            probes[4 * i] = shoe(make, i * 31, uId);
+            probes[4 * i + 1] = shoe(make, i * 31 + 8, uId);
+            probes[4 * i + 2] = shoe(make, i * 31, uId);
+            probes[4 * i + 3] = shoe(make, i * 31 + 7, uId);
+        }
+
+        for(int round = 0; round < 3; round++) {
+            BookMap<ShoeSwapMapper, ShoeSwap> nested = new BookMap<ShoeSwapMapper, ShoeSwap>();
+            long start = System.nanoTime();
+            for(int i = 0; i < resting; i++) {
+                nested.put(keys[i], values[i]);
+            }
+            long nestedPut = System.nanoTime() - start;
+
+            FlatBookMap<ShoeSwapMapper, ShoeSwap> flat = new FlatBookMap<ShoeSwapMapper, ShoeSwap>();
+            start = System.nanoTime();
+            for(int i = 0; i < resting; i++) {
+                flat.put(keys[i], values[i]);
+            }
+            long flatPut = System.nanoTime() - start;
+
+            //a hit also pays for the match id of the swap at the head of the level, a miss is only the lookup
+            long[] nestedCheck = new long[2];
+            long[] flatCheck = new long[2];
+            for(int hit = 0; hit < 2; hit++) {
+                int nestedFound = 0;
+                start = System.nanoTime();
+                for(int i = 0; i < lookups; i++) {
+                    int probe = (i & 4095) * 4 + hit * 2;
+                    if(nested.check(probes[probe], probes[probe + 1]) != null) {
+                        nestedFound++;
+                    }
+                }
+                nestedCheck[hit] = System.nanoTime() - start;
+
+                int flatFound = 0;
+                start = System.nanoTime();
+                for(int i = 0; i < lookups; i++) {
+                    int probe = (i & 4095) * 4 + hit * 2;
+                    if(flat.check(probes[probe], probes[probe + 1]) != null) {
+                        flatFound++;
+                    }
+                }
+                flatCheck[hit] = System.nanoTime() - start;
+                assertEquals(nestedFound, flatFound);
+                assertEquals(hit == 1 ? lookups : 0, flatFound);
+            }
+
+            start = System.nanoTime();
+            for(int i = 0; i < resting; i++) {
+                nested.remove(keys[i], values[i]);
+            }
+            long nestedRemove = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for(int i = 0; i < resting; i++) {
+                flat.remove(keys[i], values[i]);
+            }
+            long flatRemove = System.nanoTime() - start;
+            assertEquals(0, flat.values().size());
+
+            System.out.println("round " + round + ": put " + (nestedPut / resting) + "ns nested, " + (flatPut / resting)
+                    + "ns flat. check miss " + (nestedCheck[0] / lookups) + "ns nested, " + (flatCheck[0] / lookups)
+                    + "ns flat. check hit " + (nestedCheck[1] / lookups) + "ns nested, " + (flatCheck[1] / lookups)
+                    + "ns flat. remove " + (nestedRemove / resting) + "ns nested, " + (flatRemove / resting)
+                    + "ns flat");
+        }
+    }
+
+    /**
+     * builds a shoe with its own model instance, like a decoded message has
+     * @param make
+     *      make of the model
+     * @param i
+     *      picks the model and size
+     * @param uId
+     *      owner of the shoe
+     * @return
+     *      the shoe
+     */
+    private ShoeSwap shoe(Make make, int i, UUID uId) {
+        Model model = new ShoeModel(make, "MODEL-" + (i % models));
+        return new ShoeSwap(model, 1 + (i / models) % sizes, uId);
+    }
+}
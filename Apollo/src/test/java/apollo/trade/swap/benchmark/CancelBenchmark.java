@@ -0,0 +1,118 @@
+package apollo.trade.swap.benchmark;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import apollo.common.engine.Bill;
+import apollo.common.engine.Message;
+import apollo.common.util.TestHelper;
+import apollo.trade.swap.manager.MessageManager;
+
+/**
+ * Benchmark of mixed add and cancel flow on one model and size level holding 10k and then 200k resting orders. Every
+ * add rests a new order on the level and every cancel withdraws a random resting one, so the level stays as deep as it
+ * started. A cancel goes through the order index and the order's handle, it should cost the same at both depths.
+ * Run with: mvn test -Dtest=CancelBenchmark
+ */
+public class CancelBenchmark {
+    //orders resting on the level before the flow starts
+    private final int[] depths = new int[] {10000, 200000};
+
+    //messages in the mixed flow, half adds and half cancels
+    private final int flow = 200000;
+
+    /**
+     * Benchmark: a deep level takes a mixed flow of adds and cancels
+     */
+    @Test
+    public void addCancel() {
+        for(int depth : depths) {
+            level(depth);
+        }
+    }
+
+    /**
+     * runs the benchmark on a level of the depth passed in
+     * @param depth
+     *      orders resting on the level
+     */
+    private void level(int depth) {
+        System.out.println("Starting benchmark: add and cancel on " + depth + " resting orders");
+
+        for(int round = 0; round < 5; round++) {
+            MessageManager manager = new MessageManager();
+            Random random = new Random(round);
+
+            //order ids and owners of the resting orders
+            List<UUID> orderIds = new ArrayList<UUID>(depth + flow);
+            List<UUID> owners = new ArrayList<UUID>(depth + flow);
+            for(int i = 0; i < depth; i++) {
+                UUID uId = UUID.randomUUID();
+                Message message = add(uId);
+                manager.processMessage(message);
+                orderIds.add(message.getId());
+                owners.add(uId);
+            }
+            assertEquals(depth, manager.getOrderCount());
+
+            //the flow is built up front, keeping track of which orders will be resting when each cancel comes in
+            List<Message> messages = new ArrayList<Message>(flow);
+            for(int i = 0; i < flow; i++) {
+                if(i % 2 == 0) {
+                    UUID uId = UUID.randomUUID();
+                    Message message = add(uId);
+                    messages.add(message);
+                    orderIds.add(message.getId());
+                    owners.add(uId);
+                }
+                else {
+                    int index = random.nextInt(orderIds.size());
+                    int last = orderIds.size() - 1;
+                    messages.add(Message.getCancelMessage(orderIds.get(index), TestHelper.getJordan(10, owners.get(index), false)));
+                    orderIds.set(index, orderIds.get(last));
+                    owners.set(index, owners.get(last));
+                    orderIds.remove(last);
+                    owners.remove(last);
+                }
+            }
+
+            long addTime = 0;
+            long cancelTime = 0;
+            long start = System.nanoTime();
+            for(Message message : messages) {
+                long begin = System.nanoTime();
+                Bill bill = manager.processMessage(message);
+                long end = System.nanoTime();
+                if(message.getType() == Message.CANCEL) {
+                    assertEquals(1, bill.size());
+                    cancelTime += end - begin;
+                }
+                else {
+                    addTime += end - begin;
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            assertEquals(depth, manager.getOrderCount());
+
+            System.out.println("round " + round + ": " + (long) (flow * 1000000000.0 / elapsed) + " messages/s. add "
+                    + addTime / (flow / 2) + "ns, cancel " + cancelTime / (flow / 2) + "ns");
+        }
+    }
+
+    /**
+     * an order that rests on the benchmark level without filling
+     * @param uId
+     *      owner of the order
+     * @return
+     *      the SWAP message placing the order
+     */
+    private Message add(UUID uId) {
+        return Message.getMessage(TestHelper.getJordan(10, uId, false), TestHelper.getAirMax(12, uId, false));
+    }
+}
@@ -0,0 +1,133 @@
+package apollo.trade.swap.benchmark;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import apollo.common.shoe.ShoeSwap;
+import apollo.common.shoe.ShoeSwapMapper;
+import apollo.common.templates.BookMap;
+import apollo.common.templates.FlatBookMap;
+import apollo.common.util.TestHelper;
+
+/**
+ * Benchmark of one model and size level holding 1k and then 100k resting swaps of different users: puts, removes from
+ * anywhere in the level and fills from its head, on the nested BookMap and on the flat book map. Each operation should
+ * cost the same at both depths.
+ * Run with: mvn test -Dtest=DeepLevelBenchmark
+ */
+public class DeepLevelBenchmark {
+    //swaps resting on the level
+    private final int[] depths = new int[] {1000, 100000};
+
+    /**
+     * Benchmark: fills one level, removes every other swap in random order, then fills the rest from the head
+     */
+    @Test
+    public void deepLevel() {
+        for(int depth : depths) {
+            level(depth);
+        }
+    }
+
+    /**
+     * runs the benchmark on a level of the depth passed in
+     * @param depth
+     *      swaps resting on the level
+     */
+    private void level(int depth) {
+        System.out.println("Starting benchmark: " + depth + " swaps on one level");
+
+        ShoeSwap[] keys = new ShoeSwap[depth];
+        ShoeSwap[] values = new ShoeSwap[depth];
+        for(int i = 0; i < depth; i++) {
+            UUID uId = UUID.randomUUID();
+            keys[i] = TestHelper.getAirMax(12, uId, false);
+            values[i] = TestHelper.getJordan(10, uId, false);
+        }
+        List<Integer> removals = new ArrayList<Integer>();
+        for(int i = 0; i < depth; i += 2) {
+            removals.add(i);
+        }
+        Collections.shuffle(removals, new Random(3));
+
+        for(int round = 0; round < 5; round++) {
+            BookMap<ShoeSwapMapper, ShoeSwap> nested = new BookMap<ShoeSwapMapper, ShoeSwap>();
+            long[] nestedTimes = run(nested, null, depth, keys, values, removals);
+            FlatBookMap<ShoeSwapMapper, ShoeSwap> flat = new FlatBookMap<ShoeSwapMapper, ShoeSwap>();
+            long[] flatTimes = run(null, flat, depth, keys, values, removals);
+
+            System.out.println("round " + round + ": put " + nestedTimes[0] + "ns nested, " + flatTimes[0]
+                    + "ns flat. remove " + nestedTimes[1] + "ns nested, " + flatTimes[1] + "ns flat. fill "
+                    + nestedTimes[2] + "ns nested, " + flatTimes[2] + "ns flat");
+        }
+    }
+
+    /**
+     * times the puts, removes and fills on one of the maps
+     * @param nested
+     *      the nested map, or null to time the flat one
+     * @param flat
+     *      the flat map if nested is null
+     * @param depth
+     *      swaps resting on the level
+     * @param keys
+     *      keys of the swaps, all on one level
+     * @param values
+     *      swaps put on the level
+     * @param removals
+     *      indexes of the swaps removed, in the order they are removed
+     * @return
+     *      nanoseconds per put, remove and fill
+     */
+    private long[] run(BookMap<ShoeSwapMapper, ShoeSwap> nested, FlatBookMap<ShoeSwapMapper, ShoeSwap> flat,
+                       int depth, ShoeSwap[] keys, ShoeSwap[] values, List<Integer> removals) {
+        long[] times = new long[3];
+
+        long start = System.nanoTime();
+        for(int i = 0; i < depth; i++) {
+            if(nested != null) {
+                nested.put(keys[i], values[i]);
+            }
+            else {
+                flat.put(keys[i], values[i]);
+            }
+        }
+        times[0] = (System.nanoTime() - start) / depth;
+
+        start = System.nanoTime();
+        for(int i : removals) {
+            boolean removed = nested != null ? nested.remove(keys[i], values[i]) : flat.remove(keys[i], values[i]);
+            assertEquals(true, removed);
+        }
+        times[1] = (System.nanoTime() - start) / removals.size();
+
+        //fresh swaps that want the level, none of them matched yet
+        int fills = depth - removals.size();
+        List<ShoeSwap[]> takers = new ArrayList<ShoeSwap[]>(fills);
+        for(int i = 0; i < fills; i++) {
+            UUID uId = UUID.randomUUID();
+            takers.add(new ShoeSwap[] {TestHelper.getAirMax(12, uId, false), TestHelper.getJordan(10, uId, false)});
+        }
+        start = System.nanoTime();
+        for(int i = 0; i < fills; i++) {
+            ShoeSwap[] taker = takers.get(i);
+            ShoeSwap match = nested != null ? nested.get(taker[0], taker[1]) : flat.get(taker[0], taker[1]);
+            assertEquals(values[2 * i + 1], match);
+        }
+        times[2] = (System.nanoTime() - start) / fills;
+
+        //the fills matched the resting swaps, build new ones for the next round
+        for(int i = 0; i < depth; i++) {
+            UUID uId = values[i].getUserId();
+            values[i] = TestHelper.getJordan(10, uId, false);
+        }
+        return times;
+    }
+}
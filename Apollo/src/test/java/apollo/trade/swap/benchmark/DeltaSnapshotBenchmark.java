@@ -0,0 +1,110 @@
+package apollo.trade.swap.benchmark;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import apollo.common.engine.Message;
+import apollo.common.shoe.ShoeMake;
+import apollo.common.shoe.ShoeModel;
+import apollo.common.shoe.ShoeSwap;
+import apollo.common.templates.Make;
+import apollo.common.templates.Model;
+import apollo.trade.swap.manager.Checkpoint;
+import apollo.trade.swap.manager.MessageManager;
+import apollo.trade.swap.store.BookSnapshotFile;
+import apollo.trade.swap.store.SnapshotCompactor;
+
+/**
+ * Benchmark of a full checkpoint against a delta checkpoint of a few hot models out of thousands.
+ * Run with: mvn test -Dtest=DeltaSnapshotBenchmark
+ */
+public class DeltaSnapshotBenchmark {
+    //models with resting orders and orders resting on each
+    private final int models = 5000;
+    private final int ordersPerModel = 20;
+
+    //models that get new orders between the checkpoints
+    private final int hotModels = 10;
+
+    /**
+     * Benchmark: full checkpoint, then a delta after orders on the hot models only
+     * @throws Exception
+     */
+    @Test
+    public void deltaCheckpoint() throws Exception {
+        System.out.println("Starting benchmark: delta checkpoint of " + hotModels + " hot models out of " + models);
+
+        Make make = new ShoeMake("BENCH");
+        Model[] modelList = new Model[models];
+        for(int i = 0; i < models; i++) {
+            modelList[i] = new ShoeModel(make, "MODEL-" + i);
+        }
+
+        MessageManager manager = new MessageManager();
+        for(int i = 0; i < models; i++) {
+            for(int j = 0; j < ordersPerModel; j++) {
+                rest(manager, modelList, i, j);
+            }
+        }
+
+        File base = File.createTempFile("apollo-books", ".snap");
+        try {
+            long start = System.nanoTime();
+            Checkpoint full = manager.checkpoint(0, true);
+            long freezeMicros = (System.nanoTime() - start) / 1000;
+            start = System.nanoTime();
+            assertEquals(models * ordersPerModel, BookSnapshotFile.write(full, base));
+            long fullMillis = (System.nanoTime() - start) / 1000000;
+
+            for(int i = 0; i < hotModels; i++) {
+                rest(manager, modelList, i * (models / hotModels), ordersPerModel);
+            }
+
+            start = System.nanoTime();
+            Checkpoint delta = manager.checkpoint(1, true);
+            long deltaFreezeMicros = (System.nanoTime() - start) / 1000;
+            File deltaFile = SnapshotCompactor.getDeltaFile(base, 1);
+            start = System.nanoTime();
+            assertEquals(hotModels * (ordersPerModel + 1), BookSnapshotFile.write(delta, deltaFile));
+            long deltaMillis = (System.nanoTime() - start) / 1000000;
+
+            List<File> deltas = SnapshotCompactor.getDeltas(base);
+            start = System.nanoTime();
+            assertEquals(manager.digest(), new MessageManager(SnapshotCompactor.load(base, deltas)).digest());
+            long loadMillis = (System.nanoTime() - start) / 1000000;
+
+            System.out.println("full checkpoint: freeze " + freezeMicros + "us, write " + fullMillis + "ms, "
+                    + (base.length() / 1024) + "KB");
+            System.out.println("delta checkpoint: freeze " + deltaFreezeMicros + "us, write " + deltaMillis + "ms, "
+                    + (deltaFile.length() / 1024) + "KB");
+            System.out.println("base and delta load: " + loadMillis + "ms");
+            deltaFile.delete();
+        }
+        finally {
+            base.delete();
+        }
+    }
+
+    /**
+     * rests an order on the model passed in that wants the next model, so nothing fills
+     * @param manager
+     *      manager the order is processed by
+     * @param modelList
+     *      every model
+     * @param model
+     *      index of the model the order has
+     * @param size
+     *      size of the order
+     */
+    private void rest(MessageManager manager, Model[] modelList, int model, int size) {
+        UUID uId = UUID.randomUUID();
+        ShoeSwap bid = new ShoeSwap(modelList[model], size, uId);
+        ShoeSwap ask = new ShoeSwap(modelList[(model + 1) % models], size + 100, uId);
+        manager.processMessage(Message.getMessage(bid, ask));
+    }
+}
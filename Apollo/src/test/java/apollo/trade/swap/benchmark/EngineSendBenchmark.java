@@ -0,0 +1,78 @@
+package apollo.trade.swap.benchmark;
+
+import static org.junit.Assert.assertNotNull;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import apollo.common.engine.Message;
+import apollo.common.shoe.ShoeSwap;
+import apollo.common.util.TestHelper;
+import apollo.trade.swap.service.Engine;
+
+/**
+ * Benchmark of producer throughput through the static engine as the amount of client threads grows. Every client sends
+ * and reads back its own bills. Not part of the normal test run, run with: mvn test -Dtest=EngineSendBenchmark
+ */
+public class EngineSendBenchmark {
+    //messages sent per run, split over the clients
+    private final int messages = 200000;
+    //client thread counts to run with
+    private final int[] clients = {1, 2, 4, 8};
+
+    /**
+     * Benchmark: sends per second for every client thread count
+     * @throws Exception
+     */
+    @Test
+    public void concurrentSend() throws Exception {
+        System.out.println("Starting benchmark: concurrent send");
+        Engine.start();
+
+        //grabs against an empty book so the book never grows during the run
+        final ShoeSwap ask = TestHelper.getJordan(10, UUID.randomUUID(), false);
+
+        for(int count : clients) {
+            final int perClient = messages / count;
+            final CountDownLatch ready = new CountDownLatch(count);
+            final CountDownLatch go = new CountDownLatch(1);
+            Thread[] threads = new Thread[count];
+
+            for(int i = 0; i < count; i++) {
+                threads[i] = new Thread(new Runnable() {
+                    public void run() {
+                        ready.countDown();
+                        try {
+                            go.await();
+                        }
+                        catch (InterruptedException e) {
+                            e.printStackTrace();
+                            return;
+                        }
+
+                        for(int j = 0; j < perClient; j++) {
+                            UUID id = Engine.send(Message.getMessage(ask));
+                            assertNotNull(Engine.getBill(id));
+                        }
+                    }
+                });
+                threads[i].start();
+            }
+
+            ready.await();
+            long start = System.nanoTime();
+            go.countDown();
+            for(Thread thread : threads) {
+                thread.join();
+            }
+            long nanos = System.nanoTime() - start;
+
+            System.out.println(String.format("%2d clients %,12d sends/sec %8.1f ns/send", count,
+                    (long) (perClient * count / (nanos / 1e9)), (double) nanos / (perClient * count)));
+        }
+
+        Engine.flush();
+    }
+}
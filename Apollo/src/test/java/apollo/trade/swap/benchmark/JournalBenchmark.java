@@ -0,0 +1,67 @@
+package apollo.trade.swap.benchmark;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import apollo.common.engine.Message;
+import apollo.common.util.TestHelper;
+import apollo.trade.swap.store.MessageJournal;
+
+/**
+ * Benchmark of the write-ahead journal. Swaps are appended one at a time and in batches the size a shard takes off
+ * its queue, the benchmark reports the cost of journaling a message.
+ * Run with: mvn test -Dtest=JournalBenchmark
+ */
+public class JournalBenchmark {
+    //messages appended per run
+    private final int messages = 200000;
+
+    //messages per batch append
+    private final int batchSize = 64;
+
+    /**
+     * Benchmark: single appends against batch appends
+     * @throws Exception
+     */
+    @Test
+    public void journalAppend() throws Exception {
+        System.out.println("Starting benchmark: journal append");
+
+        List<Message> swaps = new ArrayList<Message>(messages);
+        for(int i = 0; i < messages; i++) {
+            UUID uId = UUID.randomUUID();
+            swaps.add(Message.getMessage(TestHelper.getJordan((i % 14) + 1, uId, false), TestHelper.getAirMax(12, uId, false)));
+        }
+
+        for(boolean batched : new boolean[] {false, true, false, true}) {
+            File directory = File.createTempFile("apollo-journal", "");
+            directory.delete();
+            MessageJournal journal = new MessageJournal(directory);
+
+            long start = System.nanoTime();
+            if(batched) {
+                for(int i = 0; i < messages; i += batchSize) {
+                    journal.append(swaps.subList(i, Math.min(messages, i + batchSize)));
+                }
+            }
+            else {
+                for(Message swap : swaps) {
+                    journal.append(swap);
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            assertEquals(messages, journal.getSequence());
+
+            journal.clear();
+            directory.delete();
+            System.out.println((batched ? "batches of " + batchSize : "single appends") + ": "
+                    + (elapsed / messages) + " ns per message");
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package apollo.trade.swap.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import apollo.common.engine.Bill;
+import apollo.common.engine.Message;
+import apollo.common.shoe.ShoeSwap;
+import apollo.common.util.TestHelper;
+import apollo.trade.swap.queue.EngineQueue;
+import apollo.trade.swap.service.EngineConfig;
+import apollo.trade.swap.service.EngineCore;
+import apollo.trade.swap.service.EngineCore.QUEUE_TYPE;
+
+/**
+ * Benchmark comparing the original LinkedBlockingQueue against the ring buffer queues. Numbers are printed to stdout,
+ * the asserts only make sure nothing was lost on the way through. Benchmarks are not part of the normal test run,
+ * run with: mvn test -Dtest=QueueBenchmark
+ */
+public class QueueBenchmark {
+    //elements pushed through each queue
+    private final int transfers = 1000000;
+    //messages pushed through each engine core
+    private final int messages = 50000;
+    //producers used in the multi producer run
+    private final int producers = 4;
+    //messages per batch in the batch run
+    private final int batchSize = 64;
+
+    /**
+     * Benchmark: one producer and one consumer handing elements over each queue type
+     * @throws Exception
+     */
+    @Test
+    public void singleProducerTransfer() throws Exception {
+        System.out.println("Starting benchmark: single producer transfer");
+
+        for(QUEUE_TYPE type : QUEUE_TYPE.values()) {
+            long nanos = transfer(type, 1);
+            print(type + " 1 producer", transfers, nanos);
+        }
+    }
+
+    /**
+     * Benchmark: several producers and one consumer handing elements over the queues that are multi producer safe
+     * @throws Exception
+     */
+    @Test
+    public void multiProducerTransfer() throws Exception {
+        System.out.println("Starting benchmark: multi producer transfer");
+
+        for(QUEUE_TYPE type : new QUEUE_TYPE[] {QUEUE_TYPE.LINKED, QUEUE_TYPE.MULTI_PRODUCER}) {
+            long nanos = transfer(type, producers);
+            print(type + " " + producers + " producers", transfers, nanos);
+        }
+    }
+
+    /**
+     * Benchmark: full round trip through an engine core (input, match, bill) for each queue type
+     * @throws Exception
+     */
+    @Test
+    public void engineCoreRoundTrip() throws Exception {
+        System.out.println("Starting benchmark: engine core round trip");
+
+        for(QUEUE_TYPE type : QUEUE_TYPE.values()) {
+            final EngineCore core = new EngineCore(null, type);
+            new Thread(core).start();
+
+            //grabs against an empty book so the book never grows during the run
+            final ShoeSwap ask = TestHelper.getJordan(10, UUID.randomUUID(), false);
+
+            Thread producer = new Thread(new Runnable() {
+                public void run() {
+                    for(int i = 0; i < messages; i++) {
+                        core.input(Message.getMessage(ask));
+                    }
+                }
+            });
+
+            long start = System.nanoTime();
+            producer.start();
+            for(int i = 0; i < messages; i++) {
+                Bill bill = core.nextBill();
+                assertNotNull(bill);
+            }
+            long nanos = System.nanoTime() - start;
+            producer.join();
+
+            core.stop();
+            while(core.state() != EngineCore.CORE_STATE.DEAD) {
+                Thread.yield();
+            }
+            print(type + " engine core", messages, nanos);
+        }
+    }
+
+    /**
+     * Benchmark: round trip through an engine core where the producer hands the messages over in batches
+     * @throws Exception
+     */
+    @Test
+    public void engineCoreBatchRoundTrip() throws Exception {
+        System.out.println("Starting benchmark: engine core batch round trip");
+
+        for(QUEUE_TYPE type : QUEUE_TYPE.values()) {
+            final EngineCore core = new EngineCore(null, type);
+            new Thread(core).start();
+
+            final ShoeSwap ask = TestHelper.getJordan(10, UUID.randomUUID(), false);
+
+            Thread producer = new Thread(new Runnable() {
+                public void run() {
+                    List<Message> batch = new ArrayList<Message>(batchSize);
+                    for(int i = 0; i < messages; i++) {
+                        batch.add(Message.getMessage(ask));
+                        if(batch.size() == batchSize) {
+                            core.inputBatch(batch);
+                            batch = new ArrayList<Message>(batchSize);
+                        }
+                    }
+                    core.inputBatch(batch);
+                }
+            });
+
+            long start = System.nanoTime();
+            producer.start();
+            for(int i = 0; i < messages; i++) {
+                Bill bill = core.nextBill();
+                assertNotNull(bill);
+            }
+            long nanos = System.nanoTime() - start;
+            producer.join();
+
+            core.stop();
+            while(core.state() != EngineCore.CORE_STATE.DEAD) {
+                Thread.yield();
+            }
+            print(type + " engine core batch " + batchSize, messages, nanos);
+        }
+    }
+
+    /**
+     * Benchmark: round trip through an engine core with and without the pre-match, match and publish pipeline
+     * @throws Exception
+     */
+    @Test
+    public void engineCorePipelinedRoundTrip() throws Exception {
+        System.out.println("Starting benchmark: engine core pipelined round trip");
+
+        for(boolean pipelined : new boolean[] {false, true}) {
+            EngineConfig config = new EngineConfig();
+            config.setPipelined(pipelined);
+            final EngineCore core = new EngineCore(null, config);
+            new Thread(core).start();
+
+            final ShoeSwap ask = TestHelper.getJordan(10, UUID.randomUUID(), false);
+
+            Thread producer = new Thread(new Runnable() {
+                public void run() {
+                    for(int i = 0; i < messages; i++) {
+                        core.input(Message.getMessage(ask));
+                    }
+                }
+            });
+
+            long start = System.nanoTime();
+            producer.start();
+            for(int i = 0; i < messages; i++) {
+                Bill bill = core.nextBill();
+                assertNotNull(bill);
+            }
+            long nanos = System.nanoTime() - start;
+            producer.join();
+
+            core.stop();
+            core.awaitTermination(5, TimeUnit.SECONDS);
+            print((pipelined ? "pipelined" : "single thread") + " engine core", messages, nanos);
+        }
+    }
+
+    /**
+     * pushes the transfer count through a queue of the type passed in
+     * @param type
+     *      queue type under test
+     * @param producerCount
+     *      amount of producer threads
+     * @return
+     *      nanoseconds it took the consumer to receive every element
+     * @throws Exception
+     */
+    private long transfer(QUEUE_TYPE type, int producerCount) throws Exception {
+        final EngineQueue<Integer> queue = EngineCore.createQueue(type, EngineCore.QUEUE_CAPACITY);
+        final Integer element = 1;
+        final int perProducer = transfers / producerCount;
+
+        Thread[] threads = new Thread[producerCount];
+        for(int i = 0; i < producerCount; i++) {
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for(int j = 0; j < perProducer; j++) {
+                            queue.put(element);
+                        }
+                    }
+                    catch(InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+        }
+
+        long start = System.nanoTime();
+        for(Thread thread : threads) {
+            thread.start();
+        }
+
+        int received = 0;
+        while(received < perProducer * producerCount) {
+            queue.take();
+            received++;
+        }
+        long nanos = System.nanoTime() - start;
+
+        for(Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(perProducer * producerCount, received);
+        return nanos;
+    }
+
+    /**
+     * prints the throughput and average cost of a run
+     */
+    private void print(String name, int operations, long nanos) {
+        System.out.println(String.format("%-32s %,12d ops/sec %8.1f ns/op", name,
+                (long) (operations / (nanos / 1e9)), (double) nanos / operations));
+    }
+
+}
@@ -0,0 +1,95 @@
+package apollo.trade.swap.benchmark;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import apollo.common.engine.Bill;
+import apollo.common.engine.Message;
+import apollo.common.shoe.ShoeSwap;
+import apollo.common.templates.Make;
+import apollo.common.templates.Model;
+import apollo.common.util.ShoeHelper;
+import apollo.trade.swap.service.EngineCore;
+import apollo.trade.swap.service.EngineCore.QUEUE_TYPE;
+import apollo.trade.swap.service.ShardRouter;
+
+/**
+ * Benchmark of a core sharded by make. One producer per make sends pairs of swaps that fill each other so the book
+ * stays small, the benchmark measures how long it takes for every bill to come out of the core with 1, 2 and 4 shards.
+ * Run with: mvn test -Dtest=ShardBenchmark
+ */
+public class ShardBenchmark {
+    //pairs of swaps sent by each producer
+    private final int pairs = 5000;
+
+    /**
+     * Benchmark: same make traffic spread over every make with a growing amount of shards
+     * @throws Exception
+     */
+    @Test
+    public void shardScaling() throws Exception {
+        System.out.println("Starting benchmark: shard scaling");
+
+        final List<Make> makes = ShoeHelper.getShoeMakers();
+
+        for(int shards : new int[] {1, 2, 4}) {
+            ShardRouter router = new ShardRouter(shards);
+            StringBuilder owners = new StringBuilder();
+            for(Make make : makes) {
+                owners.append(make.getName()).append("->").append(router.shardFor(make)).append(' ');
+            }
+
+            final EngineCore core = new EngineCore(null, QUEUE_TYPE.MULTI_PRODUCER, shards);
+            new Thread(core).start();
+
+            Thread[] producers = new Thread[makes.size()];
+            for(int i = 0; i < producers.length; i++) {
+                final List<Model> models = ShoeHelper.getTestShoeModels(makes.get(i));
+                producers[i] = new Thread(new Runnable() {
+                    public void run() {
+                        Model have = models.get(0);
+                        Model want = models.get(1);
+                        for(int j = 0; j < pairs; j++) {
+                            int size = (j % 14) + 1;
+                            UUID uId1 = UUID.randomUUID();
+                            UUID uId2 = UUID.randomUUID();
+                            core.input(Message.getMessage(new ShoeSwap(have, size, uId1), new ShoeSwap(want, size, uId1)));
+                            core.input(Message.getMessage(new ShoeSwap(want, size, uId2), new ShoeSwap(have, size, uId2)));
+                        }
+                    }
+                });
+            }
+
+            long start = System.nanoTime();
+            for(Thread producer : producers) {
+                producer.start();
+            }
+
+            int total = pairs * 2 * producers.length;
+            int filled = 0;
+            for(int i = 0; i < total; i++) {
+                Bill bill = core.nextBill();
+                if(bill.size() == 2) {
+                    filled++;
+                }
+            }
+            long nanos = System.nanoTime() - start;
+
+            for(Thread producer : producers) {
+                producer.join();
+            }
+            core.stop();
+            while(core.state() != EngineCore.CORE_STATE.DEAD) {
+                Thread.yield();
+            }
+
+            assertEquals(pairs * producers.length, filled);
+            System.out.println(String.format("%d shard(s) %,12d msgs/sec   %s", shards,
+                    (long) (total / (nanos / 1e9)), owners.toString().trim()));
+        }
+    }
+}
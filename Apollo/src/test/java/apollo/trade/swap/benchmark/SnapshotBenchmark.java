@@ -0,0 +1,81 @@
+package apollo.trade.swap.benchmark;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import apollo.common.engine.BookSnapshot;
+import apollo.common.engine.Message;
+import apollo.common.util.TestHelper;
+import apollo.trade.swap.manager.MessageManager;
+import apollo.trade.swap.store.BookSnapshotFile;
+
+/**
+ * Benchmark of a cold start from a book snapshot file against rebuilding the same books by processing every message
+ * again, the way a journal replay does.
+ * Run with: mvn test -Dtest=SnapshotBenchmark
+ */
+public class SnapshotBenchmark {
+    //resting orders in the book. A multi-million order book is what the snapshot file has to load in seconds
+    private final int orders = 2000000;
+
+    /**
+     * Benchmark: snapshot write and load against a replay of the messages
+     * @throws Exception
+     */
+    @Test
+    public void coldStart() throws Exception {
+        System.out.println("Starting benchmark: cold start with " + orders + " resting orders");
+
+        long start = System.nanoTime();
+        MessageManager manager = new MessageManager();
+        replay(manager);
+        long replayMillis = (System.nanoTime() - start) / 1000000;
+        long digest = manager.digest();
+
+        File file = File.createTempFile("apollo-books", ".snap");
+        try {
+            start = System.nanoTime();
+            assertEquals(orders, BookSnapshotFile.write(manager.getBookSnapshot(), file));
+            long writeMillis = (System.nanoTime() - start) / 1000000;
+            manager = null;
+
+            start = System.nanoTime();
+            BookSnapshot snapshot = BookSnapshotFile.read(file);
+            MessageManager loaded = new MessageManager(snapshot);
+            long loadMillis = (System.nanoTime() - start) / 1000000;
+            assertEquals(digest, loaded.digest());
+
+            System.out.println("replay: " + replayMillis + "ms");
+            System.out.println("snapshot write: " + writeMillis + "ms, " + (file.length() / 1024) + "KB");
+            System.out.println("snapshot load: " + loadMillis + "ms");
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * builds the book by processing one message per resting order. Nobody wants a jordan so nothing fills
+     * @param manager
+     *      manager the messages are processed by
+     */
+    private void replay(MessageManager manager) {
+        List<Message> batch = new ArrayList<Message>(10000);
+        for(int i = 0; i < orders; i++) {
+            UUID uId = UUID.randomUUID();
+            batch.add(Message.getMessage(TestHelper.getJordan((i % 14) + 1, uId, false), TestHelper.getAirMax(((i / 14) % 7) + 6, uId, false)));
+            if(batch.size() == 10000 || i == orders - 1) {
+                for(Message message : batch) {
+                    manager.processMessage(message);
+                }
+                batch.clear();
+            }
+        }
+    }
+}
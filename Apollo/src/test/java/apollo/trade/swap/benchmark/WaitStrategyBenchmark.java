@@ -0,0 +1,78 @@
+package apollo.trade.swap.benchmark;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Test;
+
+import apollo.common.engine.Bill;
+import apollo.common.engine.Message;
+import apollo.common.shoe.ShoeSwap;
+import apollo.common.util.TestHelper;
+import apollo.trade.swap.service.EngineCore;
+import apollo.trade.swap.service.EngineCore.QUEUE_TYPE;
+import apollo.trade.swap.service.EngineCore.WAIT_TYPE;
+
+/**
+ * Benchmark of the wait strategies: round trip latency of a engine through the core against the CPU the core thread
+ * and the reading thread burn while doing it. Messages are paced so the queues run empty between messages, which is
+ * where the strategies differ. Not part of the normal test run, run with: mvn test -Dtest=WaitStrategyBenchmark
+ */
+public class WaitStrategyBenchmark {
+    //messages sent through each core
+    private final int messages = 2000;
+    //pause between two messages
+    private final long pauseNanos = TimeUnit.MICROSECONDS.toNanos(200);
+
+    /**
+     * Benchmark: latency percentiles and CPU use for every wait strategy
+     * @throws Exception
+     */
+    @Test
+    public void latencyVersusCpu() throws Exception {
+        System.out.println("Starting benchmark: wait strategy latency versus cpu");
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        for(WAIT_TYPE type : WAIT_TYPE.values()) {
+            EngineCore core = new EngineCore(null, QUEUE_TYPE.MULTI_PRODUCER, 1, type, type);
+            Thread coreThread = new Thread(core, "apollo-core-" + type);
+            coreThread.start();
+
+            //grabs against an empty book so the book never grows during the run
+            ShoeSwap ask = TestHelper.getJordan(10, UUID.randomUUID(), false);
+            long[] latencies = new long[messages];
+
+            long coreCpuStart = threads.getThreadCpuTime(coreThread.getId());
+            long readerCpuStart = threads.getCurrentThreadCpuTime();
+            long start = System.nanoTime();
+
+            for(int i = 0; i < messages; i++) {
+                long sent = System.nanoTime();
+                UUID id = core.input(Message.getMessage(ask));
+                Bill bill = core.nextBill();
+                latencies[i] = System.nanoTime() - sent;
+                assertEquals(id, bill.getId());
+
+                LockSupport.parkNanos(pauseNanos);
+            }
+
+            long wall = System.nanoTime() - start;
+            long coreCpu = threads.getThreadCpuTime(coreThread.getId()) - coreCpuStart;
+            long readerCpu = threads.getCurrentThreadCpuTime() - readerCpuStart;
+
+            core.stop();
+            coreThread.join();
+
+            Arrays.sort(latencies);
+            System.out.println(String.format("%-10s p50 %8.1f us  p99 %8.1f us  max %9.1f us  core cpu %5.1f%%  reader cpu %5.1f%%",
+                    type, latencies[messages / 2] / 1e3, latencies[messages * 99 / 100] / 1e3,
+                    latencies[messages - 1] / 1e3, 100.0 * coreCpu / wall, 100.0 * readerCpu / wall));
+        }
+    }
+}
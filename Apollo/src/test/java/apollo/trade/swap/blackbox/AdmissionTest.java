@@ -0,0 +1,166 @@
+package apollo.trade.swap.blackbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import apollo.common.engine.Message;
+import apollo.common.shoe.ShoeSwap;
+import apollo.common.util.TestHelper;
+import apollo.trade.swap.service.Admission;
+import apollo.trade.swap.service.AdmissionController;
+import apollo.trade.swap.service.ApolloEngine;
+import apollo.trade.swap.service.BackpressureListener;
+import apollo.trade.swap.service.EngineConfig;
+import apollo.trade.swap.service.EngineCore;
+
+/**
+ * Tests admission control: refusal reasons, shedding by message type and the back pressure water marks
+ */
+public class AdmissionTest {
+    //capacity of the inbound queue under test
+    private final int capacity = 8;
+
+    //admission controller of the core under test
+    private AdmissionController controller = null;
+
+    //core under test. not started until a test starts it so its queue fills up
+    private EngineCore core = null;
+
+    @Before
+    public void setUp() throws Exception {
+        controller = new AdmissionController(0.75, 0.25);
+
+        EngineConfig config = new EngineConfig();
+        config.setInboundCapacity(capacity);
+        config.setAdmissionController(controller);
+        core = new EngineCore(null, config);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if(core.state() == EngineCore.CORE_STATE.WARMING) {
+            new Thread(core).start();
+        }
+        core.stop();
+        while(core.state() != EngineCore.CORE_STATE.DEAD) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Test: a full queue refuses with QUEUE_FULL instead of blocking, high and low water are reported once each
+     */
+    @Test
+    public void queueFullTest() throws Exception {
+        final CountDownLatch high = new CountDownLatch(1);
+        final CountDownLatch low = new CountDownLatch(1);
+        controller.addListener(new BackpressureListener() {
+            public void onHighWater(int shard, int depth, int capacity) {
+                high.countDown();
+            }
+
+            public void onLowWater(int shard, int depth, int capacity) {
+                low.countDown();
+            }
+        });
+
+        ShoeSwap ask = TestHelper.getJordan(10, UUID.randomUUID(), false);
+        for(int i = 0; i < capacity; i++) {
+            Admission admission = core.offer(Message.getMessage(ask));
+            assertTrue(admission.isAccepted());
+            assertEquals(i + 1, admission.getDepth());
+        }
+        assertEquals(0, high.getCount());
+        assertTrue(controller.isPressured());
+
+        Admission refused = core.offer(Message.getMessage(ask), 10, TimeUnit.MILLISECONDS);
+        assertEquals(Admission.REASON.QUEUE_FULL, refused.getReason());
+        assertEquals(capacity, refused.getDepth());
+
+        //once the core drains its queue the pressure is gone
+        new Thread(core).start();
+        assertTrue(low.await(5, TimeUnit.SECONDS));
+        assertFalse(controller.isPressured());
+
+        assertEquals(capacity, controller.getCount(Admission.REASON.ACCEPTED));
+        assertEquals(1, controller.getCount(Admission.REASON.QUEUE_FULL));
+    }
+
+    /**
+     * Test: goals are shed once the queue is past their shed mark while swaps still get in
+     */
+    @Test
+    public void shedTest() throws Exception {
+        controller.setShedMark(Message.GOAL, 0.5);
+
+        UUID uId = UUID.randomUUID();
+        for(int i = 0; i < capacity / 2; i++) {
+            assertTrue(core.offer(Message.getMessage(TestHelper.getJordan(10, uId, false), TestHelper.getAirMax(12, uId, false))).isAccepted());
+        }
+
+        Message goal = Message.getMessage(TestHelper.getJordan(9, uId, false), TestHelper.getAnswerV(11, uId, false), 2);
+        Admission shed = core.offer(goal);
+        assertEquals(Admission.REASON.SHED, shed.getReason());
+        assertEquals(goal.getId(), shed.getId());
+
+        assertTrue(core.offer(Message.getMessage(TestHelper.getJordan(11, uId, false), TestHelper.getAirMax(12, uId, false))).isAccepted());
+        assertEquals(1, controller.getCount(Admission.REASON.SHED));
+    }
+
+    /**
+     * Test: invalid messages and messages sent to a stopped core are refused with their reason
+     */
+    @Test
+    public void refusalReasonTest() throws Exception {
+        assertEquals(Admission.REASON.INVALID, core.offer(null).getReason());
+
+        new Thread(core).start();
+        core.stop();
+        while(core.state() != EngineCore.CORE_STATE.DEAD) {
+            Thread.yield();
+        }
+
+        Admission admission = core.offer(Message.getMessage(TestHelper.getJordan(10, UUID.randomUUID(), false)));
+        assertEquals(Admission.REASON.NOT_RUNNING, admission.getReason());
+    }
+
+    /**
+     * Test: a message refused by an engine can be sent again once there is room
+     */
+    @Test
+    public void trySendTest() throws Exception {
+        EngineConfig config = new EngineConfig();
+        config.setInboundCapacity(2);
+        config.setThreadFactory(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        ApolloEngine engine = new ApolloEngine("admission", config);
+
+        ShoeSwap ask = TestHelper.getJordan(10, UUID.randomUUID(), false);
+        assertTrue(engine.trySend(Message.getMessage(ask)).isAccepted());
+        assertTrue(engine.trySend(Message.getMessage(ask)).isAccepted());
+
+        Message message = Message.getMessage(ask);
+        assertEquals(Admission.REASON.QUEUE_FULL, engine.trySend(message).getReason());
+
+        engine.start();
+        Admission admission = engine.trySend(message, 1, TimeUnit.SECONDS);
+        assertTrue(admission.isAccepted());
+        assertNotNull(engine.getBill(admission.getId(), 1, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,95 @@
+package apollo.trade.swap.blackbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import apollo.common.engine.Bill;
+import apollo.common.engine.Message;
+import apollo.common.util.TestHelper;
+import apollo.trade.swap.service.ApolloEngine;
+
+/**
+ * Tests engine instances running side by side in one JVM. Each instance has its own book and its own threads
+ */
+public class ApolloEngineTest {
+    //threads created by the test factory
+    private final AtomicInteger threads = new AtomicInteger();
+
+    //engines under test
+    private ApolloEngine east = null;
+    private ApolloEngine west = null;
+
+    @Before
+    public void setUp() throws Exception {
+        ThreadFactory factory = new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "test-engine-" + threads.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+
+        east = new ApolloEngine("east", factory);
+        west = new ApolloEngine("west", factory);
+        east.start(null, 2);
+        west.start();
+
+        while(!east.running() || !west.running()) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Test: a swap resting in one engine is not seen by the other
+     */
+    @Test
+    public void isolatedBooksTest() throws Exception {
+        UUID uId1 = UUID.randomUUID();
+        UUID uId2 = UUID.randomUUID();
+
+        Bill bill = send(east, Message.getMessage(TestHelper.getJordan(10, uId1, false), TestHelper.getAirMax(12, uId1, false)));
+        assertEquals(0, bill.size());
+
+        //same counter swap on the other engine finds nothing and rests there
+        bill = send(west, Message.getMessage(TestHelper.getAirMax(12, uId2, false), TestHelper.getJordan(10, uId2, false)));
+        assertEquals(0, bill.size());
+
+        //on the first engine it fills
+        bill = send(east, Message.getMessage(TestHelper.getAirMax(12, uId2, false), TestHelper.getJordan(10, uId2, false)));
+        assertEquals(2, bill.size());
+        assertEquals(uId1, bill.get(1).getUserId());
+
+        assertEquals(0, east.getBillStore().size());
+        assertTrue(east.getBillStore() != west.getBillStore());
+    }
+
+    /**
+     * Test: every core and shard thread comes from the engine's thread factory
+     */
+    @Test
+    public void threadFactoryTest() throws Exception {
+        //two shards on east, one on west, plus an expiry thread each. the extra threads are started by the running core
+        long deadline = System.currentTimeMillis() + 1000;
+        while(threads.get() < 5 && System.currentTimeMillis() < deadline) {
+            Thread.yield();
+        }
+        assertEquals(5, threads.get());
+        assertEquals("east", east.getName());
+    }
+
+    /**
+     * sends a message to the engine and reads its bill
+     */
+    private Bill send(ApolloEngine engine, Message message) {
+        UUID id = engine.send(message);
+        return engine.getBill(id, 1, TimeUnit.SECONDS);
+    }
+}
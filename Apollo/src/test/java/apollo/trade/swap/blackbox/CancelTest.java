@@ -0,0 +1,97 @@
+package apollo.trade.swap.blackbox;
+
+import apollo.common.engine.Bill;
+import apollo.common.engine.Message;
+import apollo.common.shoe.ShoeSwap;
+import apollo.common.util.TestHelper;
+import apollo.trade.swap.service.Engine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Tests withdrawing and amending resting orders through the engine
+ */
+public class CancelTest {
+
+    @Before
+    public void setUp() throws Exception {
+        Engine.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Engine.flush();
+    }
+
+    /**
+     * Test: only the owner can cancel an order, a cancelled order no longer fills or gets grabbed and cannot be
+     * cancelled twice
+     */
+    @Test
+    public void cancelTest() throws Exception {
+        UUID uId1 = UUID.randomUUID();
+        UUID uId2 = UUID.randomUUID();
+
+        Message order = Message.getMessage(TestHelper.getJordan(10, uId1, true), TestHelper.getAirMax(12, uId1, false));
+        Bill bill = Engine.getBill(Engine.send(order));
+        assertNotNull(bill);
+        assertEquals(0, bill.size());
+
+        //another user cannot withdraw the order
+        bill = Engine.getBill(Engine.send(Message.getCancelMessage(order.getId(), TestHelper.getJordan(10, uId2, false))));
+        assertEquals(0, bill.size());
+
+        bill = Engine.getBill(Engine.send(Message.getCancelMessage(order.getId(), TestHelper.getJordan(10, uId1, false))));
+        assertEquals(1, bill.size());
+        assertEquals(uId1, bill.get(0).getUserId());
+        assertEquals(order.getId(), bill.get(0).getOrderId());
+
+        bill = Engine.getBill(Engine.send(Message.getCancelMessage(order.getId(), TestHelper.getJordan(10, uId1, false))));
+        assertEquals(0, bill.size());
+
+        //nothing is left to fill or grab
+        bill = Engine.getBill(Engine.send(Message.getMessage(TestHelper.getAirMax(12, uId2, false), TestHelper.getJordan(10, uId2, false))));
+        assertEquals(0, bill.size());
+        bill = Engine.getBill(Engine.send(Message.getMessage(TestHelper.getJordan(10, uId2, false))));
+        assertEquals(0, bill.size());
+    }
+
+    /**
+     * Test: an amended order no longer fills on its old ask, fills on its new one and keeps its order id
+     */
+    @Test
+    public void amendTest() throws Exception {
+        UUID uId1 = UUID.randomUUID();
+        UUID uId2 = UUID.randomUUID();
+        UUID uId3 = UUID.randomUUID();
+
+        Message order = Message.getMessage(TestHelper.getJordan(10, uId1, false), TestHelper.getAirMax(12, uId1, false));
+        Engine.getBill(Engine.send(order));
+
+        Message amend = Message.getAmendMessage(order.getId(), TestHelper.getJordan(10, uId1, false), TestHelper.getRose(11, uId1, false));
+        Bill bill = Engine.getBill(Engine.send(amend));
+        assertEquals(1, bill.size());
+        assertEquals(12, ((ShoeSwap) bill.get(0).getPair()).getSize());
+
+        //the old ask finds nothing
+        bill = Engine.getBill(Engine.send(Message.getMessage(TestHelper.getAirMax(12, uId2, false), TestHelper.getJordan(10, uId2, false))));
+        assertEquals(0, bill.size());
+
+        //the new ask fills the amended order
+        bill = Engine.getBill(Engine.send(Message.getMessage(TestHelper.getRose(11, uId3, false), TestHelper.getJordan(10, uId3, false))));
+        assertEquals(2, bill.size());
+        assertEquals(uId1, bill.get(1).getUserId());
+        assertEquals(order.getId(), bill.get(1).getOrderId());
+
+        //a filled order cannot be amended
+        bill = Engine.getBill(Engine.send(Message.getAmendMessage(order.getId(), TestHelper.getJordan(10, uId1, false), TestHelper.getAirMax(12, uId1, false))));
+        assertEquals(0, bill.size());
+    }
+}
@@ -16,6 +16,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import junit.framework.TestCase;
 
@@ -480,6 +481,93 @@ public class EngineTest {
         System.out.println(stats.toString());
     }
 
+    /**
+     * Test: user submits a shoe swap that matches and the future is completed with the bill
+     *
+     * @throws Exception
+     */
+    @org.junit.Test
+    public void testEngineSubmit() throws Exception {
+        //write test names so we know which test had which output
+        String functionName = "engine submit";
+        System.out.println("Starting test: " + functionName);
+
+        UUID uId = UUID.randomUUID();
+
+        //create bid ask that will match what is in the book
+        ShoeSwap bid = TestHelper.getJordan(testAskSize, uId, false);
+        ShoeSwap ask = TestHelper.getJordan(testBidSize, uId, false);
+
+        Message message = Message.getMessage(bid,ask);
+
+        Bill bill = Engine.submit(message).get(1, TimeUnit.SECONDS);
+
+        assertNotNull(bill);
+        assertEquals(bill.getId(), message.getId());
+        assertEquals(bill.size(), 2);
+        assertEquals(bill.get(1).getUserId(), userId);
+
+        //submitted bills are handed straight to the caller and are not kept by the engine
+        assertNull(Engine.getBill(message.getId()));
+
+        //invalid messages complete exceptionally
+        assertTrue(Engine.submit(Message.getMessage((Swap) null)).isCompletedExceptionally());
+    }
+
+    /**
+     * Test: a batch is sent in one call and its bills come back as a group, in order
+     * @throws Exception
+     */
+    @Test
+    public void testEngineSendBatch() throws Exception {
+        //write test names so we know which test had which output
+        String functionName = "engine send batch";
+        System.out.println("Starting test: " + functionName);
+
+        UUID uId1 = UUID.randomUUID();
+        UUID uId2 = UUID.randomUUID();
+
+        List<Message> batch = new ArrayList<Message>();
+        //matches what is in the book
+        batch.add(Message.getMessage(TestHelper.getJordan(testAskSize, uId1, false), TestHelper.getJordan(testBidSize, uId1, false)));
+        //rests in the book and is matched by the next engine of the same batch
+        batch.add(Message.getMessage(TestHelper.getJordan(7, uId1, false), TestHelper.getJordan(8, uId1, false)));
+        batch.add(Message.getMessage(TestHelper.getJordan(8, uId2, false), TestHelper.getJordan(7, uId2, false)));
+
+        List<Bill> bills = Engine.sendBatch(batch).get(1, TimeUnit.SECONDS);
+
+        assertEquals(batch.size(), bills.size());
+        for(int i = 0; i < batch.size(); i++) {
+            assertEquals(batch.get(i).getId(), bills.get(i).getId());
+        }
+        assertEquals(2, bills.get(0).size());
+        assertEquals(userId, bills.get(0).get(1).getUserId());
+        assertEquals(0, bills.get(1).size());
+        assertEquals(2, bills.get(2).size());
+        assertEquals(uId1, bills.get(2).get(1).getUserId());
+
+        //the whole batch is refused if one engine is invalid
+        batch = new ArrayList<Message>();
+        batch.add(Message.getMessage(TestHelper.getJordan(7, uId1, false), TestHelper.getJordan(8, uId1, false)));
+        batch.add(Message.getMessage((Swap) null));
+        assertTrue(Engine.sendBatch(batch).isCompletedExceptionally());
+    }
+
+    /**
+     * Test: asking for a bill that was never sent returns straight away
+     *
+     * @throws Exception
+     */
+    @org.junit.Test
+    public void testEngineGetBillUnknown() throws Exception {
+        //write test names so we know which test had which output
+        String functionName = "engine get bill unknown";
+        System.out.println("Starting test: " + functionName);
+
+        assertNull(Engine.getBill(UUID.randomUUID()));
+        assertNull(Engine.getBill(null));
+    }
+
     /**
      * Test: tries to grab an order with bad messages
      *
@@ -0,0 +1,241 @@
+package apollo.trade.swap.blackbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import apollo.common.engine.Bill;
+import apollo.common.engine.Message;
+import apollo.common.shoe.ShoeSwap;
+import apollo.common.util.TestHelper;
+import apollo.trade.swap.manager.MessageManager;
+import apollo.trade.swap.service.ApolloEngine;
+import apollo.trade.swap.service.EngineConfig;
+import apollo.trade.swap.service.EngineCore;
+import apollo.trade.swap.service.ExpiryListener;
+
+/**
+ * Tests resting orders with a good till time. They have to come off the books at that time, through an EXPIRE, and
+ * be reported in an expiry bill, on one shard, on several and pipelined
+ */
+public class ExpiryTest {
+
+    //core under test
+    private EngineCore core = null;
+
+    @After
+    public void tearDown() throws Exception {
+        if(core != null) {
+            core.stop();
+            assertTrue(core.awaitTermination(5, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * Test: an EXPIRE withdraws exactly the orders good till its time or earlier. Orders without a good till time and
+     * orders already filled or cancelled never expire
+     */
+    @Test
+    public void expireTest() throws Exception {
+        MessageManager manager = new MessageManager();
+        UUID uId1 = UUID.randomUUID();
+        UUID uId2 = UUID.randomUUID();
+        UUID uId3 = UUID.randomUUID();
+
+        Message expiring = Message.getMessage(good(TestHelper.getJordan(10, uId1, false), 5000), TestHelper.getAirMax(12, uId1, false));
+        manager.processMessage(expiring);
+        manager.processMessage(Message.getMessage(TestHelper.getAnswerV(11, uId1, false), TestHelper.getRose(9, uId1, false)));
+
+        Message cancelled = Message.getMessage(good(TestHelper.getRose(9, uId2, false), 5000), TestHelper.getAirMax(12, uId2, false));
+        manager.processMessage(cancelled);
+        assertEquals(1, manager.processMessage(Message.getCancelMessage(cancelled.getId(), TestHelper.getRose(9, uId2, false))).size());
+
+        Message filled = Message.getMessage(good(TestHelper.getAirforceOne(8, uId2, false), 5000), TestHelper.getJordan(9, uId2, false));
+        manager.processMessage(filled);
+        assertEquals(2, manager.processMessage(Message.getMessage(TestHelper.getJordan(9, uId3, false), TestHelper.getAirforceOne(8, uId3, false))).size());
+        assertEquals(2, manager.getOrderCount());
+
+        //nothing is due yet
+        assertTrue(!manager.hasExpired(4999));
+        Bill bill = manager.processMessage(Message.getExpireMessage(4999));
+        assertTrue(bill.isExpiry());
+        assertEquals(0, bill.size());
+
+        assertTrue(manager.hasExpired(5000));
+        bill = manager.processMessage(Message.getExpireMessage(5000));
+        assertTrue(bill.isExpiry());
+        assertEquals(1, bill.size());
+        assertEquals(expiring.getId(), bill.get(0).getOrderId());
+        assertTrue(!manager.hasExpiries());
+        assertEquals(1, manager.getOrderCount());
+
+        //the expired order no longer fills, the one without a good till still does
+        assertEquals(0, manager.processMessage(Message.getMessage(TestHelper.getAirMax(12, uId3, false), TestHelper.getJordan(10, uId3, false))).size());
+        assertEquals(2, manager.processMessage(Message.getMessage(TestHelper.getRose(9, uId3, false), TestHelper.getAnswerV(11, uId3, false))).size());
+        assertEquals(0, manager.processMessage(Message.getExpireMessage(Long.MAX_VALUE)).size());
+    }
+
+    /**
+     * Test: an idle core expires a resting order on its own and tells the expiry listener, on one shard, on several and
+     * pipelined
+     */
+    @Test
+    public void listenerTest() throws Exception {
+        for(int shards : new int[] {1, 4}) {
+            for(boolean pipelined : new boolean[] {false, true}) {
+                final BlockingQueue<Bill> expired = new LinkedBlockingQueue<Bill>();
+                core = start(shards, pipelined);
+                core.addExpiryListener(new ExpiryListener() {
+                    public void onExpiry(Bill bill) {
+                        expired.add(bill);
+                    }
+                });
+
+                UUID uId = UUID.randomUUID();
+                ShoeSwap bid = TestHelper.getJordan(10, uId, false);
+                bid.setGoodTill(System.currentTimeMillis() + 200);
+                Message order = Message.getMessage(bid, TestHelper.getAirMax(12, uId, false));
+                assertEquals(0, core.submit(order).get(5, TimeUnit.SECONDS).size());
+
+                Bill bill = expired.poll(5, TimeUnit.SECONDS);
+                assertNotNull(bill);
+                assertTrue(bill.isExpiry());
+                assertEquals(1, bill.size());
+                assertEquals(order.getId(), bill.get(0).getOrderId());
+
+                //the order is gone
+                Message fill = Message.getMessage(TestHelper.getAirMax(12, UUID.randomUUID(), false), TestHelper.getJordan(10, uId, false));
+                assertEquals(0, core.submit(fill).get(5, TimeUnit.SECONDS).size());
+
+                core.stop();
+                assertTrue(core.awaitTermination(5, TimeUnit.SECONDS));
+            }
+        }
+        core = null;
+    }
+
+    /**
+     * Test: without an expiry listener the expiry bill goes on the bill queue
+     */
+    @Test
+    public void billQueueTest() throws Exception {
+        core = start(1, false);
+        UUID uId = UUID.randomUUID();
+        ShoeSwap bid = TestHelper.getJordan(10, uId, false);
+        bid.setGoodFor(0);
+        Message order = Message.getMessage(bid, TestHelper.getAirMax(12, uId, false));
+        core.submit(order).get(5, TimeUnit.SECONDS);
+
+        Bill bill = core.quickBill();
+        assertNotNull(bill);
+        assertTrue(bill.isExpiry());
+        assertEquals(order.getId(), bill.get(0).getOrderId());
+    }
+
+    /**
+     * Test: a listener that does not return holds up neither matching nor the other shards, on one shard and on several
+     */
+    @Test
+    public void slowListenerTest() throws Exception {
+        for(int shards : new int[] {1, 4}) {
+            final CountDownLatch release = new CountDownLatch(1);
+            final BlockingQueue<Bill> expired = new LinkedBlockingQueue<Bill>();
+            core = start(shards, false);
+            core.addExpiryListener(new ExpiryListener() {
+                public void onExpiry(Bill bill) {
+                    expired.add(bill);
+                    try {
+                        release.await();
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+
+            UUID uId = UUID.randomUUID();
+            ShoeSwap bid = TestHelper.getJordan(10, uId, false);
+            bid.setGoodFor(0);
+            core.submit(Message.getMessage(bid, TestHelper.getAirMax(12, uId, false))).get(5, TimeUnit.SECONDS);
+            assertNotNull(expired.poll(5, TimeUnit.SECONDS));
+
+            //the listener is stuck on the expiry thread, matching goes on
+            for(int i = 0; i < 10; i++) {
+                Message order = Message.getMessage(TestHelper.getRose(9, UUID.randomUUID(), false), TestHelper.getAnswerV(11, uId, false));
+                assertNotNull(core.submit(order).get(5, TimeUnit.SECONDS));
+            }
+
+            release.countDown();
+            core.stop();
+            assertTrue(core.awaitTermination(5, TimeUnit.SECONDS));
+        }
+        core = null;
+    }
+
+    /**
+     * Test: an engine without an expiry listener keeps the expiry bill in its bill store
+     */
+    @Test
+    public void engineBillStoreTest() throws Exception {
+        ApolloEngine engine = new ApolloEngine("expiry");
+        engine.start();
+        try {
+            UUID uId = UUID.randomUUID();
+            ShoeSwap bid = TestHelper.getJordan(10, uId, false);
+            bid.setGoodFor(0);
+            UUID id = engine.send(Message.getMessage(bid, TestHelper.getAirMax(12, uId, false)));
+            assertNotNull(engine.getBill(id, 5, TimeUnit.SECONDS));
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while(engine.getBillStore().size() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, engine.getBillStore().size());
+        }
+        finally {
+            engine.stop();
+        }
+    }
+
+    /**
+     * sets the good till time of a swap
+     * @param swap
+     *      the swap
+     * @param goodTill
+     *      good till time
+     * @return
+     *      the swap
+     */
+    private ShoeSwap good(ShoeSwap swap, long goodTill) {
+        swap.setGoodTill(goodTill);
+        return swap;
+    }
+
+    /**
+     * starts a core
+     * @param shards
+     *      amount of shards
+     * @param pipelined
+     *      true if the shards are pipelined
+     * @return
+     *      the running core
+     */
+    private EngineCore start(int shards, boolean pipelined) {
+        EngineConfig config = new EngineConfig();
+        config.setShards(shards);
+        config.setPipelined(pipelined);
+
+        EngineCore started = new EngineCore(null, config);
+        new Thread(started).start();
+        return started;
+    }
+}
@@ -0,0 +1,145 @@
+package apollo.trade.swap.blackbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import apollo.common.engine.Bill;
+import apollo.common.engine.Message;
+import apollo.common.util.TestHelper;
+import apollo.trade.swap.service.EngineConfig;
+import apollo.trade.swap.service.EngineCore;
+
+/**
+ * Tests the pipelined core. Bills have to be the same as the single threaded core and a full bill queue must not stop
+ * the matching thread
+ */
+public class PipelineTest {
+    //capacity of the bill queue under test
+    private final int billCapacity = 4;
+
+    //core under test
+    private EngineCore core = null;
+
+    @After
+    public void tearDown() throws Exception {
+        if(core != null) {
+            core.stop();
+            assertTrue(core.awaitTermination(5, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * Test: swaps are filled, grabs and goals searched, the same as without the pipeline, on one and on several shards
+     */
+    @Test
+    public void matchTest() throws Exception {
+        for(int shards : new int[] {1, 4}) {
+            core = start(shards);
+
+            UUID uId1 = UUID.randomUUID();
+            UUID uId2 = UUID.randomUUID();
+            UUID uId3 = UUID.randomUUID();
+
+            Bill bill = core.submit(Message.getMessage(TestHelper.getJordan(10, uId1, false), TestHelper.getAirMax(12, uId1, false))).get(5, TimeUnit.SECONDS);
+            assertEquals(0, bill.size());
+
+            bill = core.submit(Message.getMessage(TestHelper.getAnswerV(11, uId2, false), TestHelper.getJordan(9, uId2, false))).get(5, TimeUnit.SECONDS);
+            assertEquals(0, bill.size());
+
+            //user 3 has jordans and ultimately wants answer Vs
+            bill = core.submit(Message.getMessage(TestHelper.getJordan(9, uId3, false), TestHelper.getAnswerV(11, uId3, false), 2)).get(5, TimeUnit.SECONDS);
+            assertEquals(2, bill.size());
+
+            bill = core.submit(Message.getMessage(TestHelper.getAirMax(12, uId3, false), TestHelper.getJordan(10, uId3, false))).get(5, TimeUnit.SECONDS);
+            assertEquals(2, bill.size());
+            assertEquals(uId1, bill.get(1).getUserId());
+
+            //invalid messages never reach the books but still get their bill
+            bill = core.submit(Message.getMessage(TestHelper.getJordan(10, null, false))).get(5, TimeUnit.SECONDS);
+            assertEquals(0, bill.size());
+
+            core.stop();
+            assertTrue(core.awaitTermination(5, TimeUnit.SECONDS));
+        }
+        core = null;
+    }
+
+    /**
+     * Test: bills nobody reads pile up behind a full bill queue while later messages are still matched
+     */
+    @Test
+    public void slowReaderTest() throws Exception {
+        core = start(1);
+        int resting = billCapacity * 10;
+
+        for(int i = 0; i < resting; i++) {
+            UUID uId = UUID.randomUUID();
+            assertNotNull(core.input(Message.getMessage(TestHelper.getJordan(4 + (i % 10), uId, false), TestHelper.getAirMax(12, uId, false))));
+        }
+
+        //the bill queue is full and nobody is reading, the fill still comes through
+        UUID uId = UUID.randomUUID();
+        CompletableFuture<Bill> future = core.submit(Message.getMessage(TestHelper.getAirMax(12, uId, false), TestHelper.getJordan(4, uId, false)));
+        Bill bill = future.get(5, TimeUnit.SECONDS);
+        assertEquals(2, bill.size());
+
+        Set<UUID> ids = new HashSet<UUID>();
+        for(int i = 0; i < resting; i++) {
+            assertTrue(ids.add(core.nextBill().getId()));
+        }
+    }
+
+    /**
+     * Test: bills still waiting behind a full bill queue when the core stops are handed over, not dropped
+     */
+    @Test
+    public void stopBacklogTest() throws Exception {
+        core = start(1);
+        int resting = billCapacity * 10;
+
+        for(int i = 0; i < resting; i++) {
+            UUID uId = UUID.randomUUID();
+            assertNotNull(core.input(Message.getMessage(TestHelper.getJordan(4 + (i % 10), uId, false), TestHelper.getAirMax(12, uId, false))));
+        }
+        core.stop();
+        assertTrue(core.awaitTermination(5, TimeUnit.SECONDS));
+
+        List<Bill> bills = new ArrayList<Bill>();
+        assertEquals(resting, core.drainBills(bills));
+        Set<UUID> ids = new HashSet<UUID>();
+        for(Bill bill : bills) {
+            assertTrue(ids.add(bill.getId()));
+        }
+        core = null;
+    }
+
+    /**
+     * starts a pipelined core with a small bill queue
+     * @param shards
+     *      amount of shards
+     * @return
+     *      the running core
+     */
+    private EngineCore start(int shards) {
+        EngineConfig config = new EngineConfig();
+        config.setPipelined(true);
+        config.setShards(shards);
+        config.setOutboundCapacity(billCapacity);
+
+        EngineCore pipelined = new EngineCore(null, config);
+        new Thread(pipelined).start();
+        return pipelined;
+    }
+}
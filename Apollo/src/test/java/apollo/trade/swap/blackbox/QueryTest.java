@@ -0,0 +1,184 @@
+package apollo.trade.swap.blackbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import apollo.common.engine.Bill;
+import apollo.common.engine.Message;
+import apollo.common.templates.Make;
+import apollo.common.templates.Model;
+import apollo.common.util.TestHelper;
+import apollo.trade.swap.manager.BookView;
+import apollo.trade.swap.manager.MessageManager;
+import apollo.trade.swap.manager.ModelManager;
+import apollo.trade.swap.service.EngineConfig;
+import apollo.trade.swap.service.EngineCore;
+
+/**
+ * Tests goal searches answered by query threads off a versioned view of the books
+ */
+public class QueryTest {
+    //core under test
+    private EngineCore core = null;
+
+    @Before
+    public void setUp() throws Exception {
+        EngineConfig config = new EngineConfig();
+        config.setShards(2);
+        config.setQueryThreads(2);
+        core = new EngineCore(null, config);
+        new Thread(core).start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        core.stop();
+        assertTrue(core.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Test: a goal is searched against the books as they were after the swaps sent before it, and its bill says which
+     * version that was
+     */
+    @Test
+    public void goalVersionTest() throws Exception {
+        UUID uId1 = UUID.randomUUID();
+        UUID uId2 = UUID.randomUUID();
+
+        //nothing rests yet so there is no path
+        Bill bill = send(Message.getMessage(TestHelper.getJordan(9, uId2, false), TestHelper.getAnswerV(11, uId2, false), 2));
+        assertEquals(0, bill.size());
+        assertEquals(0, bill.getBookVersion());
+
+        //user 1 has answer Vs and wants jordans
+        send(Message.getMessage(TestHelper.getAnswerV(11, uId1, false), TestHelper.getJordan(9, uId1, false)));
+
+        //user 2 has jordans and ultimately wants answer Vs
+        bill = send(Message.getMessage(TestHelper.getJordan(9, uId2, false), TestHelper.getAnswerV(11, uId2, false), 2));
+        assertEquals(2, bill.size());
+        assertEquals(uId2, bill.get(0).getUserId());
+        assertEquals(uId1, bill.get(1).getUserId());
+        assertEquals(1, bill.getBookVersion());
+
+        //swaps are still matched on the shards and carry no version
+        bill = send(Message.getMessage(TestHelper.getJordan(9, uId2, false), TestHelper.getAnswerV(11, uId2, false)));
+        assertEquals(2, bill.size());
+        assertEquals(-1, bill.getBookVersion());
+    }
+
+    /**
+     * Test: goals and swaps sent at the same time from several threads all get their bill, goals never wait on the
+     * shards
+     */
+    @Test
+    public void concurrentQueryTest() throws Exception {
+        final int messages = 500;
+        final List<CompletableFuture<Bill>> goals = new ArrayList<CompletableFuture<Bill>>();
+        final List<CompletableFuture<Bill>> swaps = new ArrayList<CompletableFuture<Bill>>();
+
+        Thread goalSender = new Thread(new Runnable() {
+            public void run() {
+                for(int i = 0; i < messages; i++) {
+                    UUID uId = UUID.randomUUID();
+                    goals.add(core.submit(Message.getMessage(TestHelper.getJordan(9, uId, false), TestHelper.getAnswerV(11, uId, false), 3)));
+                }
+            }
+        });
+        goalSender.start();
+
+        for(int i = 0; i < messages; i++) {
+            UUID uId = UUID.randomUUID();
+            int size = (i % 14) + 1;
+            swaps.add(core.submit(Message.getMessage(TestHelper.getAnswerV(size, uId, false), TestHelper.getJordan(size, uId, false))));
+        }
+        goalSender.join();
+
+        long last = -1;
+        for(CompletableFuture<Bill> goal : goals) {
+            Bill bill = goal.get(5, TimeUnit.SECONDS);
+            assertTrue(bill.getBookVersion() >= 0);
+            assertTrue(bill.getBookVersion() <= messages);
+            last = Math.max(last, bill.getBookVersion());
+        }
+        for(CompletableFuture<Bill> swap : swaps) {
+            swap.get(5, TimeUnit.SECONDS);
+        }
+        assertTrue(last >= 0);
+    }
+
+    /**
+     * Test: a view only copies the books that changed since the view before it, and searching it for models or makes
+     * without books finds nothing and adds nothing to it
+     */
+    @Test
+    public void viewTest() throws Exception {
+        MessageManager manager = new MessageManager();
+        UUID uId1 = UUID.randomUUID();
+        UUID uId2 = UUID.randomUUID();
+        manager.processMessage(Message.getMessage(TestHelper.getAnswerV(11, uId1, false), TestHelper.getJordan(9, uId1, false)));
+        manager.processMessage(Message.getMessage(TestHelper.getAirMax(12, uId1, false), TestHelper.getRose(9, uId1, false)));
+
+        Map<Make, ModelManager> first = views(manager);
+        BookView view = manager.getBookView(first, manager.getVersion());
+        Make nike = TestHelper.getJordan(9, uId1, false).getModel().getMake();
+        Make reebok = TestHelper.getAnswerV(11, uId1, false).getModel().getMake();
+        int makes = first.size();
+        int nikeBooks = first.get(nike).getBookstore().size();
+
+        //air force ones never rested and adidas has no books at all
+        assertNull(view.processGoal(Message.getMessage(TestHelper.getJordan(9, uId2, false), TestHelper.getAirforceOne(8, uId2, false), 2)));
+        assertNull(view.processGoal(Message.getMessage(TestHelper.getAirMax(12, uId2, false), TestHelper.getRose(8, uId2, false), 2)));
+        assertEquals(makes, first.size());
+        assertEquals(nikeBooks, first.get(nike).getBookstore().size());
+        assertEquals(2, view.processGoal(Message.getMessage(TestHelper.getJordan(9, uId2, false), TestHelper.getAnswerV(11, uId2, false), 2)).size());
+
+        //only the answer V book moved, the nike books are shared with the first view
+        manager.processMessage(Message.getMessage(TestHelper.getAnswerV(10, uId2, false), TestHelper.getJordan(8, uId2, false)));
+        Map<Make, ModelManager> second = views(manager);
+        Model answerV = TestHelper.getAnswerV(11, uId1, false).getModel();
+        Model airMax = TestHelper.getAirMax(12, uId1, false).getModel();
+        assertNotSame(first.get(reebok).getBookstore().get(answerV), second.get(reebok).getBookstore().get(answerV));
+        assertSame(first.get(nike).getBookstore().get(airMax), second.get(nike).getBookstore().get(airMax));
+    }
+
+    /**
+     * copies the books of every make for a view
+     * @param manager
+     *      manager of the books
+     * @return
+     *      copies of the books by make
+     */
+    private Map<Make, ModelManager> views(MessageManager manager) {
+        Map<Make, ModelManager> views = new HashMap<Make, ModelManager>();
+        for(Make make : manager.getMakes()) {
+            views.put(make, manager.getView(make));
+        }
+        return views;
+    }
+
+    /**
+     * sends a message to the core and waits for its bill
+     * @param message
+     *      message to send
+     * @return
+     *      the bill for the message
+     */
+    private Bill send(Message message) throws Exception {
+        return core.submit(message).get(5, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,216 @@
+package apollo.trade.swap.blackbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import apollo.common.engine.Bill;
+import apollo.common.engine.Message;
+import apollo.common.shoe.ShoeSwap;
+import apollo.common.util.TestHelper;
+import apollo.trade.swap.service.EngineCore;
+import apollo.trade.swap.service.EngineCore.QUEUE_TYPE;
+
+/**
+ * Tests a core that is sharded by make. Same make, cross make and goal messages have to give the same bills as the
+ * single threaded core
+ */
+public class ShardedCoreTest {
+    //amount of shards in the core under test
+    private final int shards = 4;
+
+    //core under test
+    private EngineCore core = null;
+
+    @Before
+    public void setUp() throws Exception {
+        core = new EngineCore(null, QUEUE_TYPE.MULTI_PRODUCER, shards);
+        new Thread(core).start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        core.stop();
+        while(core.state() != EngineCore.CORE_STATE.DEAD) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Test: a swap is filled by a resting swap of the same make
+     */
+    @Test
+    public void sameMakeFillTest() throws Exception {
+        assertEquals(shards, core.shards());
+
+        UUID uId1 = UUID.randomUUID();
+        UUID uId2 = UUID.randomUUID();
+
+        Bill bill = send(Message.getMessage(TestHelper.getJordan(10, uId1, false), TestHelper.getAirMax(12, uId1, false)));
+        assertEquals(0, bill.size());
+
+        bill = send(Message.getMessage(TestHelper.getAirMax(12, uId2, false), TestHelper.getJordan(10, uId2, false)));
+        assertEquals(2, bill.size());
+        assertEquals(uId1, bill.get(1).getUserId());
+    }
+
+    /**
+     * Test: a swap is filled by a resting swap of a different make which may live on a different shard
+     */
+    @Test
+    public void crossMakeFillTest() throws Exception {
+        UUID uId1 = UUID.randomUUID();
+        UUID uId2 = UUID.randomUUID();
+
+        Bill bill = send(Message.getMessage(TestHelper.getJordan(13, uId1, false), TestHelper.getAnswerV(10, uId1, false)));
+        assertEquals(0, bill.size());
+
+        bill = send(Message.getMessage(TestHelper.getAnswerV(10, uId2, false), TestHelper.getJordan(13, uId2, false)));
+        assertEquals(2, bill.size());
+
+        ShoeSwap match = (ShoeSwap) bill.get(1);
+        assertEquals(uId1, match.getUserId());
+        assertTrue(match.isMatched());
+    }
+
+    /**
+     * Test: a goal search walks across makes that belong to different shards
+     */
+    @Test
+    public void crossMakeGoalTest() throws Exception {
+        UUID uId1 = UUID.randomUUID();
+        UUID uId2 = UUID.randomUUID();
+
+        //user 1 has answer Vs and wants jordans
+        send(Message.getMessage(TestHelper.getAnswerV(11, uId1, false), TestHelper.getJordan(9, uId1, false)));
+
+        //user 2 has jordans and ultimately wants answer Vs
+        Bill bill = send(Message.getMessage(TestHelper.getJordan(9, uId2, false), TestHelper.getAnswerV(11, uId2, false), 2));
+
+        assertEquals(2, bill.size());
+        assertEquals(uId2, bill.get(0).getUserId());
+        assertEquals(uId1, bill.get(1).getUserId());
+    }
+
+    /**
+     * Test: producers for every make send matching swaps at the same time and every swap gets filled exactly once
+     */
+    @Test
+    public void concurrentMakesTest() throws Exception {
+        final int pairs = 500;
+        Thread[] producers = new Thread[] {
+                new Thread(new PairProducer(pairs, true)),
+                new Thread(new PairProducer(pairs, false))
+        };
+
+        for(Thread producer : producers) {
+            producer.start();
+        }
+
+        int filled = 0;
+        Set<UUID> ids = new HashSet<UUID>();
+        for(int i = 0; i < pairs * 2 * producers.length; i++) {
+            Bill bill = core.nextBill();
+            assertNotNull(bill);
+            assertTrue(ids.add(bill.getId()));
+            if(bill.size() == 2) {
+                filled++;
+            }
+        }
+
+        for(Thread producer : producers) {
+            producer.join();
+        }
+        assertEquals(pairs * producers.length, filled);
+    }
+
+    /**
+     * Test: a batch spread over every shard is accepted in order and every bill lands on the bill queue
+     */
+    @Test
+    public void inputBatchTest() throws Exception {
+        List<Message> batch = new ArrayList<Message>();
+        for(int i = 0; i < 200; i++) {
+            UUID uId1 = UUID.randomUUID();
+            UUID uId2 = UUID.randomUUID();
+            int size = (i % 14) + 1;
+            batch.add(Message.getMessage(TestHelper.getJordan(size, uId1, false), TestHelper.getRose(size, uId1, false)));
+            batch.add(Message.getMessage(TestHelper.getRose(size, uId2, false), TestHelper.getJordan(size, uId2, false)));
+        }
+
+        List<UUID> ids = core.inputBatch(batch);
+        assertEquals(batch.size(), ids.size());
+        for(int i = 0; i < batch.size(); i++) {
+            assertEquals(batch.get(i).getId(), ids.get(i));
+        }
+
+        int filled = 0;
+        Set<UUID> billIds = new HashSet<UUID>();
+        for(int i = 0; i < batch.size(); i++) {
+            Bill bill = core.nextBill();
+            assertTrue(billIds.add(bill.getId()));
+            if(bill.size() == 2) {
+                filled++;
+            }
+        }
+        assertEquals(batch.size() / 2, filled);
+    }
+
+    /**
+     * sends a message to the core and waits for its bill. bills for other messages are dropped
+     * @param message
+     *      message to send
+     * @return
+     *      the bill for the message
+     */
+    private Bill send(Message message) {
+        UUID id = core.input(message);
+        assertNotNull(id);
+
+        Bill bill = core.nextBill();
+        while(!bill.getId().equals(id)) {
+            bill = core.nextBill();
+        }
+        return bill;
+    }
+
+    /**
+     * sends pairs of swaps that fill each other, all within one make
+     */
+    private class PairProducer implements Runnable {
+        private final int pairs;
+        private final boolean nike;
+
+        private PairProducer(int pairs, boolean nike) {
+            this.pairs = pairs;
+            this.nike = nike;
+        }
+
+        public void run() {
+            for(int i = 0; i < pairs; i++) {
+                UUID uId1 = UUID.randomUUID();
+                UUID uId2 = UUID.randomUUID();
+                int size = (i % 14) + 1;
+
+                if(nike) {
+                    core.input(Message.getMessage(TestHelper.getJordan(size, uId1, false), TestHelper.getAirMax(size, uId1, false)));
+                    core.input(Message.getMessage(TestHelper.getAirMax(size, uId2, false), TestHelper.getJordan(size, uId2, false)));
+                }
+                else {
+                    core.input(Message.getMessage(TestHelper.getAnswerV(size, uId1, false), TestHelper.getRose(size, uId1, false)));
+                    core.input(Message.getMessage(TestHelper.getRose(size, uId2, false), TestHelper.getAnswerV(size, uId2, false)));
+                }
+            }
+        }
+    }
+}
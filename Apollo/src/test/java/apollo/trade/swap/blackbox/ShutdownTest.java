@@ -0,0 +1,169 @@
+package apollo.trade.swap.blackbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import apollo.common.engine.Bill;
+import apollo.common.engine.Message;
+import apollo.common.util.TestHelper;
+import apollo.trade.swap.service.ApolloEngine;
+import apollo.trade.swap.service.EngineCore;
+import apollo.trade.swap.service.EngineCore.QUEUE_TYPE;
+
+/**
+ * Tests the shutdown path: termination is signalled instead of polled, the drain is bounded by its deadline and the
+ * bills left on the bill queue are handed over in one go
+ */
+public class ShutdownTest {
+
+    /**
+     * Test: a stopped core signals its termination and every bill waiting on the bill queue is drained at once
+     */
+    @Test
+    public void terminationTest() throws Exception {
+        EngineCore core = new EngineCore(null);
+        new Thread(core).start();
+        assertFalse(core.awaitTermination(10, TimeUnit.MILLISECONDS));
+
+        for(int i = 0; i < 10; i++) {
+            assertNotNull(core.input(Message.getMessage(TestHelper.getJordan(10, UUID.randomUUID(), false))));
+        }
+        assertTrue(core.stop());
+        assertTrue(core.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(EngineCore.CORE_STATE.DEAD, core.state());
+        assertTrue(core.getTermination().toCompletableFuture().isDone());
+
+        List<Bill> bills = new ArrayList<Bill>();
+        assertEquals(10, core.drainBills(bills));
+        assertEquals(10, bills.size());
+        assertEquals(0, core.drainBills(bills));
+    }
+
+    /**
+     * Test: messages still queued after the drain deadline are not processed and their waiters are told so
+     */
+    @Test
+    public void drainDeadlineTest() throws Exception {
+        EngineCore core = new EngineCore(null);
+
+        //the kill is queued ahead of the messages so all of them are left for the drain
+        assertTrue(core.stop(0, TimeUnit.MILLISECONDS));
+        List<CompletableFuture<Bill>> futures = new ArrayList<CompletableFuture<Bill>>();
+        for(int i = 0; i < 3; i++) {
+            futures.add(core.submit(Message.getMessage(TestHelper.getJordan(10, UUID.randomUUID(), false))));
+        }
+
+        new Thread(core).start();
+        assertTrue(core.awaitTermination(5, TimeUnit.SECONDS));
+
+        for(CompletableFuture<Bill> future : futures) {
+            assertTrue(future.isCompletedExceptionally());
+            try {
+                future.get();
+            }
+            catch(ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+    }
+
+    /**
+     * Test: producers that keep submitting while the core stops either get their message refused or get a bill, no
+     * accepted message is left on a queue nobody takes from
+     */
+    @Test
+    public void stopRaceTest() throws Exception {
+        stopRace(QUEUE_TYPE.MULTI_PRODUCER);
+    }
+
+    /**
+     * Test: the same race on a single producer core, whose inbound queue still takes the producers and the kill
+     * offering at the same time
+     */
+    @Test
+    public void singleProducerStopRaceTest() throws Exception {
+        stopRace(QUEUE_TYPE.SINGLE_PRODUCER);
+    }
+
+    /**
+     * stops cores while four producers keep submitting and checks every accepted message got its bill
+     * @param queueType
+     *      type of the core's queues
+     */
+    private void stopRace(QUEUE_TYPE queueType) throws Exception {
+        for(int round = 0; round < 20; round++) {
+            final EngineCore core = new EngineCore(null, queueType);
+            new Thread(core).start();
+
+            final List<CompletableFuture<Bill>> futures = Collections.synchronizedList(new ArrayList<CompletableFuture<Bill>>());
+            List<Thread> producers = new ArrayList<Thread>();
+            for(int p = 0; p < 4; p++) {
+                Thread producer = new Thread(new Runnable() {
+                    public void run() {
+                        for(int i = 0; i < 500; i++) {
+                            futures.add(core.submit(Message.getMessage(TestHelper.getJordan(10, UUID.randomUUID(), false))));
+                        }
+                    }
+                });
+                producer.start();
+                producers.add(producer);
+            }
+
+            Thread.sleep(1);
+            core.stop();
+            for(Thread producer : producers) {
+                producer.join();
+            }
+            assertTrue(core.awaitTermination(5, TimeUnit.SECONDS));
+
+            for(CompletableFuture<Bill> future : futures) {
+                try {
+                    assertNotNull(future.get(5, TimeUnit.SECONDS));
+                }
+                catch(ExecutionException e) {
+                    assertTrue(e.getCause() instanceof IllegalStateException);
+                }
+            }
+        }
+    }
+
+    /**
+     * Test: stopping an engine hands the unread bills to its bill store and a restart does not wait on any time out
+     */
+    @Test
+    public void restartTest() throws Exception {
+        ApolloEngine engine = new ApolloEngine("restart");
+        engine.start();
+        while(!engine.running()) {
+            Thread.yield();
+        }
+
+        Message message = Message.getMessage(TestHelper.getJordan(10, UUID.randomUUID(), false));
+        UUID id = engine.send(message);
+        assertNotNull(id);
+
+        long start = System.nanoTime();
+        engine.stop();
+        engine.start();
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("restart took " + millis + "ms", millis < 1000);
+
+        Bill bill = engine.getBill(id);
+        assertNotNull(bill);
+        assertEquals(id, bill.getId());
+
+        engine.stop();
+    }
+}
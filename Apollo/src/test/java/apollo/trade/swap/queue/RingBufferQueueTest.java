@@ -0,0 +1,112 @@
+package apollo.trade.swap.queue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import apollo.trade.swap.service.EngineCore;
+import apollo.trade.swap.service.EngineCore.WAIT_TYPE;
+
+/**
+ * Tests the ring buffer queue: batch inserts and handing elements between threads with every wait strategy
+ */
+public class RingBufferQueueTest {
+
+    /**
+     * Test: a batch takes every free slot it can and the rest goes in once space frees up
+     */
+    @Test
+    public void offerBatchTest() throws Exception {
+        RingBufferQueue<Integer> queue = new RingBufferQueue<Integer>(4, true);
+        List<Integer> batch = new ArrayList<Integer>();
+        for(int i = 0; i < 6; i++) {
+            batch.add(i);
+        }
+
+        assertEquals(4, queue.offerBatch(batch, 0));
+        assertEquals(0, queue.offerBatch(batch, 4));
+        assertFalse(queue.offer(99));
+
+        assertEquals(Integer.valueOf(0), queue.poll());
+        assertEquals(Integer.valueOf(1), queue.poll());
+        assertEquals(2, queue.offerBatch(batch, 4));
+
+        for(int i = 2; i < 6; i++) {
+            assertEquals(Integer.valueOf(i), queue.poll());
+        }
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    /**
+     * Test: a batch with a null in it is refused before any slot is claimed, so the queue keeps working
+     */
+    @Test
+    public void nullBatchTest() throws Exception {
+        RingBufferQueue<Integer> queue = new RingBufferQueue<Integer>(4, true);
+        List<Integer> batch = new ArrayList<Integer>();
+        batch.add(1);
+        batch.add(null);
+        batch.add(3);
+
+        try {
+            queue.offerBatch(batch, 0);
+            assertTrue(false);
+        }
+        catch(NullPointerException e) {
+            assertTrue(queue.isEmpty());
+        }
+        try {
+            queue.putAll(batch);
+            assertTrue(false);
+        }
+        catch(NullPointerException e) {
+            assertTrue(queue.isEmpty());
+        }
+
+        assertTrue(queue.offer(7));
+        assertEquals(Integer.valueOf(7), queue.poll());
+        assertNull(queue.poll());
+    }
+
+    /**
+     * Test: a producer pushes more elements than the buffer holds through it with every wait strategy, so both the
+     * producer and the consumer have to wait
+     */
+    @Test
+    public void waitStrategyTest() throws Exception {
+        final int elements = 10000;
+
+        for(WAIT_TYPE type : WAIT_TYPE.values()) {
+            final RingBufferQueue<Integer> queue = new RingBufferQueue<Integer>(16, false,
+                    EngineCore.createWaitStrategy(type));
+
+            Thread producer = new Thread(new Runnable() {
+                public void run() {
+                    List<Integer> batch = new ArrayList<Integer>();
+                    for(int i = 0; i < elements; i++) {
+                        batch.add(i);
+                        if(batch.size() == 10) {
+                            queue.putAll(batch);
+                            batch.clear();
+                        }
+                    }
+                }
+            });
+            producer.start();
+
+            for(int i = 0; i < elements; i++) {
+                assertEquals(type.toString(), Integer.valueOf(i), queue.poll(5, TimeUnit.SECONDS));
+            }
+            producer.join();
+            assertTrue(queue.isEmpty());
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package apollo.trade.swap.replay;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import apollo.common.engine.Bill;
+import apollo.common.engine.Message;
+import apollo.common.util.TestHelper;
+import apollo.trade.swap.manager.MessageManager;
+import apollo.trade.swap.service.EngineConfig;
+import apollo.trade.swap.service.EngineCore;
+import apollo.trade.swap.store.MessageCapture;
+
+/**
+ * Tests capturing the messages a core accepts and replaying them into a fresh manager
+ */
+public class CaptureReplayerTest {
+    //capture file used by the tests
+    private File file = null;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("apollo-capture", ".cap");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+    /**
+     * Test: every accepted message is captured, goals included, and two replays of the capture give the same bills
+     * and books as the core did
+     */
+    @Test
+    public void captureReplayTest() throws Exception {
+        EngineConfig config = new EngineConfig();
+        config.setCaptureFile(file);
+        EngineCore core = new EngineCore(null, config);
+        new Thread(core).start();
+
+        UUID uId1 = UUID.randomUUID();
+        UUID uId2 = UUID.randomUUID();
+        UUID uId3 = UUID.randomUUID();
+        List<Bill> bills = new ArrayList<Bill>();
+        bills.add(core.submit(Message.getMessage(TestHelper.getAnswerV(11, uId1, false), TestHelper.getJordan(9, uId1, false))).get(5, TimeUnit.SECONDS));
+        bills.add(core.submit(Message.getMessage(TestHelper.getJordan(9, uId2, false), TestHelper.getAnswerV(11, uId2, false), 2)).get(5, TimeUnit.SECONDS));
+        bills.add(core.submit(Message.getMessage(TestHelper.getJordan(10, uId3, false), TestHelper.getAirMax(12, uId3, false))).get(5, TimeUnit.SECONDS));
+        core.inputBatch(batch());
+        core.stop();
+        assertTrue(core.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(2, bills.get(1).size());
+
+        List<Message> captured = MessageCapture.read(file);
+        assertEquals(13, captured.size());
+        assertEquals(Message.GOAL, captured.get(1).getType());
+        assertEquals(bills.get(1).getId(), captured.get(1).getId());
+
+        ReplayReport first = new CaptureReplayer(file).replay();
+        ReplayReport second = new CaptureReplayer(file).replay();
+        assertEquals(13, first.getMessages());
+        assertEquals(12, first.getLatency(Message.SWAP).getCount());
+        assertEquals(1, first.getLatency(Message.GOAL).getCount());
+        assertEquals(first.getBillDigest(), second.getBillDigest());
+        assertEquals(first.getBookDigest(), second.getBookDigest());
+        assertNotEquals(0, first.getBookDigest());
+
+        //the books without the last batch are different
+        MessageManager manager = new MessageManager();
+        ReplayReport partial = CaptureReplayer.replay(MessageCapture.read(file).subList(0, 3), manager);
+        assertNotEquals(first.getBookDigest(), partial.getBookDigest());
+    }
+
+    /**
+     * Test: percentiles are within a sixteenth of the recorded values
+     */
+    @Test
+    public void histogramTest() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for(int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500500, histogram.getMean());
+        assertEquals(1000000, histogram.getMax());
+        assertTrue(Math.abs(histogram.getPercentile(50) - 500000) <= 500000 / 16);
+        assertTrue(Math.abs(histogram.getPercentile(99) - 990000) <= 990000 / 16);
+        assertEquals(1000000, histogram.getPercentile(100));
+    }
+
+    /**
+     * ten resting swaps sent as one batch
+     * @return
+     *      the batch
+     */
+    private List<Message> batch() {
+        List<Message> batch = new ArrayList<Message>();
+        for(int i = 0; i < 10; i++) {
+            UUID uId = UUID.randomUUID();
+            batch.add(Message.getMessage(TestHelper.getJordan(4 + i, uId, false), TestHelper.getAirMax(13, uId, false)));
+        }
+        return batch;
+    }
+}
@@ -0,0 +1,118 @@
+package apollo.trade.swap.replica;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import apollo.common.engine.Bill;
+import apollo.common.engine.Message;
+import apollo.common.util.TestHelper;
+import apollo.trade.swap.service.EngineConfig;
+import apollo.trade.swap.service.EngineCore;
+
+/**
+ * Tests a replica following a primary core over a loopback socket and taking over once promoted
+ */
+public class ReplicaTest {
+
+    /**
+     * Test: a replica connected after the first order gets it in its image, follows the orders and fills after it and
+     * fills like the primary once promoted, on one and on several shards
+     */
+    @Test
+    public void promoteTest() throws Exception {
+        for(int shards : new int[] {1, 4}) {
+            EngineConfig config = new EngineConfig();
+            config.setShards(shards);
+            config.setReplicationPort(0);
+            EngineCore primary = new EngineCore(null, config);
+            new Thread(primary).start();
+
+            UUID uId1 = UUID.randomUUID();
+            primary.submit(Message.getMessage(TestHelper.getJordan(10, uId1, false), TestHelper.getAirMax(12, uId1, false))).get(5, TimeUnit.SECONDS);
+
+            ReplicaEngine replica = new ReplicaEngine("127.0.0.1", primary.getReplicationPort());
+            replica.connect();
+            new Thread(replica).start();
+            assertTrue(replica.awaitReady(5, TimeUnit.SECONDS));
+            assertEquals(1, replica.getSequence());
+
+            UUID uId2 = UUID.randomUUID();
+            UUID uId3 = UUID.randomUUID();
+            primary.submit(Message.getMessage(TestHelper.getJordan(10, uId2, false), TestHelper.getAirMax(12, uId2, false))).get(5, TimeUnit.SECONDS);
+            primary.submit(Message.getMessage(TestHelper.getJordan(10, uId3, false), TestHelper.getAirMax(12, uId3, false))).get(5, TimeUnit.SECONDS);
+            UUID uId = UUID.randomUUID();
+            Bill bill = primary.submit(Message.getMessage(TestHelper.getAirMax(12, uId, false), TestHelper.getJordan(10, uId, false))).get(5, TimeUnit.SECONDS);
+            assertEquals(uId1, bill.get(1).getUserId());
+
+            //goals do not change the books and are not streamed
+            primary.submit(Message.getMessage(TestHelper.getAirMax(12, uId, false), TestHelper.getJordan(10, uId, false), 2)).get(5, TimeUnit.SECONDS);
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while((replica.getSequence() < 4 || primary.getReplicationLag() > 0) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(4, replica.getSequence());
+            assertEquals(0, replica.getLag());
+            assertEquals(0, primary.getReplicationLag());
+
+            primary.stop();
+            assertTrue(primary.awaitTermination(5, TimeUnit.SECONDS));
+
+            EngineConfig standby = new EngineConfig();
+            standby.setShards(shards);
+            EngineCore promoted = replica.promote(standby);
+            assertTrue(!replica.isConnected());
+            new Thread(promoted).start();
+
+            for(UUID rested : new UUID[] {uId2, uId3}) {
+                uId = UUID.randomUUID();
+                bill = promoted.submit(Message.getMessage(TestHelper.getAirMax(12, uId, false), TestHelper.getJordan(10, uId, false))).get(5, TimeUnit.SECONDS);
+                assertEquals(2, bill.size());
+                assertEquals(rested, bill.get(1).getUserId());
+            }
+            uId = UUID.randomUUID();
+            assertEquals(0, promoted.submit(Message.getMessage(TestHelper.getAirMax(12, uId, false), TestHelper.getJordan(10, uId, false))).get(5, TimeUnit.SECONDS).size());
+            promoted.stop();
+            assertTrue(promoted.awaitTermination(5, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * Test: a flush of the primary empties the books of the replica
+     */
+    @Test
+    public void flushTest() throws Exception {
+        EngineConfig config = new EngineConfig();
+        config.setReplicationPort(0);
+        EngineCore primary = new EngineCore(null, config);
+        new Thread(primary).start();
+
+        ReplicaEngine replica = new ReplicaEngine("127.0.0.1", primary.getReplicationPort());
+        replica.connect();
+        new Thread(replica).start();
+        assertTrue(replica.awaitReady(5, TimeUnit.SECONDS));
+
+        UUID uId1 = UUID.randomUUID();
+        primary.submit(Message.getMessage(TestHelper.getJordan(10, uId1, false), TestHelper.getAirMax(12, uId1, false))).get(5, TimeUnit.SECONDS);
+        long deadline = System.currentTimeMillis() + 5000;
+        while(replica.digest() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(replica.digest() != 0);
+
+        assertTrue(primary.flush());
+        deadline = System.currentTimeMillis() + 5000;
+        while(replica.getSequence() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(0, replica.digest());
+
+        primary.stop();
+        assertTrue(primary.awaitTermination(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,132 @@
+package apollo.trade.swap.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import apollo.common.engine.Bill;
+import apollo.common.shoe.ShoeSwap;
+import apollo.common.templates.Swap;
+import apollo.common.util.TestHelper;
+
+/**
+ * Tests the size and time based eviction of the bill store and reading evicted bills back from the spill file
+ */
+public class BillStoreTest {
+    //spill file used by the tests
+    private File file = null;
+    private BillSpillFile spillFile = null;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("apollo-bills", ".spill");
+        spillFile = new BillSpillFile(file);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        spillFile.close();
+        file.delete();
+    }
+
+    /**
+     * Test: the oldest bills are evicted once the store is full
+     */
+    @Test
+    public void sizeEvictionTest() throws Exception {
+        BillStore store = new BillStore(2, BillStore.DEFAULT_TIME_TO_LIVE, null);
+
+        Bill first = bill(0);
+        Bill second = bill(0);
+        Bill third = bill(0);
+        store.put(first);
+        store.put(second);
+        store.put(third);
+
+        assertEquals(2, store.size());
+        assertEquals(1, store.getSizeEvictions());
+        assertNull(store.remove(first.getId()));
+        assertEquals(second, store.remove(second.getId()).get());
+        assertEquals(third, store.remove(third.getId()).get());
+    }
+
+    /**
+     * Test: bills older than the time to live are evicted
+     */
+    @Test
+    public void expiryTest() throws Exception {
+        BillStore store = new BillStore(10, 5, null);
+
+        Bill bill = bill(0);
+        store.put(bill);
+        Thread.sleep(20);
+        store.evictExpired();
+
+        assertEquals(0, store.size());
+        assertEquals(1, store.getExpiredEvictions());
+        assertNull(store.remove(bill.getId()));
+    }
+
+    /**
+     * Test: evicted bills are spilled and can still be read, including bills that were not created when evicted
+     */
+    @Test
+    public void spillTest() throws Exception {
+        BillStore store = new BillStore(1, BillStore.DEFAULT_TIME_TO_LIVE, spillFile);
+
+        Bill bill = bill(2);
+        CompletableFuture<Bill> pending = new CompletableFuture<Bill>();
+        Bill late = bill(0);
+
+        store.put(bill);
+        store.put(late.getId(), pending);
+        store.put(bill(0));
+
+        //first two were evicted, the pending one spills once its bill exists
+        assertEquals(2, store.getSizeEvictions());
+        assertEquals(1, store.getSpilledBills());
+        pending.complete(late);
+        assertEquals(2, store.getSpilledBills());
+
+        Bill spilled = store.remove(bill.getId()).get();
+        assertNotNull(spilled);
+        assertEquals(bill.getId(), spilled.getId());
+        assertEquals(2, spilled.size());
+
+        ShoeSwap swap = (ShoeSwap) spilled.get(1);
+        ShoeSwap original = (ShoeSwap) bill.get(1);
+        assertEquals(original.getModel(), swap.getModel());
+        assertEquals(original.getSize(), swap.getSize());
+        assertEquals(original.getUserId(), swap.getUserId());
+        assertEquals(original.getMatchId(), swap.getMatchId());
+        assertTrue(swap.isMatched());
+
+        assertEquals(late.getId(), store.remove(late.getId()).get().getId());
+        assertEquals(2, store.getSpillHits());
+    }
+
+    /**
+     * creates a bill with a matched chain of the length passed in
+     */
+    private Bill bill(int length) {
+        List<Swap> chain = new ArrayList<Swap>();
+        UUID matchId = UUID.randomUUID();
+        for(int i = 0; i < length; i++) {
+            ShoeSwap swap = TestHelper.getJordan(10 + i, UUID.randomUUID(), false);
+            swap.setMatchId(matchId);
+            chain.add(swap);
+        }
+        return new Bill(chain, UUID.randomUUID(), null);
+    }
+}
@@ -0,0 +1,190 @@
+package apollo.trade.swap.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import apollo.common.engine.Bill;
+import apollo.common.engine.BookSnapshot;
+import apollo.common.engine.Message;
+import apollo.common.templates.Swap;
+import apollo.common.util.TestHelper;
+import apollo.trade.swap.manager.Checkpoint;
+import apollo.trade.swap.manager.MessageManager;
+
+/**
+ * Tests writing a book snapshot to disk and loading it back into a manager that matches like the original
+ */
+public class BookSnapshotFileTest {
+    //snapshot file used by the tests
+    private File file = null;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("apollo-books", ".snap");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+    /**
+     * Test: a loaded snapshot has the same resting orders in the same order with their for sale flags and cross make
+     * asks. Bids filled by a grab are left behind
+     */
+    @Test
+    public void writeReadTest() throws Exception {
+        MessageManager original = new MessageManager();
+        List<UUID> users = new ArrayList<UUID>();
+        for(int i = 0; i < 6; i++) {
+            UUID uId = UUID.randomUUID();
+            users.add(uId);
+            original.processMessage(Message.getMessage(TestHelper.getJordan(10, uId, i % 2 == 0), TestHelper.getAirMax(12, uId, false)));
+        }
+
+        //the first jordan for sale is grabbed and stays behind in the maps as a filled bid
+        assertEquals(1, original.processMessage(Message.getMessage(TestHelper.getJordan(10, UUID.randomUUID(), false))).size());
+
+        assertEquals(5, BookSnapshotFile.write(original.getBookSnapshot(), file));
+        MessageManager loaded = new MessageManager(BookSnapshotFile.read(file));
+        assertEquals(original.digest(), loaded.digest());
+
+        //a cross make swap rests on both makes, the snapshot keeps the book of its own make
+        UUID cross = UUID.randomUUID();
+        original.processMessage(Message.getMessage(TestHelper.getAnswerV(11, cross, false), TestHelper.getJordan(9, cross, false)));
+        assertEquals(6, BookSnapshotFile.write(original.getBookSnapshot(), file));
+        BookSnapshot snapshot = BookSnapshotFile.read(file);
+        loaded = new MessageManager(snapshot);
+
+        //the next fills come out in the order the bids rested
+        for(int i = 1; i < 4; i++) {
+            UUID uId = UUID.randomUUID();
+            Bill bill = loaded.processMessage(Message.getMessage(TestHelper.getAirMax(12, uId, false), TestHelper.getJordan(10, uId, false)));
+            assertEquals(2, bill.size());
+            assertEquals(users.get(i), bill.get(1).getUserId());
+        }
+
+        //grabs take the remaining jordan for sale
+        Bill grab = loaded.processMessage(Message.getMessage(TestHelper.getJordan(10, UUID.randomUUID(), false)));
+        assertEquals(1, grab.size());
+        assertEquals(users.get(4), grab.get(0).getUserId());
+
+        //cross make ask pairs are restored
+        UUID uId = UUID.randomUUID();
+        Bill bill = loaded.processMessage(Message.getMessage(TestHelper.getJordan(9, uId, false), TestHelper.getAnswerV(11, uId, false)));
+        assertEquals(2, bill.size());
+        assertEquals(cross, bill.get(1).getUserId());
+    }
+
+    /**
+     * Test: a checkpoint written after the books moved on loads the books as they were when it was taken, both for a
+     * book written to before the checkpoint was written and for a book that was not touched
+     */
+    @Test
+    public void checkpointTest() throws Exception {
+        MessageManager original = new MessageManager();
+        UUID uId1 = UUID.randomUUID();
+        UUID uId2 = UUID.randomUUID();
+        original.processMessage(Message.getMessage(TestHelper.getJordan(10, uId1, true), TestHelper.getAirMax(12, uId1, false)));
+        original.processMessage(Message.getMessage(TestHelper.getAnswerV(11, uId2, false), TestHelper.getAirMax(12, uId2, false)));
+        long digest = original.digest();
+
+        Checkpoint checkpoint = original.checkpoint(7);
+        assertEquals(7, checkpoint.getSequence());
+
+        //the jordan book is grabbed from and gets a new order before the checkpoint is written
+        assertEquals(1, original.processMessage(Message.getMessage(TestHelper.getJordan(10, UUID.randomUUID(), false))).size());
+        UUID uId3 = UUID.randomUUID();
+        original.processMessage(Message.getMessage(TestHelper.getJordan(9, uId3, false), TestHelper.getAirMax(12, uId3, false)));
+        assertTrue(original.digest() != digest);
+
+        assertEquals(2, BookSnapshotFile.write(checkpoint, file));
+        assertEquals(7, BookSnapshotFile.getSequence(file));
+        MessageManager loaded = new MessageManager(BookSnapshotFile.read(file));
+        assertEquals(digest, loaded.digest());
+
+        //the grabbed jordan is still for sale in the checkpoint
+        Bill grab = loaded.processMessage(Message.getMessage(TestHelper.getJordan(10, UUID.randomUUID(), false)));
+        assertEquals(1, grab.size());
+        assertEquals(uId1, grab.get(0).getUserId());
+    }
+
+    /**
+     * Test: resting orders keep their order ids through a snapshot file, so a loaded manager can still cancel them
+     */
+    @Test
+    public void orderIdTest() throws Exception {
+        MessageManager original = new MessageManager();
+        UUID uId = UUID.randomUUID();
+        Message order = Message.getMessage(TestHelper.getJordan(10, uId, true), TestHelper.getAirMax(12, uId, false));
+        original.processMessage(order);
+        original.processMessage(Message.getMessage(TestHelper.getAnswerV(11, uId, false), TestHelper.getAirMax(12, uId, false)));
+
+        assertEquals(2, BookSnapshotFile.write(original.getBookSnapshot(), file));
+        MessageManager loaded = new MessageManager(BookSnapshotFile.read(file));
+        assertEquals(2, loaded.getOrderCount());
+
+        Bill cancel = loaded.processMessage(Message.getCancelMessage(order.getId(), TestHelper.getJordan(10, uId, false)));
+        assertEquals(1, cancel.size());
+        assertEquals(order.getId(), cancel.get(0).getOrderId());
+        assertEquals(0, loaded.processMessage(Message.getMessage(TestHelper.getJordan(10, UUID.randomUUID(), false))).size());
+    }
+
+    /**
+     * Test: resting orders keep their good till times through a snapshot file, so they still expire once loaded
+     */
+    @Test
+    public void goodTillTest() throws Exception {
+        MessageManager original = new MessageManager();
+        UUID uId = UUID.randomUUID();
+        Swap bid = TestHelper.getJordan(10, uId, false);
+        bid.setGoodTill(5000);
+        Message order = Message.getMessage(bid, TestHelper.getAirMax(12, uId, false));
+        original.processMessage(order);
+        original.processMessage(Message.getMessage(TestHelper.getAnswerV(11, uId, false), TestHelper.getAirMax(12, uId, false)));
+
+        assertEquals(2, BookSnapshotFile.write(original.getBookSnapshot(), file));
+        MessageManager loaded = new MessageManager(BookSnapshotFile.read(file));
+        assertTrue(loaded.hasExpiries());
+        assertTrue(!loaded.hasExpired(4999));
+
+        Bill expiry = loaded.processMessage(Message.getExpireMessage(5000));
+        assertTrue(expiry.isExpiry());
+        assertEquals(1, expiry.size());
+        assertEquals(order.getId(), expiry.get(0).getOrderId());
+        assertEquals(5000, expiry.get(0).getGoodTill());
+        assertEquals(1, loaded.getOrderCount());
+    }
+
+    /**
+     * Test: an empty snapshot writes and loads, anything that is not a snapshot is refused
+     */
+    @Test
+    public void emptyTest() throws Exception {
+        assertEquals(0, BookSnapshotFile.write((BookSnapshot) null, file));
+        assertTrue(BookSnapshotFile.read(file).isEmpty());
+
+        File wrong = File.createTempFile("apollo-books", ".snap");
+        try {
+            MessageCapture capture = new MessageCapture(wrong);
+            capture.close();
+            BookSnapshotFile.read(wrong);
+            assertTrue(false);
+        }
+        catch(java.io.IOException e) {
+            assertTrue(e.getMessage().contains("not a book snapshot"));
+        }
+        finally {
+            wrong.delete();
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package apollo.trade.swap.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import apollo.common.engine.Bill;
+import apollo.common.engine.Message;
+import apollo.common.util.TestHelper;
+import apollo.trade.swap.manager.Checkpoint;
+import apollo.trade.swap.manager.MessageManager;
+import apollo.trade.swap.service.EngineConfig;
+import apollo.trade.swap.service.EngineCore;
+
+/**
+ * Tests appending messages to the journal, rolling segments, stopping at torn records and recovering a core's books
+ */
+public class MessageJournalTest {
+    //directory of the journal under test
+    private File directory = null;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("apollo-journal", "");
+        assertTrue(directory.delete());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] segments = directory.listFiles();
+        if(segments != null) {
+            for(File segment : segments) {
+                segment.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Test: a resting swap replayed into a new manager is filled by a matching swap, goals are not journaled
+     */
+    @Test
+    public void appendReplayTest() throws Exception {
+        UUID uId1 = UUID.randomUUID();
+        UUID uId2 = UUID.randomUUID();
+
+        MessageJournal journal = new MessageJournal(directory);
+        assertEquals(0, journal.append(Message.getMessage(TestHelper.getJordan(10, uId1, false), TestHelper.getAirMax(12, uId1, false))));
+        assertEquals(-1, journal.append(Message.getMessage(TestHelper.getJordan(9, uId2, false), TestHelper.getAnswerV(11, uId2, false), 2)));
+        assertEquals(1, journal.getSequence());
+        journal.close();
+
+        journal = new MessageJournal(directory);
+        assertEquals(1, journal.getSequence());
+        MessageManager manager = new MessageManager();
+        assertEquals(1, journal.replay(manager));
+        journal.close();
+
+        Bill bill = manager.processMessage(Message.getMessage(TestHelper.getAirMax(12, uId2, false), TestHelper.getJordan(10, uId2, false)));
+        assertEquals(2, bill.size());
+        assertEquals(uId1, bill.get(1).getUserId());
+    }
+
+    /**
+     * Test: small segments roll over, a reopened journal keeps counting and replays every segment in order
+     */
+    @Test
+    public void rollTest() throws Exception {
+        MessageJournal journal = new MessageJournal(directory, 256, false);
+        List<Message> batch = new ArrayList<Message>();
+        for(int i = 0; i < 20; i++) {
+            UUID uId = UUID.randomUUID();
+            batch.add(Message.getMessage(TestHelper.getJordan(4 + (i % 10), uId, false), TestHelper.getAirMax(12, uId, false)));
+        }
+        batch.add(Message.getMessage(UUID.randomUUID()));
+        batch.add(Message.getMessage(TestHelper.getJordan(4, UUID.randomUUID(), false)));
+
+        //everything after the kill is left out
+        assertEquals(20, journal.append(batch));
+        journal.close();
+        assertTrue(directory.listFiles().length > 1);
+
+        journal = new MessageJournal(directory, 256, false);
+        assertEquals(20, journal.getSequence());
+        UUID uId = UUID.randomUUID();
+        assertEquals(20, journal.append(Message.getMessage(TestHelper.getJordan(4, uId, false), TestHelper.getAirMax(12, uId, false))));
+        assertEquals(21, journal.replay(new MessageManager()));
+
+        //a cleared journal keeps counting
+        journal.clear();
+        assertEquals(0, directory.listFiles().length);
+        assertEquals(21, journal.append(Message.getMessage(TestHelper.getJordan(4, uId, false), TestHelper.getAirMax(12, uId, false))));
+        journal.close();
+    }
+
+    /**
+     * Test: a record with a bad checksum ends the replay and new records are appended over it
+     */
+    @Test
+    public void tornTest() throws Exception {
+        MessageJournal journal = new MessageJournal(directory);
+        for(int i = 0; i < 2; i++) {
+            UUID uId = UUID.randomUUID();
+            journal.append(Message.getMessage(TestHelper.getJordan(10, uId, false), TestHelper.getAirMax(12, uId, false)));
+        }
+        journal.close();
+
+        //flip a payload byte of the second record
+        File segment = directory.listFiles()[0];
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        int second = 16 + file.readInt();
+        file.seek(second + 16);
+        int value = file.read();
+        file.seek(second + 16);
+        file.write(value ^ 0xFF);
+        file.close();
+
+        journal = new MessageJournal(directory);
+        assertEquals(1, journal.getSequence());
+        assertEquals(1, journal.replay(new MessageManager()));
+
+        UUID uId = UUID.randomUUID();
+        assertEquals(1, journal.append(Message.getMessage(TestHelper.getJordan(10, uId, false), TestHelper.getAirMax(12, uId, false))));
+        assertEquals(2, journal.replay(new MessageManager()));
+        journal.close();
+    }
+
+    /**
+     * Test: a core started in recovery mode has the books of the core that wrote the journal, on one and on several
+     * shards
+     */
+    @Test
+    public void recoverTest() throws Exception {
+        for(int shards : new int[] {1, 4}) {
+            UUID uId1 = UUID.randomUUID();
+            UUID uId2 = UUID.randomUUID();
+
+            EngineCore core = start(shards, false);
+            assertEquals(0, core.submit(Message.getMessage(TestHelper.getJordan(10, uId1, false), TestHelper.getAirMax(12, uId1, false))).get(5, TimeUnit.SECONDS).size());
+            core.stop();
+            assertTrue(core.awaitTermination(5, TimeUnit.SECONDS));
+
+            core = start(shards, true);
+            Bill bill = core.submit(Message.getMessage(TestHelper.getAirMax(12, uId2, false), TestHelper.getJordan(10, uId2, false))).get(5, TimeUnit.SECONDS);
+            assertEquals(2, bill.size());
+            assertEquals(uId1, bill.get(1).getUserId());
+            core.stop();
+            assertTrue(core.awaitTermination(5, TimeUnit.SECONDS));
+
+            tearDown();
+        }
+    }
+
+    /**
+     * Test: a core recovering from a checkpoint and the journal after it has the orders from before and after the
+     * checkpoint exactly once, on one and on several shards
+     */
+    @Test
+    public void checkpointRecoverTest() throws Exception {
+        for(int shards : new int[] {1, 4}) {
+            File checkpointFile = new File(directory, "books.snap");
+            UUID uId1 = UUID.randomUUID();
+            UUID uId2 = UUID.randomUUID();
+
+            EngineCore core = start(shards, false, checkpointFile, 0);
+            core.submit(Message.getMessage(TestHelper.getJordan(10, uId1, false), TestHelper.getAirMax(12, uId1, false))).get(5, TimeUnit.SECONDS);
+            Checkpoint checkpoint = core.checkpoint().get(5, TimeUnit.SECONDS);
+            assertEquals(1, checkpoint.getSequence());
+            assertTrue(checkpointFile.isFile());
+            core.submit(Message.getMessage(TestHelper.getJordan(10, uId2, false), TestHelper.getAirMax(12, uId2, false))).get(5, TimeUnit.SECONDS);
+            core.stop();
+            assertTrue(core.awaitTermination(5, TimeUnit.SECONDS));
+
+            core = start(shards, true, checkpointFile, 0);
+            for(UUID rested : new UUID[] {uId1, uId2}) {
+                UUID uId = UUID.randomUUID();
+                Bill bill = core.submit(Message.getMessage(TestHelper.getAirMax(12, uId, false), TestHelper.getJordan(10, uId, false))).get(5, TimeUnit.SECONDS);
+                assertEquals(2, bill.size());
+                assertEquals(rested, bill.get(1).getUserId());
+            }
+
+            //the order from before the checkpoint was not replayed a second time
+            UUID uId = UUID.randomUUID();
+            assertEquals(0, core.submit(Message.getMessage(TestHelper.getAirMax(12, uId, false), TestHelper.getJordan(10, uId, false))).get(5, TimeUnit.SECONDS).size());
+            core.stop();
+            assertTrue(core.awaitTermination(5, TimeUnit.SECONDS));
+
+            tearDown();
+        }
+    }
+
+    /**
+     * Test: a core taking a delta checkpoint after each order compacts the deltas into the checkpoint file and
+     * recovers every order exactly once from the checkpoint, the deltas after it and the journal
+     */
+    @Test
+    public void deltaRecoverTest() throws Exception {
+        File checkpointFile = new File(directory, "books.snap");
+        List<UUID> users = new ArrayList<UUID>();
+
+        EngineCore core = start(1, false, checkpointFile, 2);
+        for(int i = 0; i < 5; i++) {
+            UUID uId = UUID.randomUUID();
+            users.add(uId);
+            core.submit(Message.getMessage(TestHelper.getJordan(10, uId, false), TestHelper.getAirMax(12, uId, false))).get(5, TimeUnit.SECONDS);
+            Checkpoint checkpoint = core.checkpoint().get(5, TimeUnit.SECONDS);
+            assertEquals(i > 0, checkpoint.isDelta());
+
+            //the second delta is compacted into the checkpoint file
+            assertEquals(i % 2, SnapshotCompactor.getDeltas(checkpointFile).size());
+        }
+        UUID last = UUID.randomUUID();
+        users.add(last);
+        core.submit(Message.getMessage(TestHelper.getJordan(10, last, false), TestHelper.getAirMax(12, last, false))).get(5, TimeUnit.SECONDS);
+        core.stop();
+        assertTrue(core.awaitTermination(5, TimeUnit.SECONDS));
+
+        core = start(1, true, checkpointFile, 2);
+        for(UUID rested : users) {
+            UUID uId = UUID.randomUUID();
+            Bill bill = core.submit(Message.getMessage(TestHelper.getAirMax(12, uId, false), TestHelper.getJordan(10, uId, false))).get(5, TimeUnit.SECONDS);
+            assertEquals(2, bill.size());
+            assertEquals(rested, bill.get(1).getUserId());
+        }
+        UUID uId = UUID.randomUUID();
+        assertEquals(0, core.submit(Message.getMessage(TestHelper.getAirMax(12, uId, false), TestHelper.getJordan(10, uId, false))).get(5, TimeUnit.SECONDS).size());
+        core.stop();
+        assertTrue(core.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * starts a core journaling to the test directory
+     * @param shards
+     *      amount of shards
+     * @param recover
+     *      true to rebuild the books from the journal
+     * @return
+     *      the running core
+     */
+    private EngineCore start(int shards, boolean recover) {
+        return start(shards, recover, null, 0);
+    }
+
+    /**
+     * starts a core journaling to the test directory with checkpoints
+     * @param shards
+     *      amount of shards
+     * @param recover
+     *      true to rebuild the books from the checkpoint and the journal
+     * @param checkpointFile
+     *      file checkpoints are written to. null for no checkpoints
+     * @param checkpointDeltas
+     *      delta checkpoints per full checkpoint
+     * @return
+     *      the running core
+     */
+    private EngineCore start(int shards, boolean recover, File checkpointFile, int checkpointDeltas) {
+        EngineConfig config = new EngineConfig();
+        config.setCheckpointFile(checkpointFile);
+        config.setCheckpointDeltas(checkpointDeltas);
+        config.setShards(shards);
+        config.setJournalDirectory(directory);
+        config.setRecover(recover);
+
+        EngineCore core = new EngineCore(null, config);
+        new Thread(core).start();
+        return core;
+    }
+}
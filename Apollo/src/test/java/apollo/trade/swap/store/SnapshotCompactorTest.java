@@ -0,0 +1,122 @@
+package apollo.trade.swap.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import apollo.common.engine.Message;
+import apollo.common.util.TestHelper;
+import apollo.trade.swap.manager.Checkpoint;
+import apollo.trade.swap.manager.MessageManager;
+
+/**
+ * Tests delta checkpoints of the changed books and merging them onto their full checkpoint
+ */
+public class SnapshotCompactorTest {
+    //full checkpoint file the deltas are written next to
+    private File base = null;
+
+    @Before
+    public void setUp() throws Exception {
+        base = File.createTempFile("apollo-books", ".snap");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for(File delta : SnapshotCompactor.getDeltas(base)) {
+            delta.delete();
+        }
+        base.delete();
+    }
+
+    /**
+     * Test: a delta only has the book that got an order and the book that was emptied, the base and the delta load and
+     * compact into the books as they are now
+     */
+    @Test
+    public void deltaTest() throws Exception {
+        MessageManager manager = new MessageManager();
+        UUID uId1 = UUID.randomUUID();
+        UUID uId2 = UUID.randomUUID();
+        UUID uId3 = UUID.randomUUID();
+        manager.processMessage(Message.getMessage(TestHelper.getJordan(10, uId1, false), TestHelper.getAirMax(12, uId1, false)));
+        manager.processMessage(Message.getMessage(TestHelper.getAnswerV(11, uId2, false), TestHelper.getRose(9, uId2, false)));
+        manager.processMessage(Message.getMessage(TestHelper.getAirMax(12, uId3, false), TestHelper.getJordan(8, uId3, false)));
+
+        Checkpoint full = manager.checkpoint(3, true);
+        assertTrue(!full.isDelta());
+        assertEquals(3, full.getImages().size());
+        assertEquals(3, BookSnapshotFile.write(full, base));
+
+        //a new jordan rests and the answer v is filled, the air max book is not touched
+        UUID uId4 = UUID.randomUUID();
+        manager.processMessage(Message.getMessage(TestHelper.getJordan(8, uId4, false), TestHelper.getAirforceOne(10, uId4, false)));
+        UUID uId5 = UUID.randomUUID();
+        assertEquals(2, manager.processMessage(Message.getMessage(TestHelper.getRose(9, uId5, false), TestHelper.getAnswerV(11, uId5, false))).size());
+
+        Checkpoint delta = manager.checkpoint(5, true);
+        assertTrue(delta.isDelta());
+        assertEquals(full.getVersion(), delta.getBaseVersion());
+        assertEquals(2, delta.getImages().size());
+        File deltaFile = SnapshotCompactor.getDeltaFile(base, 1);
+        assertEquals(2, BookSnapshotFile.write(delta, deltaFile));
+
+        //a delta cannot be loaded without its base
+        try {
+            BookSnapshotFile.read(deltaFile);
+            assertTrue(false);
+        }
+        catch (IOException e) {
+            //expected
+        }
+
+        List<File> deltas = SnapshotCompactor.getDeltas(base);
+        assertEquals(1, deltas.size());
+        assertEquals(5, SnapshotCompactor.getSequence(base, deltas));
+        assertEquals(manager.digest(), new MessageManager(SnapshotCompactor.load(base, deltas)).digest());
+
+        File compacted = File.createTempFile("apollo-books", ".snap");
+        try {
+            assertEquals(3, SnapshotCompactor.compact(base, deltas, compacted));
+            assertEquals(5, BookSnapshotFile.getSequence(compacted));
+            assertEquals(manager.digest(), new MessageManager(BookSnapshotFile.read(compacted)).digest());
+        }
+        finally {
+            compacted.delete();
+        }
+
+        //nothing changed since the delta
+        assertEquals(0, manager.checkpoint(6, true).getImages().size());
+    }
+
+    /**
+     * Test: a delta left over from before the last full checkpoint is not part of its chain and is ignored
+     */
+    @Test
+    public void chainTest() throws Exception {
+        MessageManager manager = new MessageManager();
+        List<UUID> users = new ArrayList<UUID>();
+        for(int i = 0; i < 3; i++) {
+            UUID uId = UUID.randomUUID();
+            users.add(uId);
+            manager.processMessage(Message.getMessage(TestHelper.getJordan(10, uId, false), TestHelper.getAirMax(12, uId, false)));
+            Checkpoint checkpoint = manager.checkpoint(i, i == 1);
+            BookSnapshotFile.write(checkpoint, checkpoint.isDelta() ? SnapshotCompactor.getDeltaFile(base, 1) : base);
+        }
+
+        List<File> deltas = SnapshotCompactor.getDeltas(base);
+        assertEquals(1, deltas.size());
+        assertEquals(2, SnapshotCompactor.getSequence(base, deltas));
+        MessageManager loaded = new MessageManager(SnapshotCompactor.load(base, deltas));
+        assertEquals(manager.digest(), loaded.digest());
+    }
+}